@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import simpledb.common.Type;
+import simpledb.execution.Aggregator;
+import simpledb.execution.IntegerAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+/**
+ * Compares grouped SUM and AVG over INT fields in IntegerAggregator with the String keyed ConcurrentHashMaps it used
+ * before, which turned every group key and value into a String and back. Tuples are generated in memory and cycled
+ * through, so that only the aggregation is measured.
+ * <p>
+ * Usage, after ant benchcompile: java -Xmx4g -cp bin/src:bin/bench simpledb.AggregateBenchmark [rows] [groups,...] [iterations]
+ * <br>
+ * The defaults are 10M rows, 100 and 100K groups and 5 measured iterations after 2 warm-up iterations.
+ */
+public class AggregateBenchmark {
+    private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE});
+    private static final int POOL_SIZE = 1 << 20;
+
+    public static void main(String[] args) {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 10000000L;
+        String[] groups = args.length > 1 ? args[1].split(",") : new String[]{"100", "100000"};
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        for (String g : groups) {
+            int distinctKeys = Integer.parseInt(g);
+            Tuple[] pool = tuples(new Random(distinctKeys), (int) Math.min(rows, POOL_SIZE), distinctKeys);
+
+            System.out.printf("rows %d, groups %d%n", rows, distinctKeys);
+            for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.AVG}) {
+                run(op + " String keys", rows, iterations, () -> stringAggregate(pool, rows, op));
+                run(op + " IntegerAggregator", rows, iterations, () -> integerAggregate(pool, rows, op));
+            }
+        }
+    }
+
+    private static Tuple[] tuples(Random r, int rows, int distinctKeys) {
+        Tuple[] tuples = new Tuple[rows];
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(r.nextInt(Math.max(distinctKeys, 1))));
+            t.setField(1, new IntField(r.nextInt(1000)));
+            tuples[i] = t;
+        }
+        return tuples;
+    }
+
+    private interface Aggregation {
+        long run();
+    }
+
+    private static void run(String name, long rows, int iterations, Aggregation aggregation) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        boolean allocation = bean instanceof com.sun.management.ThreadMXBean;
+        long best = Long.MAX_VALUE;
+        long allocated = 0;
+        long checksum = 0;
+        for (int i = -2; i < iterations; i++) {
+            System.gc();
+            long allocatedBefore = allocation ? ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes() : 0;
+            long start = System.nanoTime();
+            checksum = aggregation.run();
+            long nanos = System.nanoTime() - start;
+            // the first two iterations only warm up the JIT
+            if (i >= 0) {
+                best = Math.min(best, nanos);
+                if (allocation) {
+                    allocated = ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes() - allocatedBefore;
+                }
+            }
+        }
+        System.out.printf("  %-26s %8.1f ms  %8.1f M rows/s  %14d checksum  %8.1f MB allocated%n", name, best / 1e6,
+                rows * 1e3 / best, checksum, allocated / 1048576.0);
+    }
+
+    /** The merge loop of the String keyed IntegerAggregator this class replaced. */
+    private static long stringAggregate(Tuple[] pool, long rows, Aggregator.Op op) {
+        Map<String, Integer> result = new ConcurrentHashMap<>();
+        Map<String, Integer> sums = new ConcurrentHashMap<>();
+        Map<String, Integer> counts = new ConcurrentHashMap<>();
+        for (long i = 0; i < rows; i++) {
+            Tuple t = pool[(int) (i % pool.length)];
+            String key = t.getField(0).toString();
+            int value = Integer.parseInt(t.getField(1).toString());
+            if (op == Aggregator.Op.SUM) {
+                result.put(key, result.getOrDefault(key, 0) + value);
+            } else {
+                sums.put(key, sums.getOrDefault(key, 0) + value);
+                counts.put(key, counts.getOrDefault(key, 0) + 1);
+                result.put(key, sums.get(key) / counts.get(key));
+            }
+        }
+        long checksum = 0;
+        for (int v : result.values()) {
+            checksum += v;
+        }
+        return checksum;
+    }
+
+    private static long integerAggregate(Tuple[] pool, long rows, Aggregator.Op op) {
+        IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+        for (long i = 0; i < rows; i++) {
+            agg.mergeTupleIntoGroup(pool[(int) (i % pool.length)]);
+        }
+        long checksum = 0;
+        try {
+            OpIterator it = agg.iterator();
+            it.open();
+            while (it.hasNext()) {
+                checksum += ((IntField) it.next().getField(1)).getValue();
+            }
+            it.close();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return checksum;
+    }
+}
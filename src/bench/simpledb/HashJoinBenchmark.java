@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import simpledb.common.Type;
+import simpledb.execution.IntHashTable;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+/**
+ * Compares the build and probe phases of HashEquiJoin's two hash tables on INT keys: the HashMap of boxed Fields to
+ * lists of tuples used for other key types, and the IntHashTable used for INT keys. Tuples are generated in memory so
+ * that only the hash tables are measured.
+ * <p>
+ * Usage, after ant benchcompile: java -Xmx4g -cp bin/src:bin/bench simpledb.HashJoinBenchmark [buildRows,...] [probeRows] [iterations]
+ * <br>
+ * The defaults are 1M and 10M build rows, 1M probe rows and 5 measured iterations after 2 warm-up iterations.
+ */
+public class HashJoinBenchmark {
+    private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE});
+
+    public static void main(String[] args) {
+        String[] sizes = args.length > 0 ? args[0].split(",") : new String[]{"1000000", "10000000"};
+        int probeRows = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        for (String size : sizes) {
+            int buildRows = Integer.parseInt(size);
+            // about two build rows per distinct key, like a foreign key join
+            Random r = new Random(buildRows);
+            Tuple[] build = tuples(r, buildRows, buildRows / 2);
+            Tuple[] probe = tuples(r, probeRows, buildRows / 2);
+
+            System.out.printf("build rows %d, probe rows %d%n", buildRows, probeRows);
+            run("HashMap<Field, List<Tuple>>", iterations, () -> hashMapJoin(build, probe));
+            run("IntHashTable", iterations, () -> intHashTableJoin(build, probe));
+        }
+    }
+
+    private static Tuple[] tuples(Random r, int rows, int distinctKeys) {
+        Tuple[] tuples = new Tuple[rows];
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(r.nextInt(Math.max(distinctKeys, 1))));
+            tuples[i] = t;
+        }
+        return tuples;
+    }
+
+    private interface Join {
+        long run();
+    }
+
+    private static void run(String name, int iterations, Join join) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        boolean allocation = bean instanceof com.sun.management.ThreadMXBean;
+        long best = Long.MAX_VALUE;
+        long allocated = 0;
+        long matches = 0;
+        for (int i = -2; i < iterations; i++) {
+            System.gc();
+            long allocatedBefore = allocation ? ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes() : 0;
+            long start = System.nanoTime();
+            matches = join.run();
+            long nanos = System.nanoTime() - start;
+            // the first two iterations only warm up the JIT
+            if (i >= 0) {
+                best = Math.min(best, nanos);
+                if (allocation) {
+                    allocated = ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes() - allocatedBefore;
+                }
+            }
+        }
+        System.out.printf("  %-28s %8.1f ms  %10d matches  %8.1f MB allocated%n", name, best / 1e6, matches,
+                allocated / 1048576.0);
+    }
+
+    /** The build and probe loops of HashEquiJoin for non-INT keys. */
+    private static long hashMapJoin(Tuple[] build, Tuple[] probe) {
+        Map<Object, List<Tuple>> map = new HashMap<>();
+        for (Tuple t : build) {
+            map.computeIfAbsent(t.getField(0), k -> new ArrayList<>()).add(t);
+        }
+        long matches = 0;
+        for (Tuple t : probe) {
+            List<Tuple> l = map.get(t.getField(0));
+            if (l != null) {
+                for (Tuple ignored : l) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /** The build and probe loops of HashEquiJoin for INT keys. */
+    private static long intHashTableJoin(Tuple[] build, Tuple[] probe) {
+        IntHashTable table = new IntHashTable(build.length);
+        for (int i = 0; i < build.length; i++) {
+            table.add(((IntField) build[i].getField(0)).getValue(), i);
+        }
+        long matches = 0;
+        for (Tuple t : probe) {
+            for (int row = table.first(((IntField) t.getField(0)).getValue()); row != IntHashTable.NO_ROW; row = table.next(row)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.BatchToRow;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.VectorAggregate;
+import simpledb.execution.VectorFilter;
+import simpledb.execution.VectorSeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares a scan-filter-aggregate query, SELECT c0, SUM(c1) FROM t WHERE c1 &lt; 500 GROUP BY c0, run by the
+ * row-at-a-time operators and by the vectorized ones. The table is generated into a temporary heap file and the
+ * buffer pool is sized to hold all of it, so that after the warm-up iterations only the operators are measured.
+ * <p>
+ * Usage, after ant benchcompile: java -Xmx4g -cp bin/src:bin/bench simpledb.VectorBenchmark [rows] [groups] [iterations]
+ * <br>
+ * The defaults are 2M rows, 1000 groups and 5 measured iterations after 2 warm-up iterations.
+ */
+public class VectorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int groups = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        HeapFile table = createTable(rows, groups);
+        Database.resetBufferPool(table.numPages() + BufferPool.DEFAULT_PAGES);
+        Predicate filter = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+
+        System.out.printf("rows %d, groups %d, pages %d%n", rows, groups, table.numPages());
+        run("Aggregate(Filter(SeqScan))", rows, iterations, tid ->
+                new Aggregate(new Filter(filter, new SeqScan(tid, table.getId(), "")), 1, 0, Aggregator.Op.SUM));
+        run("VectorAggregate(VectorFilter(VectorSeqScan))", rows, iterations, tid ->
+                new BatchToRow(new VectorAggregate(new VectorFilter(filter,
+                        new VectorSeqScan(tid, table.getId(), "")), 1, 0, Aggregator.Op.SUM)));
+        table.getFile().delete();
+    }
+
+    private static HeapFile createTable(int rows, int groups) throws IOException {
+        Random r = new Random(rows);
+        List<List<Integer>> tuples = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            tuples.add(Arrays.asList(r.nextInt(groups), r.nextInt(1000)));
+        }
+        File f = File.createTempFile("vector", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "vector_benchmark");
+        return table;
+    }
+
+    private interface Plan {
+        OpIterator build(TransactionId tid);
+    }
+
+    private static void run(String name, int rows, int iterations, Plan plan) throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        boolean allocation = bean instanceof com.sun.management.ThreadMXBean;
+        long best = Long.MAX_VALUE;
+        long allocated = 0;
+        long checksum = 0;
+        for (int i = -2; i < iterations; i++) {
+            System.gc();
+            TransactionId tid = new TransactionId();
+            long allocatedBefore = allocation ? ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes() : 0;
+            long start = System.nanoTime();
+            OpIterator it = plan.build(tid);
+            checksum = 0;
+            it.open();
+            while (it.hasNext()) {
+                checksum += ((IntField) it.next().getField(1)).getValue();
+            }
+            it.close();
+            long nanos = System.nanoTime() - start;
+            Database.getBufferPool().transactionComplete(tid);
+            // the first two iterations only warm up the JIT and the buffer pool
+            if (i >= 0) {
+                best = Math.min(best, nanos);
+                if (allocation) {
+                    allocated = ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes() - allocatedBefore;
+                }
+            }
+        }
+        System.out.printf("  %-46s %8.1f ms  %8.1f M rows/s  %12d checksum  %8.1f MB allocated%n", name, best / 1e6,
+                rows * 1e3 / best, checksum, allocated / 1048576.0);
+    }
+}
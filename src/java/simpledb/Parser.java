@@ -5,16 +5,23 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
 import jline.SimpleCompletor;
+import simpledb.common.CatalogFile;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.LogicalFilterNode;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
@@ -61,8 +68,15 @@ public class Parser {
 
             }
         } else if (wx.getOperator().equals("OR")) {
-            throw new simpledb.ParsingException(
-                    "OR expressions currently unsupported.");
+            List<List<LogicalFilterNode>> alternatives = new ArrayList<>();
+            addAlternatives(wx, lp, alternatives);
+            lp.addDisjunction(alternatives);
+        } else if (wx.getOperator().equals("IN")) {
+            lp.addInFilter(inColumn(wx), inValues(wx));
+        } else if (wx.getOperator().equals("NOT IN")) {
+            for (String value : inValues(wx)) {
+                lp.addFilter(inColumn(wx), Predicate.Op.NOT_EQUALS, value);
+            }
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -137,6 +151,99 @@ public class Parser {
 
     }
 
+    /**
+     * Adds the alternatives of a disjunction in a WHERE clause, each of which
+     * is a conjunction of filters of the form field op constant.
+     */
+    private void addAlternatives(ZExp e, LogicalPlan lp, List<List<LogicalFilterNode>> alternatives)
+            throws simpledb.ParsingException {
+        if (!(e instanceof ZExpression)) {
+            throw new simpledb.ParsingException(
+                    "Nested queries are currently unsupported.");
+        }
+        ZExpression wx = (ZExpression) e;
+        if (wx.getOperator().equals("OR")) {
+            for (int i = 0; i < wx.nbOperands(); i++) {
+                addAlternatives(wx.getOperand(i), lp, alternatives);
+            }
+        } else if (wx.getOperator().equals("IN")) {
+            for (String value : inValues(wx)) {
+                alternatives.add(Collections.singletonList(
+                        lp.newFilter(inColumn(wx), Predicate.Op.EQUALS, value)));
+            }
+        } else {
+            List<LogicalFilterNode> conjunction = new ArrayList<>();
+            addConjuncts(wx, lp, conjunction);
+            alternatives.add(conjunction);
+        }
+    }
+
+    private void addConjuncts(ZExpression wx, LogicalPlan lp, List<LogicalFilterNode> conjunction)
+            throws simpledb.ParsingException {
+        if (wx.getOperator().equals("AND")) {
+            for (int i = 0; i < wx.nbOperands(); i++) {
+                if (!(wx.getOperand(i) instanceof ZExpression)) {
+                    throw new simpledb.ParsingException(
+                            "Nested queries are currently unsupported.");
+                }
+                addConjuncts((ZExpression) wx.getOperand(i), lp, conjunction);
+            }
+        } else if (wx.getOperator().equals("NOT IN")) {
+            for (String value : inValues(wx)) {
+                conjunction.add(lp.newFilter(inColumn(wx), Predicate.Op.NOT_EQUALS, value));
+            }
+        } else if (wx.getOperator().equals("OR") || wx.getOperator().equals("IN")) {
+            throw new simpledb.ParsingException(
+                    "Only disjunctions of conjunctions are currently supported, not " + wx);
+        } else {
+            @SuppressWarnings("unchecked")
+            List<ZExp> ops = wx.getOperands();
+            if (ops.size() != 2 || !(ops.get(0) instanceof ZConstant) || !(ops.get(1) instanceof ZConstant)) {
+                throw new simpledb.ParsingException(
+                        "Only filters of the form field op constant are currently supported in OR expressions.");
+            }
+            ZConstant op1 = (ZConstant) ops.get(0);
+            ZConstant op2 = (ZConstant) ops.get(1);
+            if ((op1.getType() == ZConstant.COLUMNNAME) == (op2.getType() == ZConstant.COLUMNNAME)) {
+                throw new simpledb.ParsingException(
+                        "Only filters of the form field op constant are currently supported in OR expressions.");
+            }
+            Predicate.Op op = getOp(wx.getOperator());
+            if (op1.getType() == ZConstant.COLUMNNAME) {
+                conjunction.add(lp.newFilter(op1.getValue(), op, op2.getValue()));
+            } else {
+                conjunction.add(lp.newFilter(op2.getValue(), op, op1.getValue()));
+            }
+        }
+    }
+
+    /**
+     * @return the field of an expression of the form field [NOT] IN (c1, c2, ...)
+     */
+    private static String inColumn(ZExpression wx) throws simpledb.ParsingException {
+        ZExp field = wx.getOperand(0);
+        if (!(field instanceof ZConstant) || ((ZConstant) field).getType() != ZConstant.COLUMNNAME) {
+            throw new simpledb.ParsingException("IN lists must follow a field, not " + field);
+        }
+        return ((ZConstant) field).getValue();
+    }
+
+    /**
+     * @return the constants of an expression of the form field [NOT] IN (c1, c2, ...)
+     */
+    private static List<String> inValues(ZExpression wx) throws simpledb.ParsingException {
+        List<String> values = new ArrayList<>();
+        for (int i = 1; i < wx.nbOperands(); i++) {
+            ZExp value = wx.getOperand(i);
+            if (!(value instanceof ZConstant) || ((ZConstant) value).getType() == ZConstant.COLUMNNAME) {
+                throw new simpledb.ParsingException(
+                        "Only lists of constants are currently supported in IN expressions, not " + value);
+            }
+            values.add(((ZConstant) value).getValue());
+        }
+        return values;
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
@@ -277,6 +384,110 @@ public class Parser {
 
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
+    /** The LIMIT clause of the statement being processed, applied by handleQueryStatement */
+    private LimitClause pendingLimit = null;
+
+    /**
+     * A trailing LIMIT n [OFFSET m] clause, which Zql doesn't parse: it is cut
+     * off the statement text before the rest goes to Zql, and added to the
+     * logical plan of the query afterwards.
+     */
+    static class LimitClause {
+        private static final Pattern PATTERN = Pattern.compile(
+                "(?is)^(.*\\S)\\s+limit\\s+(\\d+)(?:\\s+offset\\s+(\\d+))?\\s*(;?)\\s*$");
+
+        /** The statement without the clause */
+        final String statement;
+        final int limit;
+        final int offset;
+
+        private LimitClause(String statement, int limit, int offset) {
+            this.statement = statement;
+            this.limit = limit;
+            this.offset = offset;
+        }
+
+        /**
+         * @return the clause at the end of a statement, or null if it has none
+         * @throws simpledb.ParsingException if a number doesn't fit into an int
+         */
+        static LimitClause parse(String s) throws simpledb.ParsingException {
+            Matcher m = PATTERN.matcher(s);
+            if (!m.matches())
+                return null;
+            try {
+                int offset = m.group(3) == null ? 0 : Integer.parseInt(m.group(3));
+                return new LimitClause(m.group(1) + m.group(4), Integer.parseInt(m.group(2)), offset);
+            } catch (NumberFormatException e) {
+                throw new simpledb.ParsingException("LIMIT or OFFSET out of range: " + e.getMessage());
+            }
+        }
+
+        void addTo(LogicalPlan lp) throws simpledb.ParsingException {
+            lp.addLimit(limit, offset);
+        }
+    }
+
+    /**
+     * A CREATE INDEX name ON table (field) statement, which Zql doesn't
+     * parse: it is recognized before the statement text goes to Zql.
+     */
+    static class CreateIndexStatement {
+        private static final Pattern PATTERN = Pattern.compile(
+                "(?is)^\\s*create\\s+index\\s+(\\w+)\\s+on\\s+(\\w+)\\s*\\(\\s*([\\w.]+)\\s*\\)\\s*;?\\s*$");
+
+        final String name;
+        final String table;
+        final String field;
+
+        private CreateIndexStatement(String name, String table, String field) {
+            this.name = name;
+            this.table = table;
+            this.field = field;
+        }
+
+        /**
+         * @return the statement, or null if s isn't a CREATE INDEX statement
+         */
+        static CreateIndexStatement parse(String s) {
+            Matcher m = PATTERN.matcher(s);
+            if (!m.matches())
+                return null;
+            return new CreateIndexStatement(m.group(1), m.group(2), m.group(3));
+        }
+    }
+
+    /**
+     * Builds a secondary index over a field of a heap file table from its
+     * current tuples, and adds it to the catalog. The index is stored next
+     * to the table's file.
+     */
+    public void handleCreateIndexStatement(CreateIndexStatement s, TransactionId tid)
+            throws simpledb.ParsingException, IOException, DbException,
+            simpledb.transaction.TransactionAbortedException {
+        int tableId;
+        int field;
+        try {
+            tableId = Database.getCatalog().getTableId(s.table);
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(s.field);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table or field " + s.table + "." + s.field);
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile))
+            throw new simpledb.ParsingException("Only heap file tables can have secondary indexes");
+
+        File indexFile = new File(((HeapFile) file).getFile().getPath() + "." + s.name + ".idx");
+        SecondaryIndex index;
+        try {
+            index = SecondaryIndex.create(tid, s.name, tableId, field, indexFile);
+            Database.getCatalog().addIndex(index);
+        } catch (IllegalArgumentException e) {
+            throw new simpledb.ParsingException(e.getMessage());
+        }
+        System.out.println("Created index " + s.name + " on " + s.table + "("
+                + s.field + ") with " + index.getDistinctKeys() + " distinct keys.");
+    }
 
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
@@ -284,6 +495,10 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (pendingLimit != null) {
+            pendingLimit.addTo(lp);
+            pendingLimit = null;
+        }
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -361,7 +576,7 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (!td.getFieldType(i).isString()) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
@@ -465,12 +680,19 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
+        s = readStatement(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
+        LimitClause limitClause = LimitClause.parse(s);
+        if (limitClause != null)
+            s = limitClause.statement;
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limitClause != null)
+                    limitClause.addTo(lp);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -495,8 +717,20 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            String text = readStatement(is);
+            CreateIndexStatement createIndex = CreateIndexStatement.parse(text);
+            pendingLimit = createIndex == null ? LimitClause.parse(text) : null;
+            if (pendingLimit != null)
+                text = pendingLimit.statement;
+            ZStatement s = null;
+            if (createIndex == null) {
+                ZqlParser p = new ZqlParser(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+                s = p.readStatement();
+            }
+            if (pendingLimit != null && !(s instanceof ZQuery)) {
+                pendingLimit = null;
+                throw new simpledb.ParsingException("LIMIT is only supported on SELECT statements");
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -509,7 +743,9 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (createIndex != null)
+                        handleCreateIndexStatement(createIndex, curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -564,10 +800,34 @@ public class Parser {
         }
     }
 
+    /**
+     * Reads the next statement from a stream, up to and including the first
+     * ';' outside of a quoted string, so that the clauses Zql doesn't parse
+     * are only looked for in that statement. The rest of the stream is left
+     * unread.
+     */
+    private static String readStatement(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int quote = -1;
+        int b;
+        while ((b = is.read()) != -1) {
+            out.write(b);
+            if (quote != -1) {
+                if (b == quote)
+                    quote = -1;
+            } else if (b == '\'' || b == '"') {
+                quote = b;
+            } else if (b == ';') {
+                break;
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit", "offset", "create index", "on" };
 
     public static void main(String[] argv) throws IOException {
 
@@ -591,8 +851,11 @@ public class Parser {
     protected boolean interactive = true;
 
     protected void start(String[] argv) throws IOException {
-        // first add tables to database
-        Database.getCatalog().loadSchema(argv[0]);
+        // first add tables to database, from either a binary catalog or a text schema
+        if (CatalogFile.isCatalogFile(new File(argv[0])))
+            Database.getCatalog().openCatalog(argv[0]);
+        else
+            Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
 
         String queryFile = null;
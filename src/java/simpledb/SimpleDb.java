@@ -1,4 +1,5 @@
 package simpledb;
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
@@ -75,6 +76,49 @@ public class SimpleDb {
                     it.close();
                 }
                 break;
+            case "compress":
+                try {
+                    if (args.length < 3 || args.length > 4) {
+                        System.err.println("Unexpected number of arguments to compress");
+                        return;
+                    }
+                    File heapDatFile = new File(args[1]);
+                    String outName = args[1].endsWith(".dat")
+                            ? args[1].substring(0, args[1].length() - ".dat".length()) + ".lz4"
+                            : args[1] + ".lz4";
+                    File compressedDatFile = new File(outName);
+                    int cols = Integer.parseInt(args[2]);
+                    int groupSize = args.length >= 4 ? Integer.parseInt(args[3]) : CompressedHeapFile.DEFAULT_GROUP_SIZE;
+
+                    CompressedHeapFile.convert(heapDatFile, compressedDatFile, groupSize);
+                    HeapFile plain = Utility.openHeapFile(cols, heapDatFile);
+                    CompressedHeapFile compressed = new CompressedHeapFile(compressedDatFile, plain.getTupleDesc());
+                    Database.getCatalog().addTable(compressed, compressedDatFile.getName());
+
+                    System.out.printf("compressed %d pages into %d bytes, ratio %.2f%n", compressed.numPages(),
+                            compressed.getCompressedSize(), compressed.getCompressionRatio());
+                    long bytes = (long) compressed.numPages() * BufferPool.getPageSize();
+                    System.out.printf("heap file scan: %.1f MB/s%n", scanMBPerSecond(plain, bytes));
+                    System.out.printf("compressed file scan: %.1f MB/s (%.1f MB/s spent decompressing)%n",
+                            scanMBPerSecond(compressed, bytes),
+                            compressed.getBytesDecompressed() / 1048576.0 / (compressed.getDecompressNanos() / 1e9));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                break;
+            case "catalog":
+                // convert a text schema into a binary catalog with stable table ids
+                try {
+                    if (args.length != 3) {
+                        System.err.println("Unexpected number of arguments to catalog");
+                        return;
+                    }
+                    Database.getCatalog().loadSchema(args[1]);
+                    Database.getCatalog().writeCatalog(args[2]);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                break;
             case "parser":
                 // Strip the first argument and call the parser
                 String[] newargs = new String[args.length - 1];
@@ -101,4 +145,23 @@ public class SimpleDb {
         }
     }
 
+    /**
+     * Scans every tuple of f through the buffer pool and returns the scan throughput in MB of (uncompressed) pages per
+     * second. The buffer pool is reset first so that pages are read from the file.
+     */
+    private static double scanMBPerSecond(DbFile f, long bytes) throws DbException, TransactionAbortedException {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        long start = System.nanoTime();
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        return bytes / 1048576.0 / (elapsed / 1e9);
+    }
+
 }
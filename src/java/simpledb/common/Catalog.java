@@ -1,37 +1,69 @@
 package simpledb.common;
 
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.DbFile;
-import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
  * associated schemas.
- * For now, this is a stub catalog that must be populated with tables by a
- * user program before it can be used -- eventually, this should be converted
- * to a catalog that reads a catalog table from disk.
+ * Tables can be added by a user program with {@link #addTable}, read from a
+ * text schema with {@link #loadSchema}, or read from a binary catalog with
+ * {@link #openCatalog}. A binary catalog stores stable table ids and indexes,
+ * and tables created or dropped through the catalog are written back to it
+ * immediately.
+ * <p>
+ * The B+ trees of secondary indexes are tables too, named after their index,
+ * so that the buffer pool can read their pages; see {@link #addIndex(SecondaryIndex)}.
  * 
  * @Threadsafe
  */
 public class Catalog {
     private ConcurrentHashMap<Integer, Table> id2Table;
+    private ConcurrentHashMap<String, Integer> name2Id;
+    private File catalogFile;
+    private int nextTableId = 1;
+    // the secondary indexes of each table whose indexes were added or opened, by table id
+    private final ConcurrentHashMap<Integer, List<SecondaryIndex>> indexes = new ConcurrentHashMap<>();
 
     private static class Table {
-        public final DbFile dbFile;
+        private volatile DbFile dbFile;
+        public final int id;
         public final String name;
         public final String pkeyField;
+        // the definition the table is opened from, null for tables added as an already opened DbFile
+        public final CatalogFile.Entry entry;
+        // whether the table is stored in the binary catalog
+        public final boolean persistent;
 
         public Table(DbFile file, String name, String pkeyField) {
             this.dbFile = file;
+            this.id = file.getId();
             this.name = name;
             this.pkeyField = pkeyField;
+            this.entry = null;
+            this.persistent = false;
+        }
+
+        public Table(CatalogFile.Entry entry, DbFile file, boolean persistent) {
+            this.dbFile = file;
+            this.id = entry.id;
+            this.name = entry.name;
+            this.pkeyField = null;
+            this.entry = entry;
+            this.persistent = persistent;
+        }
+
+        public String getPrimaryKey() {
+            return entry != null ? entry.definition().getPrimaryKey() : pkeyField;
         }
 
         @Override
@@ -51,6 +83,7 @@ public class Catalog {
     public Catalog() {
         // some code goes here
         this.id2Table = new ConcurrentHashMap<>();
+        this.name2Id = new ConcurrentHashMap<>();
     }
 
     /**
@@ -64,14 +97,7 @@ public class Catalog {
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
-        Table table = new Table(file, name, pkeyField);
-        for(Map.Entry<Integer, Table> entry : id2Table.entrySet()) {
-            if(entry.getValue().name.equals(name)) {
-                id2Table.put(entry.getKey(), table);
-                return;
-            }
-        }
-        id2Table.put(file.getId(), table);
+        register(new Table(file, name, pkeyField));
     }
 
     public void addTable(DbFile file, String name) {
@@ -89,24 +115,38 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    private synchronized void register(Table table) {
+        Integer oldId = name2Id.put(table.name, table.id);
+        if (oldId != null && oldId != table.id) {
+            id2Table.remove(oldId);
+        }
+        Table old = id2Table.put(table.id, table);
+        if (old != null && !old.name.equals(table.name)) {
+            name2Id.remove(old.name, table.id);
+        }
+    }
+
     /**
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
      */
     public int getTableId(String name) throws NoSuchElementException {
         // some code goes here
-        Integer res = id2Table.searchValues(1, table -> {
-            if (table.name.equals(name)) {
-                return table.dbFile.getId();
-            }
-            return null;
-        });
+        Integer res = name == null ? null : name2Id.get(name);
         if(res == null) {
             throw new NoSuchElementException("table " + name + " doesn't exist");
         }
         return res;
     }
 
+    private Table getTable(int tableid) throws NoSuchElementException {
+        Table table = id2Table.get(tableid);
+        if (table == null) {
+            throw new NoSuchElementException("table " + tableid + " doesn't exist");
+        }
+        return table;
+    }
+
     /**
      * Returns the tuple descriptor (schema) of the specified table
      * @param tableid The id of the table, as specified by the DbFile.getId()
@@ -115,32 +155,36 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
-        if(id2Table.containsKey(tableid)) {
-            return id2Table.get(tableid).dbFile.getTupleDesc();
-        }
-        throw new NoSuchElementException("table " + tableid + " doesn't exist");
+        Table table = getTable(tableid);
+        DbFile file = table.dbFile;
+        return file != null ? file.getTupleDesc() : table.entry.definition().getTupleDesc();
     }
 
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table. Tables read from a binary catalog are opened on first use.
      * @param tableid The id of the table, as specified by the DbFile.getId()
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         // some code goes here
-        if(id2Table.containsKey(tableid)) {
-            return id2Table.get(tableid).dbFile;
+        Table table = getTable(tableid);
+        DbFile file = table.dbFile;
+        if (file == null) {
+            synchronized (table) {
+                file = table.dbFile;
+                if (file == null) {
+                    file = table.entry.definition().open(getCatalogDir(), table.id);
+                    table.dbFile = file;
+                }
+            }
         }
-        throw new NoSuchElementException("table " + tableid + " doesn't exist");
+        return file;
     }
 
     public String getPrimaryKey(int tableid) {
         // some code goes here
-        if(id2Table.containsKey(tableid)) {
-            return id2Table.get(tableid).pkeyField;
-        }
-        throw new NoSuchElementException("table " + tableid + " doesn't exist");
+        return getTable(tableid).getPrimaryKey();
     }
 
     public Iterator<Integer> tableIdIterator() {
@@ -150,27 +194,272 @@ public class Catalog {
 
     public String getTableName(int id) {
         // some code goes here
-        if(id2Table.containsKey(id)) {
-            return id2Table.get(id).name;
-        }
-        throw new NoSuchElementException("table " + id + " doesn't exist");
+        return getTable(id).name;
+    }
+
+    /**
+     * Returns the persistent definition (file and indexes) of a table.
+     * @return the definition, or null if the table is not stored in a binary catalog
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public CatalogFile.TableDefinition getTableDefinition(int tableid) throws NoSuchElementException {
+        Table table = getTable(tableid);
+        return table.persistent ? table.entry.definition() : null;
     }
     
     /** Delete all tables from the catalog */
-    public void clear() {
+    public synchronized void clear() {
         // some code goes here
         id2Table.clear();
+        name2Id.clear();
+        indexes.clear();
+        catalogFile = null;
+        nextTableId = 1;
+    }
+
+    /**
+     * @return the binary catalog file changes are written to, or null if there is none
+     */
+    public synchronized File getCatalogFile() {
+        return catalogFile;
+    }
+
+    private synchronized File getCatalogDir() {
+        return catalogFile == null ? null : catalogFile.getAbsoluteFile().getParentFile();
+    }
+
+    /**
+     * Adds the tables of a binary catalog to this catalog. Only the directory of
+     * the catalog is read; the definition of a table is decoded, and its file
+     * opened, when the table is first used. Later calls to {@link #createTable},
+     * {@link #dropTable} and {@link #addIndex} are written back to this file.
+     * @param path the catalog file
+     * @throws IOException if the file can't be read or is not a binary catalog
+     */
+    public synchronized void openCatalog(String path) throws IOException {
+        File f = new File(path);
+        CatalogFile cf = CatalogFile.read(f);
+        this.catalogFile = f;
+        this.nextTableId = Math.max(nextTableId, cf.getNextTableId());
+        for (CatalogFile.Entry entry : cf.getEntries()) {
+            register(new Table(entry, null, true));
+        }
+    }
+
+    /**
+     * Writes all tables of this catalog to a new binary catalog, keeping their
+     * current ids, and makes it the file later changes are written to. Data
+     * files in the same directory as the catalog are stored by their relative
+     * name, so the directory can be moved as a whole.
+     * @param path the catalog file
+     * @throws IllegalArgumentException if a table is stored in a kind of file the catalog can't describe
+     */
+    public synchronized void writeCatalog(String path) throws IOException {
+        File f = new File(path);
+        File baseDir = f.getAbsoluteFile().getParentFile();
+        Set<Integer> trees = new HashSet<>();
+        for (List<SecondaryIndex> tableIndexes : indexes.values()) {
+            for (SecondaryIndex index : tableIndexes) {
+                trees.add(index.getTree().getId());
+            }
+        }
+        for (Table table : new ArrayList<>(id2Table.values())) {
+            if (!table.persistent && !trees.contains(table.id)) {
+                CatalogFile.TableDefinition def = table.dbFile != null
+                        ? CatalogFile.TableDefinition.describe(table.dbFile, baseDir, table.getPrimaryKey())
+                        : table.entry.definition().relocate(getCatalogDir(), baseDir);
+                for (SecondaryIndex index : indexes.getOrDefault(table.id, Collections.emptyList())) {
+                    def.addIndex(definition(index, baseDir));
+                }
+                register(new Table(new CatalogFile.Entry(table.id, table.name, def), table.dbFile, true));
+            }
+        }
+        this.catalogFile = f;
+        persist();
+    }
+
+    /**
+     * Creates a new, empty heap file table in the directory of the binary
+     * catalog and records it in the catalog.
+     * @param name the name of the table
+     * @param td the schema of the table
+     * @param pkeyField the name of the primary key field, or "" if there is none
+     * @return the id of the new table
+     * @throws IllegalStateException if no binary catalog is open
+     * @throws IllegalArgumentException if a table with this name already exists
+     */
+    public synchronized int createTable(String name, TupleDesc td, String pkeyField) throws IOException {
+        checkPersistent();
+        if (name2Id.containsKey(name)) {
+            throw new IllegalArgumentException("table " + name + " already exists");
+        }
+        File dataFile = new File(getCatalogDir(), name + ".dat");
+        if (!dataFile.exists() && !dataFile.createNewFile()) {
+            throw new IOException("unable to create " + dataFile);
+        }
+        int id = nextTableId++;
+        while (id2Table.containsKey(id)) {
+            id = nextTableId++;
+        }
+        CatalogFile.TableDefinition def = new CatalogFile.TableDefinition(CatalogFile.Kind.HEAP, dataFile.getName(),
+                td, pkeyField, -1);
+        register(new Table(new CatalogFile.Entry(id, name, def), null, true));
+        persist();
+        return id;
+    }
+
+    /**
+     * Removes a table from the binary catalog and deletes its data file along
+     * with the files stored next to it (dictionaries, page indexes).
+     * @throws NoSuchElementException if the table doesn't exist
+     * @throws IllegalStateException if no binary catalog is open
+     */
+    public synchronized void dropTable(String name) throws IOException {
+        checkPersistent();
+        int id = getTableId(name);
+        Table table = id2Table.remove(id);
+        name2Id.remove(name);
+        for (SecondaryIndex index : indexes.getOrDefault(id, Collections.emptyList())) {
+            id2Table.remove(index.getTree().getId());
+            name2Id.remove(index.getName());
+        }
+        indexes.remove(id);
+        persist();
+        if (table.persistent) {
+            File dataFile = table.entry.definition().resolveFile(getCatalogDir());
+            Database.getFileHandleCache().invalidate(dataFile);
+            File[] related = dataFile.getAbsoluteFile().getParentFile()
+                    .listFiles((dir, n) -> n.startsWith(dataFile.getName() + "."));
+            if (related != null) {
+                for (File f : related) {
+                    f.delete();
+                }
+            }
+            dataFile.delete();
+        }
+    }
+
+    /**
+     * Records a secondary index of a table in the binary catalog.
+     * @param tableid the id of the indexed table
+     * @param index the index definition
+     * @throws IllegalStateException if the table is not stored in the binary catalog
+     */
+    public synchronized void addIndex(int tableid, CatalogFile.IndexDefinition index) throws IOException {
+        CatalogFile.Entry entry = getPersistentEntry(tableid);
+        entry.definition().addIndex(index);
+        entry.invalidate();
+        persist();
+    }
+
+    /**
+     * Adds a secondary index of a table, and registers its B+ tree as a table
+     * named after the index. If the indexed table is stored in the binary
+     * catalog, the index is recorded there too.
+     * @param index the index, whose B+ tree holds the entries of all tuples of the table
+     * @throws IllegalArgumentException if another table or index with the index's name already exists
+     */
+    public synchronized void addIndex(SecondaryIndex index) throws IOException {
+        Integer id = name2Id.get(index.getName());
+        if (id != null && id != index.getTree().getId()) {
+            throw new IllegalArgumentException("table or index " + index.getName() + " already exists");
+        }
+        List<SecondaryIndex> tableIndexes = new ArrayList<>(getIndexes(index.getTableId()));
+        tableIndexes.add(index);
+        register(new Table(index.getTree(), index.getName(), ""));
+        indexes.put(index.getTableId(), Collections.unmodifiableList(tableIndexes));
+        if (getTable(index.getTableId()).persistent) {
+            addIndex(index.getTableId(), definition(index, getCatalogDir()));
+        }
+    }
+
+    private CatalogFile.IndexDefinition definition(SecondaryIndex index, File baseDir) {
+        TupleDesc td = getTupleDesc(index.getTableId());
+        return new CatalogFile.IndexDefinition(index.getName(), td.getFieldName(index.getField()),
+                CatalogFile.TableDefinition.relativeName(index.getTree().getFile(), baseDir));
+    }
+
+    /**
+     * Returns the secondary indexes of a table. The indexes recorded in the
+     * binary catalog are opened when they are first asked for.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) throws NoSuchElementException {
+        List<SecondaryIndex> tableIndexes = indexes.get(tableid);
+        return tableIndexes != null ? tableIndexes : openIndexes(tableid);
+    }
+
+    /**
+     * @return the secondary index over a field of a table, or null if the field isn't indexed
+     */
+    public SecondaryIndex getIndex(int tableid, int field) {
+        for (SecondaryIndex index : getIndexes(tableid)) {
+            if (index.getField() == field) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private synchronized List<SecondaryIndex> openIndexes(int tableid) {
+        List<SecondaryIndex> tableIndexes = indexes.get(tableid);
+        if (tableIndexes != null) {
+            return tableIndexes;
+        }
+        Table table = getTable(tableid);
+        tableIndexes = new ArrayList<>();
+        if (table.persistent) {
+            TupleDesc td = getTupleDesc(tableid);
+            for (CatalogFile.IndexDefinition def : table.entry.definition().getIndexes()) {
+                File f = new File(def.fileName);
+                SecondaryIndex index = new SecondaryIndex(def.name, tableid, td.fieldNameToIndex(def.fieldName),
+                        f.isAbsolute() ? f : new File(getCatalogDir(), def.fileName));
+                register(new Table(index.getTree(), index.getName(), ""));
+                tableIndexes.add(index);
+            }
+        }
+        tableIndexes = Collections.unmodifiableList(tableIndexes);
+        indexes.put(tableid, tableIndexes);
+        return tableIndexes;
+    }
+
+    private CatalogFile.Entry getPersistentEntry(int tableid) {
+        checkPersistent();
+        Table table = getTable(tableid);
+        if (!table.persistent) {
+            throw new IllegalStateException("table " + table.name + " is not stored in the catalog");
+        }
+        return table.entry;
+    }
+
+    private void checkPersistent() {
+        if (catalogFile == null) {
+            throw new IllegalStateException("no binary catalog is open");
+        }
+    }
+
+    private void persist() throws IOException {
+        List<CatalogFile.Entry> entries = new ArrayList<>();
+        for (Table table : id2Table.values()) {
+            if (table.persistent) {
+                entries.add(table.entry);
+            }
+        }
+        entries.sort(Comparator.comparingInt(e -> e.id));
+        CatalogFile.write(catalogFile, nextTableId, entries);
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * The HeapFile of a table is only created the first time it is used.
      * @param catalogFile
+     * @throws IllegalArgumentException if the file contains an invalid entry
+     * @throws UncheckedIOException if the file can't be read
      */
     public void loadSchema(String catalogFile) {
         String line = "";
         String baseFolder=new File(new File(catalogFile).getAbsolutePath()).getParent();
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(catalogFile));
+        try (BufferedReader br = new BufferedReader(new FileReader(catalogFile))) {
             
             while ((line = br.readLine()) != null) {
                 //assume line is of the format name (field type, field type, ...)
@@ -188,32 +477,30 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
-                    else {
-                        System.out.println("Unknown type " + els2[1]);
-                        System.exit(0);
-                    }
+                    else if (els2[1].trim().equalsIgnoreCase("dictstring"))
+                        types.add(Type.DICT_STRING_TYPE);
+                    else
+                        throw new IllegalArgumentException("Unknown type " + els2[1] + " in catalog entry : " + line);
                     if (els2.length == 3) {
                         if (els2[2].trim().equals("pk"))
                             primaryKey = els2[0].trim();
-                        else {
-                            System.out.println("Unknown annotation " + els2[2]);
-                            System.exit(0);
-                        }
+                        else
+                            throw new IllegalArgumentException("Unknown annotation " + els2[2] + " in catalog entry : " + line);
                     }
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
-                System.out.println("Added table : " + name + " with schema " + t);
+                // the HeapFile is only created once the table is used, see getDatabaseFile
+                File dataFile = new File(baseFolder+"/"+name + ".dat").getAbsoluteFile();
+                CatalogFile.TableDefinition def = new CatalogFile.TableDefinition(CatalogFile.Kind.HEAP,
+                        dataFile.getPath(), t, primaryKey, -1);
+                register(new Table(new CatalogFile.Entry(dataFile.hashCode(), name, def), null, false));
             }
         } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(0);
+            throw new UncheckedIOException("unable to read catalog " + catalogFile, e);
         } catch (IndexOutOfBoundsException e) {
-            System.out.println ("Invalid catalog entry : " + line);
-            System.exit(0);
+            throw new IllegalArgumentException("Invalid catalog entry : " + line, e);
         }
     }
 }
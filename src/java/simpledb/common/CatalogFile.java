@@ -0,0 +1,386 @@
+package simpledb.common;
+
+import simpledb.index.BTreeFile;
+import simpledb.storage.CompressedHeapFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * CatalogFile reads and writes the binary catalog of a database directory. Unlike the text schema read by
+ * {@link Catalog#loadSchema}, the binary catalog records the id of every table, so ids stay the same when the
+ * directory is moved, together with the kind of file backing each table and its indexes.
+ * <p>
+ * The file starts with a small header (magic, format version, next table id, number of tables) followed by a
+ * directory holding the id, name and encoded length of every table. The encoded table definitions follow the
+ * directory. Reading a catalog only parses the header and the directory; a table's definition is decoded the first
+ * time it is needed.
+ * <p>
+ * Catalog files are never updated in place: {@link #write} writes a new file next to the old one and renames it over
+ * the old file, so a crash leaves either the old or the new catalog behind.
+ */
+public class CatalogFile {
+    public static final int MAGIC = 0x53444243; // "SDBC"
+    public static final int VERSION = 2;
+
+    /** The kinds of DbFile a table definition can describe. */
+    public enum Kind {
+        HEAP, COMPRESSED_HEAP, BTREE
+    }
+
+    /**
+     * A secondary index of a table.
+     */
+    public static class IndexDefinition {
+        public final String name;
+        public final String fieldName;
+        public final String fileName;
+
+        /**
+         * @param name the name of the index
+         * @param fieldName the name of the indexed field
+         * @param fileName the file storing the index, relative to the catalog's directory unless absolute
+         */
+        public IndexDefinition(String name, String fieldName, String fileName) {
+            this.name = name;
+            this.fieldName = fieldName;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public String toString() {
+            return name + "(" + fieldName + ")";
+        }
+    }
+
+    /**
+     * Everything the catalog stores about one table except its id and name.
+     */
+    public static class TableDefinition {
+        private final Kind kind;
+        private final String fileName;
+        private final TupleDesc td;
+        private final String pkeyField;
+        private final int keyField;
+        private final List<IndexDefinition> indexes;
+
+        /**
+         * @param kind the kind of file storing the table
+         * @param fileName the data file, relative to the catalog's directory unless absolute
+         * @param td the schema of the table
+         * @param pkeyField the name of the primary key field, or "" if there is none
+         * @param keyField the field a B+ tree is keyed on, or -1 for other kinds
+         */
+        public TableDefinition(Kind kind, String fileName, TupleDesc td, String pkeyField, int keyField) {
+            this.kind = kind;
+            this.fileName = fileName;
+            this.td = td;
+            this.pkeyField = pkeyField;
+            this.keyField = keyField;
+            this.indexes = new ArrayList<>();
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public String getPrimaryKey() {
+            return pkeyField;
+        }
+
+        public int getKeyField() {
+            return keyField;
+        }
+
+        public List<IndexDefinition> getIndexes() {
+            return Collections.unmodifiableList(indexes);
+        }
+
+        void addIndex(IndexDefinition index) {
+            indexes.add(index);
+        }
+
+        /**
+         * @return the data file of the table, resolved against the catalog's directory
+         */
+        public File resolveFile(File baseDir) {
+            File f = new File(fileName);
+            return f.isAbsolute() ? f : new File(baseDir, fileName);
+        }
+
+        /**
+         * Opens the DbFile described by this definition.
+         *
+         * @param baseDir the directory of the catalog
+         * @param tableId the id of the table
+         */
+        public DbFile open(File baseDir, int tableId) {
+            File f = resolveFile(baseDir);
+            switch (kind) {
+                case HEAP:
+                    return new HeapFile(f, td, tableId);
+                case COMPRESSED_HEAP:
+                    return new CompressedHeapFile(f, td, CompressedHeapFile.DEFAULT_GROUP_SIZE, tableId);
+                case BTREE:
+                    return new BTreeFile(f, keyField, td, tableId);
+            }
+            throw new IllegalStateException("unknown table kind " + kind);
+        }
+
+        /**
+         * Describes an already opened DbFile.
+         *
+         * @param file the file to describe
+         * @param baseDir the directory of the catalog; files inside it are stored by their relative name
+         * @param pkeyField the name of the primary key field
+         * @throws IllegalArgumentException if file is not a kind of DbFile the catalog can store
+         */
+        public static TableDefinition describe(DbFile file, File baseDir, String pkeyField) {
+            if (file instanceof BTreeFile) {
+                BTreeFile bf = (BTreeFile) file;
+                return new TableDefinition(Kind.BTREE, relativeName(bf.getFile(), baseDir), bf.getTupleDesc(),
+                        pkeyField, bf.keyField());
+            }
+            if (file instanceof HeapFile) {
+                HeapFile hf = (HeapFile) file;
+                Kind kind = file instanceof CompressedHeapFile ? Kind.COMPRESSED_HEAP : Kind.HEAP;
+                return new TableDefinition(kind, relativeName(hf.getFile(), baseDir), hf.getTupleDesc(), pkeyField, -1);
+            }
+            throw new IllegalArgumentException("can't store a table of type " + file.getClass().getName() + " in the catalog");
+        }
+
+        /**
+         * Returns a copy of this definition whose file names are relative to a new catalog directory.
+         *
+         * @param oldBaseDir the directory relative names of this definition are resolved against
+         * @param newBaseDir the directory of the new catalog
+         */
+        public TableDefinition relocate(File oldBaseDir, File newBaseDir) {
+            TableDefinition def = new TableDefinition(kind, relativeName(resolveFile(oldBaseDir), newBaseDir), td,
+                    pkeyField, keyField);
+            for (IndexDefinition index : indexes) {
+                File indexFile = new File(index.fileName).isAbsolute() ? new File(index.fileName) : new File(oldBaseDir, index.fileName);
+                def.addIndex(new IndexDefinition(index.name, index.fieldName, relativeName(indexFile, newBaseDir)));
+            }
+            return def;
+        }
+
+        static String relativeName(File f, File baseDir) {
+            File abs = f.getAbsoluteFile();
+            if (baseDir != null && baseDir.getAbsoluteFile().equals(abs.getParentFile())) {
+                return abs.getName();
+            }
+            return abs.getPath();
+        }
+
+        void writeTo(DataOutputStream dos) throws IOException {
+            dos.writeByte(kind.ordinal());
+            dos.writeUTF(fileName);
+            dos.writeUTF(pkeyField);
+            dos.writeInt(keyField);
+            dos.writeInt(td.numFields());
+            for (int i = 0; i < td.numFields(); i++) {
+                dos.writeByte(td.getFieldType(i).ordinal());
+                String fieldName = td.getFieldName(i);
+                dos.writeBoolean(fieldName != null);
+                if (fieldName != null) {
+                    dos.writeUTF(fieldName);
+                }
+            }
+            dos.writeInt(indexes.size());
+            for (IndexDefinition index : indexes) {
+                dos.writeUTF(index.name);
+                dos.writeUTF(index.fieldName);
+                dos.writeUTF(index.fileName);
+            }
+        }
+
+        static TableDefinition readFrom(DataInputStream dis) throws IOException {
+            Kind kind = Kind.values()[dis.readUnsignedByte()];
+            String fileName = dis.readUTF();
+            String pkeyField = dis.readUTF();
+            int keyField = dis.readInt();
+            int numFields = dis.readInt();
+            Type[] types = new Type[numFields];
+            String[] names = new String[numFields];
+            for (int i = 0; i < numFields; i++) {
+                types[i] = Type.values()[dis.readUnsignedByte()];
+                names[i] = dis.readBoolean() ? dis.readUTF() : null;
+            }
+            TableDefinition def = new TableDefinition(kind, fileName, new TupleDesc(types, names), pkeyField, keyField);
+            int numIndexes = dis.readInt();
+            for (int i = 0; i < numIndexes; i++) {
+                def.addIndex(new IndexDefinition(dis.readUTF(), dis.readUTF(), dis.readUTF()));
+            }
+            return def;
+        }
+    }
+
+    /**
+     * A directory entry of the catalog: the id and name of a table plus its definition, which is kept in its encoded
+     * form until someone asks for it.
+     */
+    public static class Entry {
+        public final int id;
+        public final String name;
+        private byte[] encoded;
+        private TableDefinition definition;
+
+        public Entry(int id, String name, TableDefinition definition) {
+            this.id = id;
+            this.name = name;
+            this.definition = definition;
+        }
+
+        Entry(int id, String name, byte[] encoded) {
+            this.id = id;
+            this.name = name;
+            this.encoded = encoded;
+        }
+
+        /**
+         * @return the definition of the table, decoding it on first use
+         * @throws IllegalStateException if the stored definition is corrupt
+         */
+        public synchronized TableDefinition definition() {
+            if (definition == null) {
+                try {
+                    definition = TableDefinition.readFrom(new DataInputStream(new ByteArrayInputStream(encoded)));
+                } catch (IOException | IndexOutOfBoundsException e) {
+                    throw new IllegalStateException("corrupt catalog entry for table " + name, e);
+                }
+            }
+            return definition;
+        }
+
+        /**
+         * Must be called after the definition returned by {@link #definition} was changed.
+         */
+        synchronized void invalidate() {
+            encoded = null;
+        }
+
+        synchronized byte[] encoded() throws IOException {
+            if (encoded == null) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                DataOutputStream dos = new DataOutputStream(baos);
+                definition.writeTo(dos);
+                dos.flush();
+                encoded = baos.toByteArray();
+            }
+            return encoded;
+        }
+    }
+
+    private final int nextTableId;
+    private final List<Entry> entries;
+
+    private CatalogFile(int nextTableId, List<Entry> entries) {
+        this.nextTableId = nextTableId;
+        this.entries = entries;
+    }
+
+    /**
+     * @return the id the next created table should get
+     */
+    public int getNextTableId() {
+        return nextTableId;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return true if f starts with the magic number of a binary catalog
+     */
+    public static boolean isCatalogFile(File f) {
+        if (!f.isFile() || f.length() < 8) {
+            return false;
+        }
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(f))) {
+            return dis.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the header and the directory of a catalog.
+     *
+     * @throws IOException if f can't be read or is not a catalog of a supported version
+     */
+    public static CatalogFile read(File f) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException(f + " is not a catalog file");
+            }
+            int version = dis.readInt();
+            // version 1 definitions end with table statistics, which decoding ignores
+            if (version != VERSION && version != 1) {
+                throw new IOException("unsupported catalog version " + version + " in " + f);
+            }
+            int nextTableId = dis.readInt();
+            int numTables = dis.readInt();
+            int[] ids = new int[numTables];
+            String[] names = new String[numTables];
+            int[] lengths = new int[numTables];
+            for (int i = 0; i < numTables; i++) {
+                ids[i] = dis.readInt();
+                names[i] = dis.readUTF();
+                lengths[i] = dis.readInt();
+            }
+            List<Entry> entries = new ArrayList<>(numTables);
+            for (int i = 0; i < numTables; i++) {
+                byte[] encoded = new byte[lengths[i]];
+                dis.readFully(encoded);
+                entries.add(new Entry(ids[i], names[i], encoded));
+            }
+            return new CatalogFile(nextTableId, entries);
+        }
+    }
+
+    /**
+     * Atomically replaces the catalog stored in f.
+     *
+     * @param f the catalog file
+     * @param nextTableId the id the next created table should get
+     * @param entries the tables of the catalog
+     */
+    public static void write(File f, int nextTableId, List<Entry> entries) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(nextTableId);
+            dos.writeInt(entries.size());
+            for (Entry e : entries) {
+                dos.writeInt(e.id);
+                dos.writeUTF(e.name);
+                dos.writeInt(e.encoded().length);
+            }
+            for (Entry e : entries) {
+                dos.write(e.encoded());
+            }
+            dos.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb.common;
 
+import simpledb.storage.DictStringField;
+import simpledb.storage.StringDictionary;
 import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
@@ -46,6 +48,33 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+    }, DICT_STRING_TYPE() {
+        /**
+         * A dictionary-encoded string is stored on the page as the int code of
+         * its value in the per-column {@link StringDictionary}.
+         */
+        @Override
+        public int getLen() {
+            return 4;
+        }
+
+        /**
+         * Codes can only be decoded with the dictionary of their column, so
+         * pages must use {@link #parse(DataInputStream, StringDictionary)}.
+         */
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            throw new ParseException("dictionary-encoded strings need the dictionary of their column", 0);
+        }
+
+        @Override
+        public Field parse(DataInputStream dis, StringDictionary dict) throws ParseException {
+            try {
+                return new DictStringField(dis.readInt(), dict);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +93,20 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * Like {@link #parse(DataInputStream)}, but for a column that may be
+   * dictionary-encoded.
+   * @param dict the dictionary of the column, or null if it has none
+   */
+    public Field parse(DataInputStream dis, StringDictionary dict) throws ParseException {
+        return parse(dis);
+    }
+
+  /**
+   * @return true if fields of this type hold strings (plain or dictionary-encoded)
+   */
+    public boolean isString() {
+        return this == STRING_TYPE || this == DICT_STRING_TYPE;
+    }
+
 }
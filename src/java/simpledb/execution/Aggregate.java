@@ -1,23 +1,67 @@
 package simpledb.execution;
 
+import java.io.IOException;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max, min). Note that we only support aggregates over a single column, grouped by a single column.
+ * <p>
+ * If the child is a scan of a {@link HeapFile}, possibly filtered, and the aggregate may use several threads, the table is split into page ranges that are
+ * aggregated in parallel on a fork-join pool. Each task scans its range into an aggregator of its own, and the partial aggregates are merged pairwise, in
+ * page order, so the groups come out in the same order as when aggregating on one thread.
+ * <p>
+ * The groups kept in memory are bounded by a memory budget. Once it is full, tuples of groups already in memory are still aggregated there, and the other
+ * tuples are hash partitioned on their group into spill files. All groups of a partition are in its file, so each partition is aggregated on its own
+ * afterwards, spilling again if it still doesn't fit. If the child is sorted on the group field, each group is instead aggregated and returned as soon as
+ * its last tuple has been read, which keeps only one group in memory.
  */
 public class Aggregate extends Operator {
     private static final long serialVersionUID = 1L;
+    /** The default number of threads used to aggregate a table, one per available processor. */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    /** The fewest pages a parallel task scans; smaller tables are aggregated on one thread. */
+    public static final int MIN_PAGES_PER_TASK = 16;
+    /** The default memory budget for the groups kept in memory, in bytes. */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L << 20;
+    /** The number of partitions overflowing tuples are spilled to. */
+    public static final int SPILL_PARTITIONS = 16;
+    /** The deepest level at which partitions are spilled again; deeper partitions are aggregated in memory. */
+    public static final int MAX_DEPTH = 3;
+    /** Rough heap overhead of a group beyond the size of its group field, used to account memory. */
+    static final int GROUP_OVERHEAD = 64;
+    // tasks per thread, so that threads that finish early can steal the remaining ones
+    private static final int TASKS_PER_THREAD = 4;
     private OpIterator child;
     private final int afield;
     private final int gfield;
     private final Aggregator.Op aop;
-    private Aggregator aggregator;
-    private OpIterator  opIterator = null; // fixme: opIterator 要直接从 aggregator 一次性取出来，不然会有问题。因为每次调用 aggregator.iterator() 都会重新生成一个新的 opIterator
+    private final int parallelism;
+    private final long memoryBudget;
+    private final boolean sortedInput;
+    private final int depth;
+    private final TupleDesc td;
+
+    transient private Aggregator aggregator;
+    transient private int tasks;
+    transient private OpIterator opIterator;
+    // the partitions spilled by the hash aggregation, and the aggregate of the one being returned
+    transient private SpillFile[] spills;
+    transient private int spilledPartitions;
+    transient private int nextPartition;
+    transient private Aggregate partitionAggregate;
+    // sort-based aggregation: the first tuple of the next group
+    transient private Tuple nextGroupTuple;
 
     /**
      * Constructor.
@@ -30,38 +74,207 @@ public class Aggregate extends Operator {
      * @param aop The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, 1);
+    }
+
+    /**
+     * Constructor of an aggregate that may use several threads.
+     *
+     * @param child The OpIterator that is feeding us tuples.
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result, or -1 if there is no grouping
+     * @param aop The aggregation operator to use
+     * @param parallelism The largest number of threads to aggregate with
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int parallelism) {
+        this(child, afield, gfield, aop, parallelism, DEFAULT_MEMORY_BUDGET, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param parallelism The largest number of threads to aggregate with
+     * @param memoryBudget The number of bytes of groups kept in memory
+     * @param sortedInput Whether the child returns its tuples sorted on the group field, so that each group can be returned once its tuples are read
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int parallelism, long memoryBudget,
+                     boolean sortedInput) {
+        this(child, afield, gfield, aop, parallelism, memoryBudget, sortedInput, 0);
+    }
+
+    private Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int parallelism, long memoryBudget,
+                      boolean sortedInput, int depth) {
         // some code goes here
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive, not " + parallelism);
+        }
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("need a positive memory budget");
+        }
         this.child = child;
         this.afield = afield;
         this.gfield = gfield;
         this.aop = aop;
+        this.parallelism = parallelism;
+        this.memoryBudget = memoryBudget;
+        this.sortedInput = sortedInput && gfield != Aggregator.NO_GROUPING;
+        this.depth = depth;
+        // also checks the field types and the operator
+        this.td = newAggregator().iterator().getTupleDesc();
+    }
 
-        Type gfieldType = child.getTupleDesc()
+    private Aggregator newAggregator() {
+        Type gfieldType = gfield == Aggregator.NO_GROUPING ? null : child.getTupleDesc()
             .getFieldType(gfield);
         Type afieldType = child.getTupleDesc()
             .getFieldType(afield);
         if (Type.INT_TYPE.equals(afieldType)) {
-            aggregator = new IntegerAggregator(gfield, gfieldType, afield, aop);
+            return new IntegerAggregator(gfield, gfieldType, afield, aop);
         } else {
-            aggregator = new StringAggregator(gfield, gfieldType, afield, aop);
+            return new StringAggregator(gfield, gfieldType, afield, aop);
+        }
+    }
+
+    /**
+     * @return the most groups that fit into the memory budget
+     */
+    private int maxGroups() {
+        if (gfield == Aggregator.NO_GROUPING || depth >= MAX_DEPTH) {
+            return Integer.MAX_VALUE;
         }
-        initAggregator(child);
+        long groupBytes = child.getTupleDesc().getFieldType(gfield).getLen() + GROUP_OVERHEAD;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / groupBytes));
     }
 
-    private void initAggregator(OpIterator child) {
+    private void aggregate() throws DbException, TransactionAbortedException {
+        tasks = 0;
+        spills = null;
+        spilledPartitions = 0;
+        SeqScan scan = Gather.morselScan(child);
+        int pages = scan == null ? 0
+            : ((HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId())).numPages();
+        if (parallelism > 1 && pages >= 2 * MIN_PAGES_PER_TASK) {
+            int pagesPerTask = Math.max(MIN_PAGES_PER_TASK, (pages + parallelism * TASKS_PER_THREAD - 1) / (parallelism * TASKS_PER_THREAD));
+            // the threads share the budget, and the merged partial aggregates must fit into it too
+            int maxGroupsPerTask = Math.max(1, maxGroups() / parallelism);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                aggregator = pool.invoke(new PartialAggregate(scan, 0, pages, pagesPerTask, maxGroupsPerTask));
+                return;
+            } catch (PartialAggregateException e) {
+                if (e.getCause() instanceof TransactionAbortedException) {
+                    throw (TransactionAbortedException) e.getCause();
+                } else if (e.getCause() instanceof DbException) {
+                    throw (DbException) e.getCause();
+                }
+                // too many groups to aggregate in parallel within the budget, spill them on one thread instead
+                tasks = 0;
+            } finally {
+                pool.shutdown();
+            }
+        }
+        tasks = 1;
+        aggregator = newAggregator();
+        int maxGroups = maxGroups();
+        child.open();
+        try {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (aggregator.numGroups() < maxGroups) {
+                    aggregator.mergeTupleIntoGroup(t);
+                } else if (!aggregator.mergeTupleIntoExistingGroup(t)) {
+                    spill(t);
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("unable to spill aggregate partition: " + e.getMessage());
+        } finally {
+            child.close();
+        }
+    }
+
+    private void spill(Tuple t) throws IOException {
+        if (spills == null) {
+            spills = new SpillFile[SPILL_PARTITIONS];
+        }
+        int p = HybridHashJoin.partitionOf(t.getField(gfield), depth, SPILL_PARTITIONS);
+        if (spills[p] == null) {
+            spills[p] = new SpillFile(child.getTupleDesc());
+            spilledPartitions++;
+        }
+        spills[p].add(t);
+    }
+
+    private static void drain(OpIterator child, Aggregator aggregator, int maxGroups) throws DbException, TransactionAbortedException {
         try {
             child.open();
             while (child.hasNext()) {
                 aggregator.mergeTupleIntoGroup(child.next());
+                if (aggregator.numGroups() > maxGroups) {
+                    throw new PartialAggregateException(null);
+                }
             }
-            opIterator = aggregator.iterator();
-        } catch (DbException | TransactionAbortedException e) {
-            e.printStackTrace();
         } finally {
             child.close();
         }
     }
 
+    /**
+     * Carries the exception of a parallel task out of the fork-join pool, or, without a cause, tells that a task exceeded its share of the memory budget.
+     */
+    private static class PartialAggregateException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        PartialAggregateException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Aggregates a range of pages, by splitting it in halves that are aggregated in parallel and merged, until the range is small enough to scan.
+     */
+    private class PartialAggregate extends RecursiveTask<Aggregator> {
+        private static final long serialVersionUID = 1L;
+        private final SeqScan scan;
+        private final int firstPage;
+        private final int endPage;
+        private final int pagesPerTask;
+        private final int maxGroups;
+
+        PartialAggregate(SeqScan scan, int firstPage, int endPage, int pagesPerTask, int maxGroups) {
+            this.scan = scan;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+            this.pagesPerTask = pagesPerTask;
+            this.maxGroups = maxGroups;
+        }
+
+        @Override
+        protected Aggregator compute() {
+            if (endPage - firstPage <= pagesPerTask) {
+                Aggregator partial = newAggregator();
+                try {
+                    drain(Gather.partition(child, scan, firstPage, endPage), partial, maxGroups);
+                } catch (DbException | TransactionAbortedException e) {
+                    throw new PartialAggregateException(e);
+                }
+                synchronized (Aggregate.this) {
+                    tasks++;
+                }
+                return partial;
+            }
+            int middle = firstPage + (endPage - firstPage) / 2;
+            PartialAggregate right = new PartialAggregate(scan, middle, endPage, pagesPerTask, maxGroups);
+            right.fork();
+            Aggregator left = new PartialAggregate(scan, firstPage, middle, pagesPerTask, maxGroups).compute();
+            left.merge(right.join());
+            if (left.numGroups() > Aggregate.this.maxGroups()) {
+                throw new PartialAggregateException(null);
+            }
+            return left;
+        }
+    }
+
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby field index in the <b>INPUT</b> tuples. If not, return {@link Aggregator#NO_GROUPING}
      */
@@ -108,17 +321,53 @@ public class Aggregate extends Operator {
         return aop;
     }
 
+    /**
+     * @return the largest number of threads this aggregate uses
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the number of parts the child was split into to be aggregated in parallel, or 1 if it was aggregated on one thread
+     */
+    public int getTasks() {
+        return tasks;
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
         return aop.toString();
     }
 
+    /**
+     * @return whether the child is aggregated one group at a time because it is sorted on the group field
+     */
+    public boolean isSortedInput() {
+        return sortedInput;
+    }
+
+    /**
+     * @return the number of partitions the last hash aggregation spilled to disk, not counting deeper levels
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
     public void open() throws NoSuchElementException, DbException, TransactionAbortedException {
         // some code goes here
-        super.open();
         if (child == null) {
             throw new NoSuchElementException("child is null");
         }
-        opIterator.open();
+        if (sortedInput) {
+            child.open();
+            nextGroupTuple = child.hasNext() ? child.next() : null;
+        } else {
+            aggregate();
+            opIterator = results(aggregator);
+            opIterator.open();
+            nextPartition = 0;
+        }
+        super.open();
     }
 
     /**
@@ -127,15 +376,100 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (opIterator != null && opIterator.hasNext()) {
-            return opIterator.next();
+        if (sortedInput) {
+            return fetchNextGroup();
+        }
+        while (true) {
+            if (opIterator.hasNext()) {
+                return opIterator.next();
+            }
+            if (!openNextPartition()) {
+                return null;
+            }
         }
-        return null;
+    }
+
+    /**
+     * Aggregates the next spilled partition and returns its groups next.
+     *
+     * @return false if there are no more partitions
+     */
+    private boolean openNextPartition() throws DbException, TransactionAbortedException {
+        while (spills != null && nextPartition < spills.length) {
+            SpillFile spill = spills[nextPartition++];
+            if (spill == null) {
+                continue;
+            }
+            if (partitionAggregate == null) {
+                opIterator.close();
+            }
+            closePartition();
+            try {
+                partitionAggregate = new Aggregate(spill.iterator(), afield, gfield, aop, 1, memoryBudget, false, depth + 1);
+            } catch (IOException e) {
+                throw new DbException("unable to read aggregate partition: " + e.getMessage());
+            }
+            partitionAggregate.open();
+            opIterator = partitionAggregate;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the groups of an aggregator
+     * @throws DbException if the aggregate of a group doesn't fit into its result type
+     */
+    static OpIterator results(Aggregator aggregator) throws DbException {
+        try {
+            return aggregator.iterator();
+        } catch (ArithmeticException e) {
+            throw new DbException(e.getMessage());
+        }
+    }
+
+    private void closePartition() {
+        if (partitionAggregate != null) {
+            partitionAggregate.close();
+            partitionAggregate = null;
+        }
+    }
+
+    /**
+     * @return the aggregate of the tuples of the next group of the sorted child, or null if there are no more
+     */
+    private Tuple fetchNextGroup() throws TransactionAbortedException, DbException {
+        if (nextGroupTuple == null) {
+            return null;
+        }
+        Aggregator group = newAggregator();
+        Field key = nextGroupTuple.getField(gfield);
+        group.mergeTupleIntoGroup(nextGroupTuple);
+        nextGroupTuple = null;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!key.equals(t.getField(gfield))) {
+                nextGroupTuple = t;
+                break;
+            }
+            group.mergeTupleIntoGroup(t);
+        }
+        OpIterator it = results(group);
+        it.open();
+        return it.next();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-       opIterator.rewind();
+        if (sortedInput) {
+            child.rewind();
+            nextGroupTuple = child.hasNext() ? child.next() : null;
+            return;
+        }
+        closePartition();
+        opIterator = results(aggregator);
+        opIterator.open();
+        nextPartition = 0;
     }
 
     /**
@@ -147,14 +481,30 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return opIterator
-            .getTupleDesc();
+        return td;
     }
 
     public void close() {
         // some code goes here
         super.close();
-        opIterator.close();
+        if (sortedInput) {
+            child.close();
+            nextGroupTuple = null;
+        }
+        closePartition();
+        if (opIterator != null) {
+            opIterator.close();
+            opIterator = null;
+        }
+        if (spills != null) {
+            for (SpillFile spill : spills) {
+                if (spill != null) {
+                    spill.delete();
+                }
+            }
+            spills = null;
+        }
+        aggregator = null;
     }
 
     @Override
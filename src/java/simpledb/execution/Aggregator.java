@@ -79,9 +79,34 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge a new tuple into the aggregate only if its group value has
+     * already been encountered, so that the number of groups doesn't grow.
+     *
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     * @return true if the tuple was merged, false if its group is new
+     */
+    boolean mergeTupleIntoExistingGroup(Tuple tup);
+
+    /**
+     * @return the number of distinct group values encountered so far
+     */
+    int numGroups();
+
+    /**
+     * Merge the groups of a partial aggregate into this one. The partial
+     * aggregator must have been constructed with the same arguments as this
+     * one and have merged other tuples, e.g. those of another part of a
+     * table.
+     *
+     * @param partial the aggregator to merge the groups of
+     */
+    void merge(Aggregator partial);
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
+     * @throws ArithmeticException if the aggregate of a group doesn't fit into its result type
      */
     OpIterator iterator();
     
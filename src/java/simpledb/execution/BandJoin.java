@@ -0,0 +1,253 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * BandJoin joins two children on a pair of inequality predicates that bound a
+ * field of one child (the point) between two fields of the other child (the
+ * interval), e.g. {@code a.ts >= b.start AND a.ts < b.end}.
+ * <p>
+ * Both children are read into memory and sorted, points on their value and
+ * intervals on their lower bound. A sweep over the points in ascending order
+ * adds the intervals that have started to a heap ordered on their upper bound
+ * and drops the intervals that have ended from its top, so every point is
+ * joined with exactly the intervals left in the heap. That is
+ * O((n + m) log m + output) comparisons instead of the n * m of a nested-loops
+ * join. The output comes out in ascending order of the point field.
+ */
+public class BandJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred1, pred2;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    /** Whether the point field is in child1 and the interval fields in child2 */
+    private final boolean pointLeft;
+    private final int pointField, lowerField, upperField;
+    /** Whether the bounds exclude points equal to them */
+    private final boolean lowerStrict, upperStrict;
+
+    transient private List<Tuple> points;
+    transient private List<Tuple> intervals;
+    transient private PriorityQueue<Tuple> active;
+    transient private int pointPos, intervalPos;
+    transient private Tuple point;
+    transient private Iterator<Tuple> matches;
+
+    /**
+     * Constructor. Both predicates compare a field of child1 to a field of
+     * child2; one side must use the same field in both, and the predicates
+     * must bound it from opposite directions.
+     *
+     * @param p1
+     *            One of the predicates to join the children on
+     * @param p2
+     *            The other predicate
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @throws IllegalArgumentException if the predicates don't form a band
+     */
+    public BandJoin(JoinPredicate p1, JoinPredicate p2, OpIterator child1, OpIterator child2) {
+        if (!isBand(p1, p2)) {
+            throw new IllegalArgumentException("predicates " + p1.getField1() + p1.getOperator() + p1.getField2()
+                    + " and " + p2.getField1() + p2.getOperator() + p2.getField2() + " don't form a band");
+        }
+        this.pred1 = p1;
+        this.pred2 = p2;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+
+        this.pointLeft = p1.getField1() == p2.getField1();
+        // normalize to "lower op point" and "point op upper"
+        JoinPredicate lower = isLowerBound(p1.getOperator()) ? p1 : p2;
+        JoinPredicate upper = lower == p1 ? p2 : p1;
+        if (pointLeft) {
+            this.pointField = p1.getField1();
+            this.lowerField = lower.getField2();
+            this.upperField = upper.getField2();
+        } else {
+            this.pointField = p1.getField2();
+            this.lowerField = lower.getField1();
+            this.upperField = upper.getField1();
+        }
+        this.lowerStrict = isStrict(lower.getOperator());
+        this.upperStrict = isStrict(upper.getOperator());
+    }
+
+    /**
+     * @return whether the operator bounds the left operand from below, i.e. is GREATER_THAN or GREATER_THAN_OR_EQ
+     */
+    private static boolean boundsLeft(Predicate.Op op) {
+        return op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    private static boolean boundsRight(Predicate.Op op) {
+        return op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    private static boolean isStrict(Predicate.Op op) {
+        return op == Predicate.Op.GREATER_THAN || op == Predicate.Op.LESS_THAN;
+    }
+
+    private boolean isLowerBound(Predicate.Op op) {
+        // "point > lower" if the point is the left operand, "lower < point" otherwise
+        return pointLeft ? boundsLeft(op) : boundsRight(op);
+    }
+
+    /**
+     * Returns whether two join predicates bound the same field of one child
+     * from opposite directions, which BandJoin can answer.
+     */
+    public static boolean isBand(JoinPredicate p1, JoinPredicate p2) {
+        Predicate.Op op1 = p1.getOperator();
+        Predicate.Op op2 = p2.getOperator();
+        boolean opposite = (boundsLeft(op1) && boundsRight(op2)) || (boundsRight(op1) && boundsLeft(op2));
+        return opposite && (p1.getField1() == p2.getField1() || p1.getField2() == p2.getField2());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred1;
+    }
+
+    /**
+     * @return the second of the two predicates this joins on
+     */
+    public JoinPredicate getJoinPredicate2() {
+        return pred2;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred1.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred1.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        points = new ArrayList<>();
+        intervals = new ArrayList<>();
+        List<Tuple> left = pointLeft ? points : intervals;
+        List<Tuple> right = pointLeft ? intervals : points;
+        while (child1.hasNext())
+            left.add(child1.next());
+        while (child2.hasNext())
+            right.add(child2.next());
+        points.sort(fieldOrder(pointField));
+        intervals.sort(fieldOrder(lowerField));
+        active = new PriorityQueue<>(fieldOrder(upperField));
+        start();
+        super.open();
+    }
+
+    private static Comparator<Tuple> fieldOrder(int field) {
+        return (a, b) -> {
+            Field fa = a.getField(field);
+            Field fb = b.getField(field);
+            if (fa.compare(Predicate.Op.LESS_THAN, fb))
+                return -1;
+            return fa.compare(Predicate.Op.GREATER_THAN, fb) ? 1 : 0;
+        };
+    }
+
+    private void start() {
+        active.clear();
+        pointPos = 0;
+        intervalPos = 0;
+        point = null;
+        matches = null;
+    }
+
+    public void close() {
+        super.close();
+        points = null;
+        intervals = null;
+        active = null;
+        point = null;
+        matches = null;
+        child2.close();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // both children are held in memory
+        start();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The result is the concatenation of the joining left and
+     * right tuples, in ascending order of the point field.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && matches.hasNext()) {
+                Tuple interval = matches.next();
+                return pointLeft ? mergeTuples(point, interval) : mergeTuples(interval, point);
+            }
+            if (pointPos == points.size()) {
+                return null;
+            }
+            point = points.get(pointPos++);
+            Field value = point.getField(pointField);
+
+            // start the intervals whose lower bound the point has reached
+            Predicate.Op started = lowerStrict ? Predicate.Op.LESS_THAN : Predicate.Op.LESS_THAN_OR_EQ;
+            while (intervalPos < intervals.size()
+                    && intervals.get(intervalPos).getField(lowerField).compare(started, value)) {
+                active.add(intervals.get(intervalPos++));
+            }
+            // end the intervals whose upper bound the point has passed; points only grow, so they stay ended
+            Predicate.Op ended = upperStrict ? Predicate.Op.LESS_THAN_OR_EQ : Predicate.Op.LESS_THAN;
+            while (!active.isEmpty() && active.peek().getField(upperField).compare(ended, value)) {
+                active.poll();
+            }
+            matches = active.iterator();
+        }
+    }
+
+    private Tuple mergeTuples(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
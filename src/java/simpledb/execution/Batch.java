@@ -0,0 +1,254 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+/**
+ * Batch holds up to a fixed number of rows column by column, the unit that
+ * {@link BatchIterator}s exchange. INT columns are stored as int arrays and
+ * columns of other types as arrays of Fields.
+ * <p>
+ * A selection vector lists the rows of the batch that are still part of the
+ * result, so that a filter only has to write the numbers of the rows that
+ * pass instead of copying them. Without a selection vector all rows are
+ * selected.
+ * <p>
+ * Batches are reused: a batch returned by {@link BatchIterator#nextBatch()}
+ * is only valid until the next call.
+ */
+public class Batch {
+
+    /** The default number of rows of a batch. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    // each column is stored in exactly one of these, depending on its type
+    private final int[][] ints;
+    private final Field[][] fields;
+    private final int capacity;
+    private int rows;
+    private int[] selection;
+    private int selected;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td the schema of the rows
+     * @param capacity the largest number of rows
+     */
+    public Batch(TupleDesc td, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("batch capacity must be positive, not " + capacity);
+        }
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.fields = new Field[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                fields[i] = new Field[capacity];
+            }
+        }
+    }
+
+    private Batch(TupleDesc td, int[][] ints, Field[][] fields, int capacity) {
+        this.td = td;
+        this.ints = ints;
+        this.fields = fields;
+        this.capacity = capacity;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the largest number of rows of this batch
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows in this batch, selected or not
+     */
+    public int numRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int size() {
+        return selected;
+    }
+
+    /**
+     * @return the row number of the i-th selected row
+     */
+    public int row(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /**
+     * @return the selection vector, or null if all rows are selected
+     */
+    public int[] selection() {
+        return selection;
+    }
+
+    /**
+     * Selects some of the rows.
+     *
+     * @param selection the numbers of the selected rows in ascending order, or null to select all rows
+     * @param selected the number of selected rows at the start of selection
+     */
+    public void setSelection(int[] selection, int selected) {
+        this.selection = selection;
+        this.selected = selection == null ? rows : selected;
+    }
+
+    /**
+     * @return the values of an INT column
+     */
+    public int[] ints(int column) {
+        return ints[column];
+    }
+
+    /**
+     * @return the values of a column that isn't of type INT
+     */
+    public Field[] fields(int column) {
+        return fields[column];
+    }
+
+    /**
+     * @return the value of a row of a column, boxing it if it is an INT
+     */
+    public Field getField(int row, int column) {
+        return ints[column] != null ? new IntField(ints[column][row]) : fields[column][row];
+    }
+
+    /**
+     * @return whether no more rows can be added
+     */
+    public boolean isFull() {
+        return rows == capacity;
+    }
+
+    /**
+     * Removes all rows.
+     */
+    public void clear() {
+        rows = 0;
+        selection = null;
+        selected = 0;
+    }
+
+    /**
+     * Appends a row. Only valid while all rows are selected.
+     */
+    public void addTuple(Tuple t) {
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][rows] = ((IntField) t.getField(i)).getValue();
+            } else {
+                fields[i][rows] = t.getField(i);
+            }
+        }
+        rows++;
+        selected++;
+    }
+
+    /**
+     * Appends n rows whose values were written straight into the arrays of
+     * the columns, after the current rows. Only valid while all rows are
+     * selected.
+     */
+    void appendRows(int n) {
+        rows += n;
+        selected += n;
+    }
+
+    /**
+     * Appends a copy of a row of another batch with the same schema. Only
+     * valid while all rows are selected.
+     */
+    void addRow(Batch from, int row) {
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][rows] = from.ints[i][row];
+            } else {
+                fields[i][rows] = from.fields[i][row];
+            }
+        }
+        rows++;
+        selected++;
+    }
+
+    /**
+     * Appends a row whose first columns are a row of left and whose remaining
+     * columns are a row of right, as joins produce. Only valid while all rows
+     * are selected.
+     */
+    void addJoined(Batch left, int leftRow, Batch right, int rightRow) {
+        int n = left.ints.length;
+        for (int i = 0; i < n; i++) {
+            if (ints[i] != null) {
+                ints[i][rows] = left.ints[i][leftRow];
+            } else {
+                fields[i][rows] = left.fields[i][leftRow];
+            }
+        }
+        for (int i = n; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][rows] = right.ints[i - n][rightRow];
+            } else {
+                fields[i][rows] = right.fields[i - n][rightRow];
+            }
+        }
+        rows++;
+        selected++;
+    }
+
+    /**
+     * @return a row as a Tuple
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            t.setField(i, getField(row, i));
+        }
+        return t;
+    }
+
+    /**
+     * Returns a batch of some of the columns of this one, which shares their
+     * values and the selection with this batch.
+     *
+     * @param td the schema of the projected columns
+     * @param columns the columns of this batch to project
+     * @param projected a batch returned by an earlier call with the same
+     *            columns, to be reused, or null
+     */
+    Batch project(TupleDesc td, int[] columns, Batch projected) {
+        if (projected == null) {
+            int[][] pInts = new int[columns.length][];
+            Field[][] pFields = new Field[columns.length][];
+            for (int i = 0; i < columns.length; i++) {
+                pInts[i] = ints[columns[i]];
+                pFields[i] = fields[columns[i]];
+            }
+            projected = new Batch(td, pInts, pFields, capacity);
+        }
+        projected.rows = rows;
+        projected.selection = selection;
+        projected.selected = selected;
+        return projected;
+    }
+}
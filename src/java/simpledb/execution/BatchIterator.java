@@ -0,0 +1,53 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link OpIterator}:
+ * vectorized operators pass each other {@link Batch}es of rows stored by
+ * column instead of one Tuple at a time, so the per-row work is a loop over
+ * arrays. {@link RowToBatch} and {@link BatchToRow} connect the two kinds of
+ * operators in one plan.
+ */
+public interface BatchIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before {@link #nextBatch()}.
+     *
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch. It is only valid until the next call, because
+     * operators reuse their batches.
+     *
+     * @return the next batch with at least one selected row, or null if
+     *         there are no more rows
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    Batch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     *
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc associated with this BatchIterator.
+     *
+     * @return the TupleDesc associated with this BatchIterator.
+     */
+    TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    void close();
+}
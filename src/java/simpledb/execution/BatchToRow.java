@@ -0,0 +1,79 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchToRow returns the selected rows of the batches of a vectorized
+ * operator as tuples, so that row-at-a-time operators can consume them.
+ */
+public class BatchToRow extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+
+    transient private Batch batch;
+    transient private int index;
+
+    /**
+     * @param child the vectorized operator whose rows to return
+     */
+    public BatchToRow(BatchIterator child) {
+        this.child = child;
+    }
+
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (batch == null || index >= batch.size()) {
+            batch = child.nextBatch();
+            index = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.getTuple(batch.row(index++));
+    }
+
+    /**
+     * The vectorized child isn't an OpIterator, so this operator has no
+     * children as far as row-at-a-time plans are concerned.
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
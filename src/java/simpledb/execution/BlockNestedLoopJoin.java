@@ -0,0 +1,211 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin joins two children on any predicate by reading the left
+ * child in blocks of tuples that fit into a memory budget, and scanning the
+ * right child once per block rather than once per left tuple as {@link Join}
+ * does. It is the join for predicates other than equality, which can't be
+ * hashed.
+ * <p>
+ * Within a block, results come out in the order of the right child; the order
+ * of the left child is only kept across blocks.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default memory budget for one block of left tuples, in bytes. */
+    public static final long DEFAULT_MEMORY_BUDGET = 1L << 20;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int blockTuples;
+
+    transient private Tuple[] block;
+    transient private int blockSize;
+    transient private int blockPos;
+    transient private Tuple t2;
+    transient private boolean child1Done;
+    transient private PredicateCompiler.JoinFilter compiled;
+
+    /**
+     * Constructor. Uses the default memory budget.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left (outer) relation to join
+     * @param child2
+     *            Iterator for the right (inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryBudget
+     *            The number of bytes of left tuples held in one block
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBudget) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.blockTuples = blockTuples(child1.getTupleDesc(), memoryBudget);
+    }
+
+    /**
+     * @return the number of tuples with the given schema that fit into a block of the given size, at least one
+     */
+    public static int blockTuples(TupleDesc td, long memoryBudget) {
+        long tuples = memoryBudget / (td.getSize() + HybridHashJoin.TUPLE_OVERHEAD);
+        return (int) Math.max(1, Math.min(tuples, Integer.MAX_VALUE - 8));
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /**
+     * @return the number of left tuples read per scan of the right child
+     */
+    public int getBlockTuples() {
+        return blockTuples;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        compiled = PredicateCompiler.compile(Collections.singletonList(pred),
+                child1.getTupleDesc(), child2.getTupleDesc());
+        child1.open();
+        child2.open();
+        reset();
+        super.open();
+    }
+
+    private void reset() {
+        block = null;
+        blockSize = 0;
+        blockPos = 0;
+        t2 = null;
+        child1Done = false;
+    }
+
+    public void close() {
+        super.close();
+        reset();
+        child2.close();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    /**
+     * Reads the next block of left tuples.
+     *
+     * @return false if the left child has no more tuples
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        if (child1Done) {
+            return false;
+        }
+        if (block == null) {
+            // the first block is sized for the input, so small inputs don't allocate the whole budget
+            block = new Tuple[Math.min(blockTuples, 1024)];
+        }
+        blockSize = 0;
+        while (blockSize < blockTuples && child1.hasNext()) {
+            if (blockSize == block.length) {
+                block = Arrays.copyOf(block, (int) Math.min((long) block.length * 2, blockTuples));
+            }
+            block[blockSize++] = child1.next();
+        }
+        if (blockSize < blockTuples) {
+            child1Done = true;
+        }
+        return blockSize > 0;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The result is the concatenation of the joining left and
+     * right tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (t2 != null && blockPos < blockSize) {
+                Tuple t1 = block[blockPos++];
+                if (compiled.test(t1, t2)) {
+                    return mergeTuples(t1, t2);
+                }
+            }
+            if (blockSize > 0 && child2.hasNext()) {
+                t2 = child2.next();
+                blockPos = 0;
+                continue;
+            }
+            // the right child is done with this block, move on to the next one
+            boolean first = block == null;
+            if (!loadBlock()) {
+                return null;
+            }
+            if (!first) {
+                child2.rewind();
+            }
+            t2 = null;
+        }
+    }
+
+    private Tuple mergeTuples(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
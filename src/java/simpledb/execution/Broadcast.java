@@ -0,0 +1,66 @@
+package simpledb.execution;
+
+/**
+ * Broadcast runs a set of pipelines on worker threads and returns all of their
+ * tuples to each of several consumers. It is created in groups by
+ * {@link #broadcast}; for example, the small input of a join can be
+ * broadcast to parallel joins that each probe a morsel of the large input.
+ * <p>
+ * The Broadcasts of a group share their producers, so they are opened and
+ * closed together, see {@link Exchange.Channel}. The consumers receive the
+ * same Tuple objects.
+ */
+public class Broadcast extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Channel channel;
+    private final int consumer;
+
+    private Broadcast(Channel channel, int consumer) {
+        this.channel = channel;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Creates the consumers of the tuples of a set of pipelines.
+     *
+     * @param children the pipelines whose tuples to return; must have the same TupleDesc
+     * @param consumers the number of consumers
+     * @param parallelism the largest number of threads to run the children on
+     * @return a Broadcast for each consumer
+     */
+    public static Broadcast[] broadcast(OpIterator[] children, int consumers, int parallelism) {
+        if (consumers < 1) {
+            throw new IllegalArgumentException("need at least one consumer, not " + consumers);
+        }
+        Channel channel = new Channel(children, consumers, t -> Router.ALL, parallelism);
+        Broadcast[] result = new Broadcast[consumers];
+        for (int i = 0; i < consumers; i++) {
+            result[i] = new Broadcast(channel, i);
+        }
+        return result;
+    }
+
+    public String getName() {
+        return "Broadcast(" + consumer + "/" + channel.getConsumers() + ")";
+    }
+
+    @Override
+    Channel getChannel() {
+        return channel;
+    }
+
+    @Override
+    int getConsumer() {
+        return consumer;
+    }
+
+    /**
+     * The children are shared with the other consumers, so they can't be replaced.
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        throw new UnsupportedOperationException("the children of a Broadcast are shared by its consumers");
+    }
+}
@@ -0,0 +1,204 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Disjunction is a predicate that passes the tuples that satisfy any of its
+ * alternatives, each of which is a conjunction of predicates. An IN list is
+ * a disjunction of equalities on one field.
+ * <p>
+ * At least {@link #HASH_THRESHOLD} alternatives that are single equalities
+ * on the same field are looked up in a hash set of their operands instead
+ * of being compared one at a time.
+ */
+public class Disjunction implements TuplePredicate {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of equalities on a field from which they are evaluated with a hash set. */
+    public static final int HASH_THRESHOLD = 8;
+
+    private final List<List<Predicate>> alternatives;
+
+    // the hashed equalities, by field, and the alternatives evaluated one at a time
+    transient private int[] intSetFields;
+    transient private IntHashTable[] intSets;
+    transient private int[] stringSetFields;
+    transient private List<Set<String>> stringSets;
+    transient private Predicate[][] rest;
+
+    /**
+     * @param alternatives the conjunctions of predicates, at least one of
+     *            which a tuple satisfies to pass
+     */
+    public Disjunction(List<List<Predicate>> alternatives) {
+        if (alternatives.isEmpty()) {
+            throw new IllegalArgumentException("a disjunction needs at least one alternative");
+        }
+        for (List<Predicate> a : alternatives) {
+            if (a.isEmpty()) {
+                throw new IllegalArgumentException("the alternatives of a disjunction can't be empty");
+            }
+        }
+        this.alternatives = alternatives;
+        prepare();
+    }
+
+    /**
+     * @return a disjunction that passes the tuples whose field equals one of values
+     */
+    public static Disjunction in(int field, List<Field> values) {
+        List<List<Predicate>> alternatives = new ArrayList<>();
+        for (Field v : values) {
+            alternatives.add(Collections.singletonList(new Predicate(field, Predicate.Op.EQUALS, v)));
+        }
+        return new Disjunction(alternatives);
+    }
+
+    /**
+     * @return the conjunctions of predicates this disjunction consists of
+     */
+    @Override
+    public List<List<Predicate>> getAlternatives() {
+        return alternatives;
+    }
+
+    private static boolean isEquality(List<Predicate> alternative) {
+        if (alternative.size() != 1) {
+            return false;
+        }
+        return alternative.get(0).getOp() == Predicate.Op.EQUALS;
+    }
+
+    private void prepare() {
+        Map<Integer, List<Field>> equalities = new LinkedHashMap<>();
+        for (List<Predicate> a : alternatives) {
+            if (isEquality(a)) {
+                equalities.computeIfAbsent(a.get(0).getField(), k -> new ArrayList<>()).add(a.get(0).getOperand());
+            }
+        }
+        List<Integer> intFields = new ArrayList<>();
+        List<IntHashTable> ints = new ArrayList<>();
+        List<Integer> stringFields = new ArrayList<>();
+        stringSets = new ArrayList<>();
+        Set<Integer> hashed = new HashSet<>();
+        for (Map.Entry<Integer, List<Field>> e : equalities.entrySet()) {
+            List<Field> values = e.getValue();
+            if (values.size() < HASH_THRESHOLD) {
+                continue;
+            }
+            boolean allInts = true;
+            for (Field v : values) {
+                allInts &= v instanceof IntField;
+            }
+            if (allInts) {
+                IntHashTable set = new IntHashTable(values.size());
+                for (Field v : values) {
+                    int key = ((IntField) v).getValue();
+                    if (set.first(key) == IntHashTable.NO_ROW) {
+                        set.add(key, set.size());
+                    }
+                }
+                intFields.add(e.getKey());
+                ints.add(set);
+            } else {
+                // strings, plain or dictionary-encoded, are compared on their values
+                Set<String> set = new HashSet<>();
+                for (Field v : values) {
+                    set.add(v.toString());
+                }
+                stringFields.add(e.getKey());
+                stringSets.add(set);
+            }
+            hashed.add(e.getKey());
+        }
+        intSetFields = intFields.stream().mapToInt(Integer::intValue).toArray();
+        intSets = ints.toArray(new IntHashTable[0]);
+        stringSetFields = stringFields.stream().mapToInt(Integer::intValue).toArray();
+        List<Predicate[]> others = new ArrayList<>();
+        for (List<Predicate> a : alternatives) {
+            if (!isEquality(a) || !hashed.contains(a.get(0).getField())) {
+                others.add(a.toArray(new Predicate[0]));
+            }
+        }
+        rest = others.toArray(new Predicate[0][]);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        prepare();
+    }
+
+    /**
+     * @return whether t satisfies any of the alternatives
+     */
+    @Override
+    public boolean filter(Tuple t) {
+        for (int i = 0; i < intSetFields.length; i++) {
+            if (intSets[i].first(((IntField) t.getField(intSetFields[i])).getValue()) != IntHashTable.NO_ROW) {
+                return true;
+            }
+        }
+        for (int i = 0; i < stringSetFields.length; i++) {
+            if (stringSets.get(i).contains(t.getField(stringSetFields[i]).toString())) {
+                return true;
+            }
+        }
+        for (Predicate[] conjunction : rest) {
+            boolean all = true;
+            for (Predicate p : conjunction) {
+                if (!p.filter(t)) {
+                    all = false;
+                    break;
+                }
+            }
+            if (all) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the relative cost of evaluating this disjunction on a tuple: one
+     *         per hash lookup, plus the cost of the alternatives evaluated
+     *         one at a time
+     */
+    @Override
+    public double evaluationCost() {
+        double cost = intSetFields.length + stringSetFields.length;
+        for (Predicate[] conjunction : rest) {
+            for (Predicate p : conjunction) {
+                cost += p.evaluationCost();
+            }
+        }
+        return cost;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (List<Predicate> a : alternatives) {
+            if (sb.length() > 0) {
+                sb.append(" OR ");
+            }
+            sb.append('(');
+            for (int i = 0; i < a.size(); i++) {
+                sb.append(i > 0 ? " AND " : "").append(a.get(i));
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,404 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Exchange is the base class of the operators that move tuples between
+ * threads. Each exchange reads from a {@link Channel}, which runs a set of
+ * producer pipelines on worker threads and routes the tuples they return into
+ * one queue per consuming exchange, in chunks of {@link #CHUNK_SIZE} tuples.
+ * <p>
+ * {@link Gather} is the only consumer of its channel and merges the output of
+ * its pipelines. {@link Repartition} and {@link Broadcast} are created in
+ * groups that share a channel: each of them returns one hash partition of the
+ * tuples, or all of them, usually to one of several parallel pipelines that
+ * are gathered again above.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of worker threads of an exchange. */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    /** The number of tuples handed from a producer to a consumer at once. */
+    static final int CHUNK_SIZE = 256;
+    /** The number of chunks buffered per consumer before the producers wait for it. */
+    static final int QUEUE_CHUNKS = 16;
+    // how long to wait on a queue before checking whether the run was cancelled or failed
+    private static final long POLL_MILLIS = 10;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * @return the name of this exchange, as shown in query plans
+     */
+    public abstract String getName();
+
+    /**
+     * Decides which consumers of a channel receive a tuple.
+     */
+    interface Router extends Serializable {
+        /** Returned by {@link #route} for tuples that go to every consumer. */
+        int ALL = -1;
+
+        /**
+         * @return the consumer to send t to, or {@link #ALL}
+         */
+        int route(Tuple t);
+    }
+
+    /**
+     * @return whether plan reads from an exchange whose channel has several
+     *         consumers, below any number of operators but not below another
+     *         exchange
+     */
+    static boolean readsSharedChannel(OpIterator plan) {
+        if (plan instanceof Exchange) {
+            return ((Exchange) plan).getChannel().consumers > 1;
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && readsSharedChannel(child)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the channel this exchange reads from
+     */
+    abstract Channel getChannel();
+
+    /**
+     * A set of producer pipelines and the queues of the exchanges that consume
+     * their tuples.
+     * <p>
+     * The pipelines run when the first consumer is opened, on a pool of
+     * worker threads of their own, and are cancelled once every consumer has
+     * been closed; closing a consumer that was never opened gives up its
+     * tuples for the current run. Reopening a consumer that was already opened
+     * starts a new run of the pipelines; consumers still reading the previous
+     * run then fail instead of returning partial results. So the consumers of
+     * a shared channel are opened and closed together, usually by the
+     * {@link Gather} above them.
+     * <p>
+     * A pipeline that reads from another shared channel may wait until all
+     * consumers of that channel are reading, so such pipelines all get a
+     * thread of their own instead of queueing for a smaller pool.
+     */
+    static final class Channel implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final OpIterator[] producers;
+        private final int consumers;
+        private final Router router;
+        private final int threads;
+
+        // the run being read, and the last one started, whose producers may still be stopping
+        transient private Run run;
+        transient private Run last;
+
+        Channel(OpIterator[] producers, int consumers, Router router, int parallelism) {
+            if (producers.length == 0) {
+                throw new IllegalArgumentException("an exchange needs at least one producer");
+            }
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be positive, not " + parallelism);
+            }
+            this.producers = producers;
+            this.consumers = consumers;
+            this.router = router;
+            boolean dependent = false;
+            for (OpIterator p : producers) {
+                dependent |= readsSharedChannel(p);
+            }
+            this.threads = dependent ? producers.length : Math.min(parallelism, producers.length);
+        }
+
+        OpIterator[] getProducers() {
+            return producers;
+        }
+
+        int getConsumers() {
+            return consumers;
+        }
+
+        int getThreads() {
+            return threads;
+        }
+
+        synchronized Run open(int consumer) {
+            if (run == null || run.opened[consumer]) {
+                if (last != null) {
+                    // the producers of the last run share the pipelines with the next one
+                    last.cancel();
+                    last.await();
+                }
+                run = last = new Run();
+                run.start();
+            }
+            run.opened[consumer] = true;
+            return run;
+        }
+
+        synchronized void close(int consumer, Run r) {
+            r.opened[consumer] = true;
+            r.closed.set(consumer, 1);
+            r.queues[consumer].clear();
+            for (int i = 0; i < consumers; i++) {
+                if (r.closed.get(i) == 0) {
+                    return;
+                }
+            }
+            r.cancel();
+            if (run == r) {
+                run = null;
+            }
+        }
+
+        synchronized void abandon(int consumer) {
+            if (run != null && !run.opened[consumer]) {
+                close(consumer, run);
+            }
+        }
+
+        /**
+         * One execution of the producer pipelines.
+         */
+        final class Run {
+            private final BlockingQueue<List<Tuple>>[] queues;
+            private final boolean[] opened = new boolean[consumers];
+            private final AtomicIntegerArray closed = new AtomicIntegerArray(consumers);
+            private final AtomicInteger remaining = new AtomicInteger(producers.length);
+            private volatile boolean cancelled;
+            private volatile Exception failure;
+            private ExecutorService pool;
+
+            @SuppressWarnings("unchecked")
+            Run() {
+                queues = new BlockingQueue[consumers];
+                for (int i = 0; i < consumers; i++) {
+                    queues[i] = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+                }
+            }
+
+            private void start() {
+                pool = Executors.newFixedThreadPool(threads, r -> {
+                    Thread t = new Thread(r, "exchange-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+                for (OpIterator p : producers) {
+                    pool.execute(() -> produce(p));
+                }
+                // the threads exit once they have run every pipeline
+                pool.shutdown();
+            }
+
+            private void await() {
+                try {
+                    while (!pool.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        // the producers stop at their next tuple, or once the exchanges they read are done
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            private void cancel() {
+                cancelled = true;
+                for (BlockingQueue<List<Tuple>> q : queues) {
+                    q.clear();
+                }
+            }
+
+            private void produce(OpIterator p) {
+                List<Tuple>[] chunks = newChunks();
+                try {
+                    if (cancelled) {
+                        // lets the exchanges in the pipeline give up their tuples
+                        p.close();
+                    } else {
+                        p.open();
+                        try {
+                            while (!cancelled && p.hasNext()) {
+                                Tuple t = p.next();
+                                int c = router.route(t);
+                                if (c == Router.ALL) {
+                                    for (int i = 0; i < consumers; i++) {
+                                        add(chunks, i, t);
+                                    }
+                                } else {
+                                    add(chunks, c, t);
+                                }
+                            }
+                            for (int i = 0; i < consumers; i++) {
+                                if (!chunks[i].isEmpty()) {
+                                    put(i, chunks[i]);
+                                }
+                            }
+                        } finally {
+                            p.close();
+                        }
+                    }
+                } catch (DbException | TransactionAbortedException | RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    cancel();
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        for (int i = 0; i < consumers; i++) {
+                            put(i, END);
+                        }
+                    }
+                }
+            }
+
+            @SuppressWarnings("unchecked")
+            private List<Tuple>[] newChunks() {
+                List<Tuple>[] chunks = new List[consumers];
+                for (int i = 0; i < consumers; i++) {
+                    chunks[i] = new ArrayList<>(CHUNK_SIZE);
+                }
+                return chunks;
+            }
+
+            private void add(List<Tuple>[] chunks, int consumer, Tuple t) {
+                if (closed.get(consumer) == 1) {
+                    return;
+                }
+                chunks[consumer].add(t);
+                if (chunks[consumer].size() == CHUNK_SIZE) {
+                    put(consumer, chunks[consumer]);
+                    chunks[consumer] = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+
+            private void put(int consumer, List<Tuple> chunk) {
+                try {
+                    while (!queues[consumer].offer(chunk, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        if (cancelled || closed.get(consumer) == 1) {
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancel();
+                }
+            }
+
+            /**
+             * @return the next chunk of tuples for consumer, or null if the producers are done
+             */
+            List<Tuple> take(int consumer) throws DbException, TransactionAbortedException {
+                while (true) {
+                    if (failure instanceof TransactionAbortedException) {
+                        throw (TransactionAbortedException) failure;
+                    } else if (failure instanceof DbException) {
+                        throw (DbException) failure;
+                    } else if (failure != null) {
+                        throw (RuntimeException) failure;
+                    } else if (cancelled) {
+                        throw new DbException("exchange was restarted while it was read");
+                    }
+                    List<Tuple> chunk;
+                    try {
+                        chunk = queues[consumer].poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new DbException("interrupted while reading an exchange");
+                    }
+                    if (chunk == END && failure == null && !cancelled) {
+                        return null;
+                    } else if (chunk != null && chunk != END) {
+                        return chunk;
+                    }
+                }
+            }
+        }
+    }
+
+    // marks the end of the tuples in a consumer's queue
+    private static final List<Tuple> END = new ArrayList<>(0);
+
+    transient private Channel.Run run;
+    transient private List<Tuple> chunk;
+    transient private int index;
+
+    /**
+     * @return the index of this exchange among the consumers of its channel
+     */
+    abstract int getConsumer();
+
+    public void open() throws DbException, TransactionAbortedException {
+        run = getChannel().open(getConsumer());
+        chunk = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (run != null) {
+            getChannel().close(getConsumer(), run);
+            run = null;
+        } else {
+            getChannel().abandon(getConsumer());
+        }
+        chunk = null;
+    }
+
+    /**
+     * Runs the producer pipelines again. The other consumers of a shared
+     * channel must be reopened too, see {@link Channel}.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (chunk == null || index >= chunk.size()) {
+            if (run == null) {
+                return null;
+            }
+            chunk = run.take(getConsumer());
+            index = 0;
+            if (chunk == null) {
+                // the producers are done; stop reading the queue
+                getChannel().close(getConsumer(), run);
+                run = null;
+                return null;
+            }
+        }
+        return chunk.get(index++);
+    }
+
+    /**
+     * @return the producer pipelines of this exchange's channel
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return getChannel().getProducers();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return getChannel().getProducers()[0].getTupleDesc();
+    }
+}
@@ -11,8 +11,9 @@ import java.util.*;
  * Filter is an operator that implements a relational select.
  */
 public class Filter extends Operator {
-    private final Predicate p;
+    private final TuplePredicate p;
     private OpIterator child;
+    transient private PredicateCompiler.TupleFilter compiled;
 
     private static final long serialVersionUID = 1L;
 
@@ -25,13 +26,13 @@ public class Filter extends Operator {
      * @param child
      *            The child operator
      */
-    public Filter(Predicate p, OpIterator child) {
+    public Filter(TuplePredicate p, OpIterator child) {
         // some code goes here
         this.p = p;
         this.child = child;
     }
 
-    public Predicate getPredicate() {
+    public TuplePredicate getPredicate() {
         // some code goes here
         return this.p;
     }
@@ -44,6 +45,7 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        compiled = PredicateCompiler.compile(Collections.singletonList(p), child.getTupleDesc());
         super.open();
         child.open();
     }
@@ -62,11 +64,11 @@ public class Filter extends Operator {
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * pass the predicate (i.e. for which the TuplePredicate.filter() returns true.)
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
-     * @see Predicate#filter
+     * @see TuplePredicate#filter
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
@@ -74,7 +76,7 @@ public class Filter extends Operator {
         // TODO 感受一下与 next() 方法 和 hasNext() 方法之间的联动
         while(child.hasNext()) {
             Tuple next = child.next();
-            if(p.filter(next)) {
+            if(compiled.test(next)) {
                 return next;
             }
         }
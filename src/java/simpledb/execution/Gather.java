@@ -0,0 +1,153 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+
+/**
+ * Gather runs its children on worker threads and returns the tuples of all of
+ * them, in no particular order. The children are independent pipelines, such
+ * as the morsels of a table returned by {@link #morsels}, or the per-partition
+ * joins of {@link Repartition}ed inputs.
+ * <p>
+ * With more children than threads, each thread runs the next child once it
+ * is done with the previous one, so that morsels of uneven cost are spread
+ * over the threads.
+ */
+public class Gather extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The smallest number of pages of a morsel. */
+    public static final int MIN_PAGES_PER_MORSEL = 16;
+    /** The number of morsels per thread a table is split into, if it is large enough. */
+    public static final int MORSELS_PER_THREAD = 4;
+
+    private Channel channel;
+
+    /**
+     * Constructor. Runs the children on {@link #DEFAULT_PARALLELISM} threads.
+     *
+     * @param children the pipelines whose tuples to return; must have the same TupleDesc
+     */
+    public Gather(OpIterator[] children) {
+        this(children, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param children the pipelines whose tuples to return; must have the same TupleDesc
+     * @param parallelism the largest number of threads to run the children on
+     */
+    public Gather(OpIterator[] children, int parallelism) {
+        this.channel = new Channel(children, 1, t -> 0, parallelism);
+    }
+
+    public String getName() {
+        return "Gather(" + channel.getProducers().length + " on " + channel.getThreads() + ")";
+    }
+
+    /**
+     * @return the number of threads the children are run on
+     */
+    public int getThreads() {
+        return channel.getThreads();
+    }
+
+    @Override
+    Channel getChannel() {
+        return channel;
+    }
+
+    @Override
+    int getConsumer() {
+        return 0;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.channel = new Channel(children, 1, t -> 0, channel.getThreads());
+    }
+
+    /**
+     * @return the scan at the bottom of plan if plan is a scan of a whole
+     *         HeapFile below any number of Filters, otherwise null. A search
+     *         of a secondary index isn't one: its key predicate is in the
+     *         index search, which a range of pages can't repeat
+     */
+    public static SeqScan morselScan(OpIterator plan) {
+        while (plan instanceof Filter) {
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        if (!(plan instanceof SeqScan)) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) plan;
+        boolean heapFile = Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile;
+        return heapFile && scan.getFirstPage() < 0 && scan.getIndexField() < 0 ? scan : null;
+    }
+
+    /**
+     * Splits a scan into morsels, that is copies of it that each read a range
+     * of the pages of its table.
+     *
+     * @param plan a scan of a whole HeapFile below any number of Filters, see {@link #morselScan}
+     * @param count the number of morsels to split plan into, at most one per page
+     * @return the morsels of plan, in page order
+     */
+    public static OpIterator[] morsels(OpIterator plan, int count) {
+        SeqScan scan = morselScan(plan);
+        if (scan == null) {
+            throw new IllegalArgumentException("only scans of whole heap files can be split into morsels");
+        }
+        int pages = numPages(scan);
+        if (pages == 0) {
+            return new OpIterator[]{plan};
+        }
+        count = Math.max(1, Math.min(count, pages));
+        OpIterator[] morsels = new OpIterator[count];
+        for (int i = 0; i < count; i++) {
+            morsels[i] = partition(plan, scan, (int) ((long) pages * i / count), (int) ((long) pages * (i + 1) / count));
+        }
+        return morsels;
+    }
+
+    /**
+     * Scans a table on several threads, by splitting it into morsels of at
+     * least {@link #MIN_PAGES_PER_MORSEL} pages, {@link #MORSELS_PER_THREAD}
+     * per thread.
+     *
+     * @param plan a scan of a whole HeapFile below any number of Filters, see {@link #morselScan}
+     * @param parallelism the largest number of threads to scan on
+     */
+    public static Gather parallelScan(OpIterator plan, int parallelism) {
+        SeqScan scan = morselScan(plan);
+        if (scan == null) {
+            throw new IllegalArgumentException("only scans of whole heap files can be scanned in parallel");
+        }
+        int count = Math.min(numPages(scan) / MIN_PAGES_PER_MORSEL, parallelism * MORSELS_PER_THREAD);
+        return new Gather(morsels(plan, count), parallelism);
+    }
+
+    private static int numPages(SeqScan scan) {
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        return ((HeapFile) f).numPages();
+    }
+
+    /**
+     * @return a copy of plan that reads only a range of pages of the table scanned by scan, the bottom of plan
+     */
+    static OpIterator partition(OpIterator plan, SeqScan scan, int firstPage, int endPage) {
+        if (plan instanceof Filter) {
+            Filter filter = (Filter) plan;
+            Filter copy = new Filter(filter.getPredicate(), partition(filter.getChildren()[0], scan, firstPage, endPage));
+            copy.setEstimatedCardinality(filter.getEstimatedCardinality());
+            return copy;
+        }
+        SeqScan copy = new SeqScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias(), firstPage, endPage,
+            scan.getPredicates(), scan.getFields());
+        copy.setEstimatedCardinality(scan.getEstimatedCardinality());
+        return copy;
+    }
+}
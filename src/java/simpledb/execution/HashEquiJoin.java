@@ -2,6 +2,8 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -9,6 +11,14 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * The left child is the build side. Joins on two INT fields load it into an
+ * {@link IntHashTable} in chunks that fit in a memory budget, and scan the
+ * right child once per chunk; the planner only picks this operator when the
+ * build side fits in the default budget of {@link HybridHashJoin}, so it is
+ * loaded at once and the right child is scanned once. Other joins load it
+ * into a HashMap keyed by the join field in chunks of {@link #MAP_SIZE}
+ * tuples, and scan the right child once per chunk.
  */
 public class HashEquiJoin extends Operator {
 
@@ -16,6 +26,8 @@ public class HashEquiJoin extends Operator {
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
+    private final boolean intKeys;
+    private final long memoryBudget;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
@@ -31,10 +43,27 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, HybridHashJoin.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryBudget
+     *            The number of bytes of build tuples of a join on INT fields
+     *            loaded per chunk; at least one tuple is loaded
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("need a positive memory budget");
+        }
+        this.memoryBudget = memoryBudget;
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        intKeys = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(p.getField2()) == Type.INT_TYPE;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -58,7 +87,15 @@ public class HashEquiJoin extends Operator {
     final Map<Object, List<Tuple>> map = new HashMap<>();
     public final static int MAP_SIZE = 20000;
 
+    // build side of joins on INT fields: the rows of the current chunk and a table from keys to row numbers
+    transient private Tuple[] rows;
+    transient private IntHashTable intTable;
+    transient private int matchRow = IntHashTable.NO_ROW;
+
     private boolean loadMap() throws DbException, TransactionAbortedException {
+        if (intKeys) {
+            return loadIntTable();
+        }
         int cnt = 0;
         map.clear();
         while (child1.hasNext()) {
@@ -72,6 +109,30 @@ public class HashEquiJoin extends Operator {
 
     }
 
+    private boolean loadIntTable() throws DbException, TransactionAbortedException {
+        if (rows == null) {
+            rows = new Tuple[64];
+        }
+        long tupleBytes = child1.getTupleDesc().getSize() + HybridHashJoin.TUPLE_OVERHEAD;
+        int maxRows = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, memoryBudget / tupleBytes));
+        int cnt = 0;
+        while (cnt < maxRows && child1.hasNext()) {
+            if (cnt == rows.length) {
+                rows = Arrays.copyOf(rows, (int) Math.min((long) rows.length * 2, maxRows));
+            }
+            rows[cnt++] = child1.next();
+        }
+        Arrays.fill(rows, cnt, rows.length, null);
+        // the chunk is fully read, so the table can be sized for exactly its rows
+        intTable = new IntHashTable(cnt);
+        int field = pred.getField1();
+        for (int i = 0; i < cnt; i++) {
+            intTable.add(((IntField) rows[i].getField(field)).getValue(), i);
+        }
+        matchRow = IntHashTable.NO_ROW;
+        return cnt > 0;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
@@ -88,11 +149,16 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        this.rows=null;
+        this.intTable=null;
+        this.matchRow=IntHashTable.NO_ROW;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        listIt = null;
+        loadMap();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -117,7 +183,16 @@ public class HashEquiJoin extends Operator {
      */
     private Tuple processList() {
         t1 = listIt.next();
+        return mergeTuples();
+    }
+
+    private Tuple processRow() {
+        t1 = rows[matchRow];
+        matchRow = intTable.next(matchRow);
+        return mergeTuples();
+    }
 
+    private Tuple mergeTuples() {
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
 
@@ -132,6 +207,9 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (intKeys) {
+            return fetchNextInt();
+        }
         if (listIt != null && listIt.hasNext()) {
             return processList();
         }
@@ -160,6 +238,29 @@ public class HashEquiJoin extends Operator {
         return null;
     }
 
+    private Tuple fetchNextInt() throws TransactionAbortedException, DbException {
+        if (matchRow != IntHashTable.NO_ROW) {
+            return processRow();
+        }
+
+        int field = pred.getField2();
+        while (true) {
+            while (child2.hasNext()) {
+                t2 = child2.next();
+                matchRow = intTable.first(((IntField) t2.getField(field)).getValue());
+                if (matchRow != IntHashTable.NO_ROW) {
+                    return processRow();
+                }
+            }
+            // child2 is scanned again only if the build side didn't fit into one chunk
+            if (!child1.hasNext()) {
+                return null;
+            }
+            child2.rewind();
+            loadIntTable();
+        }
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
@@ -0,0 +1,387 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HybridHashJoin is an equi-join for build sides that may not fit into memory.
+ * <p>
+ * The left child is the build side. Its tuples are hashed into a fixed number
+ * of partitions that are kept in memory until the memory budget is exceeded;
+ * then the largest in-memory partition is written to a {@link SpillFile}, and
+ * later build tuples of that partition go straight to disk. Once the build side
+ * is read, the partitions still in memory are joined with the right child while
+ * it is scanned, and right tuples of spilled partitions are written to spill
+ * files of their own. Finally each pair of spilled partitions is joined by a
+ * HybridHashJoin one level deeper, which hashes with a different seed and so
+ * splits partitions that were still too big. Partitions that can't be split
+ * further (too deep, or a single hot key) fall back to {@link HashEquiJoin}
+ * with the same memory budget, which rescans the spilled right partition once
+ * per build chunk.
+ * <p>
+ * Unlike {@link HashEquiJoin}, the right child is scanned only once and every
+ * spilled tuple is written and read exactly once per level.
+ */
+public class HybridHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default memory budget for the in-memory partitions, in bytes. */
+    public static final long DEFAULT_MEMORY_BUDGET = 8L << 20;
+    /** The default number of partitions per level. */
+    public static final int DEFAULT_PARTITIONS = 16;
+    /** The deepest level at which partitions are split again. */
+    public static final int MAX_DEPTH = 3;
+    /** Rough heap overhead of a Tuple beyond the size of its fields, used to account memory. */
+    static final int TUPLE_OVERHEAD = 48;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final long memoryBudget;
+    private final int numPartitions;
+    private final int depth;
+
+    // build side: the tuples of the partitions still in memory, and the spill files of the others
+    transient private List<Tuple>[] partitions;
+    transient private SpillFile[] buildSpills;
+    transient private SpillFile[] probeSpills;
+    transient private int buildTuples;
+    transient private int spilledPartitions;
+
+    // hash table over the in-memory partitions, keyed by the hash code of the join field
+    transient private Tuple[] rows;
+    transient private IntHashTable table;
+    transient private boolean probeDone;
+    transient private Tuple t2;
+    transient private Field probeField;
+    transient private int matchRow = IntHashTable.NO_ROW;
+
+    // joins of the spilled partition pairs
+    transient private int nextPartition;
+    transient private OpIterator partitionJoin;
+
+    /**
+     * Constructor. Uses the default memory budget and number of partitions.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left (build) relation to join
+     * @param child2
+     *            Iterator for the right (probe) relation to join
+     */
+    public HybridHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BUDGET, DEFAULT_PARTITIONS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryBudget
+     *            The number of bytes of build tuples kept in memory
+     * @param numPartitions
+     *            The number of partitions the inputs are split into
+     */
+    public HybridHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBudget, int numPartitions) {
+        this(p, child1, child2, memoryBudget, numPartitions, 0);
+    }
+
+    private HybridHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBudget,
+                           int numPartitions, int depth) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("HybridHashJoin only supports EQUALS, not " + p.getOperator());
+        }
+        if (memoryBudget <= 0 || numPartitions < 2) {
+            throw new IllegalArgumentException("need a positive memory budget and at least two partitions");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.memoryBudget = memoryBudget;
+        this.numPartitions = numPartitions;
+        this.depth = depth;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /**
+     * @return the number of partitions written to disk by the last build, not counting deeper levels
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    private int partitionOf(Field f) {
+        return partitionOf(f, depth, numPartitions);
+    }
+
+    /**
+     * @return the partition of a field among numPartitions at a level of recursive partitioning
+     */
+    static int partitionOf(Field f, int depth, int numPartitions) {
+        // murmur3 finalizer seeded with the level, so that each level splits partitions differently
+        int h = f.hashCode() ^ (0x9e3779b9 * (depth + 1));
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, numPartitions);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build();
+        super.open();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void build() throws DbException, TransactionAbortedException {
+        partitions = new List[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            partitions[i] = new ArrayList<>();
+        }
+        buildSpills = new SpillFile[numPartitions];
+        probeSpills = new SpillFile[numPartitions];
+        buildTuples = 0;
+        spilledPartitions = 0;
+
+        long tupleBytes = child1.getTupleDesc().getSize() + TUPLE_OVERHEAD;
+        long memory = 0;
+        int field = pred.getField1();
+        try {
+            while (child1.hasNext()) {
+                Tuple t = child1.next();
+                buildTuples++;
+                int p = partitionOf(t.getField(field));
+                if (buildSpills[p] != null) {
+                    buildSpills[p].add(t);
+                    continue;
+                }
+                partitions[p].add(t);
+                memory += tupleBytes;
+                while (memory > memoryBudget) {
+                    memory -= spillLargestPartition() * tupleBytes;
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("unable to spill hash join partition: " + e.getMessage());
+        }
+
+        // hash the partitions that stayed in memory
+        rows = new Tuple[(int) (memory / tupleBytes)];
+        table = new IntHashTable(rows.length);
+        int n = 0;
+        for (List<Tuple> partition : partitions) {
+            if (partition == null) {
+                continue;
+            }
+            for (Tuple t : partition) {
+                rows[n] = t;
+                table.add(t.getField(field).hashCode(), n++);
+            }
+        }
+        partitions = null;
+        probeDone = false;
+        matchRow = IntHashTable.NO_ROW;
+        nextPartition = 0;
+    }
+
+    /**
+     * Moves the biggest partition still in memory to a spill file.
+     *
+     * @return the number of tuples that were spilled
+     */
+    private int spillLargestPartition() throws IOException {
+        int largest = -1;
+        for (int i = 0; i < numPartitions; i++) {
+            if (partitions[i] != null && (largest == -1 || partitions[i].size() > partitions[largest].size())) {
+                largest = i;
+            }
+        }
+        SpillFile spill = new SpillFile(child1.getTupleDesc());
+        for (Tuple t : partitions[largest]) {
+            spill.add(t);
+        }
+        int spilled = partitions[largest].size();
+        partitions[largest] = null;
+        buildSpills[largest] = spill;
+        probeSpills[largest] = new SpillFile(child2.getTupleDesc());
+        spilledPartitions++;
+        return spilled;
+    }
+
+    public void close() {
+        super.close();
+        cleanup();
+        child2.close();
+        child1.close();
+    }
+
+    private void cleanup() {
+        if (partitionJoin != null) {
+            partitionJoin.close();
+            partitionJoin = null;
+        }
+        for (SpillFile[] spills : new SpillFile[][]{buildSpills, probeSpills}) {
+            if (spills != null) {
+                for (SpillFile spill : spills) {
+                    if (spill != null) {
+                        spill.delete();
+                    }
+                }
+            }
+        }
+        buildSpills = null;
+        probeSpills = null;
+        partitions = null;
+        rows = null;
+        table = null;
+        t2 = null;
+        probeField = null;
+        matchRow = IntHashTable.NO_ROW;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        cleanup();
+        child1.rewind();
+        child2.rewind();
+        build();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As in {@link HashEquiJoin}, the result is the concatenation
+     * of the joining left and right tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        try {
+            if (!probeDone) {
+                Tuple t = probe();
+                if (t != null) {
+                    return t;
+                }
+                probeDone = true;
+                // the in-memory partitions are done, make room for the spilled ones
+                rows = null;
+                table = null;
+            }
+            return joinSpilledPartitions();
+        } catch (IOException e) {
+            throw new DbException("unable to spill hash join partition: " + e.getMessage());
+        }
+    }
+
+    private Tuple probe() throws DbException, TransactionAbortedException, IOException {
+        while (true) {
+            while (matchRow != IntHashTable.NO_ROW) {
+                Tuple t1 = rows[matchRow];
+                matchRow = table.next(matchRow);
+                // rows are hashed by hash code, so check that the keys are really equal
+                if (t1.getField(pred.getField1()).equals(probeField)) {
+                    return mergeTuples(t1, t2);
+                }
+            }
+            if (!child2.hasNext()) {
+                return null;
+            }
+            t2 = child2.next();
+            probeField = t2.getField(pred.getField2());
+            if (spilledPartitions > 0) {
+                int p = partitionOf(probeField);
+                if (probeSpills[p] != null) {
+                    probeSpills[p].add(t2);
+                    continue;
+                }
+            }
+            matchRow = table.first(probeField.hashCode());
+        }
+    }
+
+    private Tuple joinSpilledPartitions() throws DbException, TransactionAbortedException, IOException {
+        while (true) {
+            if (partitionJoin != null) {
+                if (partitionJoin.hasNext()) {
+                    return partitionJoin.next();
+                }
+                partitionJoin.close();
+                partitionJoin = null;
+                buildSpills[nextPartition - 1].delete();
+                probeSpills[nextPartition - 1].delete();
+            }
+            while (nextPartition < numPartitions && buildSpills[nextPartition] == null) {
+                nextPartition++;
+            }
+            if (nextPartition == numPartitions) {
+                return null;
+            }
+            SpillFile build = buildSpills[nextPartition];
+            SpillFile probe = probeSpills[nextPartition];
+            nextPartition++;
+            if (probe.numTuples() == 0) {
+                continue;
+            }
+            OpIterator buildIt = build.iterator();
+            OpIterator probeIt = probe.iterator();
+            // a partition that holds the whole input can't be split by rehashing (e.g. a single hot key)
+            if (depth + 1 > MAX_DEPTH || build.numTuples() == buildTuples) {
+                partitionJoin = new HashEquiJoin(pred, buildIt, probeIt, memoryBudget);
+            } else {
+                partitionJoin = new HybridHashJoin(pred, buildIt, probeIt, memoryBudget, numPartitions, depth + 1);
+            }
+            partitionJoin.open();
+        }
+    }
+
+    private Tuple mergeTuples(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -0,0 +1,169 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins each outer tuple with the inner tuples found by
+ * searching an index on the inner join field, instead of scanning the whole
+ * inner relation. It is the join of choice when the outer relation is small
+ * compared to the inner one, e.g. a selective filter joined with a large table
+ * stored in a B+ tree keyed on the join field.
+ * <p>
+ * The inner child must be an {@link IndexOpIterator} over an index on the
+ * right join field. It is searched once per outer tuple through
+ * {@link IndexOpIterator#rewind(IndexPredicate)}; outer tuples that arrive
+ * sorted on the join key let equality searches continue where the previous one
+ * ended.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final Predicate.Op indexOp;
+    private OpIterator child1;
+    private IndexOpIterator child2;
+    private final TupleDesc comboTD;
+
+    transient private Tuple t1;
+    transient private boolean innerOpen;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; any comparison
+     *            an index can answer, i.e. not NOT_EQUALS or LIKE
+     * @param child1
+     *            Iterator for the left (outer) relation to join
+     * @param child2
+     *            Index iterator for the right (inner) relation, over an index
+     *            on p's second field
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, IndexOpIterator child2) {
+        this.pred = p;
+        this.indexOp = indexOp(p.getOperator());
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * Returns the operator of the index search for inner tuples that join with
+     * an outer tuple, i.e. the join operator with its operands swapped.
+     *
+     * @throws IllegalArgumentException if an index can't answer the operator
+     */
+    public static Predicate.Op indexOp(Predicate.Op joinOp) {
+        switch (joinOp) {
+            case EQUALS:
+                return Predicate.Op.EQUALS;
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                throw new IllegalArgumentException("an index can't answer join operator " + joinOp);
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        // the inner child is opened by the first search
+        child1.open();
+        t1 = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (innerOpen) {
+            child2.close();
+            innerOpen = false;
+        }
+        child1.close();
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        t1 = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The result is the concatenation of the joining outer and
+     * inner tuples, in the order of the outer tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 != null && child2.hasNext()) {
+                return mergeTuples(t1, child2.next());
+            }
+            if (!child1.hasNext()) {
+                t1 = null;
+                return null;
+            }
+            t1 = child1.next();
+            IndexPredicate ipred = new IndexPredicate(indexOp, t1.getField(pred.getField1()));
+            if (innerOpen) {
+                child2.rewind(ipred);
+            } else {
+                child2.open(ipred);
+                innerOpen = true;
+            }
+        }
+    }
+
+    private Tuple mergeTuples(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = (IndexOpIterator) children[1];
+    }
+
+}
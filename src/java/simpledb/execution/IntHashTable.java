@@ -0,0 +1,146 @@
+package simpledb.execution;
+
+import java.util.Arrays;
+
+/**
+ * IntHashTable is an open-addressing multimap from int keys to int row numbers, used as the build side of joins on
+ * INT fields. Keys and rows live in flat int arrays, so adding a row allocates nothing and probing a key touches no
+ * boxed objects.
+ * <p>
+ * Each slot of the table holds one distinct key and the most recently added row with that key; the other rows with
+ * the same key are chained through the {@code next} array, which is indexed by row number. Row numbers are chosen by
+ * the caller and must be dense, i.e. lie in [0, expectedRows) when the table was sized correctly; the table grows if
+ * more rows are added.
+ */
+public class IntHashTable {
+    /** Returned by {@link #first} and {@link #next} when there are no (more) rows. */
+    public static final int NO_ROW = -1;
+
+    private int[] slotKeys;
+    private int[] slotHeads;
+    private int[] next;
+    private int mask;
+    private int distinctKeys;
+    private int size;
+
+    /**
+     * Creates a table sized for expectedRows rows without resizing.
+     *
+     * @param expectedRows the number of rows that will be added, e.g. the cardinality of the build side
+     */
+    public IntHashTable(int expectedRows) {
+        int capacity = tableSizeFor(Math.max(expectedRows, 1));
+        this.slotKeys = new int[capacity];
+        this.slotHeads = new int[capacity];
+        Arrays.fill(slotHeads, NO_ROW);
+        this.mask = capacity - 1;
+        this.next = new int[Math.max(expectedRows, 1)];
+    }
+
+    /**
+     * @return a power of two with room for n keys at a load factor of at most 1/2
+     */
+    private static int tableSizeFor(int n) {
+        int capacity = Integer.highestOneBit(Math.max(n, 2) - 1) << 2;
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("too many rows for an IntHashTable: " + n);
+        }
+        return capacity;
+    }
+
+    private static int hash(int key) {
+        // murmur3 finalizer, spreads consecutive keys over the whole table
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Adds a row.
+     *
+     * @param key the join key of the row
+     * @param row the number of the row; every row must be added once
+     */
+    public void add(int key, int row) {
+        if (row >= next.length) {
+            next = Arrays.copyOf(next, Math.max(row + 1, next.length * 2));
+        }
+        int slot = hash(key) & mask;
+        while (slotHeads[slot] != NO_ROW) {
+            if (slotKeys[slot] == key) {
+                next[row] = slotHeads[slot];
+                slotHeads[slot] = row;
+                size++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slotKeys[slot] = key;
+        slotHeads[slot] = row;
+        next[row] = NO_ROW;
+        size++;
+        if (++distinctKeys * 2 > slotKeys.length) {
+            rehash(slotKeys.length * 2);
+        }
+    }
+
+    /**
+     * @return a row with the specified key, or {@link #NO_ROW}
+     */
+    public int first(int key) {
+        int slot = hash(key) & mask;
+        while (slotHeads[slot] != NO_ROW) {
+            if (slotKeys[slot] == key) {
+                return slotHeads[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_ROW;
+    }
+
+    /**
+     * @return the next row with the same key as row, or {@link #NO_ROW}
+     */
+    public int next(int row) {
+        return next[row];
+    }
+
+    /**
+     * @return the number of rows in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all rows but keeps the arrays, so that the table can be refilled without allocating.
+     */
+    public void clear() {
+        Arrays.fill(slotHeads, NO_ROW);
+        distinctKeys = 0;
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = slotKeys;
+        int[] oldHeads = slotHeads;
+        slotKeys = new int[capacity];
+        slotHeads = new int[capacity];
+        Arrays.fill(slotHeads, NO_ROW);
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] != NO_ROW) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (slotHeads[slot] != NO_ROW) {
+                    slot = (slot + 1) & mask;
+                }
+                slotKeys[slot] = oldKeys[i];
+                slotHeads[slot] = oldHeads[i];
+            }
+        }
+    }
+}
@@ -1,35 +1,53 @@
 package simpledb.execution;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
-import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleIterator;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups are numbered in the order they first appear, and the aggregate of
+ * each group is kept in primitive accumulator arrays indexed by its number.
+ * INT group keys are looked up in an {@link IntHashTable}, so merging a tuple
+ * into an existing group allocates nothing; other group keys are looked up by
+ * their Field. Sums are accumulated in longs, so intermediate sums may exceed
+ * the INT range as long as the final one doesn't, and AVG divides the exact
+ * sum by the count only when the results are output.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private static final int INITIAL_GROUPS = 16;
+
     private final int gbfield;
     private final Type gbfieldtype;
     private final int afield;
     private final Op what;
-    private GBHandler gbHandler;
 
+    // group numbers of INT group keys, or of other group keys
+    private final IntHashTable intGroups;
+    private final Map<Field, Integer> fieldGroups;
+    // the group key of each group
+    private int[] intKeys;
+    private Field[] fieldKeys;
+    // SUM, MIN or MAX of each group, and its number of tuples
+    private long[] values;
+    private long[] counts;
+    private int numGroups;
 
     /**
      * Aggregate constructor
-     * 
+     *
      * @param gbfield
      *            the 0-based index of the group-by field in the tuple, or
      *            NO_GROUPING if there is no grouping
@@ -44,40 +62,33 @@ public class IntegerAggregator implements Aggregator {
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
-        this.gbfield = gbfield;
-        this.gbfieldtype = gbfieldtype;
-        this.afield = afield;
-        this.what = what;
-        initHandler();
-    }
-
-    private void initHandler() {
-        switch (this.what) {
+        switch (what) {
             case AVG:
-                gbHandler = new AvgHandler();
-                break;
             case COUNT:
-                gbHandler = new CountHandler();
-                break;
             case MAX:
-                gbHandler = new MaxHandler();
-                break;
             case MIN:
-                gbHandler = new MinHandler();
-                break;
             case SUM:
-                gbHandler = new SumHandler();
                 break;
             default:
                 throw new IllegalArgumentException("wrong op");
         }
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.what = what;
+        boolean intKeyed = gbfield != NO_GROUPING && gbfieldtype == Type.INT_TYPE;
+        this.intGroups = intKeyed ? new IntHashTable(INITIAL_GROUPS) : null;
+        this.fieldGroups = gbfield != NO_GROUPING && !intKeyed ? new HashMap<>() : null;
+        this.intKeys = intKeyed ? new int[INITIAL_GROUPS] : null;
+        this.fieldKeys = fieldGroups != null ? new Field[INITIAL_GROUPS] : null;
+        this.values = new long[INITIAL_GROUPS];
+        this.counts = new long[INITIAL_GROUPS];
     }
 
-    private final static String NO_GROUPING_KEY = "NO_GROUPING_KEY";
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
-     * 
+     *
      * @param tup
      *            the Tuple containing an aggregate field and a group-by field
      */
@@ -86,125 +97,220 @@ public class IntegerAggregator implements Aggregator {
         if(gbfieldtype != null && !tup.getField(gbfield).getType().equals(gbfieldtype)) {
             throw new IllegalArgumentException("gbfieldtype has wrong type");
         }
-        String key = null;
-        if(gbfield == NO_GROUPING) {
-           key = NO_GROUPING_KEY;
+        accumulate(groupOf(tup), ((IntField) tup.getField(afield)).getValue());
+    }
+
+    /**
+     * Merge the selected rows of a batch into the aggregate. INT group keys
+     * and the aggregate values are read straight from the batch's columns,
+     * so no Tuples or Fields are involved.
+     *
+     * @param batch
+     *            a batch with the schema of the tuples to aggregate
+     */
+    public void mergeBatch(Batch batch) {
+        int[] values = batch.ints(afield);
+        int size = batch.size();
+        if (gbfield == NO_GROUPING) {
+            if (size > 0) {
+                int group = noGroup();
+                for (int i = 0; i < size; i++) {
+                    accumulate(group, values[batch.row(i)]);
+                }
+            }
+        } else if (intGroups != null) {
+            int[] keys = batch.ints(gbfield);
+            for (int i = 0; i < size; i++) {
+                int r = batch.row(i);
+                accumulate(intGroup(keys[r]), values[r]);
+            }
         } else {
-            key = tup.getField(gbfield).toString();
+            Field[] keys = batch.fields(gbfield);
+            for (int i = 0; i < size; i++) {
+                int r = batch.row(i);
+                accumulate(fieldGroup(keys[r]), values[r]);
+            }
         }
-        gbHandler.handle(key, tup.getField(afield));
     }
 
-    private abstract class GBHandler {
-        ConcurrentHashMap<String, Integer> gbResult;
-        abstract void handle(String key, Field field);
-        private GBHandler() {
-            gbResult = new ConcurrentHashMap<>();
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        if(gbfieldtype != null && !tup.getField(gbfield).getType().equals(gbfieldtype)) {
+            throw new IllegalArgumentException("gbfieldtype has wrong type");
+        }
+        int group;
+        if (gbfield == NO_GROUPING) {
+            group = numGroups == 0 ? IntHashTable.NO_ROW : 0;
+        } else if (intGroups != null) {
+            group = intGroups.first(((IntField) tup.getField(gbfield)).getValue());
+        } else {
+            Integer g = fieldGroups.get(tup.getField(gbfield));
+            group = g == null ? IntHashTable.NO_ROW : g;
         }
+        if (group == IntHashTable.NO_ROW) {
+            return false;
+        }
+        accumulate(group, ((IntField) tup.getField(afield)).getValue());
+        return true;
+    }
+
+    public int numGroups() {
+        return numGroups;
+    }
 
-        public Map<String, Integer> getGbResult() {
-            return gbResult;
+    private void accumulate(int group, int value) {
+        switch (what) {
+            case MIN:
+                values[group] = Math.min(values[group], value);
+                break;
+            case MAX:
+                values[group] = Math.max(values[group], value);
+                break;
+            case SUM:
+            case AVG:
+                values[group] += value;
+                break;
+            default:
+                break;
         }
+        counts[group]++;
     }
 
-    private class CountHandler extends GBHandler {
-        @Override
-        void handle(String key, Field field) {
-            if(gbResult.containsKey(key)) {
-                gbResult.put(key, gbResult.get(key) + 1);
+    /**
+     * Merge the groups of a partial aggregate into this one. MIN and MAX
+     * combine the partial minimums and maximums, and SUM, AVG and COUNT add
+     * up the partial sums and counts, so AVG stays exact.
+     *
+     * @param partial
+     *            an IntegerAggregator constructed with the same arguments
+     */
+    public void merge(Aggregator partial) {
+        IntegerAggregator other = (IntegerAggregator) partial;
+        if (other.gbfield != gbfield || other.afield != afield || other.what != what) {
+            throw new IllegalArgumentException("can only merge an aggregate of the same fields and op");
+        }
+        for (int g = 0; g < other.numGroups; g++) {
+            int group;
+            if (gbfield == NO_GROUPING) {
+                group = noGroup();
+            } else if (intGroups != null) {
+                group = intGroup(other.intKeys[g]);
             } else {
-                gbResult.put(key, 1);
+                group = fieldGroup(other.fieldKeys[g]);
             }
+            switch (what) {
+                case MIN:
+                    values[group] = Math.min(values[group], other.values[g]);
+                    break;
+                case MAX:
+                    values[group] = Math.max(values[group], other.values[g]);
+                    break;
+                case SUM:
+                case AVG:
+                    values[group] += other.values[g];
+                    break;
+                default:
+                    break;
+            }
+            counts[group] += other.counts[g];
         }
     }
 
-    private class SumHandler extends GBHandler {
-        @Override
-        void handle(String key, Field field) {
-            if(gbResult.containsKey(key)) {
-                gbResult.put(key, gbResult.get(key) + Integer.parseInt(field.toString()));
-            } else {
-                gbResult.put(key, Integer.parseInt(field.toString()));
-            }
+    /**
+     * @return the number of the group of a tuple, adding the group if it is new
+     */
+    private int groupOf(Tuple tup) {
+        if (gbfield == NO_GROUPING) {
+            return noGroup();
+        }
+        if (intGroups != null) {
+            return intGroup(((IntField) tup.getField(gbfield)).getValue());
         }
+        return fieldGroup(tup.getField(gbfield));
     }
 
-    private class MinHandler extends GBHandler {
-        @Override
-        void handle(String key, Field field) {
-            if(gbResult.containsKey(key)) {
-                gbResult.put(key, Math.min(gbResult.get(key), Integer.parseInt(field.toString())));
-            } else {
-                gbResult.put(key, Integer.parseInt(field.toString()));
-            }
+    private int noGroup() {
+        return numGroups == 0 ? newGroup() : 0;
+    }
+
+    private int intGroup(int key) {
+        int group = intGroups.first(key);
+        if (group == IntHashTable.NO_ROW) {
+            group = newGroup();
+            intGroups.add(key, group);
+            intKeys[group] = key;
         }
+        return group;
     }
 
-    private class MaxHandler extends GBHandler {
-        @Override
-        void handle(String key, Field field) {
-            if(gbResult.containsKey(key)) {
-                gbResult.put(key, Math.max(gbResult.get(key), Integer.parseInt(field.toString())));
-            } else {
-                gbResult.put(key, Integer.parseInt(field.toString()));
-            }
+    private int fieldGroup(Field key) {
+        Integer group = fieldGroups.get(key);
+        if (group == null) {
+            group = newGroup();
+            fieldGroups.put(key, group);
+            fieldKeys[group] = key;
         }
+        return group;
     }
 
-    private class AvgHandler extends GBHandler {
-        ConcurrentHashMap<String, Integer> count;
-        ConcurrentHashMap<String, Integer> sum;
-        @Override
-        void handle(String key, Field field) {
-            int val = Integer.parseInt(field.toString());
-            if(gbResult.containsKey(key)) {
-                count.put(key, count.get(key) + 1);
-                sum.put(key, sum.get(key) + val);
-            } else {
-                count.put(key, 1);
-                sum.put(key, val);
-            }
-            gbResult.put(key, sum.get(key) / count.get(key)); //TODO 当前只精确到整数
+    private int newGroup() {
+        if (numGroups == values.length) {
+            int capacity = values.length * 2;
+            values = Arrays.copyOf(values, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            if (intKeys != null)
+                intKeys = Arrays.copyOf(intKeys, capacity);
+            if (fieldKeys != null)
+                fieldKeys = Arrays.copyOf(fieldKeys, capacity);
         }
-        private AvgHandler() {
-            count = new ConcurrentHashMap<>();
-            sum = new ConcurrentHashMap<>();
+        int group = numGroups++;
+        values[group] = what == Op.MIN ? Long.MAX_VALUE : what == Op.MAX ? Long.MIN_VALUE : 0;
+        counts[group] = 0;
+        return group;
+    }
+
+    /**
+     * @return the aggregate value of a group
+     * @throws ArithmeticException if a SUM or COUNT doesn't fit into an INT
+     */
+    private int result(int group) {
+        long result = what == Op.COUNT ? counts[group]
+                : what == Op.AVG ? values[group] / counts[group] : values[group];
+        if (result != (int) result) {
+            String key = intKeys != null ? " of group " + intKeys[group]
+                    : fieldKeys != null ? " of group " + fieldKeys[group] : "";
+            throw new ArithmeticException(what + key + " is " + result + ", which doesn't fit into an INT");
         }
+        return (int) result;
     }
 
     /**
      * Create a OpIterator over group aggregate results.
-     * 
+     *
      * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
      *         the constructor.
+     * @throws ArithmeticException if the SUM or COUNT of a group doesn't fit into an INT
      */
     public OpIterator iterator() {
         // some code goes here
-        Map<String, Integer> gbResult = gbHandler.getGbResult();
-        TupleDesc td = null;
-        List<Tuple> tuples = new ArrayList<>();
+        TupleDesc td;
+        List<Tuple> tuples = new ArrayList<>(numGroups);
         if(gbfield == NO_GROUPING) {
             td = new TupleDesc(new Type[] {Type.INT_TYPE}, new String[] {"aggregateVal"});
-            for(Integer val : gbResult.values()) {
+            for (int g = 0; g < numGroups; g++) {
                 Tuple tuple = new Tuple(td);
-                tuple.setField(0, new IntField(val));
+                tuple.setField(0, new IntField(result(g)));
                 tuples.add(tuple);
             }
         } else {
             td = new TupleDesc(new Type[] {gbfieldtype, Type.INT_TYPE}, new String[] {"groupVal", "aggregateVal"});
-            for(Map.Entry<String, Integer> entry : gbResult.entrySet()) {
+            for (int g = 0; g < numGroups; g++) {
                 Tuple tuple = new Tuple(td);
-                if(gbfieldtype.equals(Type.INT_TYPE)) {
-                    tuple.setField(0, new IntField(Integer.parseInt(entry.getKey())));
-                } else {
-                    tuple.setField(0, new StringField(entry.getKey(), entry.getKey().length()));
-                }
-                tuple.setField(1, new IntField(entry.getValue()));
+                tuple.setField(0, intKeys != null ? new IntField(intKeys[g]) : fieldKeys[g]);
+                tuple.setField(1, new IntField(result(g)));
                 tuples.add(tuple);
             }
-
         }
         return new TupleIterator(td, tuples);
     }
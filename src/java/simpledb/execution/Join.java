@@ -17,6 +17,7 @@ public class Join extends Operator {
     private final JoinPredicate p;
     private OpIterator child1;
     private OpIterator child2;
+    transient private PredicateCompiler.JoinFilter compiled;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -73,6 +74,8 @@ public class Join extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        compiled = PredicateCompiler.compile(Collections.singletonList(p),
+                child1.getTupleDesc(), child2.getTupleDesc());
         super.open();
         child1.open();
         child2.open();
@@ -119,7 +122,7 @@ public class Join extends Operator {
             }
             while(child2.hasNext()) {
                 Tuple t2 = child2.next();
-                if(!p.filter(t1, t2)) {
+                if(!compiled.test(t1, t2)) {
                     continue;
                 }
                 TupleDesc mergeTupleDesc = TupleDesc.merge(t1.getTupleDesc(), t2.getTupleDesc());
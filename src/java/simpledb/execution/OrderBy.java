@@ -2,29 +2,57 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.SpillFile;
+import simpledb.storage.StringField;
+import simpledb.storage.DictStringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * Inputs that fit into the memory budget are sorted in memory. Larger inputs
+ * are sorted externally: whenever the buffered tuples exceed the budget they
+ * are sorted and written to a {@link SpillFile} as a run, and the runs are
+ * merged with a heap as the output is read. Runs beyond
+ * {@link #MAX_MERGE_FAN_IN} are merged into longer runs first, so the final
+ * merge reads a bounded number of files at once.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default memory budget for buffered tuples, in bytes. */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L << 20;
+    /** The largest number of runs merged at once. */
+    public static final int MAX_MERGE_FAN_IN = 64;
+    /** Rough heap overhead of a buffered tuple and its sort key beyond the size of its fields. */
+    private static final int TUPLE_OVERHEAD = HybridHashJoin.TUPLE_OVERHEAD + 24;
+
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
     private final int orderByField;
     private final String orderByFieldName;
-    private Iterator<Tuple> it;
     private final boolean asc;
+    private final long memoryBudget;
+    private final Comparator<SortKey> order;
+
+    // the whole input if it fits into memory, otherwise the tuples after the last spilled run
+    transient private List<SortKey> buffer;
+    transient private int bufferPos;
+    transient private List<SpillFile> runs;
+    transient private PriorityQueue<RunCursor> merge;
+    transient private List<RunCursor> cursors;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
-     * 
+     *
      * @param orderbyField
      *            the field to which the sort is applied.
      * @param asc
@@ -33,64 +61,220 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts externally once the tuples from
+     * the iterator exceed a memory budget.
+     *
+     * @param memoryBudget
+     *            the number of bytes of tuples sorted in memory at once
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, long memoryBudget) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memoryBudget = memoryBudget;
+        this.order = new SortKeyComparator(orderbyField, asc, td.getFieldType(orderbyField) == Type.INT_TYPE);
     }
-    
+
     public boolean isASC()
     {
 	return this.asc;
     }
-    
+
     public int getOrderByField()
     {
         return this.orderByField;
     }
-    
+
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
-    
+
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /**
+     * @return the number of sorted runs written to disk by the last open, 0 if the input was sorted in memory
+     */
+    public int getSpilledRuns() {
+        return runs == null ? 0 : runs.size();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        buffer = new ArrayList<>();
+        runs = new ArrayList<>();
+        long tupleBytes = td.getSize() + TUPLE_OVERHEAD;
+        long bufferBytes = 0;
+        try {
+            while (child.hasNext()) {
+                if (bufferBytes + tupleBytes > memoryBudget && !buffer.isEmpty()) {
+                    runs.add(spillRun());
+                    bufferBytes = 0;
+                }
+                buffer.add(new SortKey(child.next(), orderByField));
+                bufferBytes += tupleBytes;
+            }
+            buffer.sort(order);
+            // leave at most MAX_MERGE_FAN_IN inputs, counting the buffer, for the final merge
+            while (!runs.isEmpty() && runs.size() + 1 > MAX_MERGE_FAN_IN) {
+                List<SpillFile> first = runs.subList(0, MAX_MERGE_FAN_IN);
+                SpillFile merged = mergeRuns(new ArrayList<>(first));
+                first.clear();
+                runs.add(merged);
+            }
+        } catch (IOException e) {
+            deleteRuns();
+            throw new DbException("unable to spill sorted run: " + e.getMessage());
+        }
+        start();
         super.open();
     }
 
+    /**
+     * Sorts the buffered tuples and writes them to a new run.
+     */
+    private SpillFile spillRun() throws IOException {
+        buffer.sort(order);
+        SpillFile run = new SpillFile(td);
+        for (SortKey k : buffer) {
+            run.add(k.t);
+        }
+        buffer.clear();
+        return run;
+    }
+
+    /**
+     * Merges runs into a single new run and deletes them.
+     */
+    private SpillFile mergeRuns(List<SpillFile> toMerge)
+            throws IOException, DbException, TransactionAbortedException {
+        PriorityQueue<RunCursor> heap = new PriorityQueue<>(toMerge.size(), cursorOrder());
+        List<RunCursor> open = new ArrayList<>();
+        SpillFile merged = new SpillFile(td);
+        try {
+            for (SpillFile run : toMerge) {
+                RunCursor c = new RunCursor(run.iterator(), orderByField);
+                open.add(c);
+                if (c.advance()) {
+                    heap.add(c);
+                }
+            }
+            while (!heap.isEmpty()) {
+                RunCursor c = heap.poll();
+                merged.add(c.head.t);
+                if (c.advance()) {
+                    heap.add(c);
+                }
+            }
+        } finally {
+            for (RunCursor c : open) {
+                c.close();
+            }
+        }
+        for (SpillFile run : toMerge) {
+            run.delete();
+        }
+        return merged;
+    }
+
+    private Comparator<RunCursor> cursorOrder() {
+        return (a, b) -> order.compare(a.head, b.head);
+    }
+
+    /**
+     * Starts reading the output from its first tuple: directly from the buffer
+     * if nothing was spilled, otherwise through a merge of the runs and the
+     * buffer.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        closeCursors();
+        bufferPos = 0;
+        if (runs.isEmpty()) {
+            return;
+        }
+        merge = new PriorityQueue<>(runs.size() + 1, cursorOrder());
+        cursors = new ArrayList<>();
+        try {
+            for (SpillFile run : runs) {
+                RunCursor c = new RunCursor(run.iterator(), orderByField);
+                cursors.add(c);
+                if (c.advance()) {
+                    merge.add(c);
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("unable to read sorted run: " + e.getMessage());
+        }
+        RunCursor memory = new RunCursor(buffer);
+        cursors.add(memory);
+        if (memory.advance()) {
+            merge.add(memory);
+        }
+    }
+
+    private void closeCursors() {
+        if (cursors != null) {
+            for (RunCursor c : cursors) {
+                c.close();
+            }
+        }
+        cursors = null;
+        merge = null;
+    }
+
+    private void deleteRuns() {
+        if (runs != null) {
+            for (SpillFile run : runs) {
+                run.delete();
+            }
+        }
+        runs = null;
+    }
+
     public void close() {
         super.close();
-        it = null;
+        closeCursors();
+        deleteRuns();
+        buffer = null;
+        child.close();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException, TransactionAbortedException {
+        start();
     }
 
     /**
      * Operator.fetchNext implementation. Returns tuples from the child operator
      * in order
-     * 
+     *
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+    protected Tuple fetchNext() throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (merge == null) {
+            if (buffer != null && bufferPos < buffer.size()) {
+                return buffer.get(bufferPos++).t;
+            }
             return null;
+        }
+        RunCursor c = merge.poll();
+        if (c == null) {
+            return null;
+        }
+        Tuple t = c.head.t;
+        if (c.advance()) {
+            merge.add(c);
+        }
+        return t;
     }
 
     @Override
@@ -103,26 +287,102 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
-}
+    /**
+     * A tuple with a normalized key for its sort field: the value itself for
+     * INT fields, and the first four characters for strings, so that most
+     * comparisons are a single comparison of longs.
+     */
+    static final class SortKey {
+        final long key;
+        final Tuple t;
 
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
+        SortKey(Tuple t, int field) {
+            this.t = t;
+            this.key = normalizedKey(t.getField(field));
+        }
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+        static long normalizedKey(Field f) {
+            if (f instanceof IntField) {
+                return ((IntField) f).getValue();
+            }
+            String s = f instanceof DictStringField ? ((DictStringField) f).getValue() : ((StringField) f).getValue();
+            long key = 0;
+            for (int i = 0; i < 4; i++) {
+                key = (key << 16) | (i < s.length() ? s.charAt(i) : 0);
+            }
+            // flip the sign bit so that signed comparison orders the characters as unsigned
+            return key ^ Long.MIN_VALUE;
+        }
     }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+    /**
+     * Orders sort keys by their normalized keys, and by their fields only if
+     * the normalized keys are equal but don't determine the order.
+     */
+    static final class SortKeyComparator implements Comparator<SortKey> {
+        private final int field;
+        private final boolean asc;
+        private final boolean exactKeys;
+
+        SortKeyComparator(int field, boolean asc, boolean exactKeys) {
+            this.field = field;
+            this.asc = asc;
+            this.exactKeys = exactKeys;
+        }
+
+        public int compare(SortKey o1, SortKey o2) {
+            int c = Long.compare(o1.key, o2.key);
+            if (c == 0 && !exactKeys) {
+                Field f1 = o1.t.getField(field);
+                Field f2 = o2.t.getField(field);
+                c = f1.compare(Predicate.Op.LESS_THAN, f2) ? -1 : (f1.compare(Predicate.Op.EQUALS, f2) ? 0 : 1);
+            }
+            return asc ? c : -c;
+        }
+    }
+
+    /**
+     * The next tuple of a sorted run, either a spill file or the in-memory buffer.
+     */
+    private static final class RunCursor {
+        private final OpIterator run;
+        private final List<SortKey> memory;
+        private final int field;
+        private int pos;
+        SortKey head;
+
+        RunCursor(OpIterator run, int field) throws DbException, TransactionAbortedException {
+            this.run = run;
+            this.memory = null;
+            this.field = field;
+            run.open();
+        }
+
+        RunCursor(List<SortKey> memory) {
+            this.run = null;
+            this.memory = memory;
+            this.field = -1;
+        }
+
+        /**
+         * Moves to the next tuple of the run.
+         *
+         * @return false if the run has no more tuples
+         */
+        boolean advance() throws DbException, TransactionAbortedException {
+            if (memory != null) {
+                head = pos < memory.size() ? memory.get(pos++) : null;
+            } else {
+                head = run.hasNext() ? new SortKey(run.next(), field) : null;
+            }
+            return head != null;
+        }
+
+        void close() {
+            if (run != null) {
+                run.close();
+            }
+        }
     }
-    
+
 }
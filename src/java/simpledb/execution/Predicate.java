@@ -1,17 +1,27 @@
 package simpledb.execution;
 
+import simpledb.storage.DictStringField;
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringDictionary;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Predicate compares tuples to a specified Field value.
  */
-public class Predicate implements Serializable {
+public class Predicate implements TuplePredicate {
     private final int field;
     private final Op op;
     private final Field operand;
+    /**
+     * code of operand in a dictionary, cached so dictionary-encoded columns are compared on codes; predicates are
+     * shared by parallel scans, so the code is published together with its dictionary
+     */
+    private transient volatile OperandCode operandCode;
 
     private static final long serialVersionUID = 1L;
 
@@ -106,8 +116,67 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return t.getField(this.field)
-            .compare(this.op, this.operand);
+        return filter(t.getField(this.field));
+    }
+
+    /**
+     * Compares a value of the field specified in the constructor to the
+     * operand, like {@link #filter(Tuple)}.
+     *
+     * @param f
+     *            The value to compare against
+     * @return true if the comparison is true, false otherwise.
+     */
+    public boolean filter(Field f) {
+        if (f instanceof DictStringField && (this.op == Op.EQUALS || this.op == Op.NOT_EQUALS)) {
+            boolean eq = ((DictStringField) f).getCode() == encodeOperand(((DictStringField) f).getDictionary());
+            return this.op == Op.EQUALS ? eq : !eq;
+        }
+        return f.compare(this.op, this.operand);
+    }
+
+    /**
+     * @return the code of the operand in dict, or {@link StringDictionary#NO_CODE} if dict doesn't contain it.
+     */
+    private int encodeOperand(StringDictionary dict) {
+        OperandCode cached = operandCode;
+        // a missing value may be added to the dictionary later, so look it up again when the dictionary grows
+        if (cached == null || cached.dict != dict
+                || cached.code == StringDictionary.NO_CODE && dict.size() != cached.dictSize) {
+            int size = dict.size();
+            cached = new OperandCode(dict, size, dict.lookup(this.operand.toString()));
+            operandCode = cached;
+        }
+        return cached.code;
+    }
+
+    /** The code of the operand in a dictionary of some size. */
+    private static final class OperandCode {
+        final StringDictionary dict;
+        final int dictSize;
+        final int code;
+
+        OperandCode(StringDictionary dict, int dictSize, int code) {
+            this.dict = dict;
+            this.dictSize = dictSize;
+            this.code = code;
+        }
+    }
+
+    /**
+     * @return the relative cost of evaluating this predicate on a tuple, used
+     *         to order the predicates of a conjunction: 1 to compare integers
+     *         and 2 to compare strings
+     */
+    public double evaluationCost() {
+        return this.operand instanceof IntField ? 1 : 2;
+    }
+
+    /**
+     * @return this predicate, as the only conjunct of the only alternative
+     */
+    public List<List<Predicate>> getAlternatives() {
+        return Collections.singletonList(Collections.singletonList(this));
     }
 
     /**
@@ -0,0 +1,546 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles predicates and projections into classes of their own when a plan
+ * is opened, so that the per-tuple work runs in code specialized for it.
+ * <p>
+ * {@link Predicate#filter} and {@link JoinPredicate#filter} call
+ * {@link simpledb.storage.Field#compare}, which is a virtual call that
+ * switches on the operator for every tuple. The JIT can't specialize it for
+ * a plan, since every plan calls the same method. A compiled filter reads
+ * the integer fields of a tuple and compares them to its constants with the
+ * comparison instruction of each operator. A conjunction becomes one
+ * method, which stops at the first predicate that fails. Predicates over
+ * other types, and disjunctions of several alternatives, call the predicate
+ * itself.
+ * <p>
+ * The bytecode is generated here and loaded by a class loader of its own, so
+ * no library is needed. A class is generated for each shape, that is the
+ * fields, types and operators of the predicates or the fields of a
+ * projection. Its instances hold the operands, so plans that differ only in
+ * their constants share it.
+ */
+public final class PredicateCompiler {
+
+    /** A compiled conjunction of predicates over a tuple. */
+    public interface TupleFilter {
+        /**
+         * @return whether t satisfies all the predicates
+         */
+        boolean test(Tuple t);
+    }
+
+    /** A compiled conjunction of join predicates over a pair of tuples. */
+    public interface JoinFilter {
+        /**
+         * @return whether the pair satisfies all the predicates
+         */
+        boolean test(Tuple left, Tuple right);
+    }
+
+    /** A compiled projection of a tuple onto some of its fields. */
+    public interface TupleProjection {
+        /**
+         * @return a tuple with the projected fields of t and its record id
+         */
+        Tuple project(Tuple t);
+    }
+
+    private static final TupleFilter ALL = t -> true;
+
+    private static final Map<String, Constructor<?>> shapes = new ConcurrentHashMap<>();
+    private static final AtomicInteger classCount = new AtomicInteger();
+    private static final Loader loader = new Loader(PredicateCompiler.class.getClassLoader());
+
+    private PredicateCompiler() {
+    }
+
+    /**
+     * Compiles a conjunction of predicates.
+     *
+     * @param predicates the predicates, over fields of td
+     * @param td the TupleDesc of the tuples to filter
+     * @return a filter that passes the tuples that satisfy all the predicates
+     */
+    public static TupleFilter compile(List<? extends TuplePredicate> predicates, TupleDesc td) {
+        if (predicates.isEmpty()) {
+            return ALL;
+        }
+        // a predicate with one alternative is the conjunction of its predicates on one field, the others are
+        // evaluated by calling them
+        List<Predicate> conjuncts = new ArrayList<>();
+        List<Object> operands = new ArrayList<>();
+        StringBuilder shape = new StringBuilder("filter");
+        for (TuplePredicate tp : predicates) {
+            List<List<Predicate>> alternatives = tp.getAlternatives();
+            if (alternatives.size() > 1) {
+                shape.append(":*");
+                conjuncts.add(null);
+                operands.add(tp);
+                continue;
+            }
+            for (Predicate p : alternatives.get(0)) {
+                conjuncts.add(p);
+                if (isInt(td.getFieldType(p.getField())) && p.getOperand() instanceof IntField) {
+                    shape.append(':').append(p.getField()).append(p.getOp().name());
+                    operands.add(((IntField) p.getOperand()).getValue());
+                } else {
+                    shape.append(":?");
+                    operands.add(p);
+                }
+            }
+        }
+        Object[] values = operands.toArray();
+        return (TupleFilter) instantiate(shape.toString(), values,
+                () -> generateFilter(conjuncts, values));
+    }
+
+    /**
+     * Compiles a conjunction of join predicates.
+     *
+     * @param predicates the predicates, over fields of left and right
+     * @param left the TupleDesc of the left tuples
+     * @param right the TupleDesc of the right tuples
+     * @return a filter that passes the pairs of tuples that satisfy all the predicates
+     */
+    public static JoinFilter compile(List<JoinPredicate> predicates, TupleDesc left, TupleDesc right) {
+        StringBuilder shape = new StringBuilder("join");
+        Object[] operands = new Object[predicates.size()];
+        for (int i = 0; i < predicates.size(); i++) {
+            JoinPredicate p = predicates.get(i);
+            if (isInt(left.getFieldType(p.getField1())) && isInt(right.getFieldType(p.getField2()))) {
+                shape.append(':').append(p.getField1()).append(p.getOperator().name()).append(p.getField2());
+            } else {
+                shape.append(":?");
+                operands[i] = p;
+            }
+        }
+        return (JoinFilter) instantiate(shape.toString(), operands,
+                () -> generateJoinFilter(predicates, operands));
+    }
+
+    /**
+     * Compiles a projection.
+     *
+     * @param fields the fields of the input tuples to project onto, in order
+     * @param td the TupleDesc of the projected tuples
+     * @return a projection that builds tuples with td from the given fields
+     */
+    public static TupleProjection compile(int[] fields, TupleDesc td) {
+        StringBuilder shape = new StringBuilder("project");
+        for (int f : fields) {
+            shape.append(':').append(f);
+        }
+        Object[] operands = {td};
+        return (TupleProjection) instantiate(shape.toString(), operands,
+                () -> generateProjection(fields, operands));
+    }
+
+    private static boolean isInt(Type t) {
+        return t == Type.INT_TYPE;
+    }
+
+    private interface Generator {
+        ClassWriter generate();
+    }
+
+    private static Object instantiate(String shape, Object[] operands, Generator generator) {
+        Constructor<?> c = shapes.computeIfAbsent(shape, s -> {
+            byte[] bytes = generator.generate().toByteArray();
+            try {
+                return loader.define(bytes).getConstructor(Object[].class);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException("compiled class has no constructor", e);
+            }
+        });
+        try {
+            return c.newInstance((Object) operands);
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("unable to instantiate compiled " + shape, e);
+        }
+    }
+
+    // operands are fields "o0", "o1", ... set from the constructor's Object[]
+    private static ClassWriter newClass(Class<?> iface, Object[] operands) {
+        ClassWriter cw = new ClassWriter("simpledb/execution/PredicateCompiler$Compiled" + classCount.incrementAndGet(),
+                internalName(iface));
+        Code init = cw.method("<init>", "([Ljava/lang/Object;)V", 4, 2);
+        init.op(ALOAD_0).op(INVOKESPECIAL).u2(cw.method("java/lang/Object", "<init>", "()V"));
+        for (int i = 0; i < operands.length; i++) {
+            if (operands[i] == null) {
+                continue;
+            }
+            init.op(ALOAD_0).op(ALOAD_1).push(i).op(AALOAD);
+            if (operands[i] instanceof Integer) {
+                init.op(CHECKCAST).u2(cw.classRef("java/lang/Integer"));
+                init.op(INVOKEVIRTUAL).u2(cw.method("java/lang/Integer", "intValue", "()I"));
+            } else {
+                init.op(CHECKCAST).u2(cw.classRef(typeOf(operands[i])));
+            }
+            init.op(PUTFIELD).u2(cw.field("o" + i, descriptor(operands[i])));
+        }
+        init.op(RETURN);
+        return cw;
+    }
+
+    private static String internalName(Class<?> c) {
+        return c.getName().replace('.', '/');
+    }
+
+    // the declared type of the field that holds an operand
+    private static String typeOf(Object operand) {
+        if (operand instanceof Predicate) {
+            return "simpledb/execution/Predicate";
+        } else if (operand instanceof TuplePredicate) {
+            return "simpledb/execution/TuplePredicate";
+        } else if (operand instanceof JoinPredicate) {
+            return "simpledb/execution/JoinPredicate";
+        }
+        return "simpledb/storage/TupleDesc";
+    }
+
+    private static String descriptor(Object operand) {
+        return operand instanceof Integer ? "I" : "L" + typeOf(operand) + ";";
+    }
+
+    // loads the integer value of a field of the tuple in a local variable
+    private static void loadInt(ClassWriter cw, Code code, int tuple, int field) {
+        code.op(ALOAD_0 + tuple).push(field)
+            .op(INVOKEVIRTUAL).u2(cw.method(TUPLE, "getField", "(I)Lsimpledb/storage/Field;"))
+            .op(CHECKCAST).u2(cw.classRef("simpledb/storage/IntField"))
+            .op(INVOKEVIRTUAL).u2(cw.method("simpledb/storage/IntField", "getValue", "()I"));
+    }
+
+    // the comparison that jumps if "a op b" is false
+    private static int failIf(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return IF_ICMPNE;
+            case NOT_EQUALS:
+                return IF_ICMPEQ;
+            case GREATER_THAN:
+                return IF_ICMPLE;
+            case GREATER_THAN_OR_EQ:
+                return IF_ICMPLT;
+            case LESS_THAN:
+                return IF_ICMPGE;
+            case LESS_THAN_OR_EQ:
+                return IF_ICMPGT;
+            default:
+                throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+
+    // predicates holds the predicate on one field of each operand, or null for the other tuple predicates
+    private static ClassWriter generateFilter(List<Predicate> predicates, Object[] operands) {
+        ClassWriter cw = newClass(TupleFilter.class, operands);
+        Code code = cw.method("test", "(Lsimpledb/storage/Tuple;)Z", 4, 2);
+        List<Integer> fails = new ArrayList<>();
+        for (int i = 0; i < predicates.size(); i++) {
+            Predicate p = predicates.get(i);
+            if (operands[i] instanceof Integer) {
+                loadInt(cw, code, 1, p.getField());
+                code.op(ALOAD_0).op(GETFIELD).u2(cw.field("o" + i, "I"));
+                fails.add(code.jump(failIf(p.getOp())));
+            } else if (p != null) {
+                code.op(ALOAD_0).op(GETFIELD).u2(cw.field("o" + i, descriptor(p)))
+                    .op(ALOAD_1)
+                    .op(INVOKEVIRTUAL).u2(cw.method(typeOf(p), "filter", "(Lsimpledb/storage/Tuple;)Z"));
+                fails.add(code.jump(IFEQ));
+            } else {
+                // the tuple predicate and the tuple are the two arguments of the interface call
+                code.op(ALOAD_0).op(GETFIELD).u2(cw.field("o" + i, descriptor(operands[i])))
+                    .op(ALOAD_1)
+                    .op(INVOKEINTERFACE).u2(cw.interfaceMethod(typeOf(operands[i]), "filter",
+                        "(Lsimpledb/storage/Tuple;)Z")).op(2).op(0);
+                fails.add(code.jump(IFEQ));
+            }
+        }
+        code.returnFalseAt(fails);
+        return cw;
+    }
+
+    private static ClassWriter generateJoinFilter(List<JoinPredicate> predicates, Object[] operands) {
+        ClassWriter cw = newClass(JoinFilter.class, operands);
+        Code code = cw.method("test", "(Lsimpledb/storage/Tuple;Lsimpledb/storage/Tuple;)Z", 4, 3);
+        List<Integer> fails = new ArrayList<>();
+        for (int i = 0; i < predicates.size(); i++) {
+            JoinPredicate p = predicates.get(i);
+            if (operands[i] == null) {
+                loadInt(cw, code, 1, p.getField1());
+                loadInt(cw, code, 2, p.getField2());
+                fails.add(code.jump(failIf(p.getOperator())));
+            } else {
+                code.op(ALOAD_0).op(GETFIELD).u2(cw.field("o" + i, descriptor(p)))
+                    .op(ALOAD_1).op(ALOAD_2)
+                    .op(INVOKEVIRTUAL).u2(cw.method(typeOf(p), "filter",
+                        "(Lsimpledb/storage/Tuple;Lsimpledb/storage/Tuple;)Z"));
+                fails.add(code.jump(IFEQ));
+            }
+        }
+        code.returnFalseAt(fails);
+        return cw;
+    }
+
+    private static ClassWriter generateProjection(int[] fields, Object[] operands) {
+        ClassWriter cw = newClass(TupleProjection.class, operands);
+        Code code = cw.method("project", "(Lsimpledb/storage/Tuple;)Lsimpledb/storage/Tuple;", 5, 3);
+        code.op(NEW).u2(cw.classRef(TUPLE)).op(DUP)
+            .op(ALOAD_0).op(GETFIELD).u2(cw.field("o0", "Lsimpledb/storage/TupleDesc;"))
+            .op(INVOKESPECIAL).u2(cw.method(TUPLE, "<init>", "(Lsimpledb/storage/TupleDesc;)V"))
+            .op(ASTORE_2)
+            .op(ALOAD_2).op(ALOAD_1)
+            .op(INVOKEVIRTUAL).u2(cw.method(TUPLE, "getRecordId", "()Lsimpledb/storage/RecordId;"))
+            .op(INVOKEVIRTUAL).u2(cw.method(TUPLE, "setRecordId", "(Lsimpledb/storage/RecordId;)V"));
+        for (int i = 0; i < fields.length; i++) {
+            code.op(ALOAD_2).push(i).op(ALOAD_1).push(fields[i])
+                .op(INVOKEVIRTUAL).u2(cw.method(TUPLE, "getField", "(I)Lsimpledb/storage/Field;"))
+                .op(INVOKEVIRTUAL).u2(cw.method(TUPLE, "setField", "(ILsimpledb/storage/Field;)V"));
+        }
+        code.op(ALOAD_2).op(ARETURN);
+        return cw;
+    }
+
+    private static final String TUPLE = "simpledb/storage/Tuple";
+
+    private static final int ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, ASTORE_2 = 0x4d;
+    private static final int ICONST_0 = 0x03, ICONST_1 = 0x04, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13;
+    private static final int AALOAD = 0x32, DUP = 0x59;
+    private static final int IFEQ = 0x99, IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2,
+        IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4;
+    private static final int IRETURN = 0xac, ARETURN = 0xb0, RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4, PUTFIELD = 0xb5, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7,
+        INVOKEINTERFACE = 0xb9;
+    private static final int NEW = 0xbb, CHECKCAST = 0xc0;
+
+    /**
+     * Writes a class file with public fields and methods. The class file
+     * version predates stack map frames, so the bytecode is verified by
+     * type inference and the methods need no frames.
+     */
+    private static final class ClassWriter {
+        private final String name;
+        private final String iface;
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final DataOutputStream poolOut = new DataOutputStream(pool);
+        private final Map<String, Integer> constants = new HashMap<>();
+        private int poolSize = 1;
+        private final Map<String, String> fields = new HashMap<>();
+        private final List<Code> methods = new ArrayList<>();
+
+        ClassWriter(String name, String iface) {
+            this.name = name;
+            this.iface = iface;
+        }
+
+        private int constant(String key, int tag, int a, int b, String utf) {
+            Integer index = constants.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                poolOut.writeByte(tag);
+                if (utf != null) {
+                    poolOut.writeUTF(utf);
+                } else if (tag == 3) {
+                    poolOut.writeInt(a);
+                } else {
+                    poolOut.writeShort(a);
+                    if (b >= 0) {
+                        poolOut.writeShort(b);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            constants.put(key, poolSize);
+            return poolSize++;
+        }
+
+        int utf8(String s) {
+            return constant("U" + s, 1, 0, 0, s);
+        }
+
+        int integer(int v) {
+            return constant("I" + v, 3, v, -1, null);
+        }
+
+        int classRef(String internalName) {
+            int n = utf8(internalName);
+            return constant("C" + internalName, 7, n, -1, null);
+        }
+
+        private int nameAndType(String n, String desc) {
+            int a = utf8(n);
+            int b = utf8(desc);
+            return constant("N" + n + " " + desc, 12, a, b, null);
+        }
+
+        int method(String owner, String n, String desc) {
+            int c = classRef(owner);
+            int nt = nameAndType(n, desc);
+            return constant("M" + owner + "." + n + desc, 10, c, nt, null);
+        }
+
+        int interfaceMethod(String owner, String n, String desc) {
+            int c = classRef(owner);
+            int nt = nameAndType(n, desc);
+            return constant("J" + owner + "." + n + desc, 11, c, nt, null);
+        }
+
+        /** @return a reference to a field of this class, which is declared by the first reference */
+        int field(String n, String desc) {
+            fields.putIfAbsent(n, desc);
+            int c = classRef(name);
+            int nt = nameAndType(n, desc);
+            return constant("F" + n + desc, 9, c, nt, null);
+        }
+
+        Code method(String n, String desc, int maxStack, int maxLocals) {
+            Code code = new Code(this, utf8(n), utf8(desc), maxStack, maxLocals);
+            methods.add(code);
+            return code;
+        }
+
+        byte[] toByteArray() {
+            int thisClass = classRef(name);
+            int superClass = classRef("java/lang/Object");
+            int ifaceClass = classRef(iface);
+            int codeName = utf8("Code");
+            List<int[]> fieldRefs = new ArrayList<>();
+            for (Map.Entry<String, String> f : fields.entrySet()) {
+                fieldRefs.add(new int[]{utf8(f.getKey()), utf8(f.getValue())});
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(49);
+                out.writeShort(poolSize);
+                pool.writeTo(out);
+                // public final super
+                out.writeShort(0x0031);
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(ifaceClass);
+                out.writeShort(fieldRefs.size());
+                for (int[] f : fieldRefs) {
+                    // private final
+                    out.writeShort(0x0012);
+                    out.writeShort(f[0]);
+                    out.writeShort(f[1]);
+                    out.writeShort(0);
+                }
+                out.writeShort(methods.size());
+                for (Code m : methods) {
+                    byte[] code = m.bytes.toByteArray();
+                    out.writeShort(0x0001);
+                    out.writeShort(m.name);
+                    out.writeShort(m.desc);
+                    out.writeShort(1);
+                    out.writeShort(codeName);
+                    out.writeInt(12 + code.length);
+                    out.writeShort(m.maxStack);
+                    out.writeShort(m.maxLocals);
+                    out.writeInt(code.length);
+                    out.write(code);
+                    out.writeShort(0);
+                    out.writeShort(0);
+                }
+                out.writeShort(0);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /** The bytecode of a method. */
+    private static final class Code {
+        private final ClassWriter cw;
+        private final int name, desc, maxStack, maxLocals;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Code(ClassWriter cw, int name, int desc, int maxStack, int maxLocals) {
+            this.cw = cw;
+            this.name = name;
+            this.desc = desc;
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        Code op(int opcode) {
+            bytes.write(opcode);
+            return this;
+        }
+
+        Code u2(int v) {
+            bytes.write(v >>> 8);
+            bytes.write(v);
+            return this;
+        }
+
+        Code push(int v) {
+            if (v >= -1 && v <= 5) {
+                return op(ICONST_0 + v);
+            } else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+                return op(BIPUSH).op(v & 0xff);
+            } else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+                return op(SIPUSH).u2(v & 0xffff);
+            }
+            return op(LDC_W).u2(cw.integer(v));
+        }
+
+        /** @return the position of a branch whose target is set by {@link #returnFalseAt} */
+        int jump(int opcode) {
+            int at = bytes.size();
+            op(opcode).u2(0);
+            return at;
+        }
+
+        /** Returns true, and false from the given branches. */
+        void returnFalseAt(List<Integer> branches) {
+            op(ICONST_1).op(IRETURN);
+            int target = bytes.size();
+            op(ICONST_0).op(IRETURN);
+            byte[] code = bytes.toByteArray();
+            for (int at : branches) {
+                int offset = target - at;
+                code[at + 1] = (byte) (offset >>> 8);
+                code[at + 2] = (byte) offset;
+            }
+            bytes.reset();
+            bytes.write(code, 0, code.length);
+        }
+    }
+
+    private static final class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(byte[] bytes) {
+            return defineClass(null, bytes, 0, bytes.length);
+        }
+    }
+}
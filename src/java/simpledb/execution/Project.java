@@ -17,6 +17,7 @@ public class Project extends Operator {
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    transient private PredicateCompiler.TupleProjection compiled;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -50,6 +51,7 @@ public class Project extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        compiled = PredicateCompiler.compile(outFieldIds.stream().mapToInt(Integer::intValue).toArray(), td);
         child.open();
         super.open();
     }
@@ -72,13 +74,7 @@ public class Project extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         if (!child.hasNext()) return null;
-        Tuple t = child.next();
-        Tuple newTuple = new Tuple(td);
-        newTuple.setRecordId(t.getRecordId());
-        for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
-        }
-        return newTuple;
+        return compiled.project(child.next());
     }
 
     @Override
@@ -0,0 +1,88 @@
+package simpledb.execution;
+
+/**
+ * Repartition runs a set of pipelines on worker threads and splits their
+ * tuples into partitions by the hash of a field. It is created in groups by
+ * {@link #partition}, one Repartition per partition, so that each partition
+ * can be processed by a pipeline of its own; for example, two inputs
+ * repartitioned on their join fields can be joined partition by partition
+ * and the partial joins {@link Gather}ed.
+ * <p>
+ * The Repartitions of a group share their producers, so they are opened and
+ * closed together, see {@link Exchange.Channel}.
+ */
+public class Repartition extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    // the level of recursive partitioning whose hash function splits the partitions, different from the levels of HybridHashJoin
+    private static final int HASH_LEVEL = HybridHashJoin.MAX_DEPTH + 1;
+
+    private final Channel channel;
+    private final int partition;
+    private final int field;
+
+    private Repartition(Channel channel, int partition, int field) {
+        this.channel = channel;
+        this.partition = partition;
+        this.field = field;
+    }
+
+    /**
+     * Creates the partitions of the tuples of a set of pipelines.
+     *
+     * @param children the pipelines whose tuples to partition; must have the same TupleDesc
+     * @param field the field to partition on
+     * @param partitions the number of partitions
+     * @param parallelism the largest number of threads to run the children on
+     * @return a Repartition for each partition
+     */
+    public static Repartition[] partition(OpIterator[] children, int field, int partitions, int parallelism) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("need at least one partition, not " + partitions);
+        }
+        Channel channel = new Channel(children, partitions,
+                t -> HybridHashJoin.partitionOf(t.getField(field), HASH_LEVEL, partitions), parallelism);
+        Repartition[] result = new Repartition[partitions];
+        for (int i = 0; i < partitions; i++) {
+            result[i] = new Repartition(channel, i, field);
+        }
+        return result;
+    }
+
+    public String getName() {
+        return "Repartition(" + getTupleDesc().getFieldName(field) + "," + partition + "/" + channel.getConsumers() + ")";
+    }
+
+    /**
+     * @return the partition this operator returns
+     */
+    public int getPartition() {
+        return partition;
+    }
+
+    /**
+     * @return the field the tuples are partitioned on
+     */
+    public int getPartitionField() {
+        return field;
+    }
+
+    @Override
+    Channel getChannel() {
+        return channel;
+    }
+
+    @Override
+    int getConsumer() {
+        return partition;
+    }
+
+    /**
+     * The children are shared with the other partitions, so they can't be replaced.
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        throw new UnsupportedOperationException("the children of a Repartition are shared by its partitions");
+    }
+}
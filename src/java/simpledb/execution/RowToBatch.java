@@ -0,0 +1,65 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * RowToBatch feeds the tuples of a row-at-a-time {@link OpIterator} to
+ * vectorized operators, by copying them into batches.
+ */
+public class RowToBatch implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int capacity;
+
+    transient private Batch batch;
+
+    /**
+     * @param child the operator whose tuples to return in batches
+     */
+    public RowToBatch(OpIterator child) {
+        this(child, Batch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param child the operator whose tuples to return in batches
+     * @param capacity the number of rows of the returned batches
+     */
+    public RowToBatch(OpIterator child, int capacity) {
+        this.child = child;
+        this.capacity = capacity;
+    }
+
+    public OpIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new Batch(getTupleDesc(), capacity);
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.addTuple(child.next());
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
@@ -5,7 +5,12 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.SecondaryIndex;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PushdownIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -14,9 +19,14 @@ import java.util.*;
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
- * disk).
+ * disk). A scan may instead search a B+ tree over one field of the table,
+ * the key of a {@link BTreeFile} or a {@link SecondaryIndex} of a
+ * {@link HeapFile}, for the tuples that satisfy an {@link IndexPredicate},
+ * reading only the pages on the way down, the leaves in its range and, for
+ * a secondary index, the pages of the tuples it finds. Such a scan is also
+ * the inner child of an {@link IndexNestedLoopJoin}.
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements IndexOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -24,6 +34,17 @@ public class SeqScan implements OpIterator {
     private int tableId;
     private String tableAlias;
 private DbFileIterator it;
+    // the pages of a HeapFile to scan, or -1 to scan the whole table
+    private int firstPage = -1;
+    private int endPage = -1;
+    // the predicates and the projection pushed down into the file's iterator
+    private List<TuplePredicate> predicates = Collections.emptyList();
+    private int[] fields;
+    private TupleDesc projectedTd;
+    private int estimatedCardinality = -1;
+    // the field whose B+ tree the scan searches, or -1 to scan the whole table, and the keys to search for
+    private int indexField = -1;
+    private IndexPredicate indexPredicate;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -47,6 +68,91 @@ private DbFileIterator it;
         this.tableAlias = tableAlias;
     }
 
+    /**
+     * Creates a sequential scan over a range of pages of a table stored in a
+     * {@link HeapFile}, so that several scans can read it in parallel.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table.
+     * @param firstPage
+     *            the first page to scan.
+     * @param endPage
+     *            the page after the last one to scan.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int firstPage, int endPage) {
+        this(tid, tableid, tableAlias, firstPage, endPage, Collections.emptyList(), null);
+    }
+
+    /**
+     * Creates a sequential scan that only returns the tuples of a table that
+     * satisfy some predicates, with only some of its fields. The predicates
+     * are evaluated by the table's file as it reads its pages, see
+     * {@link DbFile#iterator(TransactionId, List, int[])}.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table.
+     * @param predicates
+     *            the predicates over the fields of the table that the
+     *            returned tuples satisfy.
+     * @param fields
+     *            the fields of the table this scan returns, in order, or null
+     *            for all of them.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, List<? extends TuplePredicate> predicates,
+                   int[] fields) {
+        this(tid, tableid, tableAlias);
+        this.predicates = Collections.unmodifiableList(predicates);
+        this.fields = fields;
+    }
+
+    /**
+     * Creates a sequential scan over a range of pages of a table stored in a
+     * {@link HeapFile} that only returns the tuples that satisfy some
+     * predicates, with only some of the table's fields.
+     *
+     * @see #SeqScan(TransactionId, int, String, int, int)
+     * @see #SeqScan(TransactionId, int, String, List, int[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int firstPage, int endPage,
+                   List<? extends TuplePredicate> predicates, int[] fields) {
+        this(tid, tableid, tableAlias, predicates, fields);
+        if (firstPage < 0 || endPage <= firstPage) {
+            throw new IllegalArgumentException("invalid page range [" + firstPage + ", " + endPage + ")");
+        }
+        this.firstPage = firstPage;
+        this.endPage = endPage;
+    }
+
+    /**
+     * Creates a scan that searches a B+ tree over a field of a table for the
+     * tuples whose field satisfies an index predicate, and only returns those
+     * of them that also satisfy some predicates, with only some of the
+     * table's fields. The tree is the table's {@link BTreeFile} if the field
+     * is its key, and otherwise the table's {@link SecondaryIndex} on the
+     * field.
+     *
+     * @param indexField
+     *            the field of the table to search on.
+     * @param indexPredicate
+     *            the keys to search for, or null if they are passed to
+     *            {@link #open(IndexPredicate)}.
+     * @see #SeqScan(TransactionId, int, String, List, int[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int indexField, IndexPredicate indexPredicate,
+                   List<? extends TuplePredicate> predicates, int[] fields) {
+        this(tid, tableid, tableAlias, predicates, fields);
+        this.indexField = indexField;
+        this.indexPredicate = indexPredicate;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -57,6 +163,20 @@ private DbFileIterator it;
             .getTableName(this.tableId);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -66,6 +186,61 @@ private DbFileIterator it;
         return this.tableAlias;
     }
 
+    /**
+     * @return the first page this scan reads, or -1 if it reads the whole table
+     */
+    public int getFirstPage() {
+        return firstPage;
+    }
+
+    /**
+     * @return the page after the last one this scan reads, or -1 if it reads the whole table
+     */
+    public int getEndPage() {
+        return endPage;
+    }
+
+    /**
+     * @return the predicates over the fields of the table that the returned
+     *         tuples satisfy
+     */
+    public List<TuplePredicate> getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * @return the fields of the table this scan returns, or null if it returns all of them
+     */
+    public int[] getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the field of the table this scan searches a B+ tree on, or -1 if it reads the whole table
+     */
+    public int getIndexField() {
+        return indexField;
+    }
+
+    /**
+     * @return the keys this scan searches for, or null if it reads the whole table or isn't open yet
+     */
+    public IndexPredicate getIndexPredicate() {
+        return indexPredicate;
+    }
+
+    /**
+     * @return the estimated number of tuples this scan returns, or -1 if the
+     *         planner didn't estimate it
+     */
+    public int getEstimatedCardinality() {
+        return estimatedCardinality;
+    }
+
+    public void setEstimatedCardinality(int estimatedCardinality) {
+        this.estimatedCardinality = estimatedCardinality;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -82,6 +257,14 @@ private DbFileIterator it;
         // some code goes here
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.firstPage = -1;
+        this.endPage = -1;
+        this.predicates = Collections.emptyList();
+        this.fields = null;
+        this.projectedTd = null;
+        this.estimatedCardinality = -1;
+        this.indexField = -1;
+        this.indexPredicate = null;
         this.it = null;
     }
 
@@ -91,12 +274,54 @@ private DbFileIterator it;
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        it = Database.getCatalog()
-            .getDatabaseFile(this.tableId)
-            .iterator(this.tid);
+        DbFile file = Database.getCatalog()
+            .getDatabaseFile(this.tableId);
+        if (indexField >= 0) {
+            it = search(file);
+            if (!predicates.isEmpty() || fields != null) {
+                it = new PushdownIterator(it, file.getTupleDesc(), predicates, fields);
+            }
+        } else if (firstPage < 0) {
+            it = predicates.isEmpty() && fields == null
+                ? file.iterator(this.tid)
+                : file.iterator(this.tid, predicates, fields);
+        } else if (file instanceof HeapFile) {
+            it = ((HeapFile) file).iterator(this.tid, firstPage, endPage, predicates, fields);
+        } else {
+            throw new DbException("only heap files can be scanned by page ranges");
+        }
         it.open();
     }
 
+    private DbFileIterator search(DbFile file) throws DbException {
+        if (indexPredicate == null) {
+            throw new DbException("an index scan is opened with the keys to search for");
+        }
+        if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == indexField) {
+            return ((BTreeFile) file).indexIterator(this.tid, indexPredicate);
+        }
+        SecondaryIndex index = Database.getCatalog().getIndex(this.tableId, indexField);
+        if (index == null) {
+            throw new DbException("field " + indexField + " of table " + getTableName() + " has no index");
+        }
+        return index.iterator(this.tid, indexPredicate);
+    }
+
+    public void open(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        if (indexField < 0) {
+            throw new DbException("a scan without an index field can't be searched");
+        }
+        this.indexPredicate = ipred;
+        open();
+    }
+
+    public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        if (it != null) {
+            it.close();
+        }
+        open(ipred);
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -105,12 +330,20 @@ private DbFileIterator it;
      * (e.g., "alias.fieldName").
      *
      * @return the TupleDesc with field names from the underlying HeapFile,
-     *         prefixed with the tableAlias string from the constructor.
+     *         prefixed with the tableAlias string from the constructor; only
+     *         the projected fields if the scan has a projection.
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return Database.getCatalog()
+        TupleDesc td = Database.getCatalog()
             .getTupleDesc(this.tableId);
+        if (fields == null) {
+            return td;
+        }
+        if (projectedTd == null) {
+            projectedTd = PushdownIterator.project(td, fields);
+        }
+        return projectedTd;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
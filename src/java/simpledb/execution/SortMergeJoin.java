@@ -0,0 +1,200 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin is an equi-join of two children that are both sorted in
+ * ascending order on their join fields, e.g. scans of B+ trees keyed on the
+ * join fields or the output of an ascending {@link OrderBy}.
+ * <p>
+ * Both children are read once, in lockstep. The only tuples kept in memory are
+ * the current run of left tuples that share a join key, which is joined with
+ * every right tuple of the same key; the output is sorted on the join key as
+ * well. Children that turn out not to be sorted make the join fail with a
+ * DbException rather than silently miss matches.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    // the next unconsumed tuple of each child, null at its end
+    transient private Tuple t1, t2;
+    transient private Field lastKey1, lastKey2;
+    // left tuples with the key of t2, joined with t2 and the right tuples that follow with the same key
+    transient private List<Tuple> run;
+    transient private Field runKey;
+    transient private int runPos;
+
+    /**
+     * Constructor. Accepts two children sorted in ascending order on their
+     * join fields and the predicate to join them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("SortMergeJoin only supports EQUALS, not " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        lastKey1 = null;
+        lastKey2 = null;
+        run = null;
+        runKey = null;
+        t1 = nextLeft();
+        t2 = nextRight();
+    }
+
+    public void close() {
+        super.close();
+        t1 = null;
+        t2 = null;
+        run = null;
+        child2.close();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    private Tuple nextLeft() throws DbException, TransactionAbortedException {
+        if (!child1.hasNext()) {
+            return null;
+        }
+        Tuple t = child1.next();
+        lastKey1 = checkOrder(lastKey1, t.getField(pred.getField1()), getJoinField1Name());
+        return t;
+    }
+
+    private Tuple nextRight() throws DbException, TransactionAbortedException {
+        if (!child2.hasNext()) {
+            return null;
+        }
+        Tuple t = child2.next();
+        lastKey2 = checkOrder(lastKey2, t.getField(pred.getField2()), getJoinField2Name());
+        return t;
+    }
+
+    private static Field checkOrder(Field last, Field key, String fieldName) throws DbException {
+        if (last != null && key.compare(Predicate.Op.LESS_THAN, last)) {
+            throw new DbException("input of sort-merge join is not sorted on " + fieldName
+                    + ": " + key + " follows " + last);
+        }
+        return key;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The result is the concatenation of the joining left and
+     * right tuples, in ascending order of the join key.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (run != null) {
+                if (runPos < run.size()) {
+                    return mergeTuples(run.get(runPos++), t2);
+                }
+                // the run is joined with t2, move on to the next right tuple
+                t2 = nextRight();
+                if (t2 != null && t2.getField(pred.getField2()).compare(Predicate.Op.EQUALS, runKey)) {
+                    runPos = 0;
+                    continue;
+                }
+                run = null;
+            }
+            if (t1 == null || t2 == null) {
+                return null;
+            }
+
+            Field key1 = t1.getField(pred.getField1());
+            Field key2 = t2.getField(pred.getField2());
+            if (key1.compare(Predicate.Op.LESS_THAN, key2)) {
+                t1 = nextLeft();
+            } else if (key1.compare(Predicate.Op.GREATER_THAN, key2)) {
+                t2 = nextRight();
+            } else {
+                run = new ArrayList<>();
+                runKey = key1;
+                runPos = 0;
+                while (t1 != null && t1.getField(pred.getField1()).compare(Predicate.Op.EQUALS, runKey)) {
+                    run.add(t1);
+                    t1 = nextLeft();
+                }
+            }
+        }
+    }
+
+    private Tuple mergeTuples(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
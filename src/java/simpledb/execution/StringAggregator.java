@@ -7,7 +7,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
-import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleIterator;
@@ -56,7 +55,11 @@ public class StringAggregator implements Aggregator {
         }
     }
 
-    private final static String NO_GROUPING_KEY = "NO_GROUPING_KEY";
+    /**
+     * Group key used when there is no grouping. Groups are keyed by the group-by Field itself, so that
+     * dictionary-encoded strings are grouped by their codes and only decoded when results are output.
+     */
+    private final static Field NO_GROUPING_KEY = new IntField(0);
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the constructor
@@ -67,32 +70,60 @@ public class StringAggregator implements Aggregator {
         if(gbfieldtype != null && !tup.getField(gbfield).getType().equals(gbfieldtype)) {
             throw new IllegalArgumentException("gbfieldtype has wrong type");
         }
-        String key = null;
+        Field key = null;
         if(gbfield == NO_GROUPING) {
-            key = "NO_GROUPING";
+            key = NO_GROUPING_KEY;
         } else {
-            key = tup.getField(gbfield).toString();
+            key = tup.getField(gbfield);
         }
         gbHandler.handle(key, tup.getField(afield));
     }
 
 
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        if(gbfieldtype != null && !tup.getField(gbfield).getType().equals(gbfieldtype)) {
+            throw new IllegalArgumentException("gbfieldtype has wrong type");
+        }
+        Field key = gbfield == NO_GROUPING ? NO_GROUPING_KEY : tup.getField(gbfield);
+        return gbHandler.getGbResult().computeIfPresent(key, (k, v) -> v + 1) != null;
+    }
+
+    public int numGroups() {
+        return gbHandler.getGbResult().size();
+    }
+
+    /**
+     * Merge the groups of a partial aggregate into this one by adding up
+     * their counts.
+     * @param partial a StringAggregator constructed with the same arguments
+     */
+    public void merge(Aggregator partial) {
+        StringAggregator other = (StringAggregator) partial;
+        if (other.gbfield != gbfield || other.afield != afield || other.what != what) {
+            throw new IllegalArgumentException("can only merge an aggregate of the same fields and op");
+        }
+        for (Map.Entry<Field, Integer> entry : other.gbHandler.getGbResult().entrySet()) {
+            gbHandler.getGbResult().merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+    }
+
+
     private abstract class GBHandler {
-        ConcurrentHashMap<String, Integer> gbResult;
-        abstract void handle(String key, Field field);
+        ConcurrentHashMap<Field, Integer> gbResult;
+        abstract void handle(Field key, Field field);
         private GBHandler() {
             gbResult = new ConcurrentHashMap<>();
         }
 
-        public Map<String, Integer> getGbResult() {
+        public Map<Field, Integer> getGbResult() {
             return gbResult;
         }
     }
 
     private class CountHandler extends GBHandler {
         @Override
-        void handle(String key, Field field) {
-            gbResult.put(key, gbResult.getOrDefault(key, 0) + 1);
+        void handle(Field key, Field field) {
+            gbResult.merge(key, 1, Integer::sum);
         }
     }
 
@@ -118,14 +149,9 @@ public class StringAggregator implements Aggregator {
             }
         } else {
             td = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE}, new String[]{"groupVal", "aggregateVal"});
-            for(Map.Entry<String, Integer> entry : gbHandler.getGbResult().entrySet()) {
+            for(Map.Entry<Field, Integer> entry : gbHandler.getGbResult().entrySet()) {
                 Tuple tuple = new Tuple(td);
-                if(gbfieldtype == Type.INT_TYPE) {
-                    tuple.setField(0, new IntField(Integer.parseInt(entry.getKey())));
-                }
-                else if(gbfieldtype == Type.STRING_TYPE){
-                    tuple.setField(0, new StringField(entry.getKey(), entry.getKey().length()));
-                }
+                tuple.setField(0, entry.getKey());
                 tuple.setField(1, new IntField(entry.getValue()));
                 tuples.add(tuple);
             }
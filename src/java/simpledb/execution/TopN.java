@@ -0,0 +1,125 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * TopN returns the first n tuples of its child in the order of one field,
+ * i.e. ORDER BY ... LIMIT n, without sorting the whole input. It keeps the
+ * best n tuples seen so far in a heap whose top is the worst of them, so it
+ * holds O(n) tuples and does O(log n) work per input tuple.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int orderByField;
+    private final boolean asc;
+    private final int n;
+    private final Comparator<OrderBy.SortKey> order;
+
+    transient private OrderBy.SortKey[] top;
+    transient private int pos;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param n
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int n, OpIterator child) {
+        if (n < 0) {
+            throw new IllegalArgumentException("TopN needs a non-negative number of tuples, not " + n);
+        }
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.n = n;
+        this.order = new OrderBy.SortKeyComparator(orderbyField, asc,
+                td.getFieldType(orderbyField) == Type.INT_TYPE);
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    public int getN() {
+        return n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        // the top of the heap is the tuple that leaves first when a better one arrives
+        PriorityQueue<OrderBy.SortKey> heap = new PriorityQueue<>(Math.max(1, Math.min(n, 1024)), order.reversed());
+        if (n > 0) {
+            while (child.hasNext()) {
+                OrderBy.SortKey k = new OrderBy.SortKey(child.next(), orderByField);
+                if (heap.size() < n) {
+                    heap.add(k);
+                } else if (order.compare(k, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(k);
+                }
+            }
+        }
+        top = heap.toArray(new OrderBy.SortKey[0]);
+        Arrays.sort(top, order);
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        top = null;
+        child.close();
+    }
+
+    public void rewind() {
+        pos = 0;
+    }
+
+    /**
+     * Returns the next of the top n tuples, in order, or null if there are
+     * no more.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException {
+        if (top != null && pos < top.length) {
+            return top[pos++].t;
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
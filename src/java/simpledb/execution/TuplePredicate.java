@@ -0,0 +1,38 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * TuplePredicate is a condition on the fields of a tuple, such as a
+ * {@link Predicate} on one field or a {@link Disjunction} of them.
+ * <p>
+ * Every tuple predicate can be written in disjunctive normal form, as
+ * alternatives of conjunctions of predicates on one field each, so code that
+ * reasons about the fields, operators and operands of a condition, like the
+ * optimizer's estimates, works on {@link #getAlternatives} and not on the
+ * class of the condition.
+ */
+public interface TuplePredicate extends Serializable {
+
+    /**
+     * @param t
+     *            The tuple to evaluate this predicate on
+     * @return whether t satisfies this predicate
+     */
+    boolean filter(Tuple t);
+
+    /**
+     * @return the relative cost of evaluating this predicate on a tuple, used
+     *         to order the predicates of a conjunction
+     */
+    double evaluationCost();
+
+    /**
+     * @return the alternatives a tuple satisfies any of to satisfy this
+     *         predicate, each a conjunction of predicates on one field
+     */
+    List<List<Predicate>> getAlternatives();
+}
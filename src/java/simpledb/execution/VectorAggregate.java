@@ -0,0 +1,103 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * VectorAggregate is the vectorized {@link Aggregate}. Aggregates of INT
+ * fields are computed by {@link IntegerAggregator#mergeBatch}, which reads the
+ * group and aggregate columns of each batch directly; other aggregates merge
+ * the selected rows one tuple at a time. The groups are returned in batches
+ * once the child is exhausted.
+ */
+public class VectorAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    transient private BatchIterator groups;
+
+    /**
+     * Constructor.
+     *
+     * @param child The BatchIterator that is feeding us rows.
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result, or -1 if there is no grouping
+     * @param aop The aggregation operator to use
+     */
+    public VectorAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.td = newAggregator().iterator().getTupleDesc();
+    }
+
+    private Aggregator newAggregator() {
+        Type gfieldType = gfield == Aggregator.NO_GROUPING ? null : child.getTupleDesc().getFieldType(gfield);
+        if (child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE) {
+            return new IntegerAggregator(gfield, gfieldType, afield, aop);
+        } else {
+            return new StringAggregator(gfield, gfieldType, afield, aop);
+        }
+    }
+
+    public int groupField() {
+        return gfield;
+    }
+
+    public int aggregateField() {
+        return afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        Aggregator aggregator = newAggregator();
+        child.open();
+        try {
+            Batch batch;
+            while ((batch = child.nextBatch()) != null) {
+                if (aggregator instanceof IntegerAggregator) {
+                    ((IntegerAggregator) aggregator).mergeBatch(batch);
+                } else {
+                    for (int i = 0; i < batch.size(); i++) {
+                        aggregator.mergeTupleIntoGroup(batch.getTuple(batch.row(i)));
+                    }
+                }
+            }
+        } finally {
+            child.close();
+        }
+        groups = new RowToBatch(Aggregate.results(aggregator));
+        groups.open();
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        return groups.nextBatch();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        groups.rewind();
+    }
+
+    public void close() {
+        if (groups != null) {
+            groups.close();
+            groups = null;
+        }
+    }
+}
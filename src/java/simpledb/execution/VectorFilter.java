@@ -0,0 +1,152 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * VectorFilter is the vectorized {@link Filter}. It doesn't copy the rows
+ * that pass the predicate but narrows the selection vector of each batch to
+ * them. Comparisons of an INT field with a constant run as one tight loop per
+ * operator over the column's int array.
+ */
+public class VectorFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private BatchIterator child;
+    // the INT operand, if the predicate compares an INT field
+    private final boolean intPredicate;
+    private final int operand;
+
+    transient private int[] selection;
+
+    /**
+     * Constructor accepts a predicate to apply and a child operator to read
+     * batches to filter from.
+     *
+     * @param p
+     *            The predicate to filter rows with
+     * @param child
+     *            The child operator
+     */
+    public VectorFilter(Predicate p, BatchIterator child) {
+        this.p = p;
+        this.child = child;
+        this.intPredicate = child.getTupleDesc().getFieldType(p.getField()) == Type.INT_TYPE
+                && p.getOperand() instanceof IntField;
+        this.operand = intPredicate ? ((IntField) p.getOperand()).getValue() : 0;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        selection = null;
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        Batch batch;
+        while ((batch = child.nextBatch()) != null) {
+            if (selection == null || selection.length < batch.capacity()) {
+                selection = new int[batch.capacity()];
+            }
+            int n = intPredicate ? filterInts(batch) : filterFields(batch);
+            if (n > 0) {
+                batch.setSelection(selection, n);
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private int filterInts(Batch batch) {
+        int[] values = batch.ints(p.getField());
+        int[] in = batch.selection();
+        int size = batch.size();
+        int[] out = selection;
+        int n = 0;
+        // each branch writes every candidate row and advances only past the matching ones, so there is no
+        // data-dependent branch in the loop
+        switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < size; i++) {
+                    int r = in == null ? i : in[i];
+                    out[n] = r;
+                    n += values[r] == operand ? 1 : 0;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < size; i++) {
+                    int r = in == null ? i : in[i];
+                    out[n] = r;
+                    n += values[r] != operand ? 1 : 0;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < size; i++) {
+                    int r = in == null ? i : in[i];
+                    out[n] = r;
+                    n += values[r] > operand ? 1 : 0;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < size; i++) {
+                    int r = in == null ? i : in[i];
+                    out[n] = r;
+                    n += values[r] >= operand ? 1 : 0;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < size; i++) {
+                    int r = in == null ? i : in[i];
+                    out[n] = r;
+                    n += values[r] < operand ? 1 : 0;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < size; i++) {
+                    int r = in == null ? i : in[i];
+                    out[n] = r;
+                    n += values[r] <= operand ? 1 : 0;
+                }
+                break;
+            default:
+                throw new IllegalStateException("unknown operator " + p.getOp());
+        }
+        return n;
+    }
+
+    private int filterFields(Batch batch) {
+        int field = p.getField();
+        int n = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            int r = batch.row(i);
+            Field f = batch.getField(r, field);
+            if (p.filter(f)) {
+                selection[n++] = r;
+            }
+        }
+        return n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        selection = null;
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * VectorHashJoin is the vectorized {@link HashEquiJoin} on INT fields. It
+ * copies the rows of its left child into batches and hashes their join keys
+ * into an {@link IntHashTable}, then probes the table with the int join key
+ * column of each batch of the right child, writing the joined rows into an
+ * output batch.
+ */
+public class VectorHashJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private BatchIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int capacity;
+
+    // build side: the rows of the left child, Batch.capacity() per batch, and their join keys
+    transient private List<Batch> buildRows;
+    transient private IntHashTable table;
+
+    // probe side: the right batch being probed, its next selected row, and the next match of the current row
+    transient private Batch probe;
+    transient private int probeIndex;
+    transient private int matchRow = IntHashTable.NO_ROW;
+    transient private Batch out;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS on INT fields
+     * @param child1
+     *            Iterator for the left (build) relation to join
+     * @param child2
+     *            Iterator for the right (probe) relation to join
+     */
+    public VectorHashJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("VectorHashJoin only supports EQUALS, not " + p.getOperator());
+        }
+        if (child1.getTupleDesc().getFieldType(p.getField1()) != Type.INT_TYPE
+                || child2.getTupleDesc().getFieldType(p.getField2()) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("VectorHashJoin only joins INT fields");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.capacity = Batch.DEFAULT_CAPACITY;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build();
+        out = new Batch(comboTD, capacity);
+        probe = null;
+        matchRow = IntHashTable.NO_ROW;
+    }
+
+    private void build() throws DbException, TransactionAbortedException {
+        buildRows = new ArrayList<>();
+        TupleDesc td = child1.getTupleDesc();
+        Batch rows = null;
+        int n = 0;
+        Batch batch;
+        while ((batch = child1.nextBatch()) != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (rows == null || rows.isFull()) {
+                    rows = new Batch(td, capacity);
+                    buildRows.add(rows);
+                }
+                rows.addRow(batch, batch.row(i));
+                n++;
+            }
+        }
+        table = new IntHashTable(n);
+        int field = pred.getField1();
+        for (int b = 0; b < buildRows.size(); b++) {
+            Batch rowsOfBatch = buildRows.get(b);
+            int[] keys = rowsOfBatch.ints(field);
+            for (int r = 0; r < rowsOfBatch.numRows(); r++) {
+                table.add(keys[r], b * capacity + r);
+            }
+        }
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        out.clear();
+        int field = pred.getField2();
+        while (!out.isFull()) {
+            if (matchRow != IntHashTable.NO_ROW) {
+                out.addJoined(buildRows.get(matchRow / capacity), matchRow % capacity, probe, probe.row(probeIndex));
+                matchRow = table.next(matchRow);
+                if (matchRow == IntHashTable.NO_ROW) {
+                    probeIndex++;
+                }
+                continue;
+            }
+            if (probe == null || probeIndex >= probe.size()) {
+                probe = child2.nextBatch();
+                probeIndex = 0;
+                if (probe == null) {
+                    break;
+                }
+            }
+            // skip the probe rows without matches in one tight loop
+            int[] keys = probe.ints(field);
+            int size = probe.size();
+            while (probeIndex < size && (matchRow = table.first(keys[probe.row(probeIndex)])) == IntHashTable.NO_ROW) {
+                probeIndex++;
+            }
+        }
+        return out.size() > 0 ? out : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child2.rewind();
+        probe = null;
+        matchRow = IntHashTable.NO_ROW;
+    }
+
+    public void close() {
+        child1.close();
+        child2.close();
+        buildRows = null;
+        table = null;
+        probe = null;
+        out = null;
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+
+/**
+ * VectorProject is the vectorized {@link Project}. The projected batches
+ * share the column arrays and the selection of the child's batches, so
+ * projecting copies no values.
+ */
+public class VectorProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+    private final TupleDesc td;
+    private final int[] outFieldIds;
+
+    transient private Batch in;
+    transient private Batch out;
+
+    /**
+     * Constructor accepts a child operator to read batches to apply the
+     * projection to and a list of fields in the output rows.
+     *
+     * @param fieldList The ids of the fields of the child's tupleDesc to project out
+     * @param child     The child operator
+     */
+    public VectorProject(List<Integer> fieldList, BatchIterator child) {
+        this.child = child;
+        this.outFieldIds = new int[fieldList.size()];
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[outFieldIds.length];
+        String[] names = new String[outFieldIds.length];
+        for (int i = 0; i < outFieldIds.length; i++) {
+            outFieldIds[i] = fieldList.get(i);
+            types[i] = childtd.getFieldType(outFieldIds[i]);
+            names[i] = childtd.getFieldName(outFieldIds[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        Batch batch = child.nextBatch();
+        if (batch == null) {
+            return null;
+        }
+        // a projection of the same batch object can be reused, as it shares the column arrays
+        out = batch.project(td, outFieldIds, batch == in ? out : null);
+        in = batch;
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        in = null;
+        out = null;
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * VectorSeqScan is the vectorized {@link SeqScan}: it reads the tuples of a
+ * table in the order they are laid out on disk and returns them in batches.
+ * The tuples of a heap file are copied from its pages into the columns of the
+ * batch one column at a time; other files are read through their iterator.
+ */
+public class VectorSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final int capacity;
+
+    transient private DbFileIterator it;
+    transient private Batch batch;
+
+    // the heap file being scanned, its current page and the used slots of that page not yet returned
+    transient private HeapFile heapFile;
+    transient private HeapPage page;
+    transient private int pageNo;
+    transient private int[] slots;
+    transient private int usedSlots;
+    transient private int nextSlot;
+
+    /**
+     * Creates a vectorized sequential scan over the specified table, returning
+     * batches of the default capacity.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table.
+     */
+    public VectorSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, Batch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *            the number of rows of the returned batches.
+     */
+    public VectorSeqScan(TransactionId tid, int tableid, String tableAlias, int capacity) {
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(tableId);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (f instanceof HeapFile) {
+            heapFile = (HeapFile) f;
+            restart();
+        } else {
+            it = f.iterator(tid);
+            it.open();
+        }
+        batch = new Batch(getTupleDesc(), capacity);
+    }
+
+    private void restart() {
+        page = null;
+        pageNo = -1;
+        usedSlots = 0;
+        nextSlot = 0;
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            throw new IllegalStateException("scan not open");
+        }
+        batch.clear();
+        if (heapFile == null) {
+            while (!batch.isFull() && it.hasNext()) {
+                batch.addTuple(it.next());
+            }
+            return batch.size() > 0 ? batch : null;
+        }
+
+        int columns = batch.getTupleDesc().numFields();
+        while (!batch.isFull()) {
+            if (nextSlot == usedSlots) {
+                if (pageNo + 1 >= heapFile.numPages()) {
+                    break;
+                }
+                page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(tableId, ++pageNo),
+                        Permissions.READ_ONLY);
+                if (slots == null || slots.length < page.getNumSlots()) {
+                    slots = new int[page.getNumSlots()];
+                }
+                usedSlots = page.getUsedSlots(slots);
+                nextSlot = 0;
+                continue;
+            }
+            int n = Math.min(batch.capacity() - batch.numRows(), usedSlots - nextSlot);
+            int row = batch.numRows();
+            for (int c = 0; c < columns; c++) {
+                if (batch.ints(c) != null) {
+                    page.copyInts(c, slots, nextSlot, n, batch.ints(c), row);
+                } else {
+                    page.copyFields(c, slots, nextSlot, n, batch.fields(c), row);
+                }
+            }
+            batch.appendRows(n);
+            nextSlot += n;
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (heapFile != null) {
+            restart();
+        } else {
+            it.rewind();
+        }
+    }
+
+    public void close() {
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+        heapFile = null;
+        page = null;
+        slots = null;
+        batch = null;
+    }
+}
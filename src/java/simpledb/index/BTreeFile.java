@@ -1,18 +1,19 @@
 package simpledb.index;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
@@ -23,6 +24,7 @@ import simpledb.storage.AbstractDbFileIterator;
 import simpledb.storage.BufferPool;
 import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.FileHandleCache;
 import simpledb.storage.Field;
 import simpledb.storage.Page;
 import simpledb.storage.PageId;
@@ -46,6 +48,26 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableid;
     private final int keyField;
+    // short-term latches on the root pointer and internal pages, by page number. Unlike the transaction locks that
+    // leaves take, they are held only while a page is read or changed; see findLeafPage and latchAncestors
+    private final ConcurrentHashMap<Integer, ReentrantReadWriteLock> latches = new ConcurrentHashMap<>();
+    // the exclusive latches the current thread holds for a split or merge, or null outside of one
+    private final ThreadLocal<List<ReentrantReadWriteLock>> exclusiveLatches = new ThreadLocal<>();
+    // the number of times a page was freed or reused, after which a page number may no longer hold the same page
+    private final AtomicLong pagesRecycled = new AtomicLong();
+    // the right-most leaf as of the last insert into it, so that appends of increasing keys can skip the descent
+    private volatile RightmostLeaf rightmostLeaf;
+
+    private static final class RightmostLeaf {
+        final BTreePageId pid;
+        // pagesRecycled when the leaf was recorded
+        final long recycled;
+
+        RightmostLeaf(BTreePageId pid, long recycled) {
+            this.pid = pid;
+            this.recycled = recycled;
+        }
+    }
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -55,9 +77,21 @@ public class BTreeFile implements DbFile {
      * @param td - the tuple descriptor of tuples in the file
      */
     public BTreeFile(File f, int key, TupleDesc td) {
+        this(f, key, td, f.getAbsoluteFile().hashCode());
+    }
+
+    /**
+     * Constructs a B+ tree file backed by the specified file with an explicit table id, as used by tables registered
+     * in a persistent catalog.
+     *
+     * @param f - the file that stores the on-disk backing store for this B+ tree file.
+     * @param key - the field which index is keyed on
+     * @param td - the tuple descriptor of tuples in the file
+     * @param tableid - the id of the table
+     */
+    public BTreeFile(File f, int key, TupleDesc td, int tableid) {
         this.f = f;
-        this.tableid = f.getAbsoluteFile()
-            .hashCode();
+        this.tableid = tableid;
         this.keyField = key;
         this.td = td;
     }
@@ -97,11 +131,11 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try (FileHandleCache.Handle h = Database.getFileHandleCache().acquire(f, false)) {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
+                int retval = h.read(0, pageBuf);
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -111,12 +145,8 @@ public class BTreeFile implements DbFile {
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize())
-                    != BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
+                int retval = h.read(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize(), pageBuf);
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BufferPool.getPageSize()) {
@@ -147,15 +177,13 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
-        } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId()
-                .getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+        try (FileHandleCache.Handle h = Database.getFileHandleCache().acquire(f, true)) {
+            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+                h.write(0, data);
+            } else {
+                h.write(BTreeRootPtrPage.getPageSize() + (long) (page.getId()
+                    .getPageNumber() - 1) * BufferPool.getPageSize(), data);
+            }
         }
     }
 
@@ -175,48 +203,140 @@ public class BTreeFile implements DbFile {
     }
 
     /**
-     * Recursive function which finds and locks the leaf page in the B+ tree corresponding to the left-most page possibly containing the key field f. It locks all internal nodes along the path to the
-     * leaf node with READ_ONLY permission, and locks the leaf node with permission perm.
+     * Get the page a latch protects without locking it, from the local cache ("dirtypages") if it is there.
+     *
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param pid - the id of the requested page
+     * @return the requested page
+     */
+    private Page getLatchedPage(Map<PageId, Page> dirtypages, BTreePageId pid) throws DbException {
+        Page p = dirtypages.get(pid);
+        return p != null ? p : Database.getBufferPool().getPageWithoutLock(pid);
+    }
+
+    private ReentrantReadWriteLock latch(BTreePageId pid) {
+        return latches.computeIfAbsent(pid.getPageNumber(), k -> new ReentrantReadWriteLock());
+    }
+
+    /**
+     * Find the id of the left-most leaf page possibly containing the key field f, descending from the root pointer with latch coupling: the latch on a page is released only once the latch on the
+     * child it leads to is held, so the descent never sees a split or merge half done. No transaction locks are taken.
+     *
+     * If f is null, it finds the left-most leaf page -- used for the iterator
+     *
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param f - the field to search for
+     * @return the id of the left-most leaf page possibly containing the key field f
+     */
+    private BTreePageId findLeafPageId(Map<PageId, Page> dirtypages, Field f) throws DbException {
+        BTreePageId pid = BTreeRootPtrPage.getId(tableid);
+        Lock held = latch(pid).readLock();
+        held.lock();
+        try {
+            BTreePageId child = ((BTreeRootPtrPage) getLatchedPage(dirtypages, pid)).getRootId();
+            if (child == null) {
+                // the root pointer page has just been created along with an empty root leaf
+                return new BTreePageId(tableid, 1, BTreePageId.LEAF);
+            }
+            while (child.pgcateg() == BTreePageId.INTERNAL) {
+                Lock next = latch(child).readLock();
+                next.lock();
+                held.unlock();
+                held = next;
+                pid = child;
+                child = ((BTreeInternalPage) getLatchedPage(dirtypages, pid)).findChildId(f);
+                if (child == null) {
+                    throw new DbException("internal page " + pid.getPageNumber() + " has no entries");
+                }
+            }
+            return child;
+        } finally {
+            held.unlock();
+        }
+    }
+
+    /**
+     * Find and lock the leaf page in the B+ tree corresponding to the left-most page possibly containing the key field f. Internal pages are only latched on the way down, and the leaf is locked with
+     * permission perm once the latches are released, so that waiting for the lock holds up no other descent. A split or merge may move the key to another leaf in the meantime, so the descent is
+     * repeated under the lock until it ends on the locked leaf.
      *
      * If f is null, it finds the left-most leaf page -- used for the iterator
      *
      * @param tid - the transaction id
      * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
-     * @param pid - the current page being searched
      * @param perm - the permissions with which to lock the leaf page
      * @param f - the field to search for
      * @return the left-most leaf page possibly containing the key field f
+     * @see #findLeafPageId(Map, Field)
      */
-    private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm, Field f) throws DbException, TransactionAbortedException {
+    private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, Permissions perm, Field f) throws DbException, TransactionAbortedException {
         // some code goes here
-        int pgcateg = pid.pgcateg();
-        if (pgcateg == BTreePageId.LEAF) {
-            return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+        BTreePageId pid = findLeafPageId(dirtypages, f);
+        while (true) {
+            boolean locked = dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid);
+            BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+            BTreePageId found = findLeafPageId(dirtypages, f);
+            if (found.equals(pid)) {
+                return page;
+            }
+            if (!locked) {
+                unlockLeafPage(tid, dirtypages, pid);
+            }
+            pid = found;
         }
+    }
 
-        BTreeInternalPage internalPage = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-        Iterator<BTreeEntry> it = internalPage.iterator();
-        BTreeEntry entry = null;
-        while (it.hasNext()) {
-            entry = it.next();
-            if (f == null || f.compare(Op.LESS_THAN_OR_EQ, entry.getKey())) {
-                return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
-            }
+    /**
+     * Release the lock on a leaf page that was taken for nothing; unless the transaction held it before, nothing depends on it.
+     *
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param pid - the leaf page, which the transaction has not changed
+     */
+    private void unlockLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid) {
+        dirtypages.remove(pid);
+        Database.getBufferPool()
+            .unsafeReleasePage(tid, pid);
+    }
+
+    /**
+     * Lock the right-most leaf page if a tuple with the key field f belongs on it, without descending from the root. This is the case for the keys from the first key of the right-most leaf on,
+     * as when keys increase with every insert. The leaf recorded by the last insert into it is checked once it is locked: that it is still a leaf no other page was freed or reused in place of,
+     * that nothing was split off to its right, and that the key is not below its first key.
+     *
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param f - the key field of the tuple to insert
+     * @return the right-most leaf page locked with read-write permission, or null if the tuple may belong on another leaf
+     */
+    private BTreeLeafPage findRightmostLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, Field f) throws DbException, TransactionAbortedException {
+        RightmostLeaf hint = rightmostLeaf;
+        if (hint == null || hint.recycled != pagesRecycled.get()) {
+            return null;
         }
-        return findLeafPage(tid, dirtypages, entry.getRightChild(), perm, f);
+        boolean locked = dirtypages.containsKey(hint.pid) || Database.getBufferPool().holdsLock(tid, hint.pid);
+        BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, hint.pid, Permissions.READ_WRITE);
+        Iterator<Tuple> it = page.iterator();
+        if (hint.recycled == pagesRecycled.get() && page.getRightSiblingId() == null && it.hasNext()
+                && f.compare(Op.GREATER_THAN_OR_EQ, it.next().getField(keyField))) {
+            return page;
+        }
+        if (!locked) {
+            unlockLeafPage(tid, dirtypages, hint.pid);
+        }
+        return null;
     }
 
     /**
      * Convenience method to find a leaf page when there is no dirtypages HashMap. Used by the BTreeFile iterator.
      *
      * @param tid - the transaction id
-     * @param pid - the current page being searched
      * @param f - the field to search for
      * @return the left-most leaf page possibly containing the key field f
-     * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
+     * @see #findLeafPage(TransactionId, Map, Permissions, Field)
      */
-    BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid, Field f) throws DbException, TransactionAbortedException {
-        return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
+    BTreeLeafPage findLeafPage(TransactionId tid, Field f) throws DbException, TransactionAbortedException {
+        return findLeafPage(tid, new HashMap<>(), Permissions.READ_ONLY, f);
     }
 
     /**
@@ -246,17 +366,25 @@ public class BTreeFile implements DbFile {
         // tuple with the given key field should be inserted.
 
         BTreeLeafPage newRightPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+        // lock the right sibling before moving any tuples, so that a wait for it that aborts leaves the page whole
+        BTreePageId oldRightPageId = page.getRightSiblingId();
+        BTreeLeafPage oldRightPage = oldRightPageId != null ? (BTreeLeafPage) getPage(tid, dirtypages, oldRightPageId, Permissions.READ_WRITE) : null;
+
+        // a key past the end of the right-most leaf is likely followed by larger ones, so rather than moving half of
+        // the tuples, which would leave every leaf of increasing keys half empty, the page keeps all but its last
         int tuplesNum = page.getNumTuples();
+        int moving = tuplesNum / 2;
         Iterator<Tuple> it = page.reverseIterator();
-        for (int i = 0; i < tuplesNum / 2; ++i) {
+        if (oldRightPage == null && tuplesNum > 0 && field.compare(Op.GREATER_THAN_OR_EQ, page.reverseIterator().next().getField(keyField))) {
+            moving = 1;
+        }
+        for (int i = 0; i < moving; ++i) {
             Tuple tuple = it.next();
             page.deleteTuple(tuple);
             newRightPage.insertTuple(tuple);
         }
 
         // 链表插入一个新节点 newRightPage 后，修改双链表的指针指向
-        BTreePageId oldRightPageId = page.getRightSiblingId();
-        BTreeLeafPage oldRightPage = oldRightPageId != null ? (BTreeLeafPage) getPage(tid, dirtypages, oldRightPageId, Permissions.READ_WRITE) : null;
         if (oldRightPage != null) {
             newRightPage.setRightSiblingId(oldRightPageId);
             oldRightPage.setLeftSiblingId(newRightPage.getId());
@@ -277,7 +405,9 @@ public class BTreeFile implements DbFile {
         parentPage.insertEntry(bTreeEntry);
         dirtypages.put(parentPage.getId(), parentPage);
 
-        updateParentPointers(tid, dirtypages, parentPage);
+        // only the two halves may have a new parent; locking the other children would hold up their writers
+        updateParentPointer(tid, dirtypages, parentPage.getId(), page.getId());
+        updateParentPointer(tid, dirtypages, parentPage.getId(), newRightPage.getId());
 
         if (field.compare(Op.GREATER_THAN_OR_EQ, mid)) {
             return newRightPage;
@@ -332,8 +462,9 @@ public class BTreeFile implements DbFile {
         dirtypages.put(page.getId(), page);
         dirtypages.put(newRightPage.getId(), newRightPage);
         dirtypages.put(parent.getId(), parent);
-        updateParentPointers(tid, dirtypages, parent);
-        updateParentPointers(tid, dirtypages, page);
+        updateParentPointer(tid, dirtypages, parent.getId(), page.getId());
+        updateParentPointer(tid, dirtypages, parent.getId(), newRightPage.getId());
+        // the children that stay on the page keep their parent
         updateParentPointers(tid, dirtypages, newRightPage);
 
         if (field.compare(Op.GREATER_THAN, mid.getKey())) {
@@ -401,7 +532,9 @@ public class BTreeFile implements DbFile {
      */
     private void updateParentPointer(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, BTreePageId child) throws DbException, TransactionAbortedException {
 
-        BTreePage p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_ONLY);
+        // parent pointers change only under the latch of the parent, which the split or merge holds, so the children
+        // that keep their parent are read without locks that would hold up their writers
+        BTreePage p = (BTreePage) getLatchedPage(dirtypages, child);
 
         if (!p.getParentId()
             .equals(pid)) {
@@ -449,13 +582,48 @@ public class BTreeFile implements DbFile {
      * @throws TransactionAbortedException
      */
     Page getPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm) throws DbException, TransactionAbortedException {
+        Page p = fetchPage(tid, dirtypages, pid, perm);
+        if (p == null) {
+            // a split or merge never waits for a lock while it holds latches; latchAncestors takes the locks it
+            // needs beforehand, so this is a lock it could not foresee
+            throw new TransactionAbortedException();
+        }
+        return p;
+    }
+
+    /**
+     * Fetch a page like getPage, but during a split or merge, only if its lock is free: waiting for it there would hold up the threads that need the latches in the meantime, including the
+     * transaction that holds the lock.
+     *
+     * @return the requested page, or null during a split or merge if another transaction holds a conflicting lock on it
+     * @see #getPage(TransactionId, Map, BTreePageId, Permissions)
+     */
+    private Page fetchPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm) throws DbException, TransactionAbortedException {
+        List<ReentrantReadWriteLock> held = exclusiveLatches.get();
+        if (held != null && perm == Permissions.READ_WRITE && pid.pgcateg() == BTreePageId.INTERNAL) {
+            // descents read internal pages without locks, so a split or merge latches the ones it changes
+            ReentrantReadWriteLock l = latch(pid);
+            if (!l.isWriteLockedByCurrentThread()) {
+                l.writeLock().lock();
+                held.add(l);
+            }
+        }
         if (dirtypages.containsKey(pid)) {
             return dirtypages.get(pid);
         } else {
-            Page p = Database.getBufferPool()
-                .getPage(tid, pid, perm);
+            Page p = held == null ? Database.getBufferPool()
+                .getPage(tid, pid, perm) : Database.getBufferPool()
+                .tryGetPage(tid, pid, perm);
+            if (p == null) {
+                return null;
+            }
             if (perm == Permissions.READ_WRITE) {
                 dirtypages.put(pid, p);
+                if (pid.pgcateg() != BTreePageId.LEAF) {
+                    // keep the buffer pool from evicting the page before the change is complete, since other
+                    // threads would read the old version from disk without a lock in the meantime
+                    p.markDirty(true, tid);
+                }
             }
             return p;
         }
@@ -472,29 +640,339 @@ public class BTreeFile implements DbFile {
     public List<Page> insertTuple(TransactionId tid, Tuple t) throws DbException, IOException, TransactionAbortedException {
         Map<PageId, Page> dirtypages = new HashMap<>();
 
-        // get a read lock on the root pointer page and use it to locate the root page
+        // use the root pointer page to locate the root page
         BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
         BTreePageId rootId = rootPtr.getRootId();
 
         if (rootId == null) { // the root has just been created, so set the root pointer to point to it
             rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
             rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+            Lock l = latch(rootPtr.getId()).writeLock();
+            l.lock();
             rootPtr.setRootId(rootId);
+            l.unlock();
         }
 
-        // find and lock the left-most leaf page corresponding to the key field,
-        // and split the leaf page if there are no more slots available
-        BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+        // find and lock the left-most leaf page corresponding to the key field, or the right-most
+        // leaf page if the key belongs there, and split the leaf page if there are no more slots available
+        BTreeLeafPage leafPage = findRightmostLeafPage(tid, dirtypages, t.getField(keyField));
+        if (leafPage == null) {
+            leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, t.getField(keyField));
+        }
         if (leafPage.getNumEmptySlots() == 0) {
-            leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+            try {
+                latchAncestors(tid, dirtypages, leafPage, true);
+                leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+            } catch (DbException | IOException | TransactionAbortedException | RuntimeException e) {
+                abandonStructureModification(dirtypages);
+                throw e;
+            } finally {
+                unlatchAncestors();
+            }
         }
 
         // insert the tuple into the leaf page
         leafPage.insertTuple(t);
+        if (leafPage.getRightSiblingId() == null) {
+            // the page can't be freed while it is locked, so it is the right-most leaf as of this count
+            rightmostLeaf = new RightmostLeaf(leafPage.getId(), pagesRecycled.get());
+        }
 
         return new ArrayList<>(dirtypages.values());
     }
 
+    /**
+     * Latch the ancestors of a page that a split or merge of the page may change, top-down, and start the split or merge: until {@link #unlatchAncestors()}, getPage also latches the internal pages
+     * it fetches with read-write permission, like the siblings of the ancestors. The ancestors are the page's parent and, as long as the split or merge propagates to it, the parent's parent, up to
+     * the root pointer if the root changes. The pages above the first ancestor that absorbs the change stay unlatched, so other threads keep descending through them.
+     *
+     * The locks on the pages the split or merge changes are taken here, before anything changes, and only if they are free: a thread that waited for a lock while it held latches would hold up
+     * the lock's owner as soon as that transaction descends through them. If a lock is taken, the latches are released, the lock is waited for, and the ancestors are latched again.
+     *
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param page - the page to split or merge, locked with read-write permission
+     * @param split - whether the page splits, as opposed to merging with or stealing from a sibling
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     * @see #getPage(TransactionId, Map, BTreePageId, Permissions)
+     */
+    private void latchAncestors(TransactionId tid, Map<PageId, Page> dirtypages, BTreePage page, boolean split) throws DbException, IOException, TransactionAbortedException {
+        List<ReentrantReadWriteLock> held = new ArrayList<>();
+        exclusiveLatches.set(held);
+        while (true) {
+            // find the ancestors without latches, then latch them and check that nothing changed in between
+            List<BTreePageId> ancestors = new ArrayList<>();
+            BTreePageId pid = page.getParentId();
+            ancestors.add(pid);
+            while (pid.pgcateg() != BTreePageId.ROOT_PTR) {
+                BTreeInternalPage parent = (BTreeInternalPage) getLatchedPage(dirtypages, pid);
+                if (!propagates(parent, split)) {
+                    break;
+                }
+                pid = parent.getParentId();
+                ancestors.add(pid);
+            }
+            for (int i = ancestors.size() - 1; i >= 0; i--) {
+                ReentrantReadWriteLock l = latch(ancestors.get(i));
+                l.writeLock().lock();
+                held.add(l);
+            }
+            if (isAncestry(dirtypages, page, ancestors, split)) {
+                if (split ? lockSplit(tid, dirtypages, page, ancestors) : lockMerge(tid, dirtypages, page, ancestors)) {
+                    return;
+                }
+                continue;
+            }
+            releaseLatches();
+        }
+    }
+
+    private void releaseLatches() {
+        List<ReentrantReadWriteLock> held = exclusiveLatches.get();
+        for (ReentrantReadWriteLock l : held) {
+            l.writeLock().unlock();
+        }
+        held.clear();
+    }
+
+    /**
+     * Lock a page that a split or merge is about to change or read, unless another transaction holds a conflicting lock on it. In that case the latches are released and the lock is waited for
+     * without them.
+     *
+     * @return true if the page is locked and the latches are still held, false if they had to be released
+     */
+    private boolean lockWhileLatched(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm) throws DbException, TransactionAbortedException {
+        if (fetchPage(tid, dirtypages, pid, perm) != null) {
+            return true;
+        }
+        releaseLatches();
+        Database.getBufferPool()
+            .getPage(tid, pid, perm);
+        return false;
+    }
+
+    /**
+     * Lock the pages a split of the page changes: its right sibling if it is a leaf, the latched ancestors, the children that move to the new right half of every ancestor that splits, and the
+     * header page that records a free page for the new pages.
+     *
+     * @return true if all of them are locked, false if the latches had to be released to wait for a lock
+     * @see #latchAncestors(TransactionId, Map, BTreePage, boolean)
+     */
+    private boolean lockSplit(TransactionId tid, Map<PageId, Page> dirtypages, BTreePage page, List<BTreePageId> ancestors) throws DbException, IOException, TransactionAbortedException {
+        if (page instanceof BTreeLeafPage) {
+            BTreePageId rightSiblingId = ((BTreeLeafPage) page).getRightSiblingId();
+            if (rightSiblingId != null && !lockWhileLatched(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE)) {
+                return false;
+            }
+        }
+        for (BTreePageId pid : ancestors) {
+            if (!lockWhileLatched(tid, dirtypages, pid, Permissions.READ_WRITE)) {
+                return false;
+            }
+            if (pid.pgcateg() == BTreePageId.ROOT_PTR) {
+                break;
+            }
+            BTreeInternalPage parent = (BTreeInternalPage) getLatchedPage(dirtypages, pid);
+            if (propagates(parent, true)) {
+                // splitInternalPage moves the last half of the entries, and the right child of the middle one
+                List<BTreePageId> children = children(parent);
+                int entries = parent.getNumEntries();
+                for (BTreePageId child : children.subList(entries - entries / 2, children.size())) {
+                    if (!lockWhileLatched(tid, dirtypages, child, Permissions.READ_WRITE)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return lockHeader(tid, dirtypages, -1);
+    }
+
+    /**
+     * Lock the pages a merge of the page changes, level by level as long as it propagates: the sibling it merges with or steals from, the children that move between internal pages, the right
+     * sibling of the merged leaves, the root pointer if the root goes away, and the header pages that record the freed pages.
+     *
+     * @return true if all of them are locked, false if the latches had to be released to wait for a lock
+     * @see #handleMinOccupancyPage(TransactionId, Map, BTreePage)
+     */
+    private boolean lockMerge(TransactionId tid, Map<PageId, Page> dirtypages, BTreePage page, List<BTreePageId> ancestors) throws DbException, IOException, TransactionAbortedException {
+        for (BTreePageId parentId : ancestors) {
+            if (!lockWhileLatched(tid, dirtypages, parentId, Permissions.READ_WRITE)) {
+                return false;
+            }
+            if (parentId.pgcateg() == BTreePageId.ROOT_PTR) {
+                // the root lost its last entry, and the merged page takes its place
+                return lockHeader(tid, dirtypages, page.getId().getPageNumber());
+            }
+
+            // the same sibling handleMinOccupancyPage picks: the left one if there is one
+            BTreeInternalPage parent = (BTreeInternalPage) getLatchedPage(dirtypages, parentId);
+            List<BTreePageId> siblings = children(parent);
+            int i = siblings.indexOf(page.getId());
+            boolean left = i > 0;
+            BTreePageId siblingId = siblings.get(left ? i - 1 : i + 1);
+            if (!lockWhileLatched(tid, dirtypages, siblingId, Permissions.READ_WRITE)) {
+                return false;
+            }
+            BTreePage sibling = (BTreePage) getLatchedPage(dirtypages, siblingId);
+            BTreePage rightPage = left ? page : sibling;
+            boolean merge;
+            if (page instanceof BTreeLeafPage) {
+                BTreeLeafPage leaf = (BTreeLeafPage) page;
+                merge = sibling.getNumEmptySlots() >= leaf.getMaxTuples() - leaf.getMaxTuples() / 2;
+                BTreePageId rightSiblingId = ((BTreeLeafPage) rightPage).getRightSiblingId();
+                if (merge && rightSiblingId != null && !lockWhileLatched(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE)) {
+                    return false;
+                }
+            } else {
+                BTreeInternalPage internal = (BTreeInternalPage) page;
+                merge = sibling.getNumEmptySlots() >= internal.getMaxEntries() - internal.getMaxEntries() / 2;
+                // a merge moves the children of the right page, a steal those of the sibling next to the page
+                List<BTreePageId> children = children((BTreeInternalPage) (merge ? rightPage : sibling));
+                if (!merge) {
+                    int entries = internal.getNumEntries();
+                    int moving = (entries + ((BTreeInternalPage) sibling).getNumEntries()) / 2 - entries;
+                    children = left ? children.subList(children.size() - moving, children.size()) : children.subList(0, moving);
+                }
+                for (BTreePageId child : children) {
+                    if (!lockWhileLatched(tid, dirtypages, child, Permissions.READ_WRITE)) {
+                        return false;
+                    }
+                }
+            }
+            if (!merge) {
+                return true;
+            }
+            if (!lockHeader(tid, dirtypages, rightPage.getId().getPageNumber())) {
+                return false;
+            }
+            page = parent;
+        }
+        return true;
+    }
+
+    /**
+     * Lock the header pages getEmptyPageNo or setEmptyPage goes through: the header page with a free slot, or with the slot of the given page, with read-write permission, and the ones before it
+     * with read-only permission. Without header pages, setEmptyPage adds the first one to the root pointer.
+     *
+     * @param emptyPageNo - the page to make available for reuse, or -1 for a page to reuse
+     * @return true if they are locked, false if the latches had to be released to wait for a lock
+     * @see #getEmptyPageNo(TransactionId, Map)
+     * @see #setEmptyPage(TransactionId, Map, int)
+     */
+    private boolean lockHeader(TransactionId tid, Map<PageId, Page> dirtypages, int emptyPageNo) throws DbException, IOException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+        BTreePageId headerId = rootPtr.getHeaderId();
+        if (headerId == null) {
+            return emptyPageNo < 0 || lockWhileLatched(tid, dirtypages, rootPtr.getId(), Permissions.READ_WRITE);
+        }
+        int headerPageCount = 0;
+        while (headerId != null) {
+            if (!lockWhileLatched(tid, dirtypages, headerId, Permissions.READ_ONLY)) {
+                return false;
+            }
+            BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+            if (emptyPageNo < 0 ? headerPage.getEmptySlot() != -1 : (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() >= emptyPageNo) {
+                return lockWhileLatched(tid, dirtypages, headerId, Permissions.READ_WRITE);
+            }
+            headerId = headerPage.getNextPageId();
+            headerPageCount++;
+        }
+        return true;
+    }
+
+    /**
+     * @return the ids of the children of an internal page, from left to right
+     */
+    private static List<BTreePageId> children(BTreeInternalPage page) {
+        List<BTreePageId> children = new ArrayList<>();
+        Iterator<BTreeEntry> it = page.iterator();
+        while (it.hasNext()) {
+            BTreeEntry e = it.next();
+            if (children.isEmpty()) {
+                children.add(e.getLeftChild());
+            }
+            children.add(e.getRightChild());
+        }
+        return children;
+    }
+
+    /**
+     * @return true if the pages form the path from the page to the first ancestor that absorbs its split or merge, or to the root pointer
+     */
+    private boolean isAncestry(Map<PageId, Page> dirtypages, BTreePage page, List<BTreePageId> ancestors, boolean split) throws DbException {
+        BTreePage child = page;
+        for (BTreePageId pid : ancestors) {
+            if (!child.getParentId().equals(pid)) {
+                return false;
+            }
+            if (pid.pgcateg() == BTreePageId.ROOT_PTR) {
+                return child.getId().equals(((BTreeRootPtrPage) getLatchedPage(dirtypages, pid)).getRootId());
+            }
+            BTreeInternalPage parent = (BTreeInternalPage) getLatchedPage(dirtypages, pid);
+            if (!isChild(parent, child.getId())) {
+                return false;
+            }
+            child = parent;
+        }
+        return !propagates((BTreeInternalPage) child, split);
+    }
+
+    private static boolean isChild(BTreeInternalPage parent, BTreePageId pid) {
+        Iterator<BTreeEntry> it = parent.iterator();
+        while (it.hasNext()) {
+            BTreeEntry e = it.next();
+            if (e.getLeftChild().equals(pid) || e.getRightChild().equals(pid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a split of a child of the page also splits it, or if a merge of two of its children leaves it below minimum occupancy or, for the root, empty
+     */
+    private static boolean propagates(BTreeInternalPage page, boolean split) {
+        if (split) {
+            return page.getNumEmptySlots() == 0;
+        }
+        if (page.getParentId().pgcateg() == BTreePageId.ROOT_PTR) {
+            return page.getNumEntries() <= 1;
+        }
+        int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries() / 2; // ceiling
+        return page.getNumEmptySlots() + 1 > maxEmptySlots;
+    }
+
+    /**
+     * Release the latches of a split or merge.
+     *
+     * @see #latchAncestors(TransactionId, Map, BTreePage, boolean)
+     */
+    private void unlatchAncestors() {
+        List<ReentrantReadWriteLock> held = exclusiveLatches.get();
+        if (held != null) {
+            for (ReentrantReadWriteLock l : held) {
+                l.writeLock().unlock();
+            }
+            exclusiveLatches.remove();
+        }
+    }
+
+    /**
+     * Undo a split or merge that failed halfway, before other threads can descend through its pages. The pages it fetched with read-write permission are dropped from the buffer pool, so they are
+     * read again as of the last commit; the transaction is aborted anyway, which would roll them back to that version.
+     *
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     */
+    private void abandonStructureModification(Map<PageId, Page> dirtypages) {
+        for (PageId pid : dirtypages.keySet()) {
+            Database.getBufferPool()
+                .discardPage(pid);
+        }
+        dirtypages.clear();
+    }
+
     /**
      * Handle the case when a B+ tree page becomes less than half full due to deletions. If one of its siblings has extra tuples/entries, redistribute those tuples/entries. Otherwise merge with one of
      * the siblings. Update pointers as needed.
@@ -928,15 +1406,23 @@ public class BTreeFile implements DbFile {
         // if the page is below minimum occupancy, get some tuples from its siblings
         // or merge with one of the siblings
         int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples() / 2; // ceiling
-        if (page.getNumEmptySlots() > maxEmptySlots) {
-            handleMinOccupancyPage(tid, dirtypages, page);
+        if (page.getNumEmptySlots() > maxEmptySlots && page.getParentId().pgcateg() != BTreePageId.ROOT_PTR) {
+            try {
+                latchAncestors(tid, dirtypages, page, false);
+                handleMinOccupancyPage(tid, dirtypages, page);
+            } catch (DbException | IOException | TransactionAbortedException | RuntimeException e) {
+                abandonStructureModification(dirtypages);
+                throw e;
+            } finally {
+                unlatchAncestors();
+            }
         }
 
         return new ArrayList<>(dirtypages.values());
     }
 
     /**
-     * Get a read lock on the root pointer page. Create the root pointer page and root page if necessary.
+     * Get the root pointer page without locking it; changes to the root id are made under its latch instead. Create the root pointer page and root page if necessary.
      *
      * @param tid - the transaction id
      * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
@@ -958,8 +1444,7 @@ public class BTreeFile implements DbFile {
             }
         }
 
-        // get a read lock on the root pointer page
-        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+        return (BTreeRootPtrPage) getLatchedPage(dirtypages, BTreeRootPtrPage.getId(tableid));
     }
 
     /**
@@ -973,7 +1458,7 @@ public class BTreeFile implements DbFile {
      * @throws TransactionAbortedException
      */
     public int getEmptyPageNo(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
-        // get a read lock on the root pointer page and use it to locate the first header page
+        // use the root pointer page to locate the first header page
         BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
         BTreePageId headerId = rootPtr.getHeaderId();
         int emptyPageNo = 0;
@@ -997,6 +1482,7 @@ public class BTreeFile implements DbFile {
                 headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
                 int emptySlot = headerPage.getEmptySlot();
                 headerPage.markSlotUsed(emptySlot, true);
+                pagesRecycled.incrementAndGet();
                 emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
             }
         }
@@ -1037,10 +1523,9 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        try (FileHandleCache.Handle h = Database.getFileHandleCache().acquire(f, true)) {
+            h.write(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize(), BTreePage.createEmptyPageData());
+        }
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool()
@@ -1083,8 +1568,7 @@ public class BTreeFile implements DbFile {
 //			}
 //		}
 
-        // otherwise, get a read lock on the root pointer page and use it to locate
-        // the first header page
+        // otherwise, use the root pointer page to locate the first header page
         BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
         BTreePageId headerId = rootPtr.getHeaderId();
         BTreePageId prevId = null;
@@ -1131,6 +1615,7 @@ public class BTreeFile implements DbFile {
         BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
         int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
         headerPage.markSlotUsed(emptySlot, false);
+        pagesRecycled.incrementAndGet();
     }
 
     /**
@@ -1180,10 +1665,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
      * Open this iterator by getting an iterator on the first leaf page
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool()
-            .getPage(tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
-        curp = f.findLeafPage(tid, root, null);
+        curp = f.findLeafPage(tid, null);
         it = curp.iterator();
     }
 
@@ -1244,7 +1726,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
     BTreeLeafPage curp = null;
     final TransactionId tid;
     final BTreeFile f;
-    final IndexPredicate ipred;
+    IndexPredicate ipred;
+    // the leaf page the current search started on, so that a search for the same key can start there again
+    BTreePageId startPid = null;
 
     /**
      * Constructor for this iterator
@@ -1263,15 +1747,55 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
      * Open this iterator by getting an iterator on the first leaf page applicable for the given predicate operation
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool()
-            .getPage(tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
         if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-            curp = f.findLeafPage(tid, root, ipred.getField());
+            curp = f.findLeafPage(tid, ipred.getField());
+            // skip the smaller keys on the first page by binary search
+            it = curp.iterator(ipred.getField(), ipred.getOp() != Op.GREATER_THAN);
         } else {
-            curp = f.findLeafPage(tid, root, null);
+            curp = f.findLeafPage(tid, null);
+            it = curp.iterator();
         }
-        it = curp.iterator();
+        startPid = curp.getId();
+    }
+
+    /**
+     * Start a new search with a different predicate. Equality searches for
+     * keys that arrive in ascending order, as in an index nested-loops join
+     * with a sorted outer relation, continue from the leaf page the previous
+     * search ended on instead of descending from the root again.
+     *
+     * @param ipred - the predicate to filter on
+     */
+    public void reset(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        IndexPredicate last = this.ipred;
+        this.ipred = ipred;
+        if ((it == null && curp == null) || last.getOp() != Op.EQUALS || ipred.getOp() != Op.EQUALS) {
+            rewind();
+            return;
+        }
+
+        Field key = ipred.getField();
+        BTreePageId pid;
+        if (key.equals(last.getField())) {
+            pid = startPid;
+        } else if (key.compare(Op.GREATER_THAN, last.getField())) {
+            // pages before the one the last search stopped on only hold keys up to the last key, so the new key
+            // can't be on them; it is on the current page unless it is beyond its largest key
+            Iterator<Tuple> reverse = curp.reverseIterator();
+            if (!reverse.hasNext() || key.compare(Op.GREATER_THAN, reverse.next().getField(f.keyField()))) {
+                rewind();
+                return;
+            }
+            pid = curp.getId();
+        } else {
+            rewind();
+            return;
+        }
+        // fetch the page again, the old reference may be stale
+        curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        startPid = pid;
+        it = curp.iterator(key, true);
+        super.close();
     }
 
     /**
@@ -1328,5 +1852,6 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
     public void close() {
         super.close();
         it = null;
+        curp = null;
     }
 }
@@ -219,6 +219,29 @@ public class BTreeFileEncoder {
 
 		// add the tuples to B+ tree file
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		bulkLoad(bf, tuples, npagebytes, typeAr);
+
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		return bf;
+	}
+
+	/**
+	 * Write tuples sorted on the key field into an empty B+ tree file, filling its leaf pages
+	 * from left to right and building the internal pages above them. The pages are written
+	 * directly to the file, bypassing the buffer pool, so the file must not have any pages
+	 * cached there. The file must already be registered in the catalog.
+	 * 
+	 * @param bf - the empty BTreeFile
+	 * @param tuples - the tuples to add to the file, sorted on the key field of bf
+	 * @param npagebytes - number of bytes per page
+	 * @param typeAr - array containing the types of the tuples
+	 * @throws IOException
+	 * @throws DbException
+	 */
+	public static void bulkLoad(BTreeFile bf, List<Tuple> tuples, int npagebytes, Type[] typeAr)
+			throws IOException, DbException {
+		int numFields = typeAr.length;
+		int keyField = bf.keyField();
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
@@ -331,9 +354,6 @@ public class BTreeFileEncoder {
 		// set all the parent and sibling pointers
 		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
 		setRightSiblingPtrs(bf, lastPid, null);
-
-		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
-		return bf;
 	}
 
 	/**
@@ -435,6 +435,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 		children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
 		keys[rid.getTupleNumber()] = e.getKey();
+		invalidateKeyArray();
 	}
 
 	/**
@@ -603,6 +604,41 @@ public class BTreeInternalPage extends BTreePage {
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		invalidateKeyArray();
+	}
+
+	protected KeyArray buildKeyArray() {
+		int n = 0;
+		for (int i = 0; i < numSlots; i++)
+			if (isSlotUsed(i))
+				n++;
+		int[] slots = new int[n];
+		Field[] slotKeys = new Field[n];
+		int j = 0;
+		for (int i = 0; i < numSlots; i++) {
+			if (isSlotUsed(i)) {
+				slots[j] = i;
+				// slot 0 only holds the left-most child pointer
+				slotKeys[j++] = i > 0 ? keys[i] : null;
+			}
+		}
+		return new KeyArray(slots, slotKeys, td.getFieldType(keyField) == Type.INT_TYPE);
+	}
+
+	/**
+	 * Find the left-most child page possibly containing a key, i.e. the left child of the first entry whose key
+	 * is greater than or equal to it, or the right child of the last entry. The entry is found by binary search.
+	 * @param f - the key to search for, or null for the left-most child
+	 * @return the id of the child page, or null if this page has no entries
+	 */
+	public BTreePageId findChildId(Field f) {
+		KeyArray k = keyArray();
+		// the iterator returns no entries unless the left-most child pointer is in slot 0
+		if (k.slots.length < 2 || k.slots[0] != 0)
+			return null;
+		// the left child of the entry at position i is the child pointer at position i - 1
+		int i = f == null ? 1 : k.search(f, false, 1);
+		return new BTreePageId(pid.getTableId(), children[k.slots[i - 1]], childCategory);
 	}
 
 	/**
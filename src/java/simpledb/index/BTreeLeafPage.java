@@ -326,16 +326,9 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("called addTuple on page with no empty slots.");
 
 		// find the last key less than or equal to the key being inserted
-		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
-		}
+		KeyArray k = keyArray();
+		int greater = k.search(t.getField(keyField), true, 0);
+		int lessOrEqKey = greater > 0 ? k.slots[greater - 1] : -1;
 
 		// shift records back or forward to fill empty slot and make room for new record
 		// while keeping records in sorted order
@@ -476,6 +469,25 @@ public class BTreeLeafPage extends BTreePage {
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		// a slot is filled before its tuple is stored, with no search in between
+		invalidateKeyArray();
+	}
+
+	protected KeyArray buildKeyArray() {
+		int n = 0;
+		for (int i = 0; i < numSlots; i++)
+			if (isSlotUsed(i))
+				n++;
+		int[] slots = new int[n];
+		Field[] keys = new Field[n];
+		int j = 0;
+		for (int i = 0; i < numSlots; i++) {
+			if (isSlotUsed(i)) {
+				slots[j] = i;
+				keys[j++] = tuples[i].getField(keyField);
+			}
+		}
+		return new KeyArray(slots, keys, td.getFieldType(keyField) == Type.INT_TYPE);
 	}
 
 	/**
@@ -486,6 +498,18 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * @param f - the key to start from
+	 * @param inclusive - whether tuples whose key equals f are returned
+	 * @return an iterator over the tuples on this page whose key is greater than or equal to f (or greater than f
+	 *         if not inclusive), which starts at the first of them as found by binary search
+	 */
+	public Iterator<Tuple> iterator(Field f, boolean inclusive) {
+		KeyArray k = keyArray();
+		int i = k.search(f, !inclusive, 0);
+		return new BTreeLeafPageIterator(this, i < k.slots.length ? k.slots[i] : numSlots);
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -532,6 +556,14 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		this.p = p;
 	}
 
+	/**
+	 * @param start - the slot to start from
+	 */
+	public BTreeLeafPageIterator(BTreeLeafPage p, int start) {
+		this.p = p;
+		this.curTuple = start;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
@@ -4,7 +4,10 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.execution.Predicate.Op;
 import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Page;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionId;
@@ -31,6 +34,9 @@ public abstract class BTreePage implements Page {
 	protected byte[] oldData;
 	protected final Byte oldDataLock= (byte) 0;
 
+	// the keys of this page in sorted order, built by the first search after the page changes
+	private KeyArray keyArray;
+
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
 	 * The format of a BTreeInternalPage is a set of header bytes indicating
@@ -134,6 +140,31 @@ public abstract class BTreePage implements Page {
 			return null;
 	}
 
+	/**
+	 * @return the keys of this page in sorted order, for binary search. They are cached until
+	 *         {@link #invalidateKeyArray()} is called.
+	 */
+	KeyArray keyArray() {
+		KeyArray k = keyArray;
+		if (k == null) {
+			k = buildKeyArray();
+			keyArray = k;
+		}
+		return k;
+	}
+
+	/**
+	 * Drop the cached keys of this page; must be called whenever a slot is filled or cleared, or a key changes.
+	 */
+	protected void invalidateKeyArray() {
+		keyArray = null;
+	}
+
+	/**
+	 * @return the used slots of this page and their keys, in slot order
+	 */
+	protected abstract KeyArray buildKeyArray();
+
 	/**
 	 * Returns the number of empty slots on this page.
 	 */
@@ -144,5 +175,73 @@ public abstract class BTreePage implements Page {
 	 */
 	public abstract boolean isSlotUsed(int i);
 
+	/**
+	 * The used slots of a page in order and their keys, which are sorted. Keys of type INT_TYPE are also
+	 * copied into an int array, so a binary search over them neither calls Field.compare nor allocates.
+	 * A KeyArray is immutable, so searches of a page that is read by several transactions may share it.
+	 */
+	static final class KeyArray {
+		/** The used slots, in order */
+		final int[] slots;
+		private final Field[] keys;
+		// the values of the keys if they are ints, otherwise null
+		private final int[] intKeys;
+
+		/**
+		 * @param slots - the used slots, in order
+		 * @param keys - the key of each used slot, or null for slots without one
+		 * @param intKeys - whether the keys are of type INT_TYPE
+		 */
+		KeyArray(int[] slots, Field[] keys, boolean intKeys) {
+			this.slots = slots;
+			this.keys = keys;
+			if (intKeys) {
+				this.intKeys = new int[keys.length];
+				for (int i = 0; i < keys.length; i++) {
+					if (keys[i] != null) {
+						this.intKeys[i] = ((IntField) keys[i]).getValue();
+					}
+				}
+			} else {
+				this.intKeys = null;
+			}
+		}
+
+		/**
+		 * Binary search for the first key that is greater than or equal to f, or greater than f if strict.
+		 *
+		 * @param f - the key to search for
+		 * @param strict - whether keys equal to f are skipped
+		 * @param from - the first position to consider
+		 * @return the position of the key in slots, or slots.length if all keys from position from on are smaller
+		 */
+		int search(Field f, boolean strict, int from) {
+			int lo = from;
+			int hi = slots.length;
+			if (intKeys != null) {
+				int v = ((IntField) f).getValue();
+				while (lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if (intKeys[mid] < v || (strict && intKeys[mid] == v)) {
+						lo = mid + 1;
+					} else {
+						hi = mid;
+					}
+				}
+			} else {
+				Op before = strict ? Op.LESS_THAN_OR_EQ : Op.LESS_THAN;
+				while (lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if (keys[mid].compare(before, f)) {
+						lo = mid + 1;
+					} else {
+						hi = mid;
+					}
+				}
+			}
+			return lo;
+		}
+	}
+
 }
 
@@ -0,0 +1,267 @@
+package simpledb.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * SecondaryIndex is a B+ tree over a field of a table stored in a {@link HeapFile}. For each tuple of the table, the
+ * tree holds an entry with the value of the field and the tuple's {@link RecordId}, stored as its page number and
+ * slot. The tree is an ordinary {@link BTreeFile}, registered in the catalog under the name of the index so that the
+ * buffer pool can read and lock its pages.
+ * <p>
+ * {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple} keep the indexes of a table in sync with it, as
+ * part of the transaction that changes the table.
+ *
+ * @see simpledb.common.Catalog#addIndex(SecondaryIndex)
+ */
+public class SecondaryIndex {
+    /** The field of an entry that holds the page number of the indexed tuple */
+    static final int PAGE_FIELD = 1;
+    /** The field of an entry that holds the slot of the indexed tuple */
+    static final int SLOT_FIELD = 2;
+
+    private final String name;
+    private final int tableId;
+    private final int field;
+    private final BTreeFile tree;
+    // the number of distinct keys when the index was built, or -1 if unknown
+    private final int distinctKeys;
+
+    /**
+     * Opens an index over a table, stored in an existing B+ tree file.
+     *
+     * @param name - the name of the index
+     * @param tableId - the id of the indexed table
+     * @param field - the indexed field of the table
+     * @param file - the file of the index's B+ tree
+     */
+    public SecondaryIndex(String name, int tableId, int field, File file) {
+        this(name, tableId, field, file, -1);
+    }
+
+    private SecondaryIndex(String name, int tableId, int field, File file, int distinctKeys) {
+        this.name = name;
+        this.tableId = tableId;
+        this.field = field;
+        this.tree = new BTreeFile(file, 0, entryDesc(Database.getCatalog().getTupleDesc(tableId).getFieldType(field)));
+        this.distinctKeys = distinctKeys;
+    }
+
+    /**
+     * Builds an index over a field of a heap file table from the table's current tuples, which are read as part of
+     * a transaction. The entries are sorted and written to the tree's leaves in order instead of being inserted one
+     * at a time, so building the index doesn't dirty pages of the buffer pool.
+     *
+     * @param tid - the transaction that reads the table
+     * @param name - the name of the index
+     * @param tableId - the id of the table
+     * @param field - the field to index
+     * @param file - the file to store the index's B+ tree in; it is overwritten
+     * @return the index, whose tree is registered in the catalog but which is not yet added to the table's indexes
+     * @throws IllegalArgumentException if the table is not stored in a heap file, or a table with the index's name
+     *         already exists
+     */
+    public static SecondaryIndex create(TransactionId tid, String name, int tableId, int field, File file)
+            throws IOException, DbException, TransactionAbortedException {
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile)) {
+            throw new IllegalArgumentException("only tables stored in heap files have secondary indexes");
+        }
+        try {
+            Database.getCatalog().getTableId(name);
+            throw new IllegalArgumentException("table or index " + name + " already exists");
+        } catch (NoSuchElementException e) {
+            // the name is free
+        }
+        Database.getFileHandleCache().invalidate(file);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("unable to overwrite " + file);
+        }
+        if (!file.createNewFile()) {
+            throw new IOException("unable to create " + file);
+        }
+        List<Tuple> entries = new ArrayList<>();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            entries.add(entry(it.next(), field));
+        }
+        it.close();
+        // stable, so that equal keys stay in the order of their tuples
+        entries.sort(new BTreeFileEncoder.TupleComparator(0));
+        int distinct = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            if (i == 0 || !entries.get(i).getField(0).equals(entries.get(i - 1).getField(0))) {
+                distinct++;
+            }
+        }
+
+        SecondaryIndex index = new SecondaryIndex(name, tableId, field, file, distinct);
+        // the pages of the tree are built from the schema the catalog has for it
+        Database.getCatalog().addTable(index.tree, name);
+        Type[] types = new Type[SLOT_FIELD + 1];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = index.tree.getTupleDesc().getFieldType(i);
+        }
+        BTreeFileEncoder.bulkLoad(index.tree, entries, BufferPool.getPageSize(), types);
+        return index;
+    }
+
+    /**
+     * @return the schema of the entries of an index over a field of a type: the key, and the page number and slot
+     *         of the indexed tuple
+     */
+    public static TupleDesc entryDesc(Type keyType) {
+        return new TupleDesc(new Type[]{keyType, Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{"key", "page", "slot"});
+    }
+
+    private static Tuple entry(Tuple t, int field) {
+        RecordId rid = t.getRecordId();
+        Tuple entry = new Tuple(entryDesc(t.getTupleDesc().getFieldType(field)));
+        entry.setField(0, t.getField(field));
+        entry.setField(PAGE_FIELD, new IntField(rid.getPageId().getPageNumber()));
+        entry.setField(SLOT_FIELD, new IntField(rid.getTupleNumber()));
+        return entry;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the id of the indexed table
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the indexed field of the table
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the B+ tree that stores the entries of this index
+     */
+    public BTreeFile getTree() {
+        return tree;
+    }
+
+    /**
+     * @return the number of distinct keys when the index was built, or -1 if it is unknown
+     */
+    public int getDistinctKeys() {
+        return distinctKeys;
+    }
+
+    /**
+     * Adds the entry of a tuple that was just inserted into the table.
+     *
+     * @param tid - the transaction inserting the tuple
+     * @param t - the tuple, with the RecordId the table assigned to it
+     */
+    public void insert(TransactionId tid, Tuple t) throws DbException, IOException, TransactionAbortedException {
+        Database.getBufferPool().insertTuple(tid, tree.getId(), entry(t, field));
+    }
+
+    /**
+     * Removes the entry of a tuple that is about to be deleted from the table.
+     *
+     * @param tid - the transaction deleting the tuple
+     * @param t - the tuple, with its RecordId in the table
+     */
+    public void delete(TransactionId tid, Tuple t) throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        DbFileIterator it = tree.indexIterator(tid, new IndexPredicate(Op.EQUALS, t.getField(field)));
+        it.open();
+        Tuple found = null;
+        while (found == null && it.hasNext()) {
+            Tuple e = it.next();
+            if (((IntField) e.getField(PAGE_FIELD)).getValue() == rid.getPageId().getPageNumber()
+                    && ((IntField) e.getField(SLOT_FIELD)).getValue() == rid.getTupleNumber()) {
+                found = e;
+            }
+        }
+        it.close();
+        if (found == null) {
+            throw new DbException("index " + name + " has no entry for " + t);
+        }
+        Database.getBufferPool().deleteTuple(tid, found);
+    }
+
+    /**
+     * Get the tuples of the table whose indexed field satisfies an index predicate. This method will acquire a read
+     * lock on the pages of the index it searches and on the pages of the table the tuples are on.
+     *
+     * @param tid - the transaction id
+     * @param ipred - the index predicate the indexed field of the returned tuples satisfies
+     * @return an iterator over the tuples, in the order of their keys
+     */
+    public DbFileIterator iterator(TransactionId tid, IndexPredicate ipred) {
+        return new LookupIterator(tid, tree.indexIterator(tid, ipred));
+    }
+
+    /**
+     * Fetches the tuples the entries found by a search of the tree point to.
+     */
+    private class LookupIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final DbFileIterator entries;
+
+        LookupIterator(TransactionId tid, DbFileIterator entries) {
+            this.tid = tid;
+            this.entries = entries;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            entries.open();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            entries.rewind();
+        }
+
+        public void close() {
+            super.close();
+            entries.close();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (entries.hasNext()) {
+                Tuple e = entries.next();
+                HeapPageId pid = new HeapPageId(tableId, ((IntField) e.getField(PAGE_FIELD)).getValue());
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                Tuple t = page.getTuple(((IntField) e.getField(SLOT_FIELD)).getValue());
+                if (t != null) {
+                    return t;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -3,6 +3,12 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -20,7 +26,8 @@ public class JoinOptimizer {
     final List<LogicalJoinNode> joins;
 
     /**
-     * Constructor
+     * Constructor. Pairs of inequality joins that bound a field of one table
+     * between two fields of another are combined into band joins.
      * 
      * @param p
      *            the logical plan being optimized
@@ -29,7 +36,28 @@ public class JoinOptimizer {
      */
     public JoinOptimizer(LogicalPlan p, List<LogicalJoinNode> joins) {
         this.p = p;
-        this.joins = joins;
+        this.joins = combineBandJoins(joins);
+    }
+
+    /**
+     * Replace each pair of joins that forms a band with a single
+     * {@link LogicalBandJoinNode}, at the position of the first of the pair.
+     * Joining the same two tables twice would otherwise join the result of
+     * the first join with itself.
+     */
+    static List<LogicalJoinNode> combineBandJoins(List<LogicalJoinNode> joins) {
+        List<LogicalJoinNode> combined = new ArrayList<>(joins);
+        for (int i = 0; i < combined.size(); i++) {
+            for (int k = i + 1; k < combined.size(); k++) {
+                LogicalBandJoinNode band = LogicalBandJoinNode.combine(combined.get(i), combined.get(k));
+                if (band != null) {
+                    combined.set(i, band);
+                    combined.remove(k);
+                    break;
+                }
+            }
+        }
+        return combined;
     }
 
     /**
@@ -49,6 +77,28 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, false, false);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, given whether
+     * the subplans are already sorted on the join fields. An equi-join of two
+     * sorted subplans is merged in a single pass instead of being hashed.
+     *
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param plan1Sorted
+     *            Whether plan1 is sorted in ascending order on lj's left join field
+     * @param plan2Sorted
+     *            Whether plan2 is sorted in ascending order on lj's right join field
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+                                             OpIterator plan1, OpIterator plan2,
+                                             boolean plan1Sorted, boolean plan2Sorted) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -73,7 +123,37 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (lj instanceof LogicalBandJoinNode) {
+            LogicalJoinNode second = ((LogicalBandJoinNode) lj).second;
+            int t1id2, t2id2;
+            try {
+                t1id2 = plan1.getTupleDesc().fieldNameToIndex(second.f1QuantifiedName);
+                t2id2 = plan2.getTupleDesc().fieldNameToIndex(second.f2QuantifiedName);
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field in band join " + second.f1QuantifiedName
+                        + " " + second.p + " " + second.f2QuantifiedName);
+            }
+            return new BandJoin(p, new JoinPredicate(t1id2, second.p, t2id2), plan1, plan2);
+        }
+
+        BTreeFile index = lj.p == Predicate.Op.EQUALS ? indexOn(plan2, t2id) : null;
+        SecondaryIndex secondary = lj.p == Predicate.Op.EQUALS ? secondaryIndexOn(plan2, t2id) : null;
+        if (index != null && preferIndexJoin(plan1, index)) {
+            SeqScan inner = (SeqScan) plan2;
+            j = new IndexNestedLoopJoin(p, plan1, new BTreeScan(inner.getTransactionId(),
+                    inner.getTableId(), inner.getAlias(), null));
+        } else if (secondary != null && preferIndexJoin(plan1, secondary)) {
+            // the inner scan keeps its pushed filters and projection
+            SeqScan inner = (SeqScan) plan2;
+            j = new IndexNestedLoopJoin(p, plan1, new SeqScan(inner.getTransactionId(), inner.getTableId(),
+                    inner.getAlias(), secondary.getField(), null, inner.getPredicates(), inner.getFields()));
+        } else if (lj.p == Predicate.Op.EQUALS && plan1Sorted && plan2Sorted) {
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS
+                && estimateSize(plan1) > HybridHashJoin.DEFAULT_MEMORY_BUDGET) {
+            // the build side doesn't fit into memory, partition it instead of rescanning plan2 per chunk
+            j = new HybridHashJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
@@ -86,13 +166,112 @@ public class JoinOptimizer {
                 j = new Join(p, plan1, plan2);
             }
         } else {
-            j = new Join(p, plan1, plan2);
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
         }
 
         return j;
 
     }
 
+    /**
+     * Returns the B+ tree file a plan scans, if the plan is a plain scan of a
+     * B+ tree keyed on a field and so can be searched by key instead.
+     */
+    private static BTreeFile indexOn(OpIterator plan, int field) {
+        if (!(plan instanceof SeqScan) || ((SeqScan) plan).getIndexField() >= 0) {
+            // the index join searches the inner table once per outer tuple, ignoring other searches
+            return null;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId());
+        if (f instanceof BTreeFile && ((BTreeFile) f).keyField() == field) {
+            return (BTreeFile) f;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the secondary index on the field of the heap file a plan
+     * scans, if the plan is a plain scan, i.e. a field of its output.
+     */
+    private static SecondaryIndex secondaryIndexOn(OpIterator plan, int field) {
+        if (!(plan instanceof SeqScan) || ((SeqScan) plan).getIndexField() >= 0) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) plan;
+        int[] fields = scan.getFields();
+        return Database.getCatalog().getIndex(scan.getTableId(), fields == null ? field : fields[field]);
+    }
+
+    /**
+     * Returns whether searching an index once per outer tuple reads fewer
+     * pages than scanning the whole inner table, i.e. whether the outer plan
+     * is small compared to the inner table.
+     */
+    static boolean preferIndexJoin(OpIterator outer, BTreeFile inner) {
+        long outerTuples = estimateSize(outer) / Math.max(outer.getTupleDesc().getSize(), 1);
+        return outerTuples > 0 && outerTuples * estimateIndexProbePages(inner) < inner.numPages();
+    }
+
+    /**
+     * Returns whether searching a secondary index once per outer tuple, and
+     * reading the table page of each match, reads fewer pages than scanning
+     * the whole inner table.
+     */
+    static boolean preferIndexJoin(OpIterator outer, SecondaryIndex inner) {
+        long outerTuples = estimateSize(outer) / Math.max(outer.getTupleDesc().getSize(), 1);
+        int tablePages = ((HeapFile) Database.getCatalog().getDatabaseFile(inner.getTableId())).numPages();
+        return outerTuples > 0 && outerTuples * (estimateIndexProbePages(inner.getTree()) + 1) < tablePages;
+    }
+
+    /**
+     * Estimate the number of bytes of tuples a plan produces, e.g. to decide
+     * whether the build side of a hash join fits into memory. Uses the
+     * operator's cardinality estimate if it has one, and otherwise the size
+     * of the underlying files, so filters are assumed to select everything.
+     *
+     * @param plan
+     *            The plan to estimate
+     * @return The estimated size in bytes, or 0 if it is unknown
+     */
+    static long estimateSize(OpIterator plan) {
+        if (plan instanceof Operator) {
+            Operator o = (Operator) plan;
+            if (o.getEstimatedCardinality() > 0) {
+                return (long) o.getEstimatedCardinality() * o.getTupleDesc().getSize();
+            }
+            long size = 0;
+            for (OpIterator child : o.getChildren()) {
+                if (child != null) {
+                    size = Math.max(size, estimateSize(child));
+                }
+            }
+            return size;
+        } else if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            if (scan.getEstimatedCardinality() > 0) {
+                return (long) scan.getEstimatedCardinality() * scan.getTupleDesc().getSize();
+            }
+            DbFile f;
+            try {
+                f = Database.getCatalog().getDatabaseFile(
+                        Database.getCatalog().getTableId(scan.getTableName()));
+            } catch (NoSuchElementException e) {
+                return 0;
+            }
+            long pages;
+            if (f instanceof HeapFile) {
+                pages = ((HeapFile) f).numPages();
+            } else if (f instanceof BTreeFile) {
+                pages = ((BTreeFile) f).numPages();
+            } else {
+                return 0;
+            }
+            // a projected scan returns only part of each tuple
+            return pages * BufferPool.getPageSize() * scan.getTupleDesc().getSize() / f.getTupleDesc().getSize();
+        }
+        return 0;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -126,12 +305,133 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            if (j instanceof LogicalBandJoinNode) {
+                // band join: sort both inputs, then sweep them once; the
+                // output is not known here
+                return cost1 + cost2 + card1 * log2(card1) + card2 * log2(card2) + card1 + card2;
+            }
+            if (j.p == Predicate.Op.EQUALS && isSortedOn(j.t1Alias, j.f1PureName)
+                    && isSortedOn(j.t2Alias, j.f2PureName)) {
+                // sort-merge join: one pass over each input, and each tuple is
+                // compared about once while the inputs are merged
+                return cost1 + cost2 + card1 + card2;
+            }
+            if (j.p != Predicate.Op.EQUALS) {
+                // block nested-loops join: rescan the inner table once per
+                // block of outer tuples, but compare every pair of tuples
+                double blocks = Math.ceil((double) card1 / estimateBlockTuples(j.t1Alias));
+                return cost1 + Math.max(blocks, 1) * cost2 + (double) card1 * card2;
+            }
+            // nested-loops join: rescan the inner table once per outer tuple
+            double cost = cost1 + card1 * cost2 + (double) card1 * card2;
+            BTreeFile index = j.p == Predicate.Op.EQUALS ? indexOn(j.t2Alias, j.f2PureName) : null;
+            if (index != null) {
+                // index nested-loops join: one search of the inner B+ tree per
+                // outer tuple instead of a scan
+                double probeCost = cost2 / Math.max(index.numPages(), 1) * estimateIndexProbePages(index);
+                cost = Math.min(cost, cost1 + card1 * probeCost + card1 + card2);
+            }
+            SecondaryIndex secondary = j.p == Predicate.Op.EQUALS
+                    ? secondaryIndexOn(j.t2Alias, j.f2PureName) : null;
+            if (secondary != null) {
+                // one search of the index per outer tuple, and one page of
+                // the table per match
+                int tablePages = Math.max(((HeapFile) Database.getCatalog()
+                        .getDatabaseFile(secondary.getTableId())).numPages(), 1);
+                double probeCost = cost2 / tablePages * (estimateIndexProbePages(secondary.getTree()) + 1);
+                cost = Math.min(cost, cost1 + card1 * probeCost + card1 + card2);
+            }
+            return cost;
+        }
+    }
+
+    private static double log2(int n) {
+        return n > 1 ? Math.log(n) / Math.log(2) : 0;
+    }
+
+    /**
+     * Estimate how many outer tuples a block nested-loops join holds per scan
+     * of its inner table, assuming the outer tuples are those of the table.
+     */
+    private int estimateBlockTuples(String tableAlias) {
+        Integer tableId = p.getTableId(tableAlias);
+        if (tableId == null) {
+            return 1;
+        }
+        return BlockNestedLoopJoin.blockTuples(Database.getCatalog().getTupleDesc(tableId),
+                BlockNestedLoopJoin.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Returns whether scans of a table come out sorted in ascending order on
+     * a field, i.e. whether the table is stored in a B+ tree keyed on it.
+     *
+     * @param tableAlias
+     *            The alias of the table in this plan
+     * @param pureFieldName
+     *            The name of the field, without the alias
+     */
+    private boolean isSortedOn(String tableAlias, String pureFieldName) {
+        return indexOn(tableAlias, pureFieldName) != null;
+    }
+
+    /**
+     * Returns the B+ tree file a table is stored in, if it is keyed on a field.
+     *
+     * @param tableAlias
+     *            The alias of the table in this plan
+     * @param pureFieldName
+     *            The name of the field, without the alias
+     * @return The B+ tree file, or null if the table isn't stored in a B+ tree
+     *         keyed on the field
+     */
+    private BTreeFile indexOn(String tableAlias, String pureFieldName) {
+        Integer tableId = p.getTableId(tableAlias);
+        if (tableId == null) {
+            return null;
         }
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile)) {
+            return null;
+        }
+        int keyField = ((BTreeFile) f).keyField();
+        if (!Database.getCatalog().getTupleDesc(tableId).getFieldName(keyField).equals(pureFieldName)) {
+            return null;
+        }
+        return (BTreeFile) f;
+    }
+
+    /**
+     * Returns the secondary index on a field of a table, if it has one.
+     *
+     * @param tableAlias
+     *            The alias of the table in this plan
+     * @param pureFieldName
+     *            The name of the field, without the alias
+     */
+    private SecondaryIndex secondaryIndexOn(String tableAlias, String pureFieldName) {
+        Integer tableId = p.getTableId(tableAlias);
+        if (tableId == null) {
+            return null;
+        }
+        try {
+            int field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(pureFieldName);
+            return Database.getCatalog().getIndex(tableId, field);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Estimate the number of pages one search of a B+ tree reads: the
+     * internal pages on the path from the root, and the first leaf.
+     */
+    static double estimateIndexProbePages(BTreeFile f) {
+        int pages = Math.max(f.numPages(), 1);
+        int keySize = f.getTupleDesc().getFieldType(f.keyField()).getLen();
+        // an internal page holds about one key and one child pointer per entry
+        int fanout = Math.max(2, BufferPool.getPageSize() / (keySize + 4));
+        return 1 + Math.ceil(Math.log(pages) / Math.log(fanout));
     }
 
     /**
@@ -0,0 +1,58 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+
+/** A LogicalBandJoinNode represents a join of two tables on a pair of
+ * inequality predicates that bound a field of one table between two fields
+ * of the other, e.g. t1.ts &gt;= t2.start AND t1.ts &lt; t2.end -- inherits
+ * the first predicate from {@link LogicalJoinNode}; the second one joins the
+ * same two tables in the same order.
+ */
+public class LogicalBandJoinNode extends LogicalJoinNode {
+
+    /** The second predicate of the band */
+    public final LogicalJoinNode second;
+
+    public LogicalBandJoinNode(LogicalJoinNode first, LogicalJoinNode second) {
+        super(first.t1Alias, first.t2Alias, first.f1PureName, first.f2PureName, first.p);
+        if (!first.t1Alias.equals(second.t1Alias) || !first.t2Alias.equals(second.t2Alias))
+            throw new IllegalArgumentException("band join predicates must join " + first + " in the same order");
+        this.second = second;
+    }
+
+    /**
+     * Returns a band join of two join nodes if they join the same two tables
+     * and bound the same field of one of them from opposite directions, or
+     * null otherwise.
+     */
+    public static LogicalBandJoinNode combine(LogicalJoinNode a, LogicalJoinNode b) {
+        if (a instanceof LogicalSubplanJoinNode || b instanceof LogicalSubplanJoinNode
+                || a instanceof LogicalBandJoinNode || b instanceof LogicalBandJoinNode)
+            return null;
+        if (a.t1Alias.equals(b.t2Alias) && a.t2Alias.equals(b.t1Alias))
+            b = b.swapInnerOuter();
+        if (!a.t1Alias.equals(b.t1Alias) || !a.t2Alias.equals(b.t2Alias))
+            return null;
+        boolean opposite = (isLowerOf(a.p) && isUpperOf(b.p)) || (isUpperOf(a.p) && isLowerOf(b.p));
+        if (!opposite || !(a.f1PureName.equals(b.f1PureName) || a.f2PureName.equals(b.f2PureName)))
+            return null;
+        return new LogicalBandJoinNode(a, b);
+    }
+
+    private static boolean isLowerOf(Predicate.Op op) {
+        return op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    private static boolean isUpperOf(Predicate.Op op) {
+        return op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    @Override public LogicalBandJoinNode swapInnerOuter() {
+        return new LogicalBandJoinNode(super.swapInnerOuter(), second.swapInnerOuter());
+    }
+
+    @Override public String toString() {
+        return super.toString() + "(band)";
+    }
+
+}
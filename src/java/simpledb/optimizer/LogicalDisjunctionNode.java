@@ -0,0 +1,36 @@
+package simpledb.optimizer;
+
+import java.util.List;
+
+/** A LogicalDisjunctionNode represents a disjunction of filters in the WHERE clause of a query.
+    <p>
+    Disjunction is of the form (t.f1 p1 c1 AND ...) OR (t.f2 p2 c2 AND ...) OR ...
+    <p>
+    Where all the filters range over the same table t. An IN list is a disjunction of equalities.
+*/
+public class LogicalDisjunctionNode {
+    /** The alias of a table (or the name if no alias) over which the filters range */
+    public final String tableAlias;
+
+    /** The alternatives, each a conjunction of filters */
+    public final List<List<LogicalFilterNode>> alternatives;
+
+    public LogicalDisjunctionNode(List<List<LogicalFilterNode>> alternatives) {
+        if (alternatives.isEmpty() || alternatives.get(0).isEmpty()) {
+            throw new IllegalArgumentException("a disjunction needs at least one filter");
+        }
+        this.tableAlias = alternatives.get(0).get(0).tableAlias;
+        for (List<LogicalFilterNode> a : alternatives) {
+            if (a.isEmpty()) {
+                throw new IllegalArgumentException("the alternatives of a disjunction can't be empty");
+            }
+            for (LogicalFilterNode lf : a) {
+                if (!lf.tableAlias.equals(tableAlias)) {
+                    throw new IllegalArgumentException("a disjunction must range over one table, not "
+                            + tableAlias + " and " + lf.tableAlias);
+                }
+            }
+        }
+        this.alternatives = alternatives;
+    }
+}
@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -25,9 +27,15 @@ import java.io.File;
  * best implementations for joins.
  */
 public class LogicalPlan {
+    /** Heap files of at least this many pages are scanned on several threads. */
+    public static final int PARALLEL_SCAN_PAGES = 256;
+    /** Join inputs estimated to be at most this many bytes are broadcast to parallel joins instead of repartitioned. */
+    public static final long BROADCAST_BYTES = 1L << 20;
+
     private List<LogicalJoinNode> joins;
     private final List<LogicalScanNode> tables;
     private final List<LogicalFilterNode> filters;
+    private final List<LogicalDisjunctionNode> disjunctions;
     private final Map<String, OpIterator> subplanMap;
     private final Map<String,Integer> tableMap;
 
@@ -38,6 +46,8 @@ public class LogicalPlan {
     private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1, offset = 0;
+    private int parallelism = Exchange.DEFAULT_PARALLELISM;
     private String query;
 //    private Query owner;
 
@@ -45,6 +55,7 @@ public class LogicalPlan {
     public LogicalPlan() {
         joins = new ArrayList<>();
         filters = new ArrayList<>();
+        disjunctions = new ArrayList<>();
         tables = new ArrayList<>();
         subplanMap = new HashMap<>();
         tableMap = new HashMap<>();
@@ -101,11 +112,50 @@ public class LogicalPlan {
     public void addFilter(String field, Predicate.Op p, String
         constantValue) throws ParsingException{ 
 
-        field = disambiguateName(field); 
+        filters.add(newFilter(field, p, constantValue));
+    }
+
+    /** Create a filter to add to the logical plan as part of a disjunction,
+     *   see {@link #addDisjunction}. The parameters are those of
+     *   {@link #addFilter}.
+     *   @throws ParsingException if field is unknown or ambiguous
+     */
+    public LogicalFilterNode newFilter(String field, Predicate.Op p, String
+        constantValue) throws ParsingException{
+
+        field = disambiguateName(field);
         String table = field.split("[.]")[0];
-        
-        LogicalFilterNode lf = new LogicalFilterNode(table, field.split("[.]")[1], p, constantValue);
-        filters.add(lf);
+
+        return new LogicalFilterNode(table, field.split("[.]")[1], p, constantValue);
+    }
+
+    /** Add a disjunction of filters to the logical plan, which passes the
+     *   tuples that satisfy all the filters of any of its alternatives.
+     *   @param alternatives the conjunctions of filters, created with
+     *   {@link #newFilter}
+     *   @throws ParsingException if the filters range over more than one
+     *   table
+     */
+    public void addDisjunction(List<List<LogicalFilterNode>> alternatives) throws ParsingException {
+        try {
+            disjunctions.add(new LogicalDisjunctionNode(alternatives));
+        } catch (IllegalArgumentException e) {
+            throw new ParsingException(e.getMessage());
+        }
+    }
+
+    /** Add a filter that passes the tuples whose field equals one of a list
+     *   of constants, i.e. <tt>field IN (c1, c2, ...)</tt>.
+     *   @param field the field, as in {@link #addFilter}
+     *   @param constantValues the constants
+     *   @throws ParsingException if field is unknown or ambiguous
+     */
+    public void addInFilter(String field, List<String> constantValues) throws ParsingException {
+        List<List<LogicalFilterNode>> alternatives = new ArrayList<>();
+        for (String c : constantValues) {
+            alternatives.add(Collections.singletonList(newFilter(field, Predicate.Op.EQUALS, c)));
+        }
+        addDisjunction(alternatives);
     }
 
     /** Add a join between two fields of two different tables.  
@@ -219,6 +269,29 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause that returns at most limit rows of the result, after skipping the first offset
+        ones.
+        @param limit the largest number of rows to return
+        @param offset the number of rows to skip
+     * @throws ParsingException if either number is negative
+    */
+    public void addLimit(int limit, int offset) throws ParsingException {
+        if (limit < 0 || offset < 0)
+            throw new ParsingException("LIMIT " + limit + " OFFSET " + offset + " must not be negative");
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    /** Set the largest number of threads the physical plan may run on. With more than one, large tables are
+        scanned and joined by parallel pipelines connected by {@link Exchange} operators.
+        @param parallelism the largest number of threads, {@link Exchange#DEFAULT_PARALLELISM} by default
+    */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive, not " + parallelism);
+        this.parallelism = parallelism;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -292,6 +365,10 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        // interesting orders: the field each subplan's output is sorted on in ascending order, if any
+        Map<String,String> sortOrders = new HashMap<>();
+        // the filters of heap file scans, which evaluate them while they read their pages
+        Map<String,List<TuplePredicate>> pushedFilters = new HashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -303,46 +380,98 @@ public class LogicalPlan {
             }
             
             subplanMap.put(table.alias,ss);
+            DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+            if (f instanceof BTreeFile) {
+                // B+ tree files are scanned in key order
+                sortOrders.put(table.alias, ss.getTupleDesc().getFieldName(((BTreeFile) f).keyField()));
+            }
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
         }
 
+        // the filters and disjunctions over each table, applied most selective and cheapest first, and the
+        // filters on one field, which an index may search for
+        Map<String,List<TuplePredicate>> tableFilters = new LinkedHashMap<>();
+        Map<String,List<Predicate>> fieldFilters = new HashMap<>();
         for (LogicalFilterNode lf : filters) {
-            OpIterator subplan = subplanMap.get(lf.tableAlias);
-            if (subplan == null) {
-                throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
+            Predicate p = toPredicate(lf);
+            tableFilters.computeIfAbsent(lf.tableAlias, k -> new ArrayList<>()).add(p);
+            fieldFilters.computeIfAbsent(lf.tableAlias, k -> new ArrayList<>()).add(p);
+        }
+        for (LogicalDisjunctionNode ld : disjunctions) {
+            List<List<Predicate>> alternatives = new ArrayList<>();
+            for (List<LogicalFilterNode> alternative : ld.alternatives) {
+                List<Predicate> conjunction = new ArrayList<>();
+                for (LogicalFilterNode lf : alternative) {
+                    conjunction.add(toPredicate(lf));
+                }
+                alternatives.add(conjunction);
             }
+            tableFilters.computeIfAbsent(ld.tableAlias, k -> new ArrayList<>()).add(new Disjunction(alternatives));
+        }
 
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
-
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        for (Map.Entry<String,List<TuplePredicate>> e : tableFilters.entrySet()) {
+            String alias = e.getKey();
+            OpIterator subplan = subplanMap.get(alias);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(alias)));
+            DbFile file = Database.getCatalog().getDatabaseFile(getTableId(alias));
+            boolean pushed = subplan instanceof SeqScan && file instanceof HeapFile;
+            List<TuplePredicate> ordered = orderConjuncts(e.getValue(), s);
+            List<Predicate> candidates = orderConjuncts(fieldFilters.getOrDefault(alias, Collections.emptyList()), s);
+            Predicate key = subplan instanceof SeqScan ? indexPredicate(file, candidates, s) : null;
+            if (key != null) {
+                // the search only returns the tuples that satisfy key, in key order
+                ordered.remove(key);
+                SeqScan search = new SeqScan(t, file.getId(), alias, key.getField(),
+                        new IndexPredicate(key.getOp(), key.getOperand()), Collections.emptyList(), null);
+                sortOrders.put(alias, search.getTupleDesc().getFieldName(key.getField()));
+                filterSelectivities.put(alias, filterSelectivities.get(alias) * s.estimateSelectivity(key));
+                int card = s.estimateTableCardinality(filterSelectivities.get(alias));
+                if (card > 0) {
+                    search.setEstimatedCardinality(card);
+                }
+                subplanMap.put(alias, search);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
-
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+            for (TuplePredicate p : ordered) {
+                filterSelectivities.put(alias, filterSelectivities.get(alias) * s.estimateSelectivity(p));
+                if (pushed) {
+                    pushedFilters.computeIfAbsent(alias, k -> new ArrayList<>()).add(p);
+                    continue;
+                }
+                Filter filter = new Filter(p, subplanMap.get(alias));
+                // lets the join instantiation see how selective the filters are
+                int card = s.estimateTableCardinality(filterSelectivities.get(alias));
+                if (card > 0) {
+                    filter.setEstimatedCardinality(card);
+                }
+                subplanMap.put(alias, filter);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
-
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+        }
 
-            //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
+        // heap file scans filter their tuples and read only the fields the query uses
+        Set<String> usedFields = usedFields();
+        for (LogicalScanNode table : tables) {
+            if (!(Database.getCatalog().getDatabaseFile(table.t) instanceof HeapFile)) {
+                continue;
+            }
+            SeqScan scan = (SeqScan) subplanMap.get(table.alias);
+            List<TuplePredicate> predicates = pushedFilters.getOrDefault(table.alias, Collections.emptyList());
+            int[] fields = projection(scan.getTupleDesc(), usedFields);
+            if (predicates.isEmpty() && fields == null) {
+                continue;
+            }
+            SeqScan pushed = scan.getIndexField() >= 0
+                    ? new SeqScan(t, table.t, table.alias, scan.getIndexField(), scan.getIndexPredicate(),
+                            predicates, fields)
+                    : new SeqScan(t, table.t, table.alias, predicates, fields);
+            int card = statsMap.get(Database.getCatalog().getTableName(table.t))
+                    .estimateTableCardinality(filterSelectivities.get(table.alias));
+            if (card > 0 && (!predicates.isEmpty() || scan.getIndexField() >= 0)) {
+                pushed.setEstimatedCardinality(card);
+            }
+            subplanMap.put(table.alias, pushed);
         }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
@@ -380,12 +509,29 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
+            boolean plan1Sorted = lj.f1QuantifiedName.equals(sortOrders.get(t1name));
+            boolean plan2Sorted;
+            if (isSubqueryJoin) {
+                // subqueries are joined on their first field
+                plan2Sorted = plan2 instanceof OrderBy && ((OrderBy) plan2).isASC()
+                        && ((OrderBy) plan2).getOrderByField() == 0;
+            } else {
+                plan2Sorted = lj.f2QuantifiedName.equals(sortOrders.get(t2name));
+            }
+
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2, plan1Sorted, plan2Sorted);
             subplanMap.put(t1name, j);
+            if (j instanceof SortMergeJoin) {
+                sortOrders.put(t1name, lj.f1QuantifiedName);
+            } else if (!(j instanceof Join || j instanceof IndexNestedLoopJoin)) {
+                // only the tuple-at-a-time nested-loops joins keep the order of their outer input
+                sortOrders.remove(t1name);
+            }
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
+                sortOrders.remove(t2name);
                 equivMap.put(t2name, t1name);  //keep track of the fact that this new node contains both tables
                 //make sure anything that was equiv to lj.t2 (which we are just removed) is
                 // marked as equiv to lj.t1 (which we are replacing lj.t2 with.)
@@ -405,7 +551,13 @@ public class LogicalPlan {
             throw new ParsingException("Query does not include join expressions joining all nodes!");
         }
         
-        OpIterator node = subplanMap.entrySet().iterator().next().getValue();
+        Map.Entry<String, OpIterator> root = subplanMap.entrySet().iterator().next();
+        OpIterator node = root.getValue();
+        String rootOrder = sortOrders.get(root.getKey());
+        // an aggregate of a single scan splits the scan itself
+        if (parallelism > 1 && !(hasAgg && Gather.morselScan(node) != null)) {
+            node = parallelize(node);
+        }
 
         //walk the select list, to determine order in which to project output fields
         List<Integer> outFields = new ArrayList<>();
@@ -461,23 +613,303 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
+                int gIndex = groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField);
+                // input sorted on the group field is aggregated one group at a time instead of hashed
+                boolean groupSorted = gIndex != Aggregator.NO_GROUPING && rootOrder != null
+                        && rootOrder.equals(td.getFieldName(gIndex));
                 aggNode = new Aggregate(node,
                                         td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                                        gIndex,
+                                getAggOp(aggOp), parallelism, Aggregate.DEFAULT_MEMORY_BUDGET, groupSorted);
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        // no need to sort if the scans and joins already produce the requested order
+        boolean presorted = hasOrderBy && !hasAgg && oByAsc && rootOrder != null
+                && rootOrder.equals(node.getTupleDesc().getFieldName(node.getTupleDesc().fieldNameToIndex(oByField)));
+        boolean hasLimit = limit >= 0;
+        if (hasOrderBy && !presorted) {
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (hasLimit && (long) limit + offset <= Integer.MAX_VALUE) {
+                // only the first offset + limit rows are needed, keep just those instead of sorting everything
+                node = new TopN(oByIndex, oByAsc, limit + offset, node);
+            } else {
+                node = new OrderBy(oByIndex, oByAsc, node);
+            }
+        }
+        if (hasLimit) {
+            node = new Limit(limit, offset, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * @return the predicate of a filter over the fields of its table's scan
+     */
+    private Predicate toPredicate(LogicalFilterNode lf) throws ParsingException {
+        OpIterator subplan = subplanMap.get(lf.tableAlias);
+        if (subplan == null) {
+            throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
+        }
+
+        Field f;
+        Type ftyp;
+        TupleDesc td = subplan.getTupleDesc();
+
+        int field;
+        try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
+            field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+            ftyp = td.getFieldType(field);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+        if (ftyp == Type.INT_TYPE)
+            f = new IntField(new Integer(lf.c));
+        else
+            f = new StringField(lf.c, Type.STRING_LEN);
+
+        return new Predicate(field, lf.p, f);
+    }
+
+    /**
+     * Orders the conjuncts of a table's filter so that the ones that remove
+     * the most tuples per unit of evaluation cost run first, i.e. by
+     * (selectivity - 1) / cost, and the cheapest first when the estimates
+     * don't tell them apart.
+     */
+    private static <P extends TuplePredicate> List<P> orderConjuncts(List<P> predicates, TableStats s) {
+        Map<P,Double> rank = new IdentityHashMap<>();
+        for (P p : predicates) {
+            rank.put(p, (s.estimateSelectivity(p) - 1) / p.evaluationCost());
+        }
+        List<P> ordered = new ArrayList<>(predicates);
+        ordered.sort(Comparator.<P>comparingDouble(rank::get)
+                .thenComparingDouble(TuplePredicate::evaluationCost));
+        return ordered;
+    }
+
+    /**
+     * Chooses the access path of a table: returns the filter on the key of
+     * its B+ tree, or on a field of a heap file with a secondary index, whose
+     * search reads the fewest pages, or null if scanning the whole file reads
+     * fewer. A search reads one page per level of the tree plus the leaves
+     * holding the entries it selects and, for a secondary index, one page of
+     * the table per selected tuple.
+     */
+    private static Predicate indexPredicate(DbFile file, List<Predicate> predicates, TableStats s) {
+        int pages;
+        if (file instanceof BTreeFile) {
+            pages = ((BTreeFile) file).numPages();
+        } else if (file instanceof HeapFile) {
+            pages = ((HeapFile) file).numPages();
+        } else {
+            return null;
+        }
+        Predicate best = null;
+        double bestCost = pages;
+        for (Predicate p : predicates) {
+            if (!isSearchable(p.getOp())) {
+                continue;
+            }
+            double cost;
+            if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == p.getField()) {
+                BTreeFile f = (BTreeFile) file;
+                cost = JoinOptimizer.estimateIndexProbePages(f) + keySelectivity(p, s, -1) * pages;
+            } else {
+                SecondaryIndex index = Database.getCatalog().getIndex(file.getId(), p.getField());
+                if (index == null) {
+                    continue;
+                }
+                BTreeFile tree = index.getTree();
+                double selectivity = keySelectivity(p, s, index.getDistinctKeys());
+                cost = JoinOptimizer.estimateIndexProbePages(tree) + selectivity * tree.numPages()
+                        + selectivity * estimateTuples(file, pages, s);
+            }
+            if (cost < bestCost) {
+                best = p;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the number of tuples of a table, from its statistics or else
+     *         assuming its pages are full
+     */
+    private static double estimateTuples(DbFile file, int pages, TableStats s) {
+        if (s != null && s.totalTuples() > 0) {
+            return s.totalTuples();
+        }
+        return (double) pages * (BufferPool.getPageSize() * 8) / (file.getTupleDesc().getSize() * 8 + 1);
+    }
+
+    private static boolean isSearchable(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ
+                || op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /**
+     * @return the estimated selectivity of a filter on an indexed field. If
+     *         the statistics of the table are empty, an equality selects one
+     *         of the index's distinct keys, or 1/10 of the tuples if their
+     *         number is unknown, and a range 1/3, the textbook defaults
+     */
+    private static double keySelectivity(Predicate p, TableStats s, int distinctKeys) {
+        if (s != null && s.totalTuples() > 0) {
+            return s.estimateSelectivity(p);
+        }
+        if (p.getOp() == Predicate.Op.EQUALS) {
+            return distinctKeys > 0 ? 1.0 / distinctKeys : 0.1;
+        }
+        return 1.0 / 3;
+    }
+
+    /**
+     * @return the names of the fields the query reads after its filters, or
+     *         null if it reads all fields of its tables
+     */
+    private Set<String> usedFields() {
+        Set<String> used = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith("*")) {
+                return null;
+            }
+            used.add(si.fname);
+        }
+        for (String f : new String[]{aggField, groupByField, oByField}) {
+            if (f != null) {
+                used.add(f);
+            }
+        }
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            used.add(lj.f2QuantifiedName);
+            if (lj instanceof LogicalBandJoinNode) {
+                used.add(((LogicalBandJoinNode) lj).second.f1QuantifiedName);
+                used.add(((LogicalBandJoinNode) lj).second.f2QuantifiedName);
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return the fields of td that are used, or null if a scan with td should
+     *         return all of its fields
+     */
+    private static int[] projection(TupleDesc td, Set<String> used) {
+        if (used == null) {
+            return null;
+        }
+        List<Integer> fields = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (used.contains(td.getFieldName(i))) {
+                fields.add(i);
+            }
+        }
+        // a scan returns at least one field, e.g. for COUNT(*), and all of them without projecting
+        if (fields.isEmpty() || fields.size() == td.numFields()) {
+            return null;
+        }
+        return fields.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Inserts exchanges into a plan of scans, filters and joins, so that the
+     * scans of large heap files and the hash joins of their outputs run on
+     * several threads. Only unordered subplans are replaced.
+     * <ul>
+     * <li>a large scan, with its filters, is split into morsels that are
+     * {@link Gather}ed;</li>
+     * <li>a hash join of a large scan and a small input {@link Broadcast}s
+     * the small input to a join per morsel of the scan;</li>
+     * <li>other hash joins with a parallel input {@link Repartition} both
+     * inputs on the join fields and join them partition by partition.</li>
+     * </ul>
+     * Other joins only get their outer input parallelized, since they may
+     * rescan the inner one many times.
+     */
+    private OpIterator parallelize(OpIterator plan) {
+        SeqScan scan = Gather.morselScan(plan);
+        if (scan != null) {
+            if (((HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId())).numPages() < PARALLEL_SCAN_PAGES) {
+                return plan;
+            }
+            Gather gather = Gather.parallelScan(plan, parallelism);
+            if (plan instanceof Operator) {
+                gather.setEstimatedCardinality(((Operator) plan).getEstimatedCardinality());
+            }
+            return gather;
+        }
+        if (plan instanceof HashEquiJoin || plan instanceof HybridHashJoin) {
+            Operator join = (Operator) plan;
+            JoinPredicate p = plan instanceof HashEquiJoin
+                    ? ((HashEquiJoin) plan).getJoinPredicate() : ((HybridHashJoin) plan).getJoinPredicate();
+            OpIterator build = join.getChildren()[0];
+            OpIterator probe = join.getChildren()[1];
+            OpIterator parallelBuild = parallelize(build);
+            OpIterator parallelProbe = parallelize(probe);
+            if (parallelProbe instanceof Gather && Gather.morselScan(probe) != null
+                    && JoinOptimizer.estimateSize(build) <= BROADCAST_BYTES) {
+                OpIterator[] morsels = Gather.morsels(probe, parallelism);
+                Broadcast[] builds = Broadcast.broadcast(pipelines(parallelBuild), morsels.length, parallelism);
+                OpIterator[] joins = new OpIterator[morsels.length];
+                for (int i = 0; i < joins.length; i++) {
+                    joins[i] = new HashEquiJoin(p, builds[i], morsels[i]);
+                }
+                return gather(joins, join);
+            }
+            if (parallelBuild instanceof Gather && Gather.morselScan(build) != null
+                    && JoinOptimizer.estimateSize(probe) <= BROADCAST_BYTES) {
+                // the probe side is read once by each join, which a HybridHashJoin does
+                OpIterator[] morsels = Gather.morsels(build, parallelism);
+                Broadcast[] probes = Broadcast.broadcast(pipelines(parallelProbe), morsels.length, parallelism);
+                long budget = Math.max(1, HybridHashJoin.DEFAULT_MEMORY_BUDGET / morsels.length);
+                OpIterator[] joins = new OpIterator[morsels.length];
+                for (int i = 0; i < joins.length; i++) {
+                    joins[i] = new HybridHashJoin(p, morsels[i], probes[i], budget, HybridHashJoin.DEFAULT_PARTITIONS);
+                }
+                return gather(joins, join);
+            }
+            if (parallelBuild instanceof Gather || parallelProbe instanceof Gather) {
+                Repartition[] builds = Repartition.partition(pipelines(parallelBuild), p.getField1(), parallelism, parallelism);
+                Repartition[] probes = Repartition.partition(pipelines(parallelProbe), p.getField2(), parallelism, parallelism);
+                long budget = Math.max(1, HybridHashJoin.DEFAULT_MEMORY_BUDGET / parallelism);
+                OpIterator[] joins = new OpIterator[parallelism];
+                for (int i = 0; i < joins.length; i++) {
+                    joins[i] = new HybridHashJoin(p, builds[i], probes[i], budget, HybridHashJoin.DEFAULT_PARTITIONS);
+                }
+                return gather(joins, join);
+            }
+            // the probe side of a HashEquiJoin is rescanned once per chunk of the build side
+            join.setChildren(new OpIterator[]{parallelBuild, probe});
+            return join;
+        }
+        if (plan instanceof Join || plan instanceof BlockNestedLoopJoin || plan instanceof BandJoin
+                || plan instanceof SortMergeJoin || plan instanceof IndexNestedLoopJoin) {
+            OpIterator[] children = ((Operator) plan).getChildren();
+            ((Operator) plan).setChildren(new OpIterator[]{parallelize(children[0]), children[1]});
+        }
+        return plan;
+    }
+
+    /**
+     * @return the pipelines of a plan returned by {@link #parallelize}
+     */
+    private static OpIterator[] pipelines(OpIterator plan) {
+        return plan instanceof Gather ? ((Gather) plan).getChildren() : new OpIterator[]{plan};
+    }
+
+    private Gather gather(OpIterator[] pipelines, Operator replaced) {
+        Gather gather = new Gather(pipelines, parallelism);
+        gather.setEstimatedCardinality(replaced.getEstimatedCardinality());
+        return gather;
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
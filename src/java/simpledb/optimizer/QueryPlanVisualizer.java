@@ -3,8 +3,11 @@ package simpledb.optimizer;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
+import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.index.BTreeScan;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
 
@@ -12,12 +15,19 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String HYBRID_HASH_JOIN = "⨝(hybrid hash)";
+    static final String MERGE_JOIN = "⨝(merge)";
+    static final String INDEX_JOIN = "⨝(index)";
+    static final String BLOCK_JOIN = "⨝(block nl)";
+    static final String BAND_JOIN = "⨝(band)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String TOP_N = "o(top)";
+    static final String LIMIT = "limit";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(OpIterator root) {
@@ -29,7 +39,9 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof HybridHashJoin
+                || o instanceof SortMergeJoin || o instanceof IndexNestedLoopJoin
+                || o instanceof BlockNestedLoopJoin || o instanceof BandJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -58,6 +70,74 @@ public class QueryPlanVisualizer {
 
     }
 
+    private void buildUnaryTree(SubTreeDescriptor thisNode, String symbol, String text, OpIterator child,
+                                int queryPlanDepth, int currentDepth, int currentStartPosition,
+                                int parentUpperBarStartShift) {
+        thisNode.text = text;
+        int upBarShift = parentUpperBarStartShift;
+        if (symbol.length() / 2 > parentUpperBarStartShift)
+            upBarShift = symbol.length() / 2;
+        SubTreeDescriptor childNode = this.buildTree(queryPlanDepth,
+                currentDepth + 2, child, currentStartPosition, upBarShift);
+        thisNode.upBarPosition = childNode.upBarPosition;
+        thisNode.textStartPosition = thisNode.upBarPosition
+                - symbol.length() / 2;
+        thisNode.width = Math.max(childNode.width,
+                thisNode.textStartPosition + thisNode.text.length()
+                        - currentStartPosition);
+        thisNode.leftChild = childNode;
+    }
+
+    private void buildJoinTree(SubTreeDescriptor thisNode, String symbol, Operator j, JoinPredicate jp,
+                               int queryPlanDepth, int currentDepth, int currentStartPosition,
+                               int parentUpperBarStartShift) {
+        OpIterator[] children = j.getChildren();
+        TupleDesc td = j.getTupleDesc();
+        String field1 = td.getFieldName(jp.getField1());
+        String field2 = td.getFieldName(jp.getField2()
+                + children[0].getTupleDesc().numFields());
+        thisNode.text = String.format("%1$s(%2$s),card:%3$d", symbol,
+                field1 + jp.getOperator() + field2, j.getEstimatedCardinality());
+        int upBarShift = parentUpperBarStartShift;
+        if (symbol.length() / 2 > parentUpperBarStartShift)
+            upBarShift = symbol.length() / 2;
+
+        SubTreeDescriptor left = this.buildTree(queryPlanDepth,
+                currentDepth + 3, children[0],
+                currentStartPosition, upBarShift);
+        SubTreeDescriptor right = this.buildTree(queryPlanDepth,
+                currentDepth + 3, children[1],
+                currentStartPosition + left.width + SPACE.length(), 0);
+        thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
+        thisNode.textStartPosition = thisNode.upBarPosition
+                - symbol.length() / 2;
+        thisNode.width = Math.max(
+                left.width + right.width + SPACE.length(),
+                thisNode.textStartPosition + thisNode.text.length()
+                        - currentStartPosition);
+        thisNode.leftChild = left;
+        thisNode.rightChild = right;
+    }
+
+    /**
+     * @return the text of a predicate over the fields of td, e.g. "a.x=1" or
+     *         "a.x=1 OR a.x=2"
+     */
+    private static String describe(TuplePredicate p, TupleDesc td) {
+        StringBuilder sb = new StringBuilder();
+        for (List<Predicate> alternative : p.getAlternatives()) {
+            if (sb.length() > 0) {
+                sb.append(" OR ");
+            }
+            for (int i = 0; i < alternative.size(); i++) {
+                Predicate q = alternative.get(i);
+                sb.append(i > 0 ? " AND " : "").append(td.getFieldName(q.getField())).append(q.getOp())
+                        .append(q.getOperand());
+            }
+        }
+        return sb.toString();
+    }
+
     private SubTreeDescriptor buildTree(int queryPlanDepth, int currentDepth,
                                         OpIterator queryPlan, int currentStartPosition,
                                         int parentUpperBarStartShift) {
@@ -67,10 +147,15 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof BTreeScan) {
+            String tableName, alias;
+            if (queryPlan instanceof SeqScan) {
+                tableName = ((SeqScan) queryPlan).getTableName();
+                alias = ((SeqScan) queryPlan).getAlias();
+            } else {
+                tableName = ((BTreeScan) queryPlan).getTableName();
+                alias = ((BTreeScan) queryPlan).getAlias();
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
@@ -78,6 +163,22 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
+            if (queryPlan instanceof SeqScan) {
+                // the predicates pushed down into the scan
+                SeqScan s = (SeqScan) queryPlan;
+                TupleDesc td = Database.getCatalog().getTupleDesc(s.getTableId());
+                IndexPredicate key = s.getIndexPredicate();
+                if (key != null) {
+                    thisNode.text += String.format(",index(%1$s %2$s %3$s)",
+                            td.getFieldName(s.getIndexField()), key.getOp(), key.getField());
+                }
+                for (TuplePredicate p : s.getPredicates()) {
+                    thisNode.text += String.format(",%1$s(%2$s)", SELECT, describe(p, td));
+                }
+                if (key != null || !s.getPredicates().isEmpty()) {
+                    thisNode.text += ",card:" + s.getEstimatedCardinality();
+                }
+            }
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -110,61 +211,39 @@ public class QueryPlanVisualizer {
             OpIterator[] children = plan.getChildren();
 
             if (plan instanceof Join) {
-                Join j = (Join) plan;
-                TupleDesc td = j.getTupleDesc();
-                JoinPredicate jp = j.getJoinPredicate();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
-
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + adjustDepth + 3, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + adjustDepth + 3, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
+                buildJoinTree(thisNode, JOIN, plan, ((Join) plan).getJoinPredicate(),
+                        queryPlanDepth, currentDepth + adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
                 thisNode.height = currentDepth;
             } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
+                buildJoinTree(thisNode, HASH_JOIN, plan, ((HashEquiJoin) plan).getJoinPredicate(),
+                        queryPlanDepth, currentDepth + adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
+                thisNode.height = currentDepth;
+            } else if (plan instanceof HybridHashJoin) {
+                buildJoinTree(thisNode, HYBRID_HASH_JOIN, plan, ((HybridHashJoin) plan).getJoinPredicate(),
+                        queryPlanDepth, currentDepth + adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
+                thisNode.height = currentDepth;
+            } else if (plan instanceof SortMergeJoin) {
+                buildJoinTree(thisNode, MERGE_JOIN, plan, ((SortMergeJoin) plan).getJoinPredicate(),
+                        queryPlanDepth, currentDepth + adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
+                thisNode.height = currentDepth;
+            } else if (plan instanceof IndexNestedLoopJoin) {
+                buildJoinTree(thisNode, INDEX_JOIN, plan, ((IndexNestedLoopJoin) plan).getJoinPredicate(),
+                        queryPlanDepth, currentDepth + adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
+                thisNode.height = currentDepth;
+            } else if (plan instanceof BlockNestedLoopJoin) {
+                buildJoinTree(thisNode, BLOCK_JOIN, plan, ((BlockNestedLoopJoin) plan).getJoinPredicate(),
+                        queryPlanDepth, currentDepth + adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
+                thisNode.height = currentDepth;
+            } else if (plan instanceof BandJoin) {
+                buildJoinTree(thisNode, BAND_JOIN, plan, ((BandJoin) plan).getJoinPredicate(),
+                        queryPlanDepth, currentDepth + adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
                 thisNode.height = currentDepth;
             }
             else if (plan instanceof Aggregate) {
@@ -200,11 +279,9 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                TuplePredicate p = f.getPredicate();
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        describe(p, children[0].getTupleDesc()), f.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -240,6 +317,19 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN) {
+                TopN t = (TopN) plan;
+                buildUnaryTree(thisNode, TOP_N, String.format("%1$s(%2$s,%3$d),card:%4$d", TOP_N,
+                        children[0].getTupleDesc().getFieldName(t.getOrderByField()), t.getN(),
+                        t.getEstimatedCardinality()), children[0], queryPlanDepth,
+                        currentDepth + adjustDepth, currentStartPosition, parentUpperBarStartShift);
+                thisNode.height = currentDepth;
+            } else if (plan instanceof Limit) {
+                Limit l = (Limit) plan;
+                buildUnaryTree(thisNode, LIMIT, String.format("%1$s(%2$d,%3$d),card:%4$d", LIMIT,
+                        l.getLimit(), l.getOffset(), l.getEstimatedCardinality()), children[0], queryPlanDepth,
+                        currentDepth + adjustDepth, currentStartPosition, parentUpperBarStartShift);
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
@@ -263,15 +353,9 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
-                String name="Exchange";
-                int card=0;
-                try {
-                    name = (String) plan.getClass().getMethod("getName").invoke(plan);
-                    card = (Integer) plan.getClass().getMethod("getEstimatedCardinality").invoke(plan);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } 
+            else if (plan instanceof Exchange) {
+                String name = ((Exchange) plan).getName();
+                int card = ((Exchange) plan).getEstimatedCardinality();
 
                 thisNode.text = String.format("%1$s,card:%2$d", name,card);
                 int upBarShift = parentUpperBarStartShift;
@@ -4,11 +4,13 @@ import simpledb.common.Database;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.execution.TuplePredicate;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -153,6 +155,28 @@ public class TableStats {
         return 1.0;
     }
 
+    /**
+     * Estimate the selectivity of a predicate over the fields of the table.
+     * The alternatives of the predicate, and the predicates of each
+     * alternative, are assumed to be independent.
+     *
+     * @param p
+     *            The predicate, which may be a disjunction
+     * @return The estimated selectivity (fraction of tuples that satisfy) the
+     *         predicate
+     */
+    public double estimateSelectivity(TuplePredicate p) {
+        double any = 0.0;
+        for (List<Predicate> alternative : p.getAlternatives()) {
+            double all = 1.0;
+            for (Predicate q : alternative) {
+                all *= estimateSelectivity(q.getField(), q.getOp(), q.getOperand());
+            }
+            any += all - any * all;
+        }
+        return any;
+    }
+
     /**
      * return the total number of tuples in this table
      * */
@@ -5,6 +5,7 @@ import java.util.List;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.LRUCache.DLinkedNode;
 import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
@@ -92,12 +93,50 @@ public class BufferPool {
                 throw new TransactionAbortedException();
             }
         }
-        Page page = pageCache.get(pid);
+        return getPageWithoutLock(pid);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions if the lock is free, without waiting for it. For
+     * callers that must not block while they hold latches; they release them before waiting in getPage.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @return the page, or null if another transaction holds a conflicting lock on it
+     * @see #getPage(TransactionId, PageId, Permissions)
+     */
+    public Page tryGetPage(TransactionId tid, PageId pid, Permissions perm) throws DbException {
+        if (!lockManager.acquireLock(tid, pid, perm)) {
+            return null;
+        }
+        return getPageWithoutLock(pid);
+    }
+
+    /**
+     * Retrieve the specified page without acquiring a lock on it. Only for access methods that protect the page by
+     * other means while they use it, like the latches a B+ tree takes on its internal pages.
+     *
+     * @param pid the ID of the requested page
+     */
+    public Page getPageWithoutLock(PageId pid) throws DbException {
+        // the cache's recency list isn't thread-safe, but pages are read outside the lock so that parallel scans
+        // of one transaction can read different pages at the same time
+        Page page;
+        synchronized (this) {
+            page = pageCache.get(pid);
+        }
         if (page == null) {
             DbFile dbFile = Database.getCatalog()
                 .getDatabaseFile(pid.getTableId());
-            page = dbFile.readPage(pid);
-            addToBufferPool(pid, page);
+            Page read = dbFile.readPage(pid);
+            synchronized (this) {
+                page = pageCache.get(pid);
+                if (page == null) {
+                    page = read;
+                    addToBufferPool(pid, page);
+                }
+            }
         }
         return page;
     }
@@ -183,6 +222,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling their markDirty bit, and adds versions of any pages that have been dirtied to the cache (replacing any existing versions
      * of those pages) so that future requests see up-to-date pages.
      *
+     * Adds the tuple's entries to the table's secondary indexes as part of the same transaction.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -198,6 +239,10 @@ public class BufferPool {
             //pageCache.put(page.getId(), page);
             addToBufferPool(page.getId(), page);
         }
+        // the table assigned t its RecordId, which the entries of its indexes point to
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            index.insert(tid, t);
+        }
     }
 
     /**
@@ -207,16 +252,23 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling their markDirty bit, and adds versions of any pages that have been dirtied to the cache (replacing any existing versions
      * of those pages) so that future requests see up-to-date pages.
      *
+     * Removes the tuple's entries from the table's secondary indexes as part of the same transaction.
+     *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
     public void deleteTuple(TransactionId tid, Tuple t) throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        int tableId = t.getRecordId()
+            .getPageId()
+            .getTableId();
         DbFile dbFile = Database.getCatalog()
-            .getDatabaseFile(t.getRecordId()
-                .getPageId()
-                .getTableId());
+            .getDatabaseFile(tableId);
+        // the entries are found by the tuple's RecordId, which the table may clear
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            index.delete(tid, t);
+        }
         List<Page> pages = dbFile.deleteTuple(tid, t);
         for (int i = 0; i < pages.size(); ++i) {
             pages.get(i)
@@ -318,7 +370,7 @@ public class BufferPool {
         }
     }
 
-    private void addToBufferPool(PageId pid, Page page) throws DbException {
+    private synchronized void addToBufferPool(PageId pid, Page page) throws DbException {
         if (pageCache.getSize() >= this.numPages && !pageCache.containKey(pid)) {
             evictPage();
         }
@@ -0,0 +1,456 @@
+package simpledb.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import simpledb.common.Database;
+
+/**
+ * CompressedHeapFile is an optional, read-mostly table format for cold HeapFile data. It stores exactly the same
+ * HeapPages as a HeapFile, but pages are compressed with {@link LZ4Codec} in groups of {@link #getGroupSize()}
+ * consecutive pages.
+ * <p>
+ * The data file is a sequence of compressed extents, one per group. A small index file next to it (the data file name
+ * with an ".idx" suffix) maps each group, and therefore each logical page number, to the offset, length and capacity
+ * of its extent. Rewriting a page recompresses its group and writes it over the old extent if it fits in its capacity.
+ * An extent that grew is moved to the end of the file with some room to spare, and the space it leaves behind is
+ * reclaimed by compacting the file once it is more than half garbage. Compaction writes the live extents to a data
+ * file of a new generation, named after the table's file with a ".<generation>" suffix, and the index records which
+ * generation is current, so that renaming the new index into place commits the compaction; the old data file is
+ * deleted afterwards.
+ * <p>
+ * Decompressed pages are cached by the BufferPool as usual. In addition this file keeps a small cache of compressed
+ * extents and the most recently decompressed group, so that a sequential scan decompresses each group only once.
+ *
+ * @see HeapFile
+ * @see LZ4Codec
+ */
+public class CompressedHeapFile extends HeapFile {
+    private static final int INDEX_MAGIC = 0x4C5A3448; // "LZ4H"
+    private static final int INDEX_VERSION = 3;
+    public static final int DEFAULT_GROUP_SIZE = 8;
+    public static final int DEFAULT_EXTENT_CACHE_SIZE = 16;
+    // a moved extent gets 1/EXTENT_SLACK of its length as room to grow in place
+    private static final int EXTENT_SLACK = 4;
+
+    private final File indexFile;
+    private final int groupSize;
+    // the data file of the current generation, which only compaction changes
+    private int generation;
+    private File dataFile;
+    private int numPages;
+    private long[] extentOffsets;
+    private int[] extentLengths;
+    private int[] extentCapacities;
+    // bytes of the data file that aren't part of any extent's capacity
+    private long garbageBytes;
+    private final LRUCache<Integer, byte[]> extentCache;
+
+    private int lastGroupNo = -1;
+    private byte[] lastGroupData;
+
+    private long compressedBytesRead;
+    private long bytesDecompressed;
+    private long decompressNanos;
+
+    /**
+     * Opens a compressed heap file, creating an empty one with the default group size if it doesn't exist yet.
+     *
+     * @param f the data file of this table; its index is stored in f + ".idx"
+     * @param td the schema of the table
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, DEFAULT_GROUP_SIZE);
+    }
+
+    /**
+     * Opens a compressed heap file. groupSize is only used when a new, empty file is created; an existing file keeps
+     * the group size it was written with.
+     */
+    public CompressedHeapFile(File f, TupleDesc td, int groupSize) {
+        this(f, td, groupSize, f.getAbsoluteFile().hashCode());
+    }
+
+    /**
+     * Opens a compressed heap file with an explicit table id.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, int)
+     */
+    public CompressedHeapFile(File f, TupleDesc td, int groupSize, int tableId) {
+        super(f, td, tableId);
+        if (groupSize <= 0) {
+            throw new IllegalArgumentException("group size must be positive");
+        }
+        this.indexFile = indexFileFor(f);
+        this.extentCache = new LRUCache<>(DEFAULT_EXTENT_CACHE_SIZE);
+        if (indexFile.exists()) {
+            try {
+                groupSize = readIndex();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("unable to read compressed page index " + indexFile, e);
+            }
+            if (generation > 0) {
+                // the data file a crash after committing the last compaction left behind
+                dataFileFor(f, generation - 1).delete();
+            }
+        } else {
+            this.generation = 0;
+            this.dataFile = f;
+            this.numPages = 0;
+            this.extentOffsets = new long[0];
+            this.extentLengths = new int[0];
+            this.extentCapacities = new int[0];
+        }
+        this.groupSize = groupSize;
+    }
+
+    static File indexFileFor(File f) {
+        return new File(f.getPath() + ".idx");
+    }
+
+    /**
+     * @return the data file of a generation of the table stored in f; the first generation is f itself
+     */
+    static File dataFileFor(File f, int generation) {
+        return generation == 0 ? f : new File(f.getPath() + "." + generation);
+    }
+
+    /**
+     * @return the file the extents of this table are stored in, which compaction replaces by a file of a new
+     *         generation
+     */
+    public synchronized File getDataFile() {
+        return dataFile;
+    }
+
+    /**
+     * @return the number of pages compressed together in one extent
+     */
+    public int getGroupSize() {
+        return groupSize;
+    }
+
+    @Override
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public synchronized Page readPage(PageId pid) {
+        int pageNumber = pid.getPageNumber();
+        if (pageNumber < 0 || pageNumber >= numPages) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", pid.getTableId(), pageNumber));
+        }
+        int pageSize = BufferPool.getPageSize();
+        try {
+            byte[] group = readGroup(pageNumber / groupSize);
+            int from = (pageNumber % groupSize) * pageSize;
+            byte[] data = Arrays.copyOfRange(group, from, from + pageSize);
+            return new HeapPage(new HeapPageId(pid.getTableId(), pageNumber), data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", pid.getTableId(), pageNumber), e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public synchronized void writePage(Page page) throws IOException {
+        int pageNumber = page.getId().getPageNumber();
+        if (pageNumber > numPages) {
+            throw new IllegalArgumentException("page is not in the heap file");
+        }
+        int pageSize = BufferPool.getPageSize();
+        int groupNo = pageNumber / groupSize;
+        int newNumPages = Math.max(numPages, pageNumber + 1);
+        int pagesInGroup = Math.min(groupSize, newNumPages - groupNo * groupSize);
+
+        byte[] group = new byte[pagesInGroup * pageSize];
+        if (groupNo < extentOffsets.length) {
+            byte[] old = readGroup(groupNo);
+            System.arraycopy(old, 0, group, 0, old.length);
+        }
+        System.arraycopy(page.getPageData(), 0, group, (pageNumber % groupSize) * pageSize, pageSize);
+
+        writeExtent(groupNo, LZ4Codec.compress(group));
+        numPages = newNumPages;
+        if (garbageBytes > liveBytes()) {
+            compact();
+        } else {
+            writeIndex();
+        }
+
+        lastGroupNo = groupNo;
+        lastGroupData = group;
+    }
+
+    /**
+     * Returns the decompressed bytes of all pages in a group, using the last decompressed group or the extent cache
+     * when possible.
+     */
+    private byte[] readGroup(int groupNo) throws IOException {
+        if (groupNo == lastGroupNo) {
+            return lastGroupData;
+        }
+        byte[] extent = extentCache.get(groupNo);
+        if (extent == null) {
+            extent = new byte[extentLengths[groupNo]];
+            try (FileHandleCache.Handle h = Database.getFileHandleCache().acquire(dataFile, false)) {
+                if (h.read(extentOffsets[groupNo], extent) != extent.length) {
+                    throw new EOFException("extent " + groupNo + " extends past the end of " + dataFile);
+                }
+            }
+            compressedBytesRead += extent.length;
+            if (extentCache.getSize() >= extentCache.getCapacity()) {
+                extentCache.discord();
+            }
+            extentCache.put(groupNo, extent);
+        }
+
+        int pagesInGroup = Math.min(groupSize, numPages - groupNo * groupSize);
+        byte[] group = new byte[pagesInGroup * BufferPool.getPageSize()];
+        long start = System.nanoTime();
+        LZ4Codec.decompress(extent, 0, extent.length, group, 0, group.length);
+        decompressNanos += System.nanoTime() - start;
+        bytesDecompressed += group.length;
+
+        lastGroupNo = groupNo;
+        lastGroupData = group;
+        return group;
+    }
+
+    /**
+     * Writes the extent of a group over its old extent if it fits, and otherwise at the end of the file.
+     */
+    private void writeExtent(int groupNo, byte[] extent) throws IOException {
+        try (FileHandleCache.Handle h = Database.getFileHandleCache().acquire(dataFile, true)) {
+            long end = h.length();
+            if (groupNo < extentOffsets.length) {
+                long offset = extentOffsets[groupNo];
+                int capacity = extentCapacities[groupNo];
+                // the last extent of the file can grow without moving
+                if (extent.length <= capacity || offset + capacity == end) {
+                    h.write(offset, extent);
+                    extentLengths[groupNo] = extent.length;
+                    extentCapacities[groupNo] = Math.max(capacity, extent.length);
+                    extentCache.remove(groupNo);
+                    return;
+                }
+                garbageBytes += capacity;
+            } else {
+                extentOffsets = Arrays.copyOf(extentOffsets, groupNo + 1);
+                extentLengths = Arrays.copyOf(extentLengths, groupNo + 1);
+                extentCapacities = Arrays.copyOf(extentCapacities, groupNo + 1);
+            }
+            int capacity = extent.length + extent.length / EXTENT_SLACK;
+            h.write(end, Arrays.copyOf(extent, capacity));
+            extentOffsets[groupNo] = end;
+            extentLengths[groupNo] = extent.length;
+            extentCapacities[groupNo] = capacity;
+        }
+        extentCache.remove(groupNo);
+    }
+
+    private long liveBytes() {
+        long live = 0;
+        for (int capacity : extentCapacities) {
+            live += capacity;
+        }
+        return live;
+    }
+
+    /**
+     * Rewrites the data file without the space of moved extents, keeping the extents in the order of their groups, and
+     * writes the index. The old data file stays intact until the new index is in place, so a crash leaves either the
+     * old index and data file or the new ones.
+     */
+    private void compact() throws IOException {
+        File oldFile = dataFile;
+        File newFile = dataFileFor(getFile(), generation + 1);
+        long[] offsets = new long[extentOffsets.length];
+        try (FileHandleCache.Handle h = Database.getFileHandleCache().acquire(dataFile, false);
+             RandomAccessFile out = new RandomAccessFile(newFile, "rw")) {
+            out.setLength(0);
+            for (int g = 0; g < extentOffsets.length; g++) {
+                byte[] extent = new byte[extentCapacities[g]];
+                if (h.read(extentOffsets[g], extent) < extentLengths[g]) {
+                    throw new EOFException("extent " + g + " extends past the end of " + oldFile);
+                }
+                offsets[g] = out.getFilePointer();
+                out.write(extent);
+            }
+            out.getFD().sync();
+        }
+        generation++;
+        dataFile = newFile;
+        extentOffsets = offsets;
+        garbageBytes = 0;
+        writeIndex();
+
+        Database.getFileHandleCache().invalidate(oldFile);
+        oldFile.delete();
+    }
+
+    private int readIndex() throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (dis.readInt() != INDEX_MAGIC) {
+                throw new IOException("not a compressed page index");
+            }
+            int version = dis.readInt();
+            if (version != INDEX_VERSION && version != 2) {
+                throw new IOException("unsupported compressed page index version " + version);
+            }
+            int gs = dis.readInt();
+            // version 2 had no compaction generations
+            generation = version == 2 ? 0 : dis.readInt();
+            dataFile = dataFileFor(getFile(), generation);
+            numPages = dis.readInt();
+            int numGroups = dis.readInt();
+            extentOffsets = new long[numGroups];
+            extentLengths = new int[numGroups];
+            extentCapacities = new int[numGroups];
+            for (int i = 0; i < numGroups; i++) {
+                extentOffsets[i] = dis.readLong();
+                extentLengths[i] = dis.readInt();
+                extentCapacities[i] = dis.readInt();
+            }
+            garbageBytes = Math.max(0, dataFile.length() - liveBytes());
+            return gs;
+        }
+    }
+
+    /**
+     * Rewrites the index through a temporary file so that a crash never leaves a half written index behind. Renaming
+     * it into place is what commits a compaction.
+     */
+    private void writeIndex() throws IOException {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            dos.writeInt(INDEX_MAGIC);
+            dos.writeInt(INDEX_VERSION);
+            dos.writeInt(groupSize);
+            dos.writeInt(generation);
+            dos.writeInt(numPages);
+            dos.writeInt(extentOffsets.length);
+            for (int i = 0; i < extentOffsets.length; i++) {
+                dos.writeLong(extentOffsets[i]);
+                dos.writeInt(extentLengths[i]);
+                dos.writeInt(extentCapacities[i]);
+            }
+        }
+        Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return the number of bytes the live extents of this file occupy on disk
+     */
+    public synchronized long getCompressedSize() {
+        long size = 0;
+        for (int len : extentLengths) {
+            size += len;
+        }
+        return size;
+    }
+
+    /**
+     * @return the uncompressed size of this table divided by its compressed size, or 0 if the table is empty
+     */
+    public synchronized double getCompressionRatio() {
+        long compressed = getCompressedSize();
+        if (compressed == 0) {
+            return 0;
+        }
+        return (double) numPages * BufferPool.getPageSize() / compressed;
+    }
+
+    /** @return compressed bytes read from disk since this file was opened or {@link #resetStats} was called */
+    public synchronized long getCompressedBytesRead() {
+        return compressedBytesRead;
+    }
+
+    /** @return bytes produced by decompression since this file was opened or {@link #resetStats} was called */
+    public synchronized long getBytesDecompressed() {
+        return bytesDecompressed;
+    }
+
+    /** @return time spent decompressing, in nanoseconds */
+    public synchronized long getDecompressNanos() {
+        return decompressNanos;
+    }
+
+    public synchronized void resetStats() {
+        compressedBytesRead = 0;
+        bytesDecompressed = 0;
+        decompressNanos = 0;
+    }
+
+    /**
+     * Drops the cached extents and decompressed group, e.g. before measuring a cold scan.
+     */
+    public synchronized void clearCache() {
+        while (extentCache.getSize() > 0) {
+            extentCache.discord();
+        }
+        lastGroupNo = -1;
+        lastGroupData = null;
+    }
+
+    /**
+     * Converts a plain heap file into the compressed format. Any existing data at outFile is replaced.
+     *
+     * @param heapFile the HeapFile data file to convert
+     * @param outFile the compressed data file to create; its index is written to outFile + ".idx"
+     * @param groupSize the number of pages per compressed extent
+     * @throws IllegalArgumentException if outFile is heapFile
+     */
+    public static void convert(File heapFile, File outFile, int groupSize) throws IOException {
+        if (heapFile.getCanonicalFile().equals(outFile.getCanonicalFile())) {
+            throw new IllegalArgumentException("cannot convert " + heapFile + " into itself");
+        }
+        int pageSize = BufferPool.getPageSize();
+        int numPages = (int) (heapFile.length() / pageSize);
+        int numGroups = (numPages + groupSize - 1) / groupSize;
+        long[] offsets = new long[numGroups];
+        int[] lengths = new int[numGroups];
+
+        try (RandomAccessFile in = new RandomAccessFile(heapFile, "r");
+             RandomAccessFile out = new RandomAccessFile(outFile, "rw")) {
+            out.setLength(0);
+            byte[] compressed = new byte[LZ4Codec.maxCompressedLength(groupSize * pageSize)];
+            for (int g = 0; g < numGroups; g++) {
+                int pages = Math.min(groupSize, numPages - g * groupSize);
+                byte[] group = new byte[pages * pageSize];
+                in.seek((long) g * groupSize * pageSize);
+                in.readFully(group);
+                int len = LZ4Codec.compress(group, 0, group.length, compressed, 0);
+                offsets[g] = out.getFilePointer();
+                lengths[g] = len;
+                out.write(compressed, 0, len);
+            }
+        }
+
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFileFor(outFile))))) {
+            dos.writeInt(INDEX_MAGIC);
+            dos.writeInt(INDEX_VERSION);
+            dos.writeInt(groupSize);
+            dos.writeInt(0);
+            dos.writeInt(numPages);
+            dos.writeInt(numGroups);
+            for (int g = 0; g < numGroups; g++) {
+                dos.writeLong(offsets[g]);
+                dos.writeInt(lengths[g]);
+                dos.writeInt(lengths[g]);
+            }
+        }
+    }
+}
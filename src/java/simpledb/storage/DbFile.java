@@ -3,6 +3,7 @@ package simpledb.storage;
 
 import simpledb.common.DbException;
 import simpledb.common.Catalog;
+import simpledb.execution.TuplePredicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -73,6 +74,23 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * all of the given predicates, with only the given fields. Files that can
+     * evaluate the predicates while they read their pages override this; by
+     * default the tuples of {@link #iterator(TransactionId)} are filtered.
+     *
+     * @param predicates the predicates over the fields of this file's
+     *            TupleDesc that the returned tuples satisfy
+     * @param fields the fields of the returned tuples, in order, or null to
+     *            return all of them
+     * @return an iterator over the qualifying tuples, which keep their
+     *         record ids
+     */
+    default DbFileIterator iterator(TransactionId tid, List<? extends TuplePredicate> predicates, int[] fields) {
+        return new PushdownIterator(iterator(tid), getTupleDesc(), predicates, fields);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -0,0 +1,134 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a dictionary-encoded string. Only the int code
+ * of the value is stored on the page; the string is decoded from the column's
+ * {@link StringDictionary} when it is needed for output or for an ordering
+ * comparison.
+ * <p>
+ * Two DictStringFields of the same dictionary are equal exactly when their
+ * codes are, so equality predicates, join keys and group-by keys never touch
+ * the strings themselves. A DictStringField is also equal to a StringField
+ * holding the same value, and hashes the same way.
+ */
+public class DictStringField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+    private final transient StringDictionary dict;
+
+    /**
+     * Constructor.
+     *
+     * @param code
+     *            The dictionary code of this field's value.
+     * @param dict
+     *            The dictionary of the column this field belongs to.
+     */
+    public DictStringField(int code, StringDictionary dict) {
+        this.code = code;
+        this.dict = dict;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public StringDictionary getDictionary() {
+        return dict;
+    }
+
+    /**
+     * @return the decoded value of this field
+     */
+    public String getValue() {
+        return dict.decode(code);
+    }
+
+    public String toString() {
+        return getValue();
+    }
+
+    public int hashCode() {
+        // String caches its hash, so after the first call this is just a lookup
+        return getValue().hashCode();
+    }
+
+    public boolean equals(Object field) {
+        if (field instanceof DictStringField) {
+            DictStringField other = (DictStringField) field;
+            if (other.dict == dict) {
+                return other.code == code;
+            }
+            return other.getValue().equals(getValue());
+        }
+        if (field instanceof StringField) {
+            return ((StringField) field).getValue().equals(getValue());
+        }
+        return false;
+    }
+
+    /**
+     * Write the code of this string to dos. Always writes 4 bytes.
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeInt(code);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field. Return semantics
+     * are as specified by Field.compare. EQUALS and NOT_EQUALS against a
+     * field of the same dictionary compare codes only.
+     *
+     * @throws IllegalCastException
+     *             if val is not a string field
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        if (val instanceof DictStringField && ((DictStringField) val).dict == dict) {
+            int otherCode = ((DictStringField) val).code;
+            if (op == Predicate.Op.EQUALS) {
+                return otherCode == code;
+            }
+            if (op == Predicate.Op.NOT_EQUALS) {
+                return otherCode != code;
+            }
+        }
+
+        String value = getValue();
+        String other = val instanceof DictStringField ? ((DictStringField) val).getValue() : ((StringField) val).getValue();
+        int cmpVal = value.compareTo(other);
+
+        switch (op) {
+            case EQUALS:
+                return cmpVal == 0;
+            case NOT_EQUALS:
+                return cmpVal != 0;
+            case GREATER_THAN:
+                return cmpVal > 0;
+            case GREATER_THAN_OR_EQ:
+                return cmpVal >= 0;
+            case LESS_THAN:
+                return cmpVal < 0;
+            case LESS_THAN_OR_EQ:
+                return cmpVal <= 0;
+            case LIKE:
+                return value.contains(other);
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the Type for this Field
+     */
+    public Type getType() {
+        return Type.DICT_STRING_TYPE;
+    }
+}
@@ -0,0 +1,262 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * FileHandleCache keeps a bounded number of data files open so that DbFiles don't have to open and close their file
+ * for every page they read or write. Handles are shared by all DbFiles of the database and are evicted in least
+ * recently used order once more than capacity files are open.
+ * <p>
+ * A handle is pinned between {@link #acquire} and {@link Handle#close}, and pinned handles are never closed; if every
+ * handle is pinned the cache temporarily holds more than capacity files. I/O goes through positional
+ * {@link FileChannel} reads and writes, so several threads can use the same handle at once.
+ * <p>
+ * Evicting a handle only closes the file: pages are cached by the BufferPool under their PageId and don't refer to
+ * file handles, so they stay valid and the file is simply reopened the next time a page is read or written.
+ * <p>
+ * Reusing an open handle doesn't touch the file system. A file that is deleted or replaced should be
+ * {@link #invalidate invalidated} first; otherwise its old handle is only noticed to be stale once
+ * {@link #VALIDATE_INTERVAL_MILLIS} have passed since the handle was last checked.
+ *
+ * @Threadsafe
+ */
+public class FileHandleCache {
+    public static final int DEFAULT_CAPACITY = 256;
+    /** How long an open handle is reused before acquire checks again that it still refers to its file. */
+    public static final long VALIDATE_INTERVAL_MILLIS = 1000;
+
+    /**
+     * An open data file. Must be released with {@link #close} once the caller is done with it.
+     */
+    public class Handle implements AutoCloseable {
+        private final File file;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final Object fileKey;
+        // System.nanoTime() of the last check that the file still has fileKey
+        private long validatedAt;
+        private int pins;
+        private boolean evicted;
+
+        private Handle(File file, RandomAccessFile raf, Object fileKey) {
+            this.file = file;
+            this.raf = raf;
+            this.channel = raf.getChannel();
+            this.fileKey = fileKey;
+            this.validatedAt = System.nanoTime();
+        }
+
+        /**
+         * @return the current length of the file
+         */
+        public long length() throws IOException {
+            return channel.size();
+        }
+
+        /**
+         * Reads up to data.length bytes starting at position.
+         *
+         * @return the number of bytes read, which is less than data.length only at the end of the file
+         */
+        public int read(long position, byte[] data) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                int n = channel.read(buf, position + buf.position());
+                if (n < 0) {
+                    break;
+                }
+            }
+            return buf.position();
+        }
+
+        /**
+         * Writes all of data starting at position, extending the file if necessary.
+         */
+        public void write(long position, byte[] data) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                channel.write(buf, position + buf.position());
+            }
+        }
+
+        /**
+         * Unpins this handle.
+         */
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<File, Handle> handles = new LinkedHashMap<>(16, 0.75f, true);
+    private long opens;
+    private long hits;
+
+    public FileHandleCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns a pinned handle of f, opening f if it is not open yet. Only opening f, and checking a handle that
+     * wasn't checked for {@link #VALIDATE_INTERVAL_MILLIS}, looks at the file itself.
+     *
+     * @param f the file
+     * @param create whether f should be created if it doesn't exist
+     * @throws FileNotFoundException if f doesn't exist and create is false
+     */
+    public Handle acquire(File f, boolean create) throws IOException {
+        File key = f.getAbsoluteFile();
+        synchronized (this) {
+            Handle h = handles.get(key);
+            if (h != null && System.nanoTime() - h.validatedAt < VALIDATE_INTERVAL_MILLIS * 1_000_000) {
+                hits++;
+                h.pins++;
+                return h;
+            }
+        }
+        Object fileKey = null;
+        if (key.exists()) {
+            fileKey = fileKey(key);
+        } else if (!create) {
+            throw new FileNotFoundException(key.getPath());
+        }
+        synchronized (this) {
+            Handle h = handles.get(key);
+            // a file that was deleted (and maybe recreated under the same name) needs a new handle
+            if (h != null && !Objects.equals(h.fileKey, fileKey)) {
+                evict(h);
+                h = null;
+            }
+            if (h != null) {
+                hits++;
+                h.pins++;
+                h.validatedAt = System.nanoTime();
+            } else {
+                RandomAccessFile raf = open(key);
+                h = new Handle(key, raf, fileKey != null ? fileKey : fileKey(key));
+                h.pins++;
+                handles.put(key, h);
+                opens++;
+                evictUnpinned();
+            }
+            return h;
+        }
+    }
+
+    private static RandomAccessFile open(File f) throws IOException {
+        try {
+            return new RandomAccessFile(f, "rw");
+        } catch (FileNotFoundException e) {
+            // read-only files can still be read
+            if (f.exists()) {
+                return new RandomAccessFile(f, "r");
+            }
+            throw e;
+        }
+    }
+
+    private static Object fileKey(File f) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+        // fall back to the creation time on file systems without file keys
+        return attrs.fileKey() != null ? attrs.fileKey() : attrs.creationTime();
+    }
+
+    private synchronized void release(Handle h) {
+        if (--h.pins == 0 && h.evicted) {
+            closeQuietly(h);
+        } else {
+            evictUnpinned();
+        }
+    }
+
+    private void evictUnpinned() {
+        Iterator<Map.Entry<File, Handle>> it = handles.entrySet().iterator();
+        while (handles.size() > capacity && it.hasNext()) {
+            Handle h = it.next().getValue();
+            if (h.pins == 0) {
+                it.remove();
+                h.evicted = true;
+                closeQuietly(h);
+            }
+        }
+    }
+
+    private void evict(Handle h) {
+        handles.remove(h.file);
+        h.evicted = true;
+        if (h.pins == 0) {
+            closeQuietly(h);
+        }
+    }
+
+    /**
+     * Closes the handle of f, for example before f is deleted. A handle that is still pinned is closed when it is
+     * released.
+     */
+    public synchronized void invalidate(File f) {
+        Handle h = handles.get(f.getAbsoluteFile());
+        if (h != null) {
+            evict(h);
+        }
+    }
+
+    /**
+     * Closes all handles; pinned handles are closed when they are released.
+     */
+    public synchronized void closeAll() {
+        List<Handle> all = new ArrayList<>(handles.values());
+        for (Handle h : all) {
+            evict(h);
+        }
+    }
+
+    private static void closeQuietly(Handle h) {
+        try {
+            h.raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of files currently open
+     */
+    public synchronized int getOpenFiles() {
+        return handles.size();
+    }
+
+    /**
+     * @return the number of times a file had to be opened
+     */
+    public synchronized long getOpens() {
+        return opens;
+    }
+
+    /**
+     * @return the number of times an already open handle was reused
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+}
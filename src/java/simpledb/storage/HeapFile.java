@@ -2,14 +2,15 @@ package simpledb.storage;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
-import java.util.NoSuchElementException;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.PredicateCompiler;
+import simpledb.execution.TuplePredicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -23,6 +24,8 @@ import simpledb.transaction.TransactionId;
 public class HeapFile implements DbFile {
     private final File file;
     private final TupleDesc tupleDesc;
+    private final StringDictionary[] dictionaries;
+    private final int tableId;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -31,8 +34,21 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, f.getAbsoluteFile().hashCode());
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file with an explicit table id. Tables registered in a persistent
+     * catalog use the id stored there, so their ids don't change when the database directory is moved.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param tableId the id of the table
+     */
+    public HeapFile(File f, TupleDesc td, int tableId) {
         this.file = f;
         this.tupleDesc = td;
+        this.dictionaries = new StringDictionary[td.numFields()];
+        this.tableId = tableId;
     }
 
     /**
@@ -53,8 +69,7 @@ public class HeapFile implements DbFile {
      */
     public int getId() {
         // some code goes here
-        return this.file.getAbsoluteFile()
-            .hashCode();
+        return tableId;
     }
 
     /**
@@ -67,21 +82,40 @@ public class HeapFile implements DbFile {
         return this.tupleDesc;
     }
 
+    /**
+     * Returns the dictionary of a dictionary-encoded string column, opening it on first use. The dictionary of field i
+     * is stored next to the table in a file named after the data file with a ".i.dict" suffix.
+     *
+     * @param i the index of a field of type {@link Type#DICT_STRING_TYPE}
+     * @return the dictionary of the column
+     * @throws IllegalArgumentException if field i is not dictionary-encoded
+     */
+    public synchronized StringDictionary getDictionary(int i) {
+        if (tupleDesc.getFieldType(i) != Type.DICT_STRING_TYPE) {
+            throw new IllegalArgumentException("field " + i + " is not dictionary-encoded");
+        }
+        if (dictionaries[i] == null) {
+            try {
+                dictionaries[i] = new StringDictionary(new File(file.getPath() + "." + i + ".dict"));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("unable to open dictionary of field " + i, e);
+            }
+        }
+        return dictionaries[i];
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
         int pageNumber = pid.getPageNumber();
         int tableId = pid.getTableId();
         int pageSize = BufferPool.getPageSize();
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(file, "r");
-            if ((pageNumber + 1) * pageSize > raf.length()) {
+        try (FileHandleCache.Handle h = Database.getFileHandleCache().acquire(file, false)) {
+            if ((long) (pageNumber + 1) * pageSize > h.length()) {
                 throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pageNumber));
             }
             byte[] data = new byte[pageSize];
-            raf.seek(pageNumber * pageSize);
-            int read = raf.read(data, 0, pageSize);
+            int read = h.read((long) pageNumber * pageSize, data);
             if (read != pageSize) {
                 throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pageNumber));
             }
@@ -89,12 +123,6 @@ public class HeapFile implements DbFile {
             return new HeapPage(id, data);
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            try {
-                raf.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
         }
         throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pageNumber));
     }
@@ -108,11 +136,10 @@ public class HeapFile implements DbFile {
         if(pageNumber > numPages()) {
             throw new IllegalArgumentException("page is not in the heap file");
         }
-        RandomAccessFile raf = new RandomAccessFile(file, "rw");
-        raf.seek(pageNumber * BufferPool.getPageSize());
         byte[] pageData = page.getPageData();
-        raf.write(pageData);
-        raf.close();
+        try (FileHandleCache.Handle h = Database.getFileHandleCache().acquire(file, true)) {
+            h.write((long) pageNumber * BufferPool.getPageSize(), pageData);
+        }
     }
 
     /**
@@ -142,11 +169,24 @@ public class HeapFile implements DbFile {
             }
         }
 
-        HeapPage page = new HeapPage(new HeapPageId(tableId, numPages()), HeapPage.createEmptyPageData());
-        page.insertTuple(t);
-        writePage(page);
-        list.add(page);
-        return list;
+        // every page is full: append an empty page to the file and insert into it through the buffer pool, so that
+        // an abort undoes the insert like any other, and with it the entries of the table's indexes
+        while (true) {
+            HeapPageId pid;
+            synchronized (this) {
+                pid = new HeapPageId(tableId, numPages());
+                writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+            }
+            HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                page.markDirty(true, tid);
+                list.add(page);
+                return list;
+            }
+            // another transaction filled the new page first
+            bufferPool.unsafeReleasePage(tid, pid);
+        }
     }
 
     // see DbFile.java for javadocs
@@ -165,60 +205,102 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, 0, Integer.MAX_VALUE, Collections.emptyList(), null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of a range of pages of this file,
+     * so that several threads can scan parts of it at the same time.
+     *
+     * @param tid the transaction the scan is running as a part of
+     * @param firstPage the first page to scan
+     * @param endPage the page after the last one to scan; the scan also
+     *            stops at the end of the file
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+        return iterator(tid, firstPage, endPage, Collections.emptyList(), null);
     }
 
-    private static final class HeapFileIterator implements DbFileIterator {
+    /**
+     * Evaluates the predicates on the fields each cached page already holds,
+     * and only builds the projected tuples of the rows that satisfy them.
+     *
+     * @see DbFile#iterator(TransactionId, List, int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, List<? extends TuplePredicate> predicates, int[] fields) {
+        return new HeapFileIterator(this, tid, 0, Integer.MAX_VALUE, predicates, fields);
+    }
+
+    /**
+     * Returns an iterator over the tuples of a range of pages of this file that satisfy the predicates, with only the
+     * given fields.
+     *
+     * @see #iterator(TransactionId, int, int)
+     * @see #iterator(TransactionId, List, int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage,
+                                   List<? extends TuplePredicate> predicates, int[] fields) {
+        if (firstPage < 0 || endPage <= firstPage) {
+            throw new IllegalArgumentException("invalid page range [" + firstPage + ", " + endPage + ")");
+        }
+        return new HeapFileIterator(this, tid, firstPage, endPage, predicates, fields);
+    }
+
+    private static final class HeapFileIterator extends AbstractDbFileIterator {
         private final HeapFile heapFile;
         private final TransactionId tid;
-        private Iterator<Tuple> it;
+        private final int firstPage;
+        private final int endPage;
+        private final PredicateCompiler.TupleFilter filter;
+        private final PredicateCompiler.TupleProjection projection;
+        private HeapPage page;
         private int whichPage;
+        private int slot;
 
-        public HeapFileIterator(HeapFile heapFile, TransactionId tid) {
+        public HeapFileIterator(HeapFile heapFile, TransactionId tid, int firstPage, int endPage,
+                                List<? extends TuplePredicate> predicates, int[] fields) {
             this.heapFile = heapFile;
             this.tid = tid;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+            this.filter = PredicateCompiler.compile(predicates, heapFile.getTupleDesc());
+            this.projection = PushdownIterator.compile(heapFile.getTupleDesc(), fields);
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            whichPage = 0;
-            it = getPageTuples(whichPage);
+            whichPage = firstPage;
+            page = getPage(whichPage);
+            slot = 0;
         }
 
-        private Iterator<Tuple> getPageTuples(int pageNumber) throws TransactionAbortedException, DbException {
+        private HeapPage getPage(int pageNumber) throws TransactionAbortedException, DbException {
             if (pageNumber < 0 || pageNumber >= heapFile.numPages()) {
                 throw new DbException(String.format("heapfile %d does not contain page %d!", pageNumber, heapFile.getId()));
             }
             HeapPageId pid = new HeapPageId(heapFile.getId(), pageNumber);
-            HeapPage page = (HeapPage) Database.getBufferPool()
+            return (HeapPage) Database.getBufferPool()
                 .getPage(tid, pid, Permissions.READ_ONLY);
-            return page.iterator();
         }
 
         @Override
-        public boolean hasNext() throws DbException, TransactionAbortedException {
-            if(it == null) {
-                return false;
-            }
-            if(it.hasNext()) {
-                return true;
-            } else {
-                if(whichPage < heapFile.numPages() - 1) {
-                    whichPage++;
-                    it = getPageTuples(whichPage);
-                    return it.hasNext();
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (page != null) {
+                // the page decoded its tuples when it was read, so the scan only visits the used slots
+                while (slot < page.numSlots) {
+                    int i = slot++;
+                    if (page.isSlotUsed(i) && filter.test(page.tuples[i])) {
+                        return projection == null ? page.tuples[i] : projection.project(page.tuples[i]);
+                    }
+                }
+                if (whichPage < Math.min(endPage, heapFile.numPages()) - 1) {
+                    page = getPage(++whichPage);
+                    slot = 0;
                 } else {
-                    return false;
+                    page = null;
                 }
             }
-        }
-
-        @Override
-        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            if(it == null || !it.hasNext()) {
-                throw new NoSuchElementException("iterator is not open or no more tuples");
-            }
-            return it.next();
+            return null;
         }
 
         @Override
@@ -229,9 +311,9 @@ public class HeapFile implements DbFile {
 
         @Override
         public void close() {
-            it = null;
+            super.close();
+            page = null;
             whichPage = 0;
         }
     }
 }
-
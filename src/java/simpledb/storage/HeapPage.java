@@ -12,6 +12,7 @@ import java.util.NoSuchElementException;
 import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
 /**
@@ -29,6 +30,8 @@ public class HeapPage implements Page {
     final byte[] header;
     final Tuple[] tuples;
     final int numSlots;
+    /** per-field dictionaries of dictionary-encoded string columns, or null if the table has none */
+    final StringDictionary[] dictionaries;
     byte[] oldData;
     private final Byte oldDataLock = (byte) 0;
     private boolean dirty;
@@ -52,6 +55,7 @@ public class HeapPage implements Page {
         this.td = Database.getCatalog()
             .getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
+        this.dictionaries = loadDictionaries(td, id.getTableId());
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
@@ -74,6 +78,30 @@ public class HeapPage implements Page {
         setBeforeImage();
     }
 
+    /**
+     * Looks up the dictionaries of the dictionary-encoded string columns of a table.
+     *
+     * @return an array indexed by field number, or null if no field of td is dictionary-encoded
+     */
+    private static StringDictionary[] loadDictionaries(TupleDesc td, int tableId) {
+        StringDictionary[] dicts = null;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) != Type.DICT_STRING_TYPE) {
+                continue;
+            }
+            if (dicts == null) {
+                dicts = new StringDictionary[td.numFields()];
+            }
+            DbFile f = Database.getCatalog()
+                .getDatabaseFile(tableId);
+            if (!(f instanceof HeapFile)) {
+                throw new IllegalArgumentException("dictionary-encoded columns are only supported in heap files");
+            }
+            dicts[i] = ((HeapFile) f).getDictionary(i);
+        }
+        return dicts;
+    }
+
     /**
      * Retrieve the number of tuples on this page.
      *
@@ -150,7 +178,7 @@ public class HeapPage implements Page {
         try {
             for (int j = 0; j < td.numFields(); j++) {
                 Field f = td.getFieldType(j)
-                    .parse(dis);
+                    .parse(dis, dictionaries == null ? null : dictionaries[j]);
                 t.setField(j, f);
             }
         } catch (java.text.ParseException e) {
@@ -276,6 +304,7 @@ public class HeapPage implements Page {
             .equals(td)) {
             throw new DbException("tuple desc mismatch");
         }
+        encodeDictionaryFields(t);
         for (int i = 0; i < numSlots; ++i) {
             if (!isSlotUsed(i)) {
                 tuples[i] = t;
@@ -287,6 +316,30 @@ public class HeapPage implements Page {
         throw new DbException("page is full");
     }
 
+    /**
+     * Replaces the values of dictionary-encoded columns of t that are not yet codes of this table's dictionaries, so
+     * that only codes are ever written to the page.
+     */
+    private void encodeDictionaryFields(Tuple t) throws DbException {
+        if (dictionaries == null) {
+            return;
+        }
+        for (int j = 0; j < dictionaries.length; j++) {
+            if (dictionaries[j] == null) {
+                continue;
+            }
+            Field f = t.getField(j);
+            if (f instanceof DictStringField && ((DictStringField) f).getDictionary() == dictionaries[j]) {
+                continue;
+            }
+            try {
+                t.setField(j, new DictStringField(dictionaries[j].encode(f.toString()), dictionaries[j]));
+            } catch (IOException e) {
+                throw new DbException("unable to add value to dictionary: " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction that did the dirtying
      */
@@ -335,6 +388,65 @@ public class HeapPage implements Page {
         return (bitIdx >> remainder & 1) == 1;
     }
 
+    /**
+     * @return the tuple in a slot of this page, or null if the slot is empty or doesn't exist
+     */
+    public Tuple getTuple(int i) {
+        return i >= 0 && i < numSlots && isSlotUsed(i) ? tuples[i] : null;
+    }
+
+    /**
+     * @return the number of slots on this page, used or not
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Writes the numbers of the used slots of this page to slots, in ascending order.
+     *
+     * @param slots an array with room for {@link #getNumSlots()} slot numbers
+     * @return the number of used slots
+     */
+    public int getUsedSlots(int[] slots) {
+        int n = 0;
+        for (int b = 0; b < header.length; b++) {
+            int bits = header[b] & 0xff;
+            while (bits != 0) {
+                int i = b * 8 + Integer.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (i < numSlots) {
+                    slots[n++] = i;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Copies a field of some tuples of this page into an array, such as a column of a batch.
+     *
+     * @param field the field, which must be of type INT
+     * @param slots the slots of the tuples, which must be used
+     * @param from the index in slots of the first tuple
+     * @param n the number of tuples
+     * @param dst the array the values are written to, starting at offset
+     */
+    public void copyInts(int field, int[] slots, int from, int n, int[] dst, int offset) {
+        for (int i = 0; i < n; i++) {
+            dst[offset + i] = ((IntField) tuples[slots[from + i]].getField(field)).getValue();
+        }
+    }
+
+    /**
+     * Copies a field of some tuples of this page into an array, like {@link #copyInts} does for INT fields.
+     */
+    public void copyFields(int field, int[] slots, int from, int n, Field[] dst, int offset) {
+        for (int i = 0; i < n; i++) {
+            dst[offset + i] = tuples[slots[from + i]].getField(field);
+        }
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
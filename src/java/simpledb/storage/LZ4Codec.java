@@ -0,0 +1,195 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+
+/**
+ * A small, pure-Java codec for the LZ4 block format. It is used by {@link CompressedHeapFile} to compress groups of
+ * pages. The encoder uses a single hash table of 4-byte sequences and does no lazy matching, which trades a little
+ * compression ratio for speed; fixed-width heap pages with zero-padded strings still compress very well.
+ * <p>
+ * A compressed block is a sequence of (token, literals, offset, match length) records, exactly as in the reference LZ4
+ * block format, so the decompressed length must be known to the caller.
+ */
+public final class LZ4Codec {
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 12;
+    private static final int MAX_OFFSET = 65535;
+    /** the last LAST_LITERALS bytes of a block are always encoded as literals */
+    private static final int LAST_LITERALS = 5;
+    /** a match can not start within the last MF_LIMIT bytes of a block */
+    private static final int MF_LIMIT = 12;
+    private static final int RUN_MASK = 15;
+
+    private LZ4Codec() {
+    }
+
+    /**
+     * @return the largest number of bytes compressing srcLen bytes may produce
+     */
+    public static int maxCompressedLength(int srcLen) {
+        return srcLen + srcLen / 255 + 16;
+    }
+
+    /**
+     * Compress the whole of src.
+     *
+     * @return a new array holding exactly the compressed bytes
+     */
+    public static byte[] compress(byte[] src) {
+        byte[] dst = new byte[maxCompressedLength(src.length)];
+        int len = compress(src, 0, src.length, dst, 0);
+        return Arrays.copyOf(dst, len);
+    }
+
+    /**
+     * Compress src[srcOff, srcOff + srcLen) into dst starting at dstOff. dst must have at least
+     * {@link #maxCompressedLength} bytes available.
+     *
+     * @return the number of bytes written to dst
+     */
+    public static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        int end = srcOff + srcLen;
+        int matchLimit = end - LAST_LITERALS;
+        int mfLimit = end - MF_LIMIT;
+        int anchor = srcOff;
+        int ip = srcOff;
+        int op = dstOff;
+
+        if (srcLen >= MF_LIMIT) {
+            int[] table = new int[1 << HASH_LOG];
+            Arrays.fill(table, -1);
+            while (ip < mfLimit) {
+                int seq = readInt(src, ip);
+                int h = hash(seq);
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                    ip++;
+                    continue;
+                }
+                // extend the match backwards into the pending literals
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLen = MIN_MATCH;
+                while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op);
+                ip += matchLen;
+                anchor = ip;
+            }
+        }
+
+        // the remaining bytes are written as a final literal run
+        int litLen = end - anchor;
+        int token = Math.min(litLen, RUN_MASK) << 4;
+        dst[op++] = (byte) token;
+        op = writeLength(litLen, dst, op);
+        System.arraycopy(src, anchor, dst, op, litLen);
+        op += litLen;
+        return op - dstOff;
+    }
+
+    /**
+     * Decompress src[srcOff, srcOff + srcLen) into dst[dstOff, dstOff + dstLen).
+     *
+     * @throws IllegalArgumentException if the compressed block is corrupt or does not decompress to exactly dstLen bytes
+     */
+    public static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) {
+        int ip = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int op = dstOff;
+        int dstEnd = dstOff + dstLen;
+        try {
+            while (ip < srcEnd) {
+                int token = src[ip++] & 0xFF;
+
+                int litLen = token >>> 4;
+                if (litLen == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                if (op + litLen > dstEnd || ip + litLen > srcEnd) {
+                    throw new IllegalArgumentException("corrupt lz4 block: literal run overflows");
+                }
+                System.arraycopy(src, ip, dst, op, litLen);
+                ip += litLen;
+                op += litLen;
+                if (ip >= srcEnd) {
+                    break; // the final literal run has no match part
+                }
+
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int matchLen = token & RUN_MASK;
+                if (matchLen == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOff || op + matchLen > dstEnd) {
+                    throw new IllegalArgumentException("corrupt lz4 block: bad match");
+                }
+                if (offset >= matchLen) {
+                    System.arraycopy(dst, ref, dst, op, matchLen);
+                    op += matchLen;
+                } else {
+                    // overlapping copy, e.g. a run of zero bytes
+                    for (int i = 0; i < matchLen; i++) {
+                        dst[op++] = dst[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("corrupt lz4 block: truncated input");
+        }
+        if (op != dstEnd) {
+            throw new IllegalArgumentException("corrupt lz4 block: expected " + dstLen + " bytes but got " + (op - dstOff));
+        }
+    }
+
+    private static int writeSequence(byte[] src, int litStart, int litLen, int offset, int matchLen, byte[] dst, int op) {
+        int ml = matchLen - MIN_MATCH;
+        int token = (Math.min(litLen, RUN_MASK) << 4) | Math.min(ml, RUN_MASK);
+        dst[op++] = (byte) token;
+        op = writeLength(litLen, dst, op);
+        System.arraycopy(src, litStart, dst, op, litLen);
+        op += litLen;
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        return writeLength(ml, dst, op);
+    }
+
+    /**
+     * Write the extra length bytes of a run whose length did not fit into the 4 bits of the token.
+     */
+    private static int writeLength(int len, byte[] dst, int op) {
+        if (len < RUN_MASK) {
+            return op;
+        }
+        len -= RUN_MASK;
+        while (len >= 255) {
+            dst[op++] = (byte) 255;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
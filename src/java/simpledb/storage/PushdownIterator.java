@@ -0,0 +1,83 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.PredicateCompiler;
+import simpledb.execution.TuplePredicate;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+
+/**
+ * Filters and projects the tuples of another DbFileIterator. This is how
+ * {@link DbFile#iterator(simpledb.transaction.TransactionId, List, int[])}
+ * pushes predicates and projections into files that don't evaluate them as
+ * they read their pages. The predicates and the projection are compiled
+ * with {@link PredicateCompiler}.
+ */
+public class PushdownIterator extends AbstractDbFileIterator {
+
+    private final DbFileIterator child;
+    private final PredicateCompiler.TupleFilter filter;
+    private final PredicateCompiler.TupleProjection projection;
+
+    /**
+     * @param child the tuples to filter
+     * @param td the TupleDesc of the tuples of child
+     * @param predicates the predicates the returned tuples satisfy
+     * @param fields the fields of the returned tuples, or null for all of them
+     */
+    public PushdownIterator(DbFileIterator child, TupleDesc td, List<? extends TuplePredicate> predicates,
+                            int[] fields) {
+        this.child = child;
+        this.filter = PredicateCompiler.compile(predicates, td);
+        this.projection = compile(td, fields);
+    }
+
+    /**
+     * @return the TupleDesc of the given fields of td, or td if fields is null
+     */
+    public static TupleDesc project(TupleDesc td, int[] fields) {
+        if (fields == null) {
+            return td;
+        }
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = td.getFieldType(fields[i]);
+            names[i] = td.getFieldName(fields[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the compiled projection of tuples with td onto fields, or null if fields is null
+     */
+    static PredicateCompiler.TupleProjection compile(TupleDesc td, int[] fields) {
+        return fields == null ? null : PredicateCompiler.compile(fields, project(td, fields));
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        child.rewind();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (filter.test(t)) {
+                return projection == null ? t : projection.project(t);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,166 @@
+package simpledb.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+import simpledb.common.DbException;
+import simpledb.execution.OpIterator;
+
+/**
+ * SpillFile is a temporary file that operators use to write tuples that don't fit into memory, e.g. the partitions of a
+ * hash join that exceeds its memory budget. Tuples are appended in their on-page format and can be read back, in the
+ * order they were written, through {@link #iterator()}.
+ * <p>
+ * Spill files are not part of the catalog and don't go through the BufferPool; they live in the system's temporary
+ * directory and are removed by {@link #delete()} or, at the latest, when the JVM exits.
+ */
+public class SpillFile {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private final StringDictionary[] dictionaries;
+    private DataOutputStream out;
+    private int numTuples;
+
+    /**
+     * Creates a new, empty spill file for tuples with the specified schema.
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".tmp");
+        this.file.deleteOnExit();
+        this.dictionaries = new StringDictionary[td.numFields()];
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    }
+
+    /**
+     * Appends a tuple.
+     *
+     * @throws IllegalStateException if the file is already being read
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null) {
+            throw new IllegalStateException("spill file is read-only once it has been read");
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            // dictionary codes can only be decoded with the dictionary of their column
+            if (dictionaries[i] == null && f instanceof DictStringField) {
+                dictionaries[i] = ((DictStringField) f).getDictionary();
+            }
+            f.serialize(out);
+        }
+        numTuples++;
+    }
+
+    /**
+     * @return the number of tuples in this file
+     */
+    public int numTuples() {
+        return numTuples;
+    }
+
+    /**
+     * @return the number of bytes written to this file
+     */
+    public long size() {
+        return (long) numTuples * td.getSize();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file. No more tuples can be added afterwards.
+     */
+    public OpIterator iterator() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new SpillFileIterator();
+    }
+
+    /**
+     * Deletes the file. Iterators of this file must be closed first.
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private class SpillFileIterator implements OpIterator {
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private int read;
+
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            } catch (IOException e) {
+                throw new DbException("unable to open spill file " + file + ": " + e.getMessage());
+            }
+            read = 0;
+        }
+
+        public boolean hasNext() {
+            if (in == null) {
+                throw new IllegalStateException("spill file iterator not open");
+            }
+            return read < numTuples;
+        }
+
+        public Tuple next() throws DbException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getFieldType(i).parse(in, dictionaries[i]));
+                }
+            } catch (ParseException e) {
+                throw new DbException("corrupt spill file " + file + ": " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                in = null;
+            }
+        }
+    }
+}
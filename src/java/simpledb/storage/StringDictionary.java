@@ -0,0 +1,119 @@
+package simpledb.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * StringDictionary maps the distinct values of one dictionary-encoded string column to dense int codes. Codes are
+ * assigned in insertion order and never change, so pages only need to store the code of each value.
+ * <p>
+ * The dictionary is append-only and is persisted to its own file: a new value is appended to the file before its code
+ * is handed out, so a page that references a code can never reach the disk before the dictionary entry does. Values
+ * added by transactions that later abort simply stay in the dictionary unused.
+ *
+ * @Threadsafe
+ * @see DictStringField
+ */
+public class StringDictionary {
+    /** The code returned by {@link #lookup} for values that are not in the dictionary. */
+    public static final int NO_CODE = -1;
+
+    private final File file;
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[16];
+    private volatile int size = 0;
+
+    /**
+     * Opens the dictionary stored in f, creating an empty one if f doesn't exist yet.
+     */
+    public StringDictionary(File f) throws IOException {
+        this.file = f;
+        if (f.exists()) {
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+                while (true) {
+                    String s;
+                    try {
+                        s = dis.readUTF();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    add(s);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the code of s, adding s to the dictionary if it is not there yet
+     */
+    public int encode(String s) throws IOException {
+        Integer code = codes.get(s);
+        if (code != null) {
+            return code;
+        }
+        synchronized (this) {
+            code = codes.get(s);
+            if (code != null) {
+                return code;
+            }
+            try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(file, true))) {
+                dos.writeUTF(s);
+            }
+            return add(s);
+        }
+    }
+
+    /**
+     * @return the code of s, or {@link #NO_CODE} if s is not in the dictionary
+     */
+    public int lookup(String s) {
+        Integer code = codes.get(s);
+        return code == null ? NO_CODE : code;
+    }
+
+    /**
+     * @return the value with the specified code
+     * @throws IllegalArgumentException if code is not a valid code of this dictionary
+     */
+    public String decode(int code) {
+        String[] vals = values;
+        if (code < 0 || code >= size) {
+            throw new IllegalArgumentException("unknown dictionary code " + code);
+        }
+        return vals[code];
+    }
+
+    /**
+     * @return the number of distinct values in the dictionary
+     */
+    public int size() {
+        return size;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private synchronized int add(String s) {
+        int code = size;
+        String[] vals = values;
+        if (code == vals.length) {
+            vals = Arrays.copyOf(vals, vals.length * 2);
+        }
+        vals[code] = s;
+        // publish the value before its code becomes visible
+        values = vals;
+        size = code + 1;
+        codes.put(s, code);
+        return code;
+    }
+}
@@ -45,6 +45,8 @@ public class StringField implements Field {
 	}
 
 	public boolean equals(Object field) {
+	    if (field instanceof DictStringField)
+	        return ((DictStringField) field).getValue().equals(value);
 	    if (!(field instanceof StringField)) return false;
 		return ((StringField) field).value.equals(value);
 	}
@@ -79,8 +81,9 @@ public class StringField implements Field {
 	 */
 	public boolean compare(Predicate.Op op, Field val) {
 
-		StringField iVal = (StringField) val;
-		int cmpVal = value.compareTo(iVal.value);
+		String other = val instanceof DictStringField ? ((DictStringField) val).getValue()
+				: ((StringField) val).value;
+		int cmpVal = value.compareTo(other);
 
 		switch (op) {
 		case EQUALS:
@@ -102,7 +105,7 @@ public class StringField implements Field {
 			return cmpVal <= 0;
 
 		case LIKE:
-			return value.contains(iVal.value);
+			return value.contains(other);
 		}
 
 		return false;
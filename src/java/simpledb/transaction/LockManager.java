@@ -64,8 +64,11 @@ public class LockManager {
         return true;
     }
 
-    public boolean holdsLock(TransactionId tid, PageId pid) {
+    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
         List<Lock> locks = map.get(pid);
+        if (locks == null) {
+            return false;
+        }
         for (Lock lock : locks) {
             if (lock.getTransactionId()
                 .equals(tid)) {
@@ -75,8 +78,12 @@ public class LockManager {
         return false;
     }
 
-    public void releaseLock(TransactionId tid, PageId pid) {
+    public synchronized void releaseLock(TransactionId tid, PageId pid) {
         List<Lock> locks = map.get(pid);
+        if (locks == null) {
+            // another transaction released the last lock on the page
+            return;
+        }
         for (Lock lock : locks) {
             if (lock.getTransactionId()
                 .equals(tid)) {
@@ -89,7 +96,7 @@ public class LockManager {
         }
     }
 
-    public void releaseAllLocks(TransactionId tid) {
+    public synchronized void releaseAllLocks(TransactionId tid) {
         for (PageId pid : map.keySet()) {
             releaseLock(tid, pid);
         }
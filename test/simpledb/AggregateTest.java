@@ -8,6 +8,7 @@ import junit.framework.JUnit4TestAdapter;
 import org.junit.Before;
 import org.junit.Test;
 
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.execution.Aggregate;
@@ -191,6 +192,21 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.open() with a sum that doesn't fit into an INT,
+   * while another group only exceeds the INT range on the way
+   */
+  @Test(expected = DbException.class) public void sumOverflow() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, 1,
+                    1, -2,
+                    3, Integer.MAX_VALUE,
+                    3, Integer.MAX_VALUE });
+    Aggregate op = new Aggregate(scan, 1, 0, Aggregator.Op.SUM);
+    op.open();
+  }
+
   /**
    * JUnit suite target
    */
@@ -86,6 +86,40 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		assertEquals(1, parent.getNumEntries());
 	}
 
+	@Test
+	public void testSplitRightmostLeafPageOnAppend() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile empty = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0, 3);
+		int tableid = empty.getId();
+		int keyField = 0;
+
+		// create the right-most leaf page and its parent
+		BTreePageId leftPageId = new BTreePageId(tableid, 2, BTreePageId.LEAF);
+		BTreeLeafPage leftPage = BTreeUtility.createRandomLeafPage(leftPageId, 2, keyField,
+				0, BTreeUtility.MAX_RAND_VALUE);
+		BTreePageId parentId = new BTreePageId(tableid, 1, BTreePageId.INTERNAL);
+		BTreeInternalPage parent = new BTreeInternalPage(parentId,
+				BTreeInternalPage.createEmptyPageData(), keyField);
+		leftPage.setParentId(parentId);
+
+		// a key past the last one only takes the last tuple along
+		Field field = new IntField(BTreeUtility.MAX_RAND_VALUE);
+		Field last = leftPage.reverseIterator().next().getField(keyField);
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		dirtypages.put(leftPageId, leftPage);
+		dirtypages.put(parentId, parent);
+		BTreeLeafPage page = empty.splitLeafPage(tid, dirtypages, leftPage, field);
+		assertNotSame(leftPage, page);
+		assertEquals(leftPageId, page.getLeftSiblingId());
+		assertEquals(1, page.getNumTuples());
+		assertEquals(last, page.iterator().next().getField(keyField));
+		assertEquals(BTreeUtility.getNumTuplesPerPage(2) - 1, leftPage.getNumTuples());
+		assertEquals(1, parent.getNumEntries());
+		assertEquals(last, parent.iterator().next().getKey());
+	}
+
 	@Test
 	public void testSplitInternalPages() throws Exception {
 		File emptyFile = File.createTempFile("empty", ".dat");
@@ -8,6 +8,7 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.BufferPool;
 import simpledb.storage.IntField;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -289,6 +290,54 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		page.deleteKeyAndRightChild(BTreeUtility.getBTreeEntry(2));
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.findChildId(), which must agree with a linear search of the entries, also
+	 * after entries are deleted
+	 */
+	@Test public void findChildId() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		checkFindChildId(page);
+
+		List<BTreeEntry> entries = new ArrayList<>();
+		Iterator<BTreeEntry> it = page.iterator();
+		while (it.hasNext())
+			entries.add(it.next());
+		page.deleteKeyAndLeftChild(entries.get(3));
+		page.deleteKeyAndRightChild(entries.get(10));
+		page.deleteKeyAndRightChild(entries.get(entries.size() - 1));
+		checkFindChildId(page);
+
+		for (BTreeEntry e : entries.subList(0, 3))
+			page.deleteKeyAndRightChild(e);
+		checkFindChildId(page);
+	}
+
+	private static void checkFindChildId(BTreeInternalPage page) {
+		List<Integer> probes = new ArrayList<>();
+		probes.add(Integer.MIN_VALUE);
+		probes.add(Integer.MAX_VALUE);
+		for (int[] entry : EXAMPLE_VALUES) {
+			probes.add(entry[1] - 1);
+			probes.add(entry[1]);
+			probes.add(entry[1] + 1);
+		}
+		for (int probe : probes) {
+			IntField key = new IntField(probe);
+			BTreePageId expected = null;
+			Iterator<BTreeEntry> it = page.iterator();
+			while (it.hasNext()) {
+				BTreeEntry e = it.next();
+				expected = e.getRightChild();
+				if (key.compare(Predicate.Op.LESS_THAN_OR_EQ, e.getKey())) {
+					expected = e.getLeftChild();
+					break;
+				}
+			}
+			assertEquals(String.valueOf(probe), expected, page.findChildId(key));
+		}
+		assertEquals(page.iterator().next().getLeftChild(), page.findChildId(null));
+	}
+
 	/**
 	 * Unit test for BTreeInternalPage.deleteEntry()
 	 */
@@ -0,0 +1,171 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class BTreeLatchTest extends SimpleDbTestBase {
+
+	private static int count(BTreeFile bf, TransactionId tid, IndexPredicate ipred) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, ipred);
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	/**
+	 * A search only latches the internal pages it descends through, so a split of their children doesn't wait for
+	 * the searching transaction to complete.
+	 */
+	@Test public void splitDoesNotWaitForReaders() throws Exception {
+		// a packed B+ tree, in which every insert splits a leaf
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 50000, null, null, 0);
+		BufferPool bp = Database.resetBufferPool(500);
+
+		TransactionId reader = new TransactionId();
+		assertTrue(count(bf, reader, new IndexPredicate(Op.LESS_THAN, new IntField(100))) > 0);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.getPageWithoutLock(BTreeRootPtrPage.getId(bf.getId()));
+		BTreePageId rootId = rootPtr.getRootId();
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+		assertFalse(bp.holdsLock(reader, rootPtr.getId()));
+		assertFalse(bp.holdsLock(reader, rootId));
+
+		// the last leaf may have room, the ones in the middle don't
+		int key = BTreeUtility.MAX_RAND_VALUE / 2;
+		TransactionId writer = new TransactionId();
+		int pages = bf.numPages();
+		for (int i = 0; i < 10; i++) {
+			bp.insertTuple(writer, bf.getId(), BTreeUtility.getBTreeTuple(key, 2));
+		}
+		assertTrue(bf.numPages() > pages);
+		bp.transactionComplete(writer);
+		bp.transactionComplete(reader);
+
+		TransactionId tid = new TransactionId();
+		assertTrue(count(bf, tid, new IndexPredicate(Op.EQUALS, new IntField(key))) >= 10);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * A split that needs a page another transaction has locked waits for the lock without holding its latches, so the
+	 * other transaction can still search the tree and complete, and then the split goes through.
+	 */
+	@Test public void splitWaitsForLocksWithoutLatches() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 50000, null, null, 0);
+		BufferPool bp = Database.resetBufferPool(500);
+
+		// in a packed B+ tree, the splits from two leaves both change the top of the tree
+		int key = BTreeUtility.MAX_RAND_VALUE / 2;
+		TransactionId holder = new TransactionId();
+		int pages = bf.numPages();
+		bp.insertTuple(holder, bf.getId(), BTreeUtility.getBTreeTuple(key, 2));
+		assertTrue(bf.numPages() > pages);
+
+		int otherKey = BTreeUtility.MAX_RAND_VALUE / 4;
+		TransactionId splitter = new TransactionId();
+		AtomicReference<Exception> error = new AtomicReference<>();
+		Thread t = new Thread(() -> {
+			try {
+				bp.insertTuple(splitter, bf.getId(), BTreeUtility.getBTreeTuple(otherKey, 2));
+			} catch (Exception e) {
+				error.set(e);
+			}
+		});
+		t.start();
+		Thread.sleep(100);
+		assertTrue(count(bf, holder, new IndexPredicate(Op.EQUALS, new IntField(key))) >= 1);
+		bp.transactionComplete(holder);
+		t.join();
+		if (error.get() != null) {
+			throw error.get();
+		}
+		bp.transactionComplete(splitter);
+
+		TransactionId tid = new TransactionId();
+		assertTrue(count(bf, tid, new IndexPredicate(Op.EQUALS, new IntField(otherKey))) >= 1);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * Threads inserting into distinct key ranges split leaves and internal pages at the same time; an insert is only
+	 * retried if its transaction was aborted, and none of them are lost.
+	 */
+	@Test public void concurrentInsertsInDistinctRanges() throws Exception {
+		final int threads = 4;
+		final int perThread = 500;
+		final int range = BTreeUtility.MAX_RAND_VALUE / threads;
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, null, null, 0);
+		BufferPool bp = Database.resetBufferPool(1000);
+
+		AtomicReference<Exception> error = new AtomicReference<>();
+		List<Thread> inserters = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			final int base = i * range;
+			inserters.add(new Thread(() -> {
+				Random rand = new Random(base);
+				try {
+					for (int j = 0; j < perThread; ) {
+						TransactionId tid = new TransactionId();
+						try {
+							bp.insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(base + rand.nextInt(range), 2));
+							bp.transactionComplete(tid);
+							j++;
+						} catch (TransactionAbortedException e) {
+							bp.transactionComplete(tid, false);
+						}
+					}
+				} catch (Exception e) {
+					error.compareAndSet(null, e);
+				}
+			}));
+		}
+		for (Thread t : inserters) {
+			t.start();
+		}
+		for (Thread t : inserters) {
+			t.join();
+		}
+		if (error.get() != null) {
+			throw error.get();
+		}
+
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+		assertEquals(10000 + threads * perThread, count(bf, tid, new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(0))));
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeLatchTest.class);
+	}
+
+}
@@ -196,6 +196,54 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.iterator(Field, boolean), also after tuples are deleted and inserted
+	 */
+	@Test public void testIteratorFrom() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		checkIteratorFrom(page);
+
+		Iterator<Tuple> it = page.iterator();
+		for (int i = 0; i < 5; i++)
+			page.deleteTuple(it.next());
+		checkIteratorFrom(page);
+
+		Tuple tup = new Tuple(Utility.getTupleDesc(2));
+		tup.setField(0, new IntField(29402));
+		tup.setField(1, new IntField(1));
+		page.insertTuple(tup);
+		checkIteratorFrom(page);
+	}
+
+	private static void checkIteratorFrom(BTreeLeafPage page) {
+		List<Integer> keys = new ArrayList<>();
+		Iterator<Tuple> it = page.iterator();
+		while (it.hasNext())
+			keys.add(((IntField) it.next().getField(0)).getValue());
+
+		List<Integer> probes = new ArrayList<>();
+		probes.add(Integer.MIN_VALUE);
+		probes.add(Integer.MAX_VALUE);
+		for (int[] tuple : EXAMPLE_VALUES) {
+			probes.add(tuple[0] - 1);
+			probes.add(tuple[0]);
+			probes.add(tuple[0] + 1);
+		}
+		for (int probe : probes) {
+			for (boolean inclusive : new boolean[]{true, false}) {
+				List<Integer> expected = new ArrayList<>();
+				for (int key : keys)
+					if (key > probe || (inclusive && key == probe))
+						expected.add(key);
+				List<Integer> actual = new ArrayList<>();
+				it = page.iterator(new IntField(probe), inclusive);
+				while (it.hasNext())
+					actual.add(((IntField) it.next().getField(0)).getValue());
+				assertEquals(probe + " " + inclusive, expected, actual);
+			}
+		}
+	}
+
 	/**
 	 * Unit test for BTreeLeafPage.getNumEmptySlots()
 	 */
@@ -0,0 +1,181 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private List<List<Integer>> tuples;
+    private HeapFile hf;
+    private CompressedHeapFile chf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, tuples);
+        File out = File.createTempFile("table", ".lz4");
+        out.deleteOnExit();
+        new File(out.getPath() + ".idx").deleteOnExit();
+        CompressedHeapFile.convert(hf.getFile(), out, 3);
+        chf = new CompressedHeapFile(out, hf.getTupleDesc());
+        Database.getCatalog().addTable(chf, "compressed");
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void codecRoundTrip() {
+        Random r = new Random(1);
+        byte[][] inputs = new byte[][]{
+                new byte[0],
+                new byte[]{1, 2, 3},
+                new byte[10000],
+                new byte[4096],
+                new byte[70000]
+        };
+        r.nextBytes(inputs[3]);
+        for (int i = 0; i < inputs[4].length; i++) {
+            inputs[4][i] = (byte) (i % 300 < 20 ? r.nextInt(4) : 0);
+        }
+        for (byte[] in : inputs) {
+            byte[] compressed = LZ4Codec.compress(in);
+            byte[] out = new byte[in.length];
+            LZ4Codec.decompress(compressed, 0, compressed.length, out, 0, out.length);
+            assertArrayEquals(in, out);
+        }
+        assertTrue(LZ4Codec.compress(inputs[2]).length < 100);
+    }
+
+    @Test
+    public void readMatchesHeapFile() throws Exception {
+        assertEquals(hf.numPages(), chf.numPages());
+        assertEquals(3, chf.getGroupSize());
+        assertTrue(chf.getCompressionRatio() > 1.0);
+        for (int i = 0; i < hf.numPages(); i++) {
+            byte[] expected = hf.readPage(new HeapPageId(hf.getId(), i)).getPageData();
+            byte[] actual = chf.readPage(new HeapPageId(chf.getId(), i)).getPageData();
+            assertArrayEquals(expected, actual);
+        }
+        SystemTestUtil.matchTuples(chf, tuples);
+    }
+
+    @Test
+    public void insertAndReopen() throws Exception {
+        for (int i = 0; i < 600; i++) {
+            Tuple t = Utility.getHeapTuple(new int[]{i, -i});
+            Database.getBufferPool().insertTuple(tid, chf.getId(), t);
+            tuples.add(Arrays.asList(i, -i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        int pages = chf.numPages();
+        assertTrue(pages > hf.numPages());
+
+        CompressedHeapFile reopened = new CompressedHeapFile(chf.getFile(), chf.getTupleDesc());
+        assertEquals(pages, reopened.numPages());
+        Database.getCatalog().addTable(reopened, "compressed");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(reopened, tid, tuples);
+    }
+
+    @Test
+    public void rewritesReuseSpace() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        byte[] random = new byte[pageSize];
+        new Random(2).nextBytes(random);
+        HeapPageId last = null;
+        byte[] lastData = null;
+        for (int i = 0; i < 300; i++) {
+            // alternate between incompressible and empty pages, so that extents have to move
+            HeapPageId pid = new HeapPageId(chf.getId(), (i * 7) % chf.numPages());
+            byte[] data = i % 2 == 0 ? random : HeapPage.createEmptyPageData();
+            chf.writePage(new HeapPage(pid, data));
+            last = pid;
+            lastData = data;
+        }
+        chf.getDataFile().deleteOnExit();
+        assertTrue(chf.getDataFile().length() <= 3L * chf.numPages() * pageSize);
+
+        CompressedHeapFile reopened = new CompressedHeapFile(chf.getFile(), chf.getTupleDesc());
+        assertArrayEquals(lastData, reopened.readPage(last).getPageData());
+    }
+
+    /**
+     * Compaction writes the extents to a data file of a new generation, and deletes the old one only once the index
+     * names the new one.
+     */
+    @Test
+    public void compactionSwitchesDataFile() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        byte[] random = new byte[pageSize];
+        new Random(3).nextBytes(random);
+        int groupSize = chf.getGroupSize();
+        HeapPageId[] pids = null;
+        byte[] data = null;
+        for (int round = 0; round < 10 && chf.getDataFile().equals(chf.getFile()); round++) {
+            // two new groups of empty pages, whose extents start out tiny
+            int first = (chf.numPages() + groupSize - 1) / groupSize * groupSize;
+            pids = new HeapPageId[]{new HeapPageId(chf.getId(), first), new HeapPageId(chf.getId(), first + groupSize)};
+            for (int i = chf.numPages(); i < first + 2 * groupSize; i++) {
+                chf.writePage(new HeapPage(new HeapPageId(chf.getId(), i), HeapPage.createEmptyPageData()));
+            }
+            // incompressible prefixes that outgrow the room of their extents, written to the two groups in turn so
+            // that neither extent is the last one of the file, which would grow in place
+            for (int len = 16; len <= pageSize && chf.getDataFile().equals(chf.getFile()); len = len * 13 / 10) {
+                data = Arrays.copyOf(Arrays.copyOf(random, len), pageSize);
+                for (HeapPageId pid : pids) {
+                    chf.writePage(new HeapPage(pid, data));
+                }
+            }
+        }
+        File dataFile = chf.getDataFile();
+        dataFile.deleteOnExit();
+        assertNotEquals(chf.getFile(), dataFile);
+        assertFalse(chf.getFile().exists());
+        List<byte[]> written = new ArrayList<>();
+        for (HeapPageId pid : pids) {
+            HeapPage page = new HeapPage(pid, data);
+            chf.writePage(page);
+            written.add(page.getPageData());
+        }
+
+        CompressedHeapFile reopened = new CompressedHeapFile(chf.getFile(), chf.getTupleDesc());
+        assertEquals(dataFile, reopened.getDataFile());
+        for (int i = 0; i < pids.length; i++) {
+            assertArrayEquals(written.get(i), reopened.readPage(pids[i]).getPageData());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void convertIntoItself() throws Exception {
+        CompressedHeapFile.convert(hf.getFile(), new File(hf.getFile().getParentFile(), "./" + hf.getFile().getName()), 3);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
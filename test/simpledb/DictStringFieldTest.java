@@ -0,0 +1,122 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class DictStringFieldTest extends SimpleDbTestBase {
+    private static final String[] STATUSES = {"open", "closed", "pending"};
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Creates a table (id int, status dictstring) with 300 rows cycling through STATUSES.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("dict", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".1.dict").deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.DICT_STRING_TYPE}, new String[]{"id", "status"});
+        hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, "orders");
+
+        tid = new TransactionId();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(STATUSES[i % STATUSES.length], Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void storesCodes() throws Exception {
+        assertEquals(8, hf.getTupleDesc().getSize());
+        assertEquals(1, hf.numPages());
+        StringDictionary dict = hf.getDictionary(1);
+        assertEquals(STATUSES.length, dict.size());
+        assertEquals("closed", dict.decode(dict.lookup("closed")));
+        assertEquals(StringDictionary.NO_CODE, dict.lookup("missing"));
+
+        // the dictionary survives reopening the table
+        StringDictionary reopened = new StringDictionary(dict.getFile());
+        assertEquals(dict.lookup("pending"), reopened.lookup("pending"));
+    }
+
+    @Test
+    public void fieldSemantics() throws Exception {
+        StringDictionary dict = hf.getDictionary(1);
+        DictStringField open = new DictStringField(dict.lookup("open"), dict);
+        DictStringField closed = new DictStringField(dict.lookup("closed"), dict);
+        StringField plain = new StringField("open", Type.STRING_LEN);
+
+        assertEquals(open, plain);
+        assertEquals(plain, open);
+        assertEquals(plain.hashCode(), open.hashCode());
+        assertTrue(open.compare(Predicate.Op.GREATER_THAN, closed));
+        assertTrue(open.compare(Predicate.Op.EQUALS, plain));
+        assertTrue(closed.compare(Predicate.Op.NOT_EQUALS, open));
+        assertEquals("open", open.toString());
+    }
+
+    @Test
+    public void filterAndGroupBy() throws Exception {
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("closed", Type.STRING_LEN)), new SeqScan(tid, hf.getId()));
+        filter.open();
+        int count = 0;
+        while (filter.hasNext()) {
+            Tuple t = filter.next();
+            assertEquals("closed", t.getField(1).toString());
+            count++;
+        }
+        filter.close();
+        assertEquals(100, count);
+
+        Filter none = new Filter(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("missing", Type.STRING_LEN)), new SeqScan(tid, hf.getId()));
+        none.open();
+        assertFalse(none.hasNext());
+        none.close();
+
+        Aggregate agg = new Aggregate(new SeqScan(tid, hf.getId()), 1, 1, Aggregator.Op.COUNT);
+        agg.open();
+        Map<String, Integer> counts = new HashMap<>();
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            counts.put(t.getField(0).toString(), ((IntField) t.getField(1)).getValue());
+        }
+        agg.close();
+        assertEquals(3, counts.size());
+        assertEquals(Integer.valueOf(100), counts.get("pending"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictStringFieldTest.class);
+    }
+}
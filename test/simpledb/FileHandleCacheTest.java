@@ -0,0 +1,141 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class FileHandleCacheTest extends SimpleDbTestBase {
+    private FileHandleCache cache;
+    private List<File> files;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        cache = new FileHandleCache(2);
+        files = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            File f = File.createTempFile("handle", ".dat");
+            f.deleteOnExit();
+            files.add(f);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        cache.closeAll();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        for (File f : files) {
+            try (FileHandleCache.Handle h = cache.acquire(f, false)) {
+                h.write(0, new byte[]{1, 2, 3});
+            }
+        }
+        assertEquals(2, cache.getOpenFiles());
+        assertEquals(4, cache.getOpens());
+
+        // the two most recently used files are still open
+        try (FileHandleCache.Handle h = cache.acquire(files.get(3), false)) {
+            byte[] data = new byte[3];
+            assertEquals(3, h.read(0, data));
+            assertArrayEquals(new byte[]{1, 2, 3}, data);
+        }
+        assertEquals(1, cache.getHits());
+
+        // an evicted file is simply reopened
+        try (FileHandleCache.Handle h = cache.acquire(files.get(0), false)) {
+            assertEquals(3, h.length());
+        }
+        assertEquals(5, cache.getOpens());
+    }
+
+    @Test
+    public void pinnedHandlesAreNotClosed() throws Exception {
+        FileHandleCache.Handle first = cache.acquire(files.get(0), false);
+        FileHandleCache.Handle second = cache.acquire(files.get(1), false);
+        try (FileHandleCache.Handle third = cache.acquire(files.get(2), false)) {
+            assertEquals(3, cache.getOpenFiles());
+            first.write(0, new byte[]{42});
+        }
+        first.close();
+        second.close();
+        assertEquals(2, cache.getOpenFiles());
+        assertEquals(1, files.get(0).length());
+    }
+
+    @Test(expected = java.io.FileNotFoundException.class)
+    public void missingFile() throws Exception {
+        cache.acquire(new File(files.get(0).getPath() + ".missing"), false);
+    }
+
+    @Test
+    public void recreatedFileGetsNewHandle() throws Exception {
+        File f = files.get(0);
+        try (FileHandleCache.Handle h = cache.acquire(f, false)) {
+            h.write(0, new byte[]{1});
+        }
+        cache.invalidate(f);
+        assertTrue(f.delete());
+        try (FileHandleCache.Handle h = cache.acquire(f, true)) {
+            assertEquals(0, h.length());
+        }
+    }
+
+    /**
+     * Reusing a handle doesn't look at the file, so a file deleted without invalidating it is only noticed once the
+     * handle is due to be checked again.
+     */
+    @Test
+    public void hitsCheckTheFilePeriodically() throws Exception {
+        File f = files.get(0);
+        try (FileHandleCache.Handle h = cache.acquire(f, false)) {
+            h.write(0, new byte[]{1});
+        }
+        assertTrue(f.delete());
+        try (FileHandleCache.Handle h = cache.acquire(f, false)) {
+            assertEquals(1, h.length());
+        }
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getOpens());
+
+        Thread.sleep(FileHandleCache.VALIDATE_INTERVAL_MILLIS + 100);
+        try (FileHandleCache.Handle h = cache.acquire(f, true)) {
+            assertEquals(0, h.length());
+        }
+        assertEquals(2, cache.getOpens());
+    }
+
+    @Test
+    public void evictionKeepsBufferPoolPages() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Page before = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+
+        Database.getFileHandleCache().invalidate(hf.getFile());
+        assertSame(before, Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY));
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileHandleCacheTest.class);
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+import simpledb.execution.IntHashTable;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IntHashTableTest extends SimpleDbTestBase {
+
+    private static List<Integer> rowsFor(IntHashTable table, int key) {
+        List<Integer> rows = new ArrayList<>();
+        for (int row = table.first(key); row != IntHashTable.NO_ROW; row = table.next(row)) {
+            rows.add(row);
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    @Test
+    public void duplicateKeys() {
+        IntHashTable table = new IntHashTable(6);
+        int[] keys = {5, -3, 5, 0, 5, Integer.MIN_VALUE};
+        for (int i = 0; i < keys.length; i++) {
+            table.add(keys[i], i);
+        }
+        assertEquals(6, table.size());
+        assertEquals(Arrays.asList(0, 2, 4), rowsFor(table, 5));
+        assertEquals(Arrays.asList(1), rowsFor(table, -3));
+        assertEquals(Arrays.asList(3), rowsFor(table, 0));
+        assertEquals(Arrays.asList(5), rowsFor(table, Integer.MIN_VALUE));
+        assertEquals(IntHashTable.NO_ROW, table.first(6));
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(IntHashTable.NO_ROW, table.first(5));
+    }
+
+    @Test
+    public void growsBeyondExpectedRows() {
+        IntHashTable table = new IntHashTable(1);
+        Random r = new Random(7);
+        Map<Integer, List<Integer>> expected = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            int key = r.nextInt(3000) - 1500;
+            table.add(key, i);
+            expected.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+        }
+        assertEquals(10000, table.size());
+        for (Map.Entry<Integer, List<Integer>> e : expected.entrySet()) {
+            assertEquals(e.getValue(), rowsFor(table, e.getKey()));
+        }
+        assertEquals(IntHashTable.NO_ROW, table.first(5000));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHashTableTest.class);
+    }
+}
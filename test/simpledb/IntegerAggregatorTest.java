@@ -130,6 +130,75 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test that a sum whose running total leaves the INT range comes out exact
+   */
+  @Test public void sumOverflowsIntermediate() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE,
+                    1, -Integer.MAX_VALUE,
+                    2, Integer.MIN_VALUE,
+                    2, -1,
+                    2, 1 });
+    scan.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE, 2, Integer.MIN_VALUE }), it);
+  }
+
+  /**
+   * Test that an average of large values is computed from the exact sum
+   */
+  @Test public void avgOfLargeValues() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE - 2,
+                    1, Integer.MAX_VALUE - 4,
+                    2, Integer.MIN_VALUE,
+                    2, Integer.MIN_VALUE });
+    scan.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE - 2, 2, Integer.MIN_VALUE }), it);
+  }
+
+  /**
+   * Test many groups, so that the accumulator arrays have to grow
+   */
+  @Test public void manyGroups() throws Exception {
+    int groups = 1000;
+    int[] input = new int[groups * 3 * 2];
+    int[] expected = new int[groups * 2];
+    for (int i = 0; i < groups * 3; i++) {
+      input[2 * i] = i % groups;
+      input[2 * i + 1] = i;
+    }
+    for (int g = 0; g < groups; g++) {
+      expected[2 * g] = g;
+      expected[2 * g + 1] = 3;
+    }
+    OpIterator scan = TestUtil.createTupleList(width1, input);
+    scan.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected), it);
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
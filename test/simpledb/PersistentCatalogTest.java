@@ -0,0 +1,154 @@
+package simpledb;
+
+import simpledb.common.Catalog;
+import simpledb.common.CatalogFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class PersistentCatalogTest extends SimpleDbTestBase {
+    private File dir;
+    private File catalogFile;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        dir = Files.createTempDirectory("catalog").toFile();
+        catalogFile = new File(dir, "catalog.bin");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void createReopenAndDrop() throws Exception {
+        Catalog catalog = Database.getCatalog();
+        catalog.writeCatalog(catalogFile.getPath());
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE}, new String[]{"id", "name"});
+        int users = catalog.createTable("users", td, "id");
+        int orders = catalog.createTable("orders", Utility.getTupleDesc(3), "");
+        assertNotEquals(users, orders);
+        assertEquals(users, catalog.getDatabaseFile(users).getId());
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(7));
+        t.setField(1, new StringField("seven", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, users, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        catalog.addIndex(users, new CatalogFile.IndexDefinition("users_name", "name", "users.name.idx"));
+
+        // reopen from disk: ids, schemas and indexes come back unchanged
+        Catalog reopened = new Catalog();
+        reopened.openCatalog(catalogFile.getPath());
+        assertEquals(users, reopened.getTableId("users"));
+        assertEquals(orders, reopened.getTableId("orders"));
+        assertEquals(td, reopened.getTupleDesc(users));
+        assertEquals("name", reopened.getTupleDesc(users).getFieldName(1));
+        assertEquals("id", reopened.getPrimaryKey(users));
+        CatalogFile.TableDefinition def = reopened.getTableDefinition(users);
+        assertEquals(CatalogFile.Kind.HEAP, def.getKind());
+        assertEquals("users.dat", def.getFileName());
+        assertEquals(1, def.getIndexes().size());
+        assertEquals("name", def.getIndexes().get(0).fieldName);
+
+        HeapFile hf = (HeapFile) reopened.getDatabaseFile(users);
+        assertEquals(users, hf.getId());
+        assertEquals(1, hf.numPages());
+
+        // new tables never reuse ids
+        catalog.dropTable("orders");
+        assertFalse(new File(dir, "orders.dat").exists());
+        int items = catalog.createTable("items", Utility.getTupleDesc(1), "");
+        assertNotEquals(orders, items);
+
+        reopened = new Catalog();
+        reopened.openCatalog(catalogFile.getPath());
+        try {
+            reopened.getTableId("orders");
+            fail("dropped table should be gone");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        assertEquals(items, reopened.getTableId("items"));
+    }
+
+    @Test
+    public void convertTextSchema() throws Exception {
+        try (FileWriter w = new FileWriter(new File(dir, "schema.txt"))) {
+            w.write("a (x int pk, y string)\n");
+        }
+        Catalog catalog = new Catalog();
+        catalog.loadSchema(new File(dir, "schema.txt").getPath());
+        int id = catalog.getTableId("a");
+        catalog.writeCatalog(catalogFile.getPath());
+        assertTrue(CatalogFile.isCatalogFile(catalogFile));
+        assertFalse(CatalogFile.isCatalogFile(new File(dir, "schema.txt")));
+
+        // the table keeps its id even after the directory is moved
+        File moved = new File(dir.getPath() + "-moved");
+        assertTrue(dir.renameTo(moved));
+        dir = moved;
+        Catalog reopened = new Catalog();
+        reopened.openCatalog(new File(moved, "catalog.bin").getPath());
+        assertEquals(id, reopened.getTableId("a"));
+        assertEquals("x", reopened.getPrimaryKey(id));
+        assertEquals(new File(moved, "a.dat").getAbsoluteFile(),
+                ((HeapFile) reopened.getDatabaseFile(id)).getFile().getAbsoluteFile());
+    }
+
+    @Test
+    public void textSchemaOpensTablesLazily() throws Exception {
+        try (FileWriter w = new FileWriter(new File(dir, "schema.txt"))) {
+            w.write("a (x int)\nb (y int, z int)\n");
+        }
+        Catalog catalog = new Catalog();
+        catalog.loadSchema(new File(dir, "schema.txt").getPath());
+        // b.dat doesn't exist, but its schema is known without opening it
+        int id = catalog.getTableId("b");
+        assertEquals(new File(dir, "b.dat").getAbsoluteFile().hashCode(), id);
+        assertEquals(2, catalog.getTupleDesc(id).numFields());
+        assertFalse(new File(dir, "b.dat").exists());
+        DbFile f = catalog.getDatabaseFile(id);
+        assertEquals(id, f.getId());
+        assertSame(f, catalog.getDatabaseFile(id));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTextSchema() throws Exception {
+        try (FileWriter w = new FileWriter(new File(dir, "schema.txt"))) {
+            w.write("a (x float)\n");
+        }
+        new Catalog().loadSchema(new File(dir, "schema.txt").getPath());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PersistentCatalogTest.class);
+    }
+}
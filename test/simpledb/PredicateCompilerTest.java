@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Disjunction;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.PredicateCompiler;
+import simpledb.execution.TuplePredicate;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+  // constants pushed with iconst, bipush, sipush and ldc
+  private static final int[] CONSTANTS = { -1, 3, 100, -1000, 70000 };
+
+  private static Tuple tuple(int... values) {
+    return Utility.getHeapTuple(values);
+  }
+
+  private static Tuple mixed(int i, String s) {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(i));
+    t.setField(1, new StringField(s, Type.STRING_LEN));
+    return t;
+  }
+
+  /**
+   * Compiled predicates agree with Predicate.filter for every operator.
+   */
+  @Test public void filter() {
+    TupleDesc td = Utility.getTupleDesc(8);
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int c : CONSTANTS) {
+        Predicate p = new Predicate(7, op, new IntField(c));
+        PredicateCompiler.TupleFilter f = PredicateCompiler.compile(Collections.singletonList(p), td);
+        for (int v : new int[] { c - 1, c, c + 1 }) {
+          Tuple t = tuple(0, 0, 0, 0, 0, 0, 0, v);
+          assertEquals(op + " " + c + " on " + v, p.filter(t), f.test(t));
+        }
+      }
+    }
+  }
+
+  /**
+   * A conjunction passes only the tuples that satisfy all its predicates,
+   * including predicates over strings.
+   */
+  @Test public void conjunction() {
+    TupleDesc td = mixed(0, "").getTupleDesc();
+    List<Predicate> ps = Arrays.asList(
+        new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1)),
+        new Predicate(1, Predicate.Op.EQUALS, new StringField("b", Type.STRING_LEN)),
+        new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(5)));
+    PredicateCompiler.TupleFilter f = PredicateCompiler.compile(ps, td);
+    assertTrue(f.test(mixed(2, "b")));
+    assertTrue(f.test(mixed(5, "b")));
+    assertFalse(f.test(mixed(1, "b")));
+    assertFalse(f.test(mixed(6, "b")));
+    assertFalse(f.test(mixed(3, "a")));
+    assertTrue(PredicateCompiler.compile(Collections.<Predicate>emptyList(), td).test(mixed(0, "")));
+  }
+
+  /**
+   * A disjunction in a conjunction is evaluated by calling it, and one with
+   * a single alternative is compiled as the conjunction of its predicates.
+   */
+  @Test public void disjunction() {
+    TupleDesc td = Utility.getTupleDesc(2);
+    Disjunction or = new Disjunction(Arrays.asList(
+        Collections.singletonList(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0))),
+        Collections.singletonList(new Predicate(1, Predicate.Op.EQUALS, new IntField(7)))));
+    Disjunction and = new Disjunction(Collections.singletonList(Arrays.asList(
+        new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(-10)),
+        new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(8)))));
+    List<TuplePredicate> ps = Arrays.asList(or, and);
+    PredicateCompiler.TupleFilter f = PredicateCompiler.compile(ps, td);
+    for (int a = -12; a <= 2; a++) {
+      for (int b = 6; b <= 9; b++) {
+        Tuple t = tuple(a, b);
+        assertEquals(a + ", " + b, or.filter(t) && and.filter(t), f.test(t));
+      }
+    }
+  }
+
+  /**
+   * Predicates of the same shape share their compiled class.
+   */
+  @Test public void cachedByShape() {
+    TupleDesc td = Utility.getTupleDesc(2);
+    PredicateCompiler.TupleFilter a = PredicateCompiler.compile(Collections.singletonList(
+        new Predicate(1, Predicate.Op.LESS_THAN, new IntField(10))), td);
+    PredicateCompiler.TupleFilter b = PredicateCompiler.compile(Collections.singletonList(
+        new Predicate(1, Predicate.Op.LESS_THAN, new IntField(20))), td);
+    PredicateCompiler.TupleFilter c = PredicateCompiler.compile(Collections.singletonList(
+        new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20))), td);
+    assertSame(a.getClass(), b.getClass());
+    assertNotSame(a.getClass(), c.getClass());
+    assertFalse(a.test(tuple(0, 15)));
+    assertTrue(b.test(tuple(0, 15)));
+  }
+
+  /**
+   * Compiled join predicates agree with JoinPredicate.filter.
+   */
+  @Test public void join() {
+    TupleDesc td = Utility.getTupleDesc(2);
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate p = new JoinPredicate(1, op, 0);
+      PredicateCompiler.JoinFilter f = PredicateCompiler.compile(Collections.singletonList(p), td, td);
+      for (int v = -1; v <= 1; v++) {
+        Tuple left = tuple(9, v);
+        Tuple right = tuple(0, 9);
+        assertEquals(op + " on " + v, p.filter(left, right), f.test(left, right));
+      }
+    }
+
+    TupleDesc mixedTd = mixed(0, "").getTupleDesc();
+    JoinPredicate strings = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+    PredicateCompiler.JoinFilter f = PredicateCompiler.compile(Collections.singletonList(strings), mixedTd, mixedTd);
+    assertTrue(f.test(mixed(1, "x"), mixed(2, "x")));
+    assertFalse(f.test(mixed(1, "x"), mixed(1, "y")));
+  }
+
+  /**
+   * A compiled projection copies the fields and the record id.
+   */
+  @Test public void projection() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+    PredicateCompiler.TupleProjection p = PredicateCompiler.compile(new int[] { 3, 0 }, td);
+    Tuple t = tuple(1, 2, 3, 4);
+    RecordId rid = new RecordId(new HeapPageId(1, 2), 3);
+    t.setRecordId(rid);
+    Tuple projected = p.project(t);
+    assertEquals(td, projected.getTupleDesc());
+    assertEquals(new IntField(4), projected.getField(0));
+    assertEquals(new IntField(1), projected.getField(1));
+    assertSame(rid, projected.getRecordId());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PredicateCompilerTest.class);
+  }
+}
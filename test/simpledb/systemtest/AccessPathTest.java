@@ -0,0 +1,156 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class AccessPathTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 1 << 14;
+
+    private BTreeFile table;
+    private List<List<Integer>> tuples;
+    private Map<String, TableStats> stats;
+
+    @Before public void createTable() throws IOException, DbException, TransactionAbortedException {
+        tuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, 0);
+        // SeqScan doesn't prefix field names with the table alias here, so the columns carry it
+        table = BTreeUtility.openBTreeFile(COLUMNS, "t.c", bf.getFile(), 0);
+        stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(table.getId()), new TableStats(table.getId(), 1000));
+    }
+
+    private static Filter filterOf(OpIterator plan) {
+        while (!(plan instanceof Filter)) {
+            plan = ((Operator) plan).getChildren()[0];
+        }
+        return (Filter) plan;
+    }
+
+    /** @return the number of pages of the table tid has read */
+    private int pagesRead(TransactionId tid) {
+        int read = 0;
+        for (int pgNo = 1; pgNo <= table.numPages(); pgNo++) {
+            for (int category : new int[]{BTreePageId.INTERNAL, BTreePageId.LEAF}) {
+                if (Database.getBufferPool().holdsLock(tid, new BTreePageId(table.getId(), pgNo, category))) {
+                    read++;
+                }
+            }
+        }
+        return read;
+    }
+
+    /** A point lookup on the key searches the tree instead of scanning it. */
+    @Test public void testPointLookup() throws DbException, TransactionAbortedException, ParsingException {
+        int key = tuples.get(ROWS / 2).get(0);
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, String.valueOf(MAX_VALUE / 2));
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, String.valueOf(key));
+        lp.addProjectField("*", null);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        SeqScan scan = SystemTestUtil.findScan(plan);
+        assertNotNull(scan.getIndexPredicate());
+        assertEquals(Predicate.Op.EQUALS, scan.getIndexPredicate().getOp());
+        // the filter on the other field is evaluated on the tuples the search returns
+        Filter filter = filterOf(plan);
+        assertEquals(1, ((Predicate) filter.getPredicate()).getField());
+        assertSame(scan, filter.getChildren()[0]);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) == key && t.get(1) > MAX_VALUE / 2) {
+                expected.add(t);
+            }
+        }
+        List<List<Integer>> actual = SystemTestUtil.readAll(plan);
+        assertEquals(expected.size(), actual.size());
+        assertTrue(actual.containsAll(expected));
+        assertTrue(table.numPages() > 50);
+        assertTrue("read " + pagesRead(tid) + " pages", pagesRead(tid) <= 5);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A range on the key is searched in key order. */
+    @Test public void testRange() throws DbException, TransactionAbortedException, ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "1000");
+        lp.addProjectField("*", null);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        SeqScan scan = SystemTestUtil.findScan(plan);
+        assertEquals(Predicate.Op.LESS_THAN, scan.getIndexPredicate().getOp());
+
+        List<Integer> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 1000) {
+                expected.add(t.get(0));
+            }
+        }
+        expected.sort(null);
+        List<Integer> actual = new ArrayList<>();
+        for (List<Integer> t : SystemTestUtil.readAll(plan)) {
+            actual.add(t.get(0));
+        }
+        assertEquals(expected, actual);
+        assertTrue(pagesRead(tid) < table.numPages() / 2);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Filters the tree can't search for, and tiny tables, are still scanned. */
+    @Test public void testScanWithoutUsableKey() throws IOException, DbException, TransactionAbortedException,
+            ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.NOT_EQUALS, "5");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, "5");
+        lp.addProjectField("*", null);
+        TransactionId tid = new TransactionId();
+        assertNull(SystemTestUtil.findScan(lp.physicalPlan(tid, stats, false)).getIndexPredicate());
+
+        BTreeFile small = BTreeUtility.createRandomBTreeFile(COLUMNS, 10, MAX_VALUE, null, new ArrayList<>(), 0);
+        small = BTreeUtility.openBTreeFile(COLUMNS, "s.c", small.getFile(), 0);
+        assertEquals(1, small.numPages());
+        stats.put(Database.getCatalog().getTableName(small.getId()), new TableStats(small.getId(), 1000));
+        lp = new LogicalPlan();
+        lp.addScan(small.getId(), "s");
+        lp.addFilter("s.c0", Predicate.Op.EQUALS, "5");
+        lp.addProjectField("*", null);
+        assertNull(SystemTestUtil.findScan(lp.physicalPlan(tid, stats, false)).getIndexPredicate());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(AccessPathTest.class);
+    }
+}
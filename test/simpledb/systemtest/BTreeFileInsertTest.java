@@ -56,16 +56,17 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 			assertEquals(1, empty.numPages());
 		}
 
-		// the next 251 tuples should live on page 2 since they are greater than
-		// all existing tuples in the file
-		for (int i = 502; i < 753; ++i) {
+		// the next 501 tuples should live on page 2 since they are greater than
+		// all existing tuples in the file; the split for the first of them only
+		// moved the last tuple of page 1 along
+		for (int i = 502; i < 1003; ++i) {
 			tup = BTreeUtility.getBTreeTuple(i, 2);
 			empty.insertTuple(tid, tup);
 			assertEquals(3, empty.numPages());
 		}
 
-		// one more insert greater than 502 should cause page 2 to split
-		tup = BTreeUtility.getBTreeTuple(753, 2);
+		// one more insert greater than 1002 should cause page 2 to split
+		tup = BTreeUtility.getBTreeTuple(1003, 2);
 		empty.insertTuple(tid, tup);
 		assertEquals(4, empty.numPages());
 
@@ -81,6 +82,37 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		} 
 	}
 
+	@Test public void appendIncreasingKeys() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile empty = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+
+		// every leaf but the last fills up, with all but one of its 502 slots
+		int n = 501 * 20;
+		for (int i = 0; i < n; ++i) {
+			Database.getBufferPool().insertTuple(tid, empty.getId(), BTreeUtility.getBTreeTuple(i, 2));
+		}
+		// 20 leaf pages + the root
+		assertEquals(21, empty.numPages());
+		BTreeChecker.checkRep(empty, tid, new HashMap<>(), true);
+
+		// a smaller key still goes where it belongs
+		Database.getBufferPool().insertTuple(tid, empty.getId(), BTreeUtility.getBTreeTuple(n / 2, 2));
+		DbFileIterator it = empty.iterator(tid);
+		it.open();
+		int count = 0;
+		int prev = -1;
+		while (it.hasNext()) {
+			int value = ((IntField) it.next().getField(0)).getValue();
+			assertTrue(value >= prev);
+			prev = value;
+			count++;
+		}
+		it.close();
+		assertEquals(n + 1, count);
+	}
+
 	@Test public void addDuplicateTuples() throws Exception {
 		// create an empty B+ tree file keyed on the second field of a 2-field tuple
 		File emptyFile = File.createTempFile("empty", ".dat");
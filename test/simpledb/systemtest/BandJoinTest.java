@@ -0,0 +1,115 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.BandJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BandJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+
+    private SystemTestUtil.JoinTables tables;
+
+    private void createTables(int table1Rows, int table2Rows, int maxValue, String prefix1, String prefix2)
+            throws IOException {
+        tables = SystemTestUtil.createRandomHeapFiles(COLUMNS, table1Rows, table2Rows, maxValue, prefix1, prefix2);
+    }
+
+    private void validateJoin(JoinPredicate p1, JoinPredicate p2)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        BandJoin joinOp = new BandJoin(p1, p2, tables.scan1(tid), tables.scan2(tid));
+        SystemTestUtil.matchTuples(joinOp, tables.expectedJoin(p1, p2));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** t1.a0 >= t2.b1 AND t1.a0 < t2.b2 */
+    @Test public void testPointLeft()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(300, 300, 100, "a", "b");
+        validateJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN_OR_EQ, 1),
+                new JoinPredicate(0, Predicate.Op.LESS_THAN, 2));
+    }
+
+    /** t1.a1 < t2.b0 AND t1.a2 >= t2.b0, with the predicates in either order */
+    @Test public void testPointRight()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(300, 300, 100, "a", "b");
+        validateJoin(new JoinPredicate(1, Predicate.Op.LESS_THAN, 0),
+                new JoinPredicate(2, Predicate.Op.GREATER_THAN_OR_EQ, 0));
+        validateJoin(new JoinPredicate(2, Predicate.Op.GREATER_THAN_OR_EQ, 0),
+                new JoinPredicate(1, Predicate.Op.LESS_THAN, 0));
+    }
+
+    @Test public void testInclusiveAndExclusiveBounds()
+            throws IOException, DbException, TransactionAbortedException {
+        // few distinct values, so many points fall on the bounds
+        createTables(200, 200, 10, "a", "b");
+        validateJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 1),
+                new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 2));
+        validateJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN_OR_EQ, 1),
+                new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 2));
+        validateJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 1),
+                new JoinPredicate(0, Predicate.Op.LESS_THAN, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void testNotABand()
+            throws IOException {
+        createTables(1, 1, 10, "a", "b");
+        TransactionId tid = new TransactionId();
+        new BandJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 1),
+                new JoinPredicate(0, Predicate.Op.GREATER_THAN, 2),
+                tables.scan1(tid), tables.scan2(tid));
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(100, 100, 50, "a", "b");
+        JoinPredicate p1 = new JoinPredicate(0, Predicate.Op.GREATER_THAN_OR_EQ, 1);
+        JoinPredicate p2 = new JoinPredicate(0, Predicate.Op.LESS_THAN, 2);
+        TransactionId tid = new TransactionId();
+        BandJoin joinOp = new BandJoin(p1, p2, tables.scan1(tid), tables.scan2(tid));
+        assertEquals(tables.expectedJoin(p1, p2).size(), SystemTestUtil.countWithRewind(joinOp));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Two inequality joins between the same tables become a single band join. */
+    @Test public void testPlannerCombinesBand()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        // SeqScan doesn't prefix field names with the table alias here, so the columns carry it
+        createTables(200, 200, 100, "t1.a", "t2.b");
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tables.table1.getId(), "t1");
+        lp.addScan(tables.table2.getId(), "t2");
+        lp.addJoin("t1.a0", "t2.b1", Predicate.Op.GREATER_THAN_OR_EQ);
+        // written the other way around
+        lp.addJoin("t2.b2", "t1.a0", Predicate.Op.GREATER_THAN);
+        lp.addProjectField("*", null);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof BandJoin);
+        SystemTestUtil.matchTuples(plan, tables.expectedJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN_OR_EQ, 1),
+                new JoinPredicate(0, Predicate.Op.LESS_THAN, 2)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BandJoinTest.class);
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.BlockNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private SystemTestUtil.JoinTables tables;
+
+    private void createTables(int table1Rows, int table2Rows, int maxValue, String prefix1, String prefix2)
+            throws IOException {
+        tables = SystemTestUtil.createRandomHeapFiles(COLUMNS, table1Rows, table2Rows, maxValue, prefix1, prefix2);
+    }
+
+    private static JoinPredicate pred(Predicate.Op op) {
+        return new JoinPredicate(0, op, 0);
+    }
+
+    private BlockNestedLoopJoin join(TransactionId tid, Predicate.Op op, long memoryBudget) {
+        return new BlockNestedLoopJoin(pred(op), tables.scan1(tid), tables.scan2(tid), memoryBudget);
+    }
+
+    private void validateJoin(Predicate.Op op, long memoryBudget)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(join(tid, op, memoryBudget), tables.expectedJoin(pred(op)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSingleBlock()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(100, 200, 100, "a", "b");
+        validateJoin(Predicate.Op.LESS_THAN, BlockNestedLoopJoin.DEFAULT_MEMORY_BUDGET);
+        validateJoin(Predicate.Op.NOT_EQUALS, BlockNestedLoopJoin.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /** A small budget splits the outer table into many blocks, each joined with a new scan of the inner table. */
+    @Test public void testManyBlocks()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(300, 100, 100, "a", "b");
+        // 7 tuples per block, so the last block is partly filled
+        long budget = 7 * (tables.table1.getTupleDesc().getSize() + 48);
+        assertEquals(7, join(new TransactionId(), Predicate.Op.GREATER_THAN, budget).getBlockTuples());
+        validateJoin(Predicate.Op.GREATER_THAN, budget);
+        validateJoin(Predicate.Op.EQUALS, budget);
+    }
+
+    /** The block holds at least one tuple, whatever the budget. */
+    @Test public void testTinyBudget()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(20, 30, 20, "a", "b");
+        assertEquals(1, join(new TransactionId(), Predicate.Op.LESS_THAN_OR_EQ, 0).getBlockTuples());
+        validateJoin(Predicate.Op.LESS_THAN_OR_EQ, 0);
+    }
+
+    @Test public void testEmptyInputs()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(0, 50, 10, "a", "b");
+        validateJoin(Predicate.Op.LESS_THAN, 1024);
+        createTables(50, 0, 10, "a", "b");
+        validateJoin(Predicate.Op.LESS_THAN, 1024);
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(100, 100, 50, "a", "b");
+        TransactionId tid = new TransactionId();
+        BlockNestedLoopJoin joinOp = join(tid, Predicate.Op.LESS_THAN, 1024);
+        assertEquals(tables.expectedJoin(pred(Predicate.Op.LESS_THAN)).size(), SystemTestUtil.countWithRewind(joinOp));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPlannerUsesBlockJoinForThetaJoins()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        // SeqScan doesn't prefix field names with the table alias here, so the columns carry it
+        createTables(200, 200, 100, "t1.a", "t2.b");
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tables.table1.getId(), "t1");
+        lp.addScan(tables.table2.getId(), "t2");
+        lp.addJoin("t1.a0", "t2.b0", Predicate.Op.GREATER_THAN);
+        lp.addProjectField("*", null);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof BlockNestedLoopJoin);
+        SystemTestUtil.matchTuples(plan, tables.expectedJoin(pred(Predicate.Op.GREATER_THAN)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,194 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Disjunction;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TuplePredicate;
+import simpledb.optimizer.LogicalFilterNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class DisjunctionTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+    private static final int MAX_VALUE = 100;
+
+    private static Tuple tuple(int... values) {
+        TupleDesc td = new TupleDesc(Collections.nCopies(values.length, Type.INT_TYPE).toArray(new Type[0]));
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < values.length; i++) {
+            t.setField(i, new IntField(values[i]));
+        }
+        return t;
+    }
+
+    @Test public void testOrOfConjunctions() {
+        // (f0 < 10 AND f1 > 50) OR f2 = 7
+        Disjunction d = new Disjunction(Arrays.asList(
+                Arrays.asList(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)),
+                        new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(50))),
+                Collections.singletonList(new Predicate(2, Predicate.Op.EQUALS, new IntField(7)))));
+        for (int a = 8; a <= 11; a++) {
+            for (int b = 49; b <= 52; b++) {
+                for (int c = 6; c <= 8; c++) {
+                    assertEquals(a + " " + b + " " + c, (a < 10 && b > 50) || c == 7, d.filter(tuple(a, b, c)));
+                }
+            }
+        }
+        assertEquals(3.0, d.evaluationCost(), 0.0);
+    }
+
+    @Test public void testHashedInList() {
+        List<Field> values = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            values.add(new IntField(i * 3));
+        }
+        Disjunction in = Disjunction.in(0, values);
+        // one hash lookup instead of twenty comparisons
+        assertEquals(1.0, in.evaluationCost(), 0.0);
+        Disjunction linear = Disjunction.in(0, values.subList(0, Disjunction.HASH_THRESHOLD - 1));
+        assertEquals(Disjunction.HASH_THRESHOLD - 1, linear.evaluationCost(), 0.0);
+        for (int v = -5; v < 70; v++) {
+            assertEquals(String.valueOf(v), v >= 0 && v < 60 && v % 3 == 0, in.filter(tuple(v)));
+            assertEquals(String.valueOf(v), v >= 0 && v < 3 * (Disjunction.HASH_THRESHOLD - 1) && v % 3 == 0,
+                    linear.filter(tuple(v)));
+        }
+    }
+
+    @Test public void testStringInList() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE});
+        List<Field> values = new ArrayList<>();
+        for (int i = 0; i < Disjunction.HASH_THRESHOLD * 2; i++) {
+            values.add(new StringField("s" + i, Type.STRING_LEN));
+        }
+        Disjunction in = Disjunction.in(0, values);
+        for (int i = -3; i < Disjunction.HASH_THRESHOLD * 3; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("s" + i, Type.STRING_LEN));
+            assertEquals(String.valueOf(i), i >= 0 && i < Disjunction.HASH_THRESHOLD * 2, in.filter(t));
+        }
+    }
+
+    @Test public void testPlanner() throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        // SeqScan doesn't prefix field names with the table alias here, so the columns carry it
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, tuples, "t.c");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(f.getId()), new TableStats(f.getId(), 1000));
+
+        // WHERE (t.c0 < 10 AND t.c1 > 50) OR t.c2 = 7 AND t.c1 IN (1, 2, ..., 60) AND t.c0 <> 3
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addDisjunction(Arrays.asList(
+                Arrays.asList(lp.newFilter("t.c0", Predicate.Op.LESS_THAN, "10"),
+                        lp.newFilter("t.c1", Predicate.Op.GREATER_THAN, "50")),
+                Collections.singletonList(lp.newFilter("t.c2", Predicate.Op.EQUALS, "7"))));
+        List<String> in = new ArrayList<>();
+        for (int i = 1; i <= 60; i++) {
+            in.add(String.valueOf(i));
+        }
+        lp.addInFilter("t.c1", in);
+        lp.addFilter("t.c0", Predicate.Op.NOT_EQUALS, "3");
+        lp.addProjectField("*", null);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        SeqScan scan = SystemTestUtil.findScan(plan);
+        List<TuplePredicate> pushed = scan.getPredicates();
+        assertEquals(3, pushed.size());
+        // the plain filter and the hashed IN list are cheaper than the OR of three comparisons
+        assertTrue(pushed.get(2) instanceof Disjunction);
+        assertEquals(3, pushed.get(2).getAlternatives().stream().mapToInt(List::size).sum());
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (((t.get(0) < 10 && t.get(1) > 50) || t.get(2) == 7) && t.get(1) >= 1 && t.get(1) <= 60
+                    && t.get(0) != 3) {
+                expected.add(t);
+            }
+        }
+        assertEquals(expected, SystemTestUtil.readAll(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testDisjunctionSpansOneTable() throws IOException, ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, MAX_VALUE, null, new ArrayList<>(), "t.c");
+        lp.addScan(f.getId(), "t");
+        lp.addScan(f.getId(), "u");
+        List<List<LogicalFilterNode>> alternatives = Arrays.asList(
+                Collections.singletonList(lp.newFilter("t.c0", Predicate.Op.EQUALS, "1")),
+                Collections.singletonList(lp.newFilter("u.c0", Predicate.Op.EQUALS, "1")));
+        try {
+            lp.addDisjunction(alternatives);
+            fail("a disjunction over two tables should be rejected");
+        } catch (ParsingException expected) {
+        }
+    }
+
+    @Test public void testParseOrAndIn() throws IOException, DbException, TransactionAbortedException,
+            ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, tuples, "t.c");
+        // random table names may start with a digit, which isn't an SQL identifier
+        String name = "disjunction_test";
+        Database.getCatalog().addTable(f, name);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(name, new TableStats(f.getId(), 1000));
+        Parser p = new Parser();
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT * FROM " + name
+                + " t WHERE (t.c0 < 10 AND t.c1 > 50) OR t.c2 IN (7, 8) OR t.c1 = 99;");
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if ((t.get(0) < 10 && t.get(1) > 50) || t.get(2) == 7 || t.get(2) == 8 || t.get(1) == 99) {
+                expected.add(t);
+            }
+        }
+        assertEquals(expected, SystemTestUtil.readAll(lp.physicalPlan(tid, stats, false)));
+
+        lp = p.generateLogicalPlan(tid, "SELECT * FROM " + name
+                + " t WHERE t.c0 IN (1, 2, 3) AND t.c1 NOT IN (4, 5);");
+        expected.clear();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) >= 1 && t.get(0) <= 3 && t.get(1) != 4 && t.get(1) != 5) {
+                expected.add(t);
+            }
+        }
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertEquals(expected, SystemTestUtil.readAll(plan));
+        assertEquals(3, SystemTestUtil.findScan(plan).getPredicates().size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DisjunctionTest.class);
+    }
+}
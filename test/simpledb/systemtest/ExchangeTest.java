@@ -0,0 +1,290 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Broadcast;
+import simpledb.execution.Exchange;
+import simpledb.execution.Filter;
+import simpledb.execution.Gather;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.HybridHashJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Repartition;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ExchangeTest extends SimpleDbTestBase {
+    private static final int PARALLELISM = 4;
+
+    private static List<List<Integer>> sorted(List<List<Integer>> tuples) {
+        List<List<Integer>> copy = new ArrayList<>(tuples);
+        copy.sort((a, b) -> {
+            for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+                int c = Integer.compare(a.get(i), b.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return Integer.compare(a.size(), b.size());
+        });
+        return copy;
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan)) {
+            return true;
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && contains(child, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Test public void testParallelScan() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300));
+        List<List<Integer>> expected = SystemTestUtil.readAll(new Filter(p, new SeqScan(tid, f.getId(), "")));
+
+        Gather gather = Gather.parallelScan(new Filter(p, new SeqScan(tid, f.getId(), "")), PARALLELISM);
+        assertTrue(gather.getChildren().length > 1);
+        assertEquals(sorted(expected), sorted(SystemTestUtil.readAll(gather)));
+        // and again, from new runs of the morsels
+        gather.open();
+        gather.rewind();
+        List<List<Integer>> rewound = new ArrayList<>();
+        while (gather.hasNext()) {
+            rewound.add(SystemTestUtil.tupleToList(gather.next()));
+        }
+        gather.close();
+        assertEquals(sorted(expected), sorted(rewound));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Closing a Gather before its pipelines are done stops them, and it can be opened again.
+     */
+    @Test public void testCloseEarly() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 50000, null, tuples);
+        TransactionId tid = new TransactionId();
+        Gather gather = Gather.parallelScan(new SeqScan(tid, f.getId(), ""), PARALLELISM);
+        gather.open();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(gather.hasNext());
+            gather.next();
+        }
+        gather.close();
+        assertEquals(tuples.size(), SystemTestUtil.readAll(gather).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRepartition() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, tuples);
+        TransactionId tid = new TransactionId();
+        // few enough tuples to fit into the queues, so that the partitions can be read one after the other
+        Repartition[] partitions = Repartition.partition(Gather.morsels(new SeqScan(tid, f.getId(), ""), 3), 0, 4, 2);
+        Map<Integer, Integer> partitionOfKey = new HashMap<>();
+        List<List<Integer>> all = new ArrayList<>();
+        for (Repartition r : partitions) {
+            r.open();
+        }
+        for (Repartition r : partitions) {
+            while (r.hasNext()) {
+                List<Integer> t = SystemTestUtil.tupleToList(r.next());
+                Integer previous = partitionOfKey.put(t.get(0), r.getPartition());
+                assertTrue(previous == null || previous == r.getPartition());
+                all.add(t);
+            }
+        }
+        for (Repartition r : partitions) {
+            r.close();
+        }
+        assertEquals(sorted(tuples), sorted(all));
+
+        // many tuples must be read by all partitions at once
+        tuples = new ArrayList<>();
+        f = SystemTestUtil.createRandomHeapFile(2, 50000, null, tuples);
+        partitions = Repartition.partition(Gather.morsels(new SeqScan(tid, f.getId(), ""), 8), 1, 4, 2);
+        Gather gather = new Gather(partitions, 2);
+        assertEquals(4, gather.getThreads());
+        assertEquals(sorted(tuples), sorted(SystemTestUtil.readAll(gather)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testBroadcast() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        TransactionId tid = new TransactionId();
+        Broadcast[] consumers = Broadcast.broadcast(Gather.morsels(new SeqScan(tid, f.getId(), ""), 4), 3, 2);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int i = 0; i < consumers.length; i++) {
+            expected.addAll(tuples);
+        }
+        assertEquals(sorted(expected), sorted(SystemTestUtil.readAll(new Gather(consumers, 1))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPartitionedJoins() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, new ArrayList<>());
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 30000, 5000, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        List<List<Integer>> expected = sorted(SystemTestUtil.readAll(new HashEquiJoin(p, new SeqScan(tid, f1.getId(), ""),
+                new SeqScan(tid, f2.getId(), ""))));
+
+        Repartition[] builds = Repartition.partition(Gather.morsels(new SeqScan(tid, f1.getId(), ""), 6), 0, PARALLELISM, 2);
+        Repartition[] probes = Repartition.partition(Gather.morsels(new SeqScan(tid, f2.getId(), ""), 6), 1, PARALLELISM, 2);
+        OpIterator[] joins = new OpIterator[PARALLELISM];
+        for (int i = 0; i < PARALLELISM; i++) {
+            joins[i] = new HybridHashJoin(p, builds[i], probes[i]);
+        }
+        assertEquals(expected, sorted(SystemTestUtil.readAll(new Gather(joins, PARALLELISM))));
+
+        OpIterator[] morsels = Gather.morsels(new SeqScan(tid, f2.getId(), ""), PARALLELISM);
+        Broadcast[] broadcasts = Broadcast.broadcast(new OpIterator[]{new SeqScan(tid, f1.getId(), "")}, PARALLELISM, 1);
+        for (int i = 0; i < PARALLELISM; i++) {
+            joins[i] = new HashEquiJoin(p, broadcasts[i], morsels[i]);
+        }
+        assertEquals(expected, sorted(SystemTestUtil.readAll(new Gather(joins, PARALLELISM))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An exception of a pipeline is thrown by the exchange reading it.
+     */
+    @Test public void testPipelineFailure() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        Operator failing = new Operator() {
+            private static final long serialVersionUID = 1L;
+
+            public void open() throws DbException, TransactionAbortedException {
+                scan.open();
+                super.open();
+            }
+
+            public void close() {
+                super.close();
+                scan.close();
+            }
+
+            public void rewind() {
+            }
+
+            protected Tuple fetchNext() throws DbException {
+                throw new DbException("broken pipeline");
+            }
+
+            public OpIterator[] getChildren() {
+                return new OpIterator[]{scan};
+            }
+
+            public void setChildren(OpIterator[] children) {
+            }
+
+            public TupleDesc getTupleDesc() {
+                return scan.getTupleDesc();
+            }
+        };
+        Gather gather = new Gather(new OpIterator[]{new SeqScan(tid, f.getId(), ""), failing}, 2);
+        gather.open();
+        try {
+            while (gather.hasNext()) {
+                gather.next();
+            }
+            fail("expected the exception of the failing pipeline");
+        } catch (DbException e) {
+            assertEquals("broken pipeline", e.getMessage());
+        }
+        gather.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner splits large scans and joins them in parallel, by broadcasting a small input or by
+     * repartitioning both inputs.
+     */
+    @Test public void testPlanner() throws IOException, DbException, TransactionAbortedException, ParsingException {
+        // 300 pages of two INT columns
+        int rows = 150000;
+        List<List<Integer>> small = new ArrayList<>();
+        List<List<Integer>> large = new ArrayList<>();
+        List<List<Integer>> probe = new ArrayList<>();
+        // SeqScan doesn't prefix field names with the table alias here, so the columns carry it
+        HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 2000, rows, null, small, "a.c");
+        HeapFile largeFile = SystemTestUtil.createRandomHeapFile(2, rows, rows, null, large, "a.c");
+        HeapFile probeFile = SystemTestUtil.createRandomHeapFile(2, rows, rows, null, probe, "b.c");
+        assertTrue(largeFile.numPages() >= LogicalPlan.PARALLEL_SCAN_PAGES);
+
+        for (HeapFile build : new HeapFile[]{smallFile, largeFile}) {
+            Map<Integer, List<List<Integer>>> byKey = new HashMap<>();
+            for (List<Integer> t : build == smallFile ? small : large) {
+                byKey.computeIfAbsent(t.get(0), k -> new ArrayList<>()).add(t);
+            }
+            List<List<Integer>> expected = new ArrayList<>();
+            for (List<Integer> t : probe) {
+                for (List<Integer> match : byKey.getOrDefault(t.get(0), Collections.emptyList())) {
+                    List<Integer> joined = new ArrayList<>(match);
+                    joined.addAll(t);
+                    expected.add(joined);
+                }
+            }
+
+            for (int parallelism : new int[]{1, PARALLELISM}) {
+                LogicalPlan lp = new LogicalPlan();
+                lp.setParallelism(parallelism);
+                lp.addScan(build.getId(), "a");
+                lp.addScan(probeFile.getId(), "b");
+                lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+                lp.addProjectField("a.c0", null);
+                lp.addProjectField("a.c1", null);
+                lp.addProjectField("b.c0", null);
+                lp.addProjectField("b.c1", null);
+
+                TransactionId tid = new TransactionId();
+                OpIterator plan = lp.physicalPlan(tid, new HashMap<>(), false);
+                assertEquals(parallelism > 1, contains(plan, Exchange.class));
+                if (parallelism > 1) {
+                    assertEquals(build == smallFile, contains(plan, Broadcast.class));
+                    assertEquals(build == largeFile, contains(plan, Repartition.class));
+                }
+                assertEquals(sorted(expected), sorted(SystemTestUtil.readAll(plan)));
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertEquals;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final JoinPredicate PRED = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    private SystemTestUtil.JoinTables tables;
+
+    private void createTables(int table1Rows, int table2Rows, int maxValue) throws IOException {
+        tables = SystemTestUtil.createRandomHeapFiles(COLUMNS, table1Rows, table2Rows, maxValue, "a", "b");
+    }
+
+    public void validateJoin(int table1Rows, int table2Rows, int maxValue)
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(table1Rows, table2Rows, maxValue);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin joinOp = new HashEquiJoin(PRED, tables.scan1(tid), tables.scan2(tid));
+        SystemTestUtil.matchTuples(joinOp, tables.expectedJoin(PRED));
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSmallJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(100, 100, 50);
+    }
+
+    @Test public void testNoMatch()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(10, 10, 1 << 16);
+    }
+
+    /** A build side larger than a chunk of the HashMap is loaded at once, and the probe side is scanned once. */
+    @Test public void testLargeBuildSide()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(HashEquiJoin.MAP_SIZE * 2 + 500, 400, 2000);
+        TransactionId tid = new TransactionId();
+        int[] rewinds = new int[1];
+        SeqScan probe = new SeqScan(tid, tables.table2.getId(), "") {
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                rewinds[0]++;
+                super.rewind();
+            }
+        };
+        HashEquiJoin joinOp = new HashEquiJoin(PRED, tables.scan1(tid), probe);
+        SystemTestUtil.matchTuples(joinOp, tables.expectedJoin(PRED));
+        assertEquals(0, rewinds[0]);
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A build side over the memory budget, like a hot key HybridHashJoin can't split, is loaded in chunks, and the
+     * probe side is scanned once per chunk.
+     */
+    @Test public void testHotKeyOverBudget()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(500, 100, 1);
+        TransactionId tid = new TransactionId();
+        int[] rewinds = new int[1];
+        SeqScan probe = new SeqScan(tid, tables.table2.getId(), "") {
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                rewinds[0]++;
+                super.rewind();
+            }
+        };
+        // room for 40 build tuples
+        HashEquiJoin joinOp = new HashEquiJoin(PRED, tables.scan1(tid), probe, 40 * (COLUMNS * 4 + 48));
+        SystemTestUtil.matchTuples(joinOp, tables.expectedJoin(PRED));
+        assertEquals(500 / 40, rewinds[0]);
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(HashEquiJoin.MAP_SIZE + 100, 200, 1000);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin joinOp = new HashEquiJoin(PRED, tables.scan1(tid), tables.scan2(tid));
+        assertEquals(tables.expectedJoin(PRED).size(), SystemTestUtil.countWithRewind(joinOp));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.HybridHashJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HybridHashJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    /** Room for about 40 build tuples, so that most partitions spill. */
+    private static final long SMALL_BUDGET = 40 * (COLUMNS * 4 + 48);
+    private static final JoinPredicate PRED = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    private SystemTestUtil.JoinTables tables;
+
+    private void createTables(int table1Rows, int table2Rows, int maxValue) throws IOException {
+        tables = SystemTestUtil.createRandomHeapFiles(COLUMNS, table1Rows, table2Rows, maxValue, "a", "b");
+    }
+
+    private HybridHashJoin join(TransactionId tid, long memoryBudget) {
+        return new HybridHashJoin(PRED, tables.scan1(tid), tables.scan2(tid), memoryBudget, 4);
+    }
+
+    /** @return the number of partitions the join spilled */
+    public int validateJoin(int table1Rows, int table2Rows, int maxValue, long memoryBudget)
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(table1Rows, table2Rows, maxValue);
+        TransactionId tid = new TransactionId();
+        HybridHashJoin joinOp = join(tid, memoryBudget);
+        SystemTestUtil.matchTuples(joinOp, tables.expectedJoin(PRED));
+        int spilled = joinOp.getSpilledPartitions();
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return spilled;
+    }
+
+    @Test public void testInMemory()
+            throws IOException, DbException, TransactionAbortedException {
+        assertEquals(0, validateJoin(100, 100, 50, HybridHashJoin.DEFAULT_MEMORY_BUDGET));
+    }
+
+    @Test public void testNoMatch()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(200, 200, 1 << 16, SMALL_BUDGET);
+    }
+
+    /** Most partitions spill, and spilled partitions are split again one level deeper. */
+    @Test public void testSpill()
+            throws IOException, DbException, TransactionAbortedException {
+        assertTrue(validateJoin(2000, 1000, 500, SMALL_BUDGET) > 0);
+    }
+
+    /** All build tuples have the same key, so partitioning can't split them. */
+    @Test public void testSingleKey()
+            throws IOException, DbException, TransactionAbortedException {
+        assertTrue(validateJoin(500, 100, 1, SMALL_BUDGET) > 0);
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(1000, 300, 200);
+        TransactionId tid = new TransactionId();
+        HybridHashJoin joinOp = join(tid, SMALL_BUDGET);
+        assertEquals(tables.expectedJoin(PRED).size(), SystemTestUtil.countWithRewind(joinOp));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HybridHashJoinTest.class);
+    }
+}
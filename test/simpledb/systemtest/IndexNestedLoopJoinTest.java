@@ -0,0 +1,148 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private SystemTestUtil.JoinTables tables;
+
+    /** Creates a heap file to scan and a B+ tree keyed on the join field to search. */
+    private void createTables(int outerRows, int innerRows, int maxValue, String outerPrefix, String innerPrefix)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> outerTuples = new ArrayList<>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(COLUMNS, outerRows, maxValue, null, outerTuples,
+                outerPrefix);
+        List<List<Integer>> innerTuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(COLUMNS, innerRows, maxValue, null, innerTuples, 0);
+        tables = new SystemTestUtil.JoinTables(outer, outerTuples,
+                BTreeUtility.openBTreeFile(COLUMNS, innerPrefix, bf.getFile(), 0), innerTuples);
+    }
+
+    private static JoinPredicate pred(Predicate.Op op) {
+        return new JoinPredicate(0, op, 0);
+    }
+
+    private IndexNestedLoopJoin join(TransactionId tid, Predicate.Op op, boolean sortedOuter) {
+        OpIterator outerScan = tables.scan1(tid);
+        if (sortedOuter) {
+            outerScan = new OrderBy(0, true, outerScan);
+        }
+        return new IndexNestedLoopJoin(pred(op), outerScan, new BTreeScan(tid, tables.table2.getId(), "", null));
+    }
+
+    private void validateJoin(Predicate.Op op, boolean sortedOuter)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(join(tid, op, sortedOuter), tables.expectedJoin(pred(op)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEquals()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(200, 3000, 1000, "a", "b");
+        validateJoin(Predicate.Op.EQUALS, false);
+    }
+
+    /** Sorted outer keys continue the previous search; runs of equal inner keys span several leaf pages. */
+    @Test public void testSortedOuterWithLongRuns()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(300, 5000, 40, "a", "b");
+        validateJoin(Predicate.Op.EQUALS, true);
+    }
+
+    @Test public void testSortedOuterSparseKeys()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(100, 5000, 1 << 14, "a", "b");
+        validateJoin(Predicate.Op.EQUALS, true);
+    }
+
+    @Test public void testRanges()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(20, 500, 300, "a", "b");
+        validateJoin(Predicate.Op.LESS_THAN, false);
+        validateJoin(Predicate.Op.GREATER_THAN_OR_EQ, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void testNotEquals()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(1, 1, 10, "a", "b");
+        join(new TransactionId(), Predicate.Op.NOT_EQUALS, false);
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(100, 2000, 200, "a", "b");
+        TransactionId tid = new TransactionId();
+        IndexNestedLoopJoin joinOp = join(tid, Predicate.Op.EQUALS, true);
+        assertEquals(tables.expectedJoin(pred(Predicate.Op.EQUALS)).size(), SystemTestUtil.countWithRewind(joinOp));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A selective filter on the outer table makes the planner search the inner B+ tree instead of scanning it. */
+    @Test public void testPlannerPicksIndexForSelectiveOuter()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        // SeqScan doesn't prefix field names with the table alias here, so the columns carry it
+        createTables(1000, 20000, 1 << 14, "t1.a", "t2.b");
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tables.table1.getId(), "t1");
+        lp.addScan(tables.table2.getId(), "t2");
+        lp.addFilter("t1.a1", Predicate.Op.LESS_THAN, "200");
+        lp.addJoin("t1.a0", "t2.b0", Predicate.Op.EQUALS);
+        lp.addProjectField("*", null);
+
+        // the filter is estimated to select a handful of tuples
+        TableStats selective = new TableStats(tables.table1.getId(), 1000) {
+            @Override
+            public int estimateTableCardinality(double selectivityFactor) {
+                return 5;
+            }
+        };
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(tables.table1.getId()), selective);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof IndexNestedLoopJoin);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tables.expectedJoin(pred(Predicate.Op.EQUALS))) {
+            if (t.get(1) < 200) {
+                expected.add(t);
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,187 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TopN;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class LimitTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private List<List<Integer>> tuples;
+    private HeapFile table;
+
+    private void createTable(int rows, int maxValue, String prefix) throws IOException {
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, maxValue, null, tuples, prefix);
+    }
+
+    /** The input tuples sorted on their first field, skipping offset and keeping limit of them. */
+    private List<Integer> expectedKeys(boolean asc, int limit, int offset) {
+        List<Integer> keys = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            keys.add(t.get(0));
+        }
+        keys.sort(asc ? null : (a, b) -> Integer.compare(b, a));
+        return new ArrayList<>(keys.subList(Math.min(offset, keys.size()), Math.min(offset + limit, keys.size())));
+    }
+
+    private static List<Integer> readKeys(OpIterator it) throws DbException, TransactionAbortedException {
+        List<Integer> keys = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            keys.add(SystemTestUtil.tupleToList(it.next()).get(0));
+        }
+        it.close();
+        return keys;
+    }
+
+    /** Counts the tuples pulled from a child. */
+    private static class CountingIterator implements OpIterator {
+        private static final long serialVersionUID = 1L;
+        private final OpIterator child;
+        int pulled;
+
+        CountingIterator(OpIterator child) {
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return child.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            pulled++;
+            return child.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void close() {
+            child.close();
+        }
+    }
+
+    @Test public void testLimitStopsEarly() throws IOException, DbException, TransactionAbortedException {
+        createTable(1000, 100, "c");
+        TransactionId tid = new TransactionId();
+        CountingIterator scan = new CountingIterator(new SeqScan(tid, table.getId(), ""));
+        Limit limit = new Limit(10, 5, scan);
+        limit.open();
+        List<List<Integer>> out = new ArrayList<>();
+        while (limit.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(limit.next()));
+        }
+        assertEquals(tuples.subList(5, 15), out);
+        assertEquals(15, scan.pulled);
+
+        limit.rewind();
+        int count = 0;
+        while (limit.hasNext()) {
+            limit.next();
+            count++;
+        }
+        limit.close();
+        assertEquals(10, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLimitBeyondInput() throws IOException, DbException, TransactionAbortedException {
+        createTable(20, 100, "c");
+        TransactionId tid = new TransactionId();
+        assertEquals(5, readKeys(new Limit(100, 15, new SeqScan(tid, table.getId(), ""))).size());
+        assertEquals(0, readKeys(new Limit(100, 25, new SeqScan(tid, table.getId(), ""))).size());
+        assertEquals(0, readKeys(new Limit(0, 0, new SeqScan(tid, table.getId(), ""))).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testTopN() throws IOException, DbException, TransactionAbortedException {
+        createTable(5000, 1000, "c");
+        TransactionId tid = new TransactionId();
+        for (int n : new int[]{0, 1, 20, 5000, 6000}) {
+            assertEquals(expectedKeys(true, n, 0), readKeys(new TopN(0, true, n, new SeqScan(tid, table.getId(), ""))));
+            assertEquals(expectedKeys(false, n, 0), readKeys(new TopN(0, false, n, new SeqScan(tid, table.getId(), ""))));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPlannerUsesTopN() throws IOException, DbException, TransactionAbortedException,
+            ParsingException {
+        // SeqScan doesn't prefix field names with the table alias here, so the columns carry it
+        createTable(2000, 10000, "t.c");
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("*", null);
+        lp.addOrderBy("t.c0", false);
+        lp.addLimit(20, 3);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        OpIterator limit = ((Operator) plan).getChildren()[0];
+        assertTrue(limit instanceof Limit);
+        assertTrue(((Operator) limit).getChildren()[0] instanceof TopN);
+        assertEquals(23, ((TopN) ((Operator) limit).getChildren()[0]).getN());
+        assertEquals(expectedKeys(false, 20, 3), readKeys(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParseLimitOffset() throws IOException, DbException, TransactionAbortedException,
+            ParsingException {
+        createTable(500, 10000, "t.c");
+        // random table names may start with a digit, which isn't an SQL identifier
+        String name = "limit_test";
+        Database.getCatalog().addTable(table, name);
+        Parser p = new Parser();
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT * FROM " + name + " t ORDER BY t.c0 LIMIT 7 OFFSET 10;");
+        assertEquals(expectedKeys(true, 7, 10), readKeys(lp.physicalPlan(tid, new HashMap<>(), false)));
+
+        lp = p.generateLogicalPlan(tid, "select * from " + name + " t order by t.c0 desc\nlimit 4 ;");
+        assertEquals(expectedKeys(false, 4, 0), readKeys(lp.physicalPlan(tid, new HashMap<>(), false)));
+
+        lp = p.generateLogicalPlan(tid, "SELECT * FROM " + name + " t LIMIT 3;");
+        assertEquals(3, readKeys(lp.physicalPlan(tid, new HashMap<>(), false)).size());
+
+        // only the first statement is parsed, and the LIMIT of the next one doesn't apply to it
+        lp = p.generateLogicalPlan(tid, "SELECT * FROM " + name + " t;\n"
+                + "SELECT * FROM " + name + " t LIMIT 3;");
+        assertEquals(500, readKeys(lp.physicalPlan(tid, new HashMap<>(), false)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LimitTest.class);
+    }
+}
@@ -0,0 +1,140 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class OrderByTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private List<List<Integer>> tuples;
+    private HeapFile table;
+
+    private void createTable(int rows, int maxValue) throws IOException {
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, maxValue, null, tuples);
+    }
+
+    private static long tupleBytes(TupleDesc td) {
+        // matches the accounting of OrderBy closely enough for the tests to get many runs
+        return td.getSize() + 72;
+    }
+
+    /**
+     * Reads all tuples of a sort, checks that they come out in order and that
+     * they are exactly the input tuples.
+     */
+    private void validateSort(OrderBy sort, boolean asc) throws DbException, TransactionAbortedException {
+        List<List<Integer>> out = new ArrayList<>();
+        sort.open();
+        while (sort.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(sort.next()));
+        }
+        for (int i = 1; i < out.size(); i++) {
+            int prev = out.get(i - 1).get(0);
+            int cur = out.get(i).get(0);
+            assertTrue(asc ? prev <= cur : prev >= cur);
+        }
+        sort.rewind();
+        SystemTestUtil.matchTuples(sort, tuples);
+        sort.close();
+    }
+
+    @Test public void testInMemory() throws IOException, DbException, TransactionAbortedException {
+        createTable(2000, 1000);
+        TransactionId tid = new TransactionId();
+        OrderBy sort = new OrderBy(0, true, new SeqScan(tid, table.getId(), ""));
+        validateSort(sort, true);
+        assertEquals(0, sort.getSpilledRuns());
+        validateSort(new OrderBy(0, false, new SeqScan(tid, table.getId(), "")), false);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A budget of 100 tuples spills 20 runs, all merged at once. */
+    @Test public void testExternal() throws IOException, DbException, TransactionAbortedException {
+        createTable(2000, 1000);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        OrderBy sort = new OrderBy(0, true, scan, 100 * tupleBytes(scan.getTupleDesc()));
+        validateSort(sort, true);
+        scan = new SeqScan(tid, table.getId(), "");
+        validateSort(new OrderBy(0, false, scan, 100 * tupleBytes(scan.getTupleDesc())), false);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** More runs than merge at once are merged into longer runs first. */
+    @Test public void testMultiPassMerge() throws IOException, DbException, TransactionAbortedException {
+        createTable(3000, 200);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        OrderBy sort = new OrderBy(0, true, scan, 10 * tupleBytes(scan.getTupleDesc()));
+        sort.open();
+        assertTrue(sort.getSpilledRuns() < OrderBy.MAX_MERGE_FAN_IN);
+        sort.close();
+        validateSort(sort, true);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testOpenTwice() throws IOException, DbException, TransactionAbortedException {
+        createTable(500, 1000);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        OrderBy sort = new OrderBy(0, true, scan, 50 * tupleBytes(scan.getTupleDesc()));
+        validateSort(sort, true);
+        validateSort(sort, true);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Strings that share their first characters are ordered by their remaining ones. */
+    @Test public void testStringKeys() throws DbException, TransactionAbortedException {
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE});
+        List<Tuple> input = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        Random r = new Random(42);
+        String[] prefixes = {"", "a", "ab", "abcd", "abcde", "~~~~~"};
+        for (int i = 0; i < 1000; i++) {
+            String s = prefixes[r.nextInt(prefixes.length)] + (r.nextBoolean() ? "" : Integer.toString(r.nextInt(50)));
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(s, Type.STRING_LEN));
+            input.add(t);
+            expected.add(s);
+        }
+        Collections.sort(expected);
+
+        for (long budget : new long[]{OrderBy.DEFAULT_MEMORY_BUDGET, 40 * tupleBytes(td)}) {
+            OpIterator sort = new OrderBy(0, true, new TupleIterator(td, input), budget);
+            sort.open();
+            List<String> out = new ArrayList<>();
+            while (sort.hasNext()) {
+                out.add(((StringField) sort.next().getField(0)).getValue());
+            }
+            sort.close();
+            assertEquals(expected, out);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ParallelAggregateTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    // about 500 tuples of two INTs fit into a page, so this is enough pages for several tasks
+    private static final int ROWS = 60000;
+
+    /**
+     * Aggregates on one thread and on several, and checks that the results
+     * are the same, in the same order.
+     */
+    private void validate(HeapFile table, Aggregator.Op op, int gfield, Predicate filter)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        OpIterator serialChild = new SeqScan(tid, table.getId(), "");
+        OpIterator parallelChild = new SeqScan(tid, table.getId(), "");
+        if (filter != null) {
+            serialChild = new Filter(filter, serialChild);
+            parallelChild = new Filter(filter, parallelChild);
+        }
+        Aggregate serial = new Aggregate(serialChild, 1, gfield, op);
+        Aggregate parallel = new Aggregate(parallelChild, 1, gfield, op, 4);
+        assertEquals(SystemTestUtil.readAll(serial), SystemTestUtil.readAll(parallel));
+        assertEquals(1, serial.getTasks());
+        assertTrue(parallel.getTasks() > 1);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testGrouped() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, new ArrayList<>());
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            validate(table, op, 0, null);
+        }
+    }
+
+    @Test public void testUngrouped() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 100000, null, new ArrayList<>());
+        validate(table, Aggregator.Op.AVG, Aggregator.NO_GROUPING, null);
+        validate(table, Aggregator.Op.COUNT, Aggregator.NO_GROUPING, null);
+    }
+
+    @Test public void testFiltered() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, new ArrayList<>());
+        validate(table, Aggregator.Op.AVG, 0, new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300)));
+    }
+
+    /** Tables too small to split are aggregated on one thread. */
+    @Test public void testSmallTable() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 1000, 1000, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, 0, Aggregator.Op.SUM, 4);
+        SystemTestUtil.readAll(agg);
+        assertEquals(1, agg.getTasks());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelAggregateTest.class);
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.PushdownIterator;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PushdownTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+    private static final int MAX_VALUE = 100;
+
+    private static final List<Predicate> PREDICATES = Arrays.asList(
+            new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30)),
+            new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(70)));
+    private static final int[] FIELDS = {3, 0};
+
+    private static List<List<Integer>> expected(List<List<Integer>> tuples) {
+        List<List<Integer>> out = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) > 30 && t.get(2) <= 70) {
+                out.add(Arrays.asList(t.get(3), t.get(0)));
+            }
+        }
+        return out;
+    }
+
+    /** Reads the rest of an open iterator, checking that each tuple has a record id. */
+    private static List<List<Integer>> readRecords(DbFileIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> out = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertNotNull(t.getRecordId());
+            out.add(SystemTestUtil.tupleToList(t));
+        }
+        return out;
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan)) {
+            return true;
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && contains(child, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Test public void testHeapFilePushdown() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, ROWS, MAX_VALUE, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        DbFileIterator it = f.iterator(tid, PREDICATES, FIELDS);
+        it.open();
+        List<List<Integer>> first = readRecords(it);
+        assertEquals(expected(tuples), first);
+        it.rewind();
+        assertEquals(first, readRecords(it));
+        it.close();
+        assertFalse(it.hasNext());
+
+        // the files that don't override it filter their plain iterator
+        DbFileIterator wrapped = new PushdownIterator(f.iterator(tid), f.getTupleDesc(), PREDICATES, FIELDS);
+        wrapped.open();
+        assertEquals(first, readRecords(wrapped));
+        wrapped.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPageRanges() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, ROWS, MAX_VALUE, null, tuples);
+        assertTrue(f.numPages() > 2);
+        TransactionId tid = new TransactionId();
+
+        List<List<Integer>> all = new ArrayList<>();
+        for (int page = 0; page < f.numPages(); page += 2) {
+            SeqScan scan = new SeqScan(tid, f.getId(), "t", page, page + 2, PREDICATES, FIELDS);
+            assertEquals(2, scan.getTupleDesc().numFields());
+            assertEquals(f.getTupleDesc().getFieldName(3), scan.getTupleDesc().getFieldName(0));
+            all.addAll(SystemTestUtil.readAll(scan));
+        }
+        assertEquals(expected(tuples), all);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSeqScanMatchesFilter() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, ROWS, MAX_VALUE, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        OpIterator filtered = new SeqScan(tid, f.getId(), "t");
+        for (Predicate p : PREDICATES) {
+            filtered = new Filter(p, filtered);
+        }
+        List<List<Integer>> expected = SystemTestUtil.readAll(filtered);
+        // without a projection the scan returns whole tuples
+        assertEquals(expected, SystemTestUtil.readAll(new SeqScan(tid, f.getId(), "t", PREDICATES, null)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPlanner() throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        // SeqScan doesn't prefix field names with the table alias here, so the columns carry it
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, ROWS, MAX_VALUE, null, tuples, "t.c");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(f.getId()), new TableStats(f.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "30");
+        lp.addFilter("t.c2", Predicate.Op.LESS_THAN_OR_EQ, "70");
+        lp.addProjectField("t.c3", null);
+        lp.addProjectField("t.c0", null);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertFalse(contains(plan, Filter.class));
+        SeqScan scan = SystemTestUtil.findScan(plan);
+        assertEquals(2, scan.getPredicates().size());
+        assertArrayEquals(new int[]{0, 3}, scan.getFields());
+        assertEquals(expected(tuples), SystemTestUtil.readAll(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PushdownTest.class);
+    }
+}
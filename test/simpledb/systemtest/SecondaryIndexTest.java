@@ -0,0 +1,300 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 1 << 14;
+
+    private HeapFile table;
+    private List<List<Integer>> tuples;
+    private SecondaryIndex index;
+    private Map<String, TableStats> stats;
+
+    @Before public void createTable() throws IOException, DbException, TransactionAbortedException {
+        tuples = new ArrayList<>();
+        // SeqScan doesn't prefix field names with the table alias here, so the columns carry it
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, "t.c");
+        File file = File.createTempFile("index", ".idx");
+        file.deleteOnExit();
+        TransactionId tid = new TransactionId();
+        index = SecondaryIndex.create(tid, "t_c1", table.getId(), 1, file);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getCatalog().addIndex(index);
+        stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(table.getId()), new TableStats(table.getId(), 1000));
+    }
+
+    private List<List<Integer>> withField1(Predicate.Op op, int value) {
+        List<List<Integer>> out = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (new IntField(t.get(1)).compare(op, new IntField(value))) {
+                out.add(t);
+            }
+        }
+        return out;
+    }
+
+    /** @return the number of pages of the table tid has read */
+    private int pagesRead(TransactionId tid) {
+        int read = 0;
+        for (int pgNo = 0; pgNo < table.numPages(); pgNo++) {
+            if (Database.getBufferPool().holdsLock(tid, new HeapPageId(table.getId(), pgNo))) {
+                read++;
+            }
+        }
+        return read;
+    }
+
+    @Test public void testLookup() throws DbException, TransactionAbortedException {
+        assertTrue(index.getDistinctKeys() > ROWS / 2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 20; i++) {
+            int key = tuples.get(i * 97).get(1);
+            List<List<Integer>> actual = SystemTestUtil.readAll(index.iterator(tid,
+                    new IndexPredicate(Predicate.Op.EQUALS, new IntField(key))));
+            List<List<Integer>> expected = withField1(Predicate.Op.EQUALS, key);
+            assertEquals(expected.size(), actual.size());
+            assertTrue(actual.containsAll(expected));
+        }
+
+        // ranges come out in key order
+        List<List<Integer>> range = SystemTestUtil.readAll(index.iterator(tid,
+                new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(500))));
+        assertEquals(withField1(Predicate.Op.LESS_THAN, 500).size(), range.size());
+        for (int i = 1; i < range.size(); i++) {
+            assertTrue(range.get(i - 1).get(1) <= range.get(i).get(1));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Inserts and deletes through the buffer pool update the index in the same transaction. */
+    @Test public void testMaintainedByBufferPool() throws IOException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        IndexPredicate missing = new IndexPredicate(Predicate.Op.EQUALS, new IntField(MAX_VALUE + 5));
+        Tuple t = new Tuple(table.getTupleDesc());
+        for (int i = 0; i < COLUMNS; i++) {
+            t.setField(i, new IntField(i == 1 ? MAX_VALUE + 5 : i));
+        }
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        List<List<Integer>> found = SystemTestUtil.readAll(index.iterator(tid, missing));
+        assertEquals(1, found.size());
+        assertEquals(SystemTestUtil.tupleToList(t), found.get(0));
+
+        int key = tuples.get(0).get(1);
+        IndexPredicate existing = new IndexPredicate(Predicate.Op.EQUALS, new IntField(key));
+        DbFileIterator it = index.iterator(tid, existing);
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        assertEquals(withField1(Predicate.Op.EQUALS, key).size() - 1, SystemTestUtil.readAll(index.iterator(tid, existing)).size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the entries of the committed changes remain
+        tid = new TransactionId();
+        assertEquals(1, SystemTestUtil.readAll(index.iterator(tid, missing)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** An aborted insert that needs a new page of the table leaves neither the tuple nor its index entry. */
+    @Test public void testAbortedInsertIntoNewPage() throws IOException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        int pages = table.numPages();
+        IndexPredicate inserted = new IndexPredicate(Predicate.Op.EQUALS, new IntField(MAX_VALUE + 7));
+        int n = 0;
+        while (table.numPages() == pages) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            for (int i = 0; i < COLUMNS; i++) {
+                t.setField(i, new IntField(i == 1 ? MAX_VALUE + 7 : n));
+            }
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            n++;
+        }
+        assertEquals(n, SystemTestUtil.readAll(index.iterator(tid, inserted)).size());
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(0, SystemTestUtil.readAll(index.iterator(tid, inserted)).size());
+        assertEquals(tuples.size(), SystemTestUtil.readAll(table.iterator(tid)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A selective equality on the indexed field searches the index instead of scanning the table. */
+    @Test public void testPlannerUsesIndex() throws DbException, TransactionAbortedException, ParsingException {
+        int key = tuples.get(ROWS / 2).get(1);
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, String.valueOf(key));
+        lp.addFilter("t.c2", Predicate.Op.GREATER_THAN, "-1");
+        lp.addProjectField("*", null);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        SeqScan scan = SystemTestUtil.findScan(plan);
+        assertEquals(1, scan.getIndexField());
+        assertEquals(1, scan.getPredicates().size());
+        List<List<Integer>> expected = withField1(Predicate.Op.EQUALS, key);
+        SystemTestUtil.matchTuples(plan, expected);
+        assertTrue(table.numPages() > 50);
+        assertTrue("read " + pagesRead(tid) + " pages", pagesRead(tid) <= expected.size() * 2);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a range selects too many tuples to fetch them one page at a time
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.LESS_THAN, String.valueOf(MAX_VALUE / 2));
+        lp.addProjectField("*", null);
+        tid = new TransactionId();
+        assertEquals(-1, SystemTestUtil.findScan(lp.physicalPlan(tid, stats, false)).getIndexField());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A parallel plan doesn't split an index search into page ranges, which would drop its key predicate. */
+    @Test public void testParallelPlanKeepsIndexSearch() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        List<List<Integer>> large = new ArrayList<>();
+        HeapFile largeTable = SystemTestUtil.createRandomHeapFile(COLUMNS, 100000, MAX_VALUE, null, large, "t.c");
+        assertTrue(largeTable.numPages() >= LogicalPlan.PARALLEL_SCAN_PAGES);
+        File file = File.createTempFile("index", ".idx");
+        file.deleteOnExit();
+        TransactionId tid = new TransactionId();
+        Database.getCatalog().addIndex(SecondaryIndex.create(tid, "large_c1", largeTable.getId(), 1, file));
+        Database.getBufferPool().transactionComplete(tid);
+        String name = Database.getCatalog().getTableName(largeTable.getId());
+        stats.put(name, new TableStats(largeTable.getId(), 1000));
+
+        int key = large.get(0).get(1);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : large) {
+            if (t.get(1) == key) {
+                expected.add(t);
+            }
+        }
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.setParallelism(4);
+        lp.addScan(largeTable.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, String.valueOf(key));
+        lp.addProjectField("*", null);
+        tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertEquals(1, SystemTestUtil.findScan(plan).getIndexField());
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+
+        lp = new LogicalPlan();
+        lp.setParallelism(4);
+        lp.addScan(largeTable.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, String.valueOf(key));
+        lp.addAggregate("count", "t.c0", null);
+        lp.addProjectField("t.c0", "count");
+        tid = new TransactionId();
+        List<List<Integer>> count = new ArrayList<>();
+        count.add(Collections.singletonList(expected.size()));
+        SystemTestUtil.matchTuples(lp.physicalPlan(tid, stats, false), count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A small outer table is joined by searching the index of the inner table. */
+    @Test public void testIndexJoin() throws IOException, DbException, TransactionAbortedException,
+            ParsingException {
+        List<List<Integer>> outerTuples = new ArrayList<>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 1000, MAX_VALUE, null, outerTuples, "s.a");
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outer.getId(), "s");
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("s.a1", Predicate.Op.LESS_THAN, "200");
+        lp.addJoin("s.a0", "t.c1", Predicate.Op.EQUALS);
+        lp.addProjectField("*", null);
+
+        // the filter is estimated to select a handful of tuples
+        TableStats selective = new TableStats(outer.getId(), 1000) {
+            @Override
+            public int estimateTableCardinality(double selectivityFactor) {
+                return 5;
+            }
+        };
+        stats.put(Database.getCatalog().getTableName(outer.getId()), selective);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof IndexNestedLoopJoin);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> s : outerTuples) {
+            if (s.get(1) >= 200) {
+                continue;
+            }
+            for (List<Integer> t : withField1(Predicate.Op.EQUALS, s.get(0))) {
+                List<Integer> joined = new ArrayList<>(s);
+                joined.addAll(t);
+                expected.add(joined);
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testCreateIndexStatement() throws IOException, DbException, TransactionAbortedException {
+        // random table names may start with a digit, which isn't an SQL identifier
+        Database.getCatalog().addTable(table, "indexed");
+        new Parser().processNextStatement("CREATE INDEX indexed_c2 ON indexed (t.c2);");
+        SecondaryIndex created = Database.getCatalog().getIndex(table.getId(), 2);
+        assertNotNull(created);
+        assertEquals("indexed_c2", created.getName());
+
+        int key = tuples.get(7).get(2);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(2) == key) {
+                expected.add(t);
+            }
+        }
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> actual = SystemTestUtil.readAll(created.iterator(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(key))));
+        assertEquals(expected.size(), actual.size());
+        assertTrue(actual.containsAll(expected));
+        Database.getBufferPool().transactionComplete(tid);
+        new File(table.getFile().getPath() + ".indexed_c2.idx").delete();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
@@ -0,0 +1,123 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final JoinPredicate PRED = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    private SystemTestUtil.JoinTables tables;
+
+    private SortMergeJoin sortedHeapJoin(TransactionId tid) {
+        return new SortMergeJoin(PRED,
+                new OrderBy(0, true, tables.scan1(tid)), new OrderBy(0, true, tables.scan2(tid)));
+    }
+
+    private void validateJoin(OpIterator joinOp, TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        SystemTestUtil.matchTuples(joinOp, tables.expectedJoin(PRED));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Many duplicate keys on both sides. */
+    @Test public void testDuplicates()
+            throws IOException, DbException, TransactionAbortedException {
+        tables = SystemTestUtil.createRandomHeapFiles(COLUMNS, 300, 300, 50, "a", "b");
+        TransactionId tid = new TransactionId();
+        validateJoin(sortedHeapJoin(tid), tid);
+    }
+
+    @Test public void testNoMatch()
+            throws IOException, DbException, TransactionAbortedException {
+        tables = SystemTestUtil.createRandomHeapFiles(COLUMNS, 10, 10, 1 << 16, "a", "b");
+        TransactionId tid = new TransactionId();
+        validateJoin(sortedHeapJoin(tid), tid);
+    }
+
+    @Test public void testBTreeScans()
+            throws IOException, DbException, TransactionAbortedException {
+        tables = SystemTestUtil.createRandomBTreeFiles(COLUMNS, 2000, 1000, 1500, "a", "b");
+        TransactionId tid = new TransactionId();
+        validateJoin(new SortMergeJoin(PRED, tables.scan1(tid), tables.scan2(tid)), tid);
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        tables = SystemTestUtil.createRandomHeapFiles(COLUMNS, 200, 200, 30, "a", "b");
+        TransactionId tid = new TransactionId();
+        assertEquals(tables.expectedJoin(PRED).size(), SystemTestUtil.countWithRewind(sortedHeapJoin(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = DbException.class) public void testUnsortedInput()
+            throws IOException, DbException, TransactionAbortedException {
+        tables = SystemTestUtil.createRandomHeapFiles(COLUMNS, 1000, 1000, 1 << 16, "a", "b");
+        TransactionId tid = new TransactionId();
+        SortMergeJoin joinOp = new SortMergeJoin(PRED, tables.scan1(tid), tables.scan2(tid));
+        try {
+            joinOp.open();
+            while (joinOp.hasNext()) {
+                joinOp.next();
+            }
+        } finally {
+            joinOp.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** The planner merges B+ trees keyed on the join fields, and skips sorting the result on that key. */
+    @Test public void testPlannerUsesInterestingOrders()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        // SeqScan doesn't prefix field names with the table alias here, so the columns carry it
+        tables = SystemTestUtil.createRandomBTreeFiles(COLUMNS, 500, 500, 300, "t1.a", "t2.b");
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tables.table1.getId(), "t1");
+        lp.addScan(tables.table2.getId(), "t2");
+        lp.addJoin("t1.a0", "t2.b0", Predicate.Op.EQUALS);
+        lp.addProjectField("*", null);
+        lp.addOrderBy("t1.a0", true);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        OpIterator join = ((Operator) plan).getChildren()[0];
+        assertTrue(join instanceof SortMergeJoin);
+
+        plan.open();
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            int key = SystemTestUtil.tupleToList(t).get(0);
+            assertTrue(key >= last);
+            last = key;
+            count++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(tables.expectedJoin(PRED).size(), count);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SpillingAggregateTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private List<List<Integer>> tuples;
+    private HeapFile table;
+
+    private void createTable(int rows, int maxValue, String prefix) throws IOException {
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, maxValue, null, tuples, prefix);
+    }
+
+    /** The budget that holds the given number of INT groups. */
+    private static long groupsBudget(int groups) {
+        // matches the accounting of Aggregate
+        return groups * (Type.INT_TYPE.getLen() + 64L);
+    }
+
+    /** The result of aggregating the table without a memory bound. */
+    private List<List<Integer>> expected(TransactionId tid, Aggregator.Op op) throws DbException,
+            TransactionAbortedException {
+        Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, 0, op);
+        List<List<Integer>> out = new ArrayList<>();
+        agg.open();
+        while (agg.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(agg.next()));
+        }
+        agg.close();
+        assertEquals(0, agg.getSpilledPartitions());
+        return out;
+    }
+
+    @Test public void testSpill() throws IOException, DbException, TransactionAbortedException {
+        createTable(5000, 2000, "c");
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.MIN,
+                Aggregator.Op.MAX, Aggregator.Op.COUNT}) {
+            List<List<Integer>> expected = expected(tid, op);
+            Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, 0, op, 1, groupsBudget(200), false);
+            SystemTestUtil.matchTuples(agg, expected);
+            assertTrue(agg.getSpilledPartitions() > 1);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Partitions that don't fit are spilled again, until the deepest level aggregates them in memory. */
+    @Test public void testRecursiveSpill() throws IOException, DbException, TransactionAbortedException {
+        createTable(3000, 100000, "c");
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = expected(tid, Aggregator.Op.AVG);
+        Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, 0, Aggregator.Op.AVG, 1,
+                groupsBudget(5), false);
+        SystemTestUtil.matchTuples(agg, expected);
+        assertEquals(Aggregate.SPILL_PARTITIONS, agg.getSpilledPartitions());
+
+        // rewinding aggregates the spilled partitions again
+        agg.open();
+        agg.rewind();
+        int groups = 0;
+        while (agg.hasNext()) {
+            agg.next();
+            groups++;
+        }
+        agg.close();
+        assertEquals(expected.size(), groups);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Parallel aggregation that exceeds the budget falls back to spilling on one thread. */
+    @Test public void testParallelOverBudget() throws IOException, DbException, TransactionAbortedException {
+        createTable(60000, 20000, "c");
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = expected(tid, Aggregator.Op.SUM);
+        Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, 0, Aggregator.Op.SUM, 4,
+                groupsBudget(1000), false);
+        SystemTestUtil.matchTuples(agg, expected);
+        assertEquals(1, agg.getTasks());
+        assertTrue(agg.getSpilledPartitions() > 0);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSortedInput() throws IOException, DbException, TransactionAbortedException {
+        createTable(5000, 500, "c");
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = expected(tid, Aggregator.Op.SUM);
+        Aggregate agg = new Aggregate(new OrderBy(0, true, new SeqScan(tid, table.getId(), "")), 1, 0,
+                Aggregator.Op.SUM, 1, groupsBudget(1), true);
+        assertTrue(agg.isSortedInput());
+
+        List<List<Integer>> out = new ArrayList<>();
+        agg.open();
+        while (agg.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(agg.next()));
+        }
+        for (int i = 1; i < out.size(); i++) {
+            assertTrue(out.get(i - 1).get(0) < out.get(i).get(0));
+        }
+        agg.rewind();
+        SystemTestUtil.matchTuples(agg, expected);
+        agg.close();
+        assertEquals(expected.size(), out.size());
+        assertEquals(0, agg.getSpilledPartitions());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The planner aggregates B+ trees keyed on the group field one group at a time. */
+    @Test public void testPlannerStreamsSortedInput() throws IOException, DbException, TransactionAbortedException,
+            ParsingException {
+        tuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(COLUMNS, 2000, 300, null, tuples, 0);
+        // SeqScan doesn't prefix field names with the table alias here, so the columns carry it
+        BTreeFile tree = BTreeUtility.openBTreeFile(COLUMNS, "t.c", bf.getFile(), 0);
+
+        for (boolean sorted : new boolean[]{true, false}) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(tree.getId(), "t");
+            lp.addAggregate("sum", "t.c1", sorted ? "t.c0" : "t.c1");
+            lp.addProjectField(sorted ? "t.c0" : "t.c1", null);
+            lp.addProjectField("t.c1", "sum");
+
+            TransactionId tid = new TransactionId();
+            OpIterator plan = lp.physicalPlan(tid, new HashMap<>(), false);
+            Aggregate agg = (Aggregate) ((Operator) plan).getChildren()[0];
+            assertEquals(sorted, agg.isSortedInput());
+            Map<Integer, Integer> sums = new HashMap<>();
+            for (List<Integer> t : tuples) {
+                sums.merge(t.get(sorted ? 0 : 1), t.get(1), Integer::sum);
+            }
+            List<List<Integer>> expected = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> e : sums.entrySet()) {
+                expected.add(Arrays.asList(e.getKey(), e.getValue()));
+            }
+            SystemTestUtil.matchTuples(plan, expected);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SpillingAggregateTest.class);
+    }
+}
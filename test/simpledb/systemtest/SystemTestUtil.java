@@ -11,8 +11,12 @@ import java.util.UUID;
 import org.junit.Assert;
 
 import simpledb.common.*;
+import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -90,6 +94,74 @@ public class SystemTestUtil {
         return temp;
     }
 
+    /**
+     * Two random tables to join and the tuples that were written to them.
+     */
+    public static class JoinTables {
+        public final DbFile table1;
+        public final List<List<Integer>> tuples1;
+        public final DbFile table2;
+        public final List<List<Integer>> tuples2;
+
+        public JoinTables(DbFile table1, List<List<Integer>> tuples1, DbFile table2, List<List<Integer>> tuples2) {
+            this.table1 = table1;
+            this.tuples1 = tuples1;
+            this.table2 = table2;
+            this.tuples2 = tuples2;
+        }
+
+        public SeqScan scan1(TransactionId tid) {
+            return new SeqScan(tid, table1.getId(), "");
+        }
+
+        public SeqScan scan2(TransactionId tid) {
+            return new SeqScan(tid, table2.getId(), "");
+        }
+
+        /**
+         * @return the concatenations of a tuple of table1 and a tuple of table2 that satisfy all the predicates
+         */
+        public List<List<Integer>> expectedJoin(JoinPredicate... preds) {
+            List<List<Integer>> expected = new ArrayList<>();
+            for (List<Integer> t1 : tuples1) {
+                for (List<Integer> t2 : tuples2) {
+                    boolean matches = true;
+                    for (JoinPredicate p : preds) {
+                        matches &= new IntField(t1.get(p.getField1())).compare(p.getOperator(),
+                                new IntField(t2.get(p.getField2())));
+                    }
+                    if (matches) {
+                        List<Integer> out = new ArrayList<>(t1);
+                        out.addAll(t2);
+                        expected.add(out);
+                    }
+                }
+            }
+            return expected;
+        }
+    }
+
+    /** Creates two random heap files whose columns are named colPrefix1 + i and colPrefix2 + i. */
+    public static JoinTables createRandomHeapFiles(int columns, int rows1, int rows2, int maxValue,
+            String colPrefix1, String colPrefix2) throws IOException {
+        List<List<Integer>> tuples1 = new ArrayList<>();
+        HeapFile table1 = createRandomHeapFile(columns, rows1, maxValue, null, tuples1, colPrefix1);
+        List<List<Integer>> tuples2 = new ArrayList<>();
+        HeapFile table2 = createRandomHeapFile(columns, rows2, maxValue, null, tuples2, colPrefix2);
+        return new JoinTables(table1, tuples1, table2, tuples2);
+    }
+
+    /** Creates two random B+ tree files keyed on their first column, like {@link #createRandomHeapFiles}. */
+    public static JoinTables createRandomBTreeFiles(int columns, int rows1, int rows2, int maxValue,
+            String colPrefix1, String colPrefix2) throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples1 = new ArrayList<>();
+        BTreeFile bf1 = BTreeUtility.createRandomBTreeFile(columns, rows1, maxValue, null, tuples1, 0);
+        List<List<Integer>> tuples2 = new ArrayList<>();
+        BTreeFile bf2 = BTreeUtility.createRandomBTreeFile(columns, rows2, maxValue, null, tuples2, 0);
+        return new JoinTables(BTreeUtility.openBTreeFile(columns, colPrefix1, bf1.getFile(), 0), tuples1,
+                BTreeUtility.openBTreeFile(columns, colPrefix2, bf2.getFile(), 0), tuples2);
+    }
+
     public static List<Integer> tupleToList(Tuple tuple) {
         List<Integer> list = new ArrayList<>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {
@@ -151,6 +223,67 @@ public class SystemTestUtil {
         }
     }
 
+    /** @return all tuples of an operator, which is opened and closed */
+    public static List<List<Integer>> readAll(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> out = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(tupleToList(it.next()));
+        }
+        it.close();
+        return out;
+    }
+
+    /** @return all tuples of an iterator, which is opened and closed */
+    public static List<List<Integer>> readAll(DbFileIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> out = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(tupleToList(it.next()));
+        }
+        it.close();
+        return out;
+    }
+
+    /**
+     * Reads all tuples of an operator, rewinds it and reads them again, then closes it.
+     *
+     * @return the number of tuples, which must be the same both times
+     */
+    public static int countWithRewind(OpIterator it) throws DbException, TransactionAbortedException {
+        it.open();
+        int first = 0;
+        while (it.hasNext()) {
+            it.next();
+            first++;
+        }
+        it.rewind();
+        int second = 0;
+        while (it.hasNext()) {
+            it.next();
+            second++;
+        }
+        it.close();
+        Assert.assertEquals(first, second);
+        return first;
+    }
+
+    /** @return the first SeqScan of a plan, in depth-first order, or null */
+    public static SeqScan findScan(OpIterator plan) {
+        if (plan instanceof SeqScan) {
+            return (SeqScan) plan;
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                SeqScan scan = findScan(child);
+                if (scan != null) {
+                    return scan;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns number of bytes of RAM used by JVM after calling System.gc many times.
      * @return amount of RAM (in bytes) used by JVM
@@ -0,0 +1,184 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.BatchIterator;
+import simpledb.execution.BatchToRow;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.RowToBatch;
+import simpledb.execution.SeqScan;
+import simpledb.execution.VectorAggregate;
+import simpledb.execution.VectorFilter;
+import simpledb.execution.VectorHashJoin;
+import simpledb.execution.VectorProject;
+import simpledb.execution.VectorSeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the vectorized operators and the row-at-a-time ones on the same input
+ * and checks that they return the same tuples. Small batch capacities make
+ * the rows straddle many batch boundaries.
+ */
+public class VectorTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+    private static final int CAPACITY = 7;
+
+    @Test public void testScan() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new BatchToRow(new VectorSeqScan(tid, f.getId(), "", CAPACITY)), tuples);
+    }
+
+    @Test public void testFilter() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : Predicate.Op.values()) {
+            if (op == Predicate.Op.LIKE) {
+                continue;
+            }
+            Predicate p = new Predicate(1, op, new IntField(50));
+            List<List<Integer>> expected = SystemTestUtil.readAll(new Filter(p, new SeqScan(tid, f.getId(), "")));
+            SystemTestUtil.matchTuples(new BatchToRow(new VectorFilter(p,
+                    new VectorSeqScan(tid, f.getId(), "", CAPACITY))), expected);
+        }
+    }
+
+    /**
+     * Two filters in a row must only look at the rows selected by the first.
+     */
+    @Test public void testStackedFilters() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+        Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20));
+        Predicate p2 = new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(70));
+        List<List<Integer>> expected = SystemTestUtil.readAll(new Filter(p2, new Filter(p1, new SeqScan(tid, f.getId(), ""))));
+        SystemTestUtil.matchTuples(new BatchToRow(new VectorFilter(p2, new VectorFilter(p1,
+                new VectorSeqScan(tid, f.getId(), "", CAPACITY)))), expected);
+    }
+
+    @Test public void testStringFilter() throws DbException, TransactionAbortedException {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        List<Tuple> rows = new ArrayList<>();
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("s" + (i % 5), Type.STRING_LEN));
+            rows.add(t);
+            if (i % 5 == 3) {
+                expected.add(Arrays.asList(i));
+            }
+        }
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS, new StringField("s3", Type.STRING_LEN));
+        BatchIterator filtered = new VectorFilter(p, new RowToBatch(new TupleIterator(td, rows), CAPACITY));
+        SystemTestUtil.matchTuples(new BatchToRow(new VectorProject(Arrays.asList(0), filtered)), expected);
+    }
+
+    @Test public void testProject() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30));
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        List<List<Integer>> expected = SystemTestUtil.readAll(new Project(Arrays.asList(2, 0),
+                Arrays.asList(Type.INT_TYPE, Type.INT_TYPE), new Filter(p, scan)));
+        SystemTestUtil.matchTuples(new BatchToRow(new VectorProject(Arrays.asList(2, 0), new VectorFilter(p,
+                new VectorSeqScan(tid, f.getId(), "", CAPACITY)))), expected);
+    }
+
+    @Test public void testHashJoin() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1 = new ArrayList<>();
+        List<List<Integer>> t2 = new ArrayList<>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, t1);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(3, ROWS, 500, null, t2);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        List<List<Integer>> expected = SystemTestUtil.readAll(new HashEquiJoin(p, new SeqScan(tid, f1.getId(), ""),
+                new SeqScan(tid, f2.getId(), "")));
+        assertTrue(expected.size() > 0);
+        SystemTestUtil.matchTuples(new BatchToRow(new VectorHashJoin(p,
+                new VectorSeqScan(tid, f1.getId(), "", CAPACITY),
+                new VectorSeqScan(tid, f2.getId(), "", CAPACITY))), expected);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHashJoinRejectsNonEquals() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, 10, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        new VectorHashJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                new VectorSeqScan(tid, f.getId(), ""), new VectorSeqScan(tid, f.getId(), ""));
+    }
+
+    @Test public void testAggregate() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(60));
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            for (int gfield : new int[]{Aggregator.NO_GROUPING, 0}) {
+                List<List<Integer>> expected = SystemTestUtil.readAll(new Aggregate(new Filter(p,
+                        new SeqScan(tid, f.getId(), "")), 2, gfield, op));
+                SystemTestUtil.matchTuples(new BatchToRow(new VectorAggregate(new VectorFilter(p,
+                        new VectorSeqScan(tid, f.getId(), "", CAPACITY)), 2, gfield, op)), expected);
+            }
+        }
+    }
+
+    /**
+     * A vectorized plan can be fed by a row operator, and rewound through the adapters.
+     */
+    @Test public void testAdaptersRewind() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50));
+        List<List<Integer>> expected = SystemTestUtil.readAll(new Filter(p, new SeqScan(tid, f.getId(), "")));
+
+        OpIterator it = new BatchToRow(new VectorFilter(p, new RowToBatch(new SeqScan(tid, f.getId(), ""), CAPACITY)));
+        it.open();
+        List<List<Integer>> first = new ArrayList<>();
+        while (it.hasNext()) {
+            first.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.rewind();
+        List<List<Integer>> second = new ArrayList<>();
+        while (it.hasNext()) {
+            second.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        assertEquals(expected, first);
+        assertEquals(expected, second);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(VectorTest.class);
+    }
+}